@@ -443,6 +443,10 @@ public final class ConfigConverters {
 								ServerSocketSettings::withReuseAddress,
 								config.get(ofBoolean(), "reuseAddress",
 										defaultValue.hasReuseAddress() ? defaultValue.getReuseAddress() : null)))
+						.andThen(applyIfNotNull(
+								ServerSocketSettings::withReusePort,
+								config.get(ofBoolean(), "reusePort",
+										defaultValue.hasReusePort() ? defaultValue.getReusePort() : null)))
 						.apply(ServerSocketSettings.create(DEFAULT_BACKLOG));
 			}
 		};
@@ -485,6 +489,10 @@ public final class ConfigConverters {
 								SocketSettings::withImplReadBufferSize,
 								config.get(ofMemSize(), "implReadBufferSize",
 										defaultValue.hasReadBufferSize() ? defaultValue.getImplReadBufferSize() : null)))
+						.andThen(applyIfNotNull(
+								SocketSettings::withImplWriteCoalescing,
+								config.get(ofBoolean(), "implWriteCoalescing",
+										defaultValue.hasImplWriteCoalescing() ? defaultValue.getImplWriteCoalescing() : null)))
 						.apply(SocketSettings.create());
 			}
 		};
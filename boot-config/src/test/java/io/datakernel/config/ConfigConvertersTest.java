@@ -199,12 +199,14 @@ public class ConfigConvertersTest {
 	public void testServerSocketSettings() {
 		ServerSocketSettings expected = ServerSocketSettings.create(1)
 				.withReceiveBufferSize(MemSize.of(64))
-				.withReuseAddress(true);
+				.withReuseAddress(true)
+				.withReusePort(true);
 
 		ServerSocketSettings actual = Config.EMPTY.get(ofServerSocketSettings(), THIS, expected);
 		assertEquals(expected.getBacklog(), actual.getBacklog());
 		assertEquals(expected.getReceiveBufferSize(), actual.getReceiveBufferSize());
 		assertEquals(expected.getReuseAddress(), actual.getReuseAddress());
+		assertEquals(expected.getReusePort(), actual.getReusePort());
 	}
 
 	@Test
@@ -214,11 +216,13 @@ public class ConfigConvertersTest {
 				.withReuseAddress(false)
 				.withReceiveBufferSize(MemSize.of(256))
 				.withSendBufferSize(MemSize.of(512))
-				.withKeepAlive(true);
+				.withKeepAlive(true)
+				.withImplWriteCoalescing(true);
 
 		SocketSettings actual = Config.EMPTY.get(ofSocketSettings(), THIS, expected);
 
 		assertFalse(actual.hasReadBufferSize());
+		assertEquals(expected.getImplWriteCoalescing(), actual.getImplWriteCoalescing());
 
 		assertEquals(expected.getTcpNoDelay(), actual.getTcpNoDelay());
 		assertEquals(expected.getReuseAddress(), actual.getReuseAddress());
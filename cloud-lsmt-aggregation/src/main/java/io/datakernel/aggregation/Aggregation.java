@@ -23,6 +23,7 @@ import io.datakernel.aggregation.ot.AggregationStructure;
 import io.datakernel.codegen.ClassBuilder;
 import io.datakernel.codegen.DefiningClassLoader;
 import io.datakernel.common.Initializable;
+import io.datakernel.common.MemSize;
 import io.datakernel.datastream.StreamConsumer;
 import io.datakernel.datastream.StreamConsumerWithResult;
 import io.datakernel.datastream.StreamSupplier;
@@ -74,6 +75,8 @@ public class Aggregation implements IAggregation, Initializable<Aggregation>, Ev
 	public static final int DEFAULT_CHUNK_SIZE = 1_000_000;
 	public static final int DEFAULT_REDUCER_BUFFER_SIZE = StreamReducer.DEFAULT_BUFFER_SIZE;
 	public static final int DEFAULT_SORTER_ITEMS_IN_MEMORY = 1_000_000;
+	public static final int DEFAULT_SORTER_MERGE_FAN_IN = 64;
+	public static final int DEFAULT_SORTER_PARALLEL_RUNS = StreamSorter.DEFAULT_MAX_ACTIVE_RUNS;
 	public static final Duration DEFAULT_MAX_INCREMENTAL_RELOAD_PERIOD = Duration.ofMinutes(10);
 	public static final int DEFAULT_MAX_CHUNKS_TO_CONSOLIDATE = 1000;
 
@@ -90,9 +93,17 @@ public class Aggregation implements IAggregation, Initializable<Aggregation>, Ev
 	private int chunkSize = DEFAULT_CHUNK_SIZE;
 	private int reducerBufferSize = DEFAULT_REDUCER_BUFFER_SIZE;
 	private int sorterItemsInMemory = DEFAULT_SORTER_ITEMS_IN_MEMORY;
+	private int sorterMergeFanIn = DEFAULT_SORTER_MERGE_FAN_IN;
+	private boolean sorterCompression = true;
+	private boolean sorterMemoryMappedReads = false;
+	private int sorterParallelRuns = DEFAULT_SORTER_PARALLEL_RUNS;
+	@Nullable
+	private MemSize sorterMemory;
 	private Duration maxIncrementalReloadPeriod = DEFAULT_MAX_INCREMENTAL_RELOAD_PERIOD;
 	private boolean ignoreChunkReadingExceptions = false;
 	private int maxChunksToConsolidate = DEFAULT_MAX_CHUNKS_TO_CONSOLIDATE;
+	@Nullable
+	private MemSize flatAccumulatorsMemory;
 
 	// jmx
 
@@ -146,6 +157,47 @@ public class Aggregation implements IAggregation, Initializable<Aggregation>, Ev
 		return this;
 	}
 
+	public Aggregation withSorterMergeFanIn(int sorterMergeFanIn) {
+		this.sorterMergeFanIn = sorterMergeFanIn;
+		return this;
+	}
+
+	/**
+	 * Enables or disables LZ4 compression of temporary sort files, see {@link StreamSorterStorageImpl#withCompression}
+	 */
+	public Aggregation withSorterCompression(boolean sorterCompression) {
+		this.sorterCompression = sorterCompression;
+		return this;
+	}
+
+	/**
+	 * Makes uncompressed temporary sort files to be read from memory-mapped files,
+	 * see {@link StreamSorterStorageImpl#withMemoryMappedReads}
+	 */
+	public Aggregation withSorterMemoryMappedReads(boolean sorterMemoryMappedReads) {
+		this.sorterMemoryMappedReads = sorterMemoryMappedReads;
+		return this;
+	}
+
+	/**
+	 * Sets the number of runs which are sorted and written to temporary storage concurrently,
+	 * see {@link StreamSorter#withParallelRuns}
+	 */
+	public Aggregation withSorterParallelRuns(int sorterParallelRuns) {
+		checkArgument(sorterParallelRuns > 0, "Sorter parallel runs should be positive");
+		this.sorterParallelRuns = sorterParallelRuns;
+		return this;
+	}
+
+	/**
+	 * Limits estimated memory of records kept by a sorter, including runs which are being sorted and written.
+	 * Each run is spilled once it reaches its share of this limit, see {@link StreamSorter#withMemoryLimit}
+	 */
+	public Aggregation withSorterMemory(@Nullable MemSize sorterMemory) {
+		this.sorterMemory = sorterMemory;
+		return this;
+	}
+
 	public Aggregation withMaxIncrementalReloadPeriod(Duration maxIncrementalReloadPeriod) {
 		this.maxIncrementalReloadPeriod = maxIncrementalReloadPeriod;
 		return this;
@@ -161,6 +213,16 @@ public class Aggregation implements IAggregation, Initializable<Aggregation>, Ev
 		return this;
 	}
 
+	/**
+	 * Enables accumulation of consumed records in flat primitive arrays, limited by the given memory budget.
+	 * Whenever the budget is exhausted, accumulated records are spilled as sorted chunks.
+	 * Aggregations with non-primitive keys or measures keep using a map of accumulators.
+	 */
+	public Aggregation withFlatAccumulators(@Nullable MemSize memoryBudget) {
+		this.flatAccumulatorsMemory = memoryBudget;
+		return this;
+	}
+
 	public Aggregation withTemporarySortDir(Path temporarySortDir) {
 		this.temporarySortDir = temporarySortDir;
 		return this;
@@ -253,6 +315,15 @@ public class Aggregation implements IAggregation, Initializable<Aggregation>, Ev
 				keyFunction,
 				aggregate, chunkSize, classLoader);
 
+		if (flatAccumulatorsMemory != null) {
+			if (FlatAggregationTable.isSupported(structure, measures)) {
+				groupReducer.withFlatTable(FlatAggregationTable.create(structure, inputClass, recordClass,
+						keyFields, measures, aggregate, flatAccumulatorsMemory, classLoader));
+			} else {
+				logger.debug("Flat accumulators are not supported by aggregation {}, using map of accumulators", this);
+			}
+		}
+
 		return StreamConsumerWithResult.of(groupReducer,
 				groupReducer.getResult()
 						.map(chunks -> AggregationDiff.of(new HashSet<>(chunks))));
@@ -282,24 +353,77 @@ public class Aggregation implements IAggregation, Initializable<Aggregation>, Ev
 	 */
 	@Override
 	public <T> StreamSupplier<T> query(AggregationQuery query, Class<T> outputClass, DefiningClassLoader queryClassLoader) {
+		checkArgument(iterate(queryClassLoader, Objects::nonNull, ClassLoader::getParent).anyMatch(isEqual(classLoader)),
+				"Unrelated queryClassLoader");
+		return queryChunks(query, findChunks(query), outputClass, queryClassLoader);
+	}
+
+	/**
+	 * Returns the chunks which would be read by {@link #query} for the specified query.
+	 */
+	public List<AggregationChunk> findChunks(AggregationQuery query) {
+		List<String> fields = getMeasures().stream().filter(query.getMeasures()::contains).collect(toList());
+		return state.findChunks(query.getPredicate(), fields);
+	}
+
+	/**
+	 * Returns a {@link StreamSupplier} of the records retrieved from the given chunks of this aggregation,
+	 * so that the chunks which are already found by {@link #findChunks(AggregationQuery)} are not looked up again.
+	 *
+	 * @param chunks subset of chunks, as returned by {@link #findChunks(AggregationQuery)}
+	 * @return supplier that streams query results
+	 */
+	public <T> StreamSupplier<T> queryChunks(AggregationQuery query, List<AggregationChunk> chunks,
+			Class<T> outputClass, DefiningClassLoader queryClassLoader) {
 		checkArgument(iterate(queryClassLoader, Objects::nonNull, ClassLoader::getParent).anyMatch(isEqual(classLoader)),
 				"Unrelated queryClassLoader");
 		List<String> fields = getMeasures().stream().filter(query.getMeasures()::contains).collect(toList());
-		List<AggregationChunk> allChunks = state.findChunks(query.getPredicate(), fields);
 		return consolidatedSupplier(query.getKeys(),
-				fields, outputClass, query.getPredicate(), allChunks, queryClassLoader);
+				fields, outputClass, query.getPredicate(), chunks, queryClassLoader, aggregationChunkStorage, stats);
+	}
+
+	/**
+	 * Returns a {@link StreamSupplier} of the records retrieved from the given chunks of this aggregation.
+	 * <p>
+	 * Unlike {@link #query}, this method does not access the state of aggregation, so it may be called
+	 * from an eventloop other than the eventloop of this aggregation,
+	 * provided that the chunk storage belongs to the calling eventloop.
+	 *
+	 * @param chunks       subset of chunks, as returned by {@link #findChunks(AggregationQuery)}
+	 * @param chunkStorage storage to read chunks from
+	 * @return supplier that streams query results, sorted by query keys
+	 */
+	public <T> StreamSupplier<T> queryChunks(AggregationQuery query, List<AggregationChunk> chunks,
+			Class<T> outputClass, DefiningClassLoader queryClassLoader, AggregationChunkStorage<?> chunkStorage) {
+		checkArgument(iterate(queryClassLoader, Objects::nonNull, ClassLoader::getParent).anyMatch(isEqual(classLoader)),
+				"Unrelated queryClassLoader");
+		List<String> fields = getMeasures().stream().filter(query.getMeasures()::contains).collect(toList());
+		return consolidatedSupplier(query.getKeys(),
+				fields, outputClass, query.getPredicate(), chunks, queryClassLoader,
+				(AggregationChunkStorage<Object>) chunkStorage, new AggregationStats());
 	}
 
 	private <T> StreamSupplier<T> sortStream(StreamSupplier<T> unsortedStream, Class<T> resultClass,
-			List<String> allKeys, List<String> measures, DefiningClassLoader classLoader) {
+			List<String> allKeys, List<String> measures, DefiningClassLoader classLoader, AggregationStats stats) {
 		Comparator<T> keyComparator = createKeyComparator(resultClass, allKeys, classLoader);
 		BinarySerializer<T> binarySerializer = createBinarySerializer(structure, resultClass,
 				getKeys(), measures, classLoader);
 		Path sortDir = nullToSupplier(temporarySortDir, this::createSortDir);
-		StreamSupplier<T> stream = unsortedStream
-				.transformWith(StreamSorter.create(
-						StreamSorterStorageImpl.create(executor, binarySerializer, sortDir),
-						Function.identity(), keyComparator, false, sorterItemsInMemory));
+		StreamSorter<T, T> sorter = StreamSorter.create(
+				StreamSorterStorageImpl.create(executor, binarySerializer, sortDir)
+						.withCompression(sorterCompression)
+						.withMemoryMappedReads(sorterMemoryMappedReads)
+						.withStats(stats.sorterStorage),
+				Function.identity(), keyComparator, false, sorterItemsInMemory)
+				.withParallelRuns(executor, sorterParallelRuns)
+				.withMergeFanIn(sorterMergeFanIn);
+		if (sorterMemory != null) {
+			// besides the run being filled, up to sorterParallelRuns + 1 runs are being sorted and written
+			long runMemory = Math.max(1, sorterMemory.toLong() / (sorterParallelRuns + 2));
+			int recordSize = estimateRecordSize(getKeys(), measures);
+			sorter = sorter.withMemoryLimit(MemSize.of(runMemory), $ -> recordSize);
+		}
+		StreamSupplier<T> stream = unsortedStream.transformWith(sorter);
 
 		stream.getEndOfStream()
 				.whenComplete(($, e) -> {
@@ -324,7 +448,7 @@ public class Aggregation implements IAggregation, Initializable<Aggregation>, Ev
 		Class<Object> resultClass = createRecordClass(structure, getKeys(), measures, classLoader);
 
 		StreamSupplier<Object> consolidatedSupplier = consolidatedSupplier(getKeys(), measures, resultClass, AggregationPredicates.alwaysTrue(),
-				chunksToConsolidate, classLoader);
+				chunksToConsolidate, classLoader, aggregationChunkStorage, stats);
 		AggregationChunker chunker = AggregationChunker.create(
 				structure, measures, resultClass,
 				createPartitionPredicate(resultClass, getPartitioningKey(), classLoader),
@@ -376,7 +500,8 @@ public class Aggregation implements IAggregation, Initializable<Aggregation>, Ev
 			List<String> measures, Class<R> resultClass,
 			AggregationPredicate where,
 			List<AggregationChunk> individualChunks,
-			DefiningClassLoader queryClassLoader) {
+			DefiningClassLoader queryClassLoader,
+			AggregationChunkStorage<Object> chunkStorage, AggregationStats stats) {
 		QueryPlan plan = createPlan(individualChunks, measures);
 
 		logger.info("Query plan for {} in aggregation {}: {}", queryKeys, this, plan);
@@ -391,15 +516,16 @@ public class Aggregation implements IAggregation, Initializable<Aggregation>, Ev
 					sequence.getChunksFields(),
 					classLoader);
 
-			StreamSupplier<S> stream = sequenceStream(where, sequence.getChunks(), sequenceClass, queryClassLoader);
+			StreamSupplier<S> stream = sequenceStream(where, sequence.getChunks(), sequence.getQueryFields(), sequenceClass,
+					queryClassLoader, chunkStorage);
 			if (!alreadySorted) {
-				stream = sortStream(stream, sequenceClass, queryKeys, sequence.getQueryFields(), classLoader);
+				stream = sortStream(stream, sequenceClass, queryKeys, sequence.getQueryFields(), classLoader, stats);
 			}
 
 			sequenceStreams.add(new SequenceStream(stream, sequence.getQueryFields(), sequenceClass));
 		}
 
-		return mergeSequences(queryKeys, measures, resultClass, sequenceStreams, queryClassLoader);
+		return mergeSequences(queryKeys, measures, resultClass, sequenceStreams, queryClassLoader, stats);
 	}
 
 	static final class SequenceStream<S> {
@@ -416,7 +542,7 @@ public class Aggregation implements IAggregation, Initializable<Aggregation>, Ev
 
 	private <S, R, K extends Comparable> StreamSupplier<R> mergeSequences(List<String> queryKeys, List<String> measures,
 			Class<R> resultClass, List<SequenceStream<S>> sequences,
-			DefiningClassLoader classLoader) {
+			DefiningClassLoader classLoader, AggregationStats stats) {
 		if (sequences.size() == 1 && new HashSet<>(queryKeys).equals(new HashSet<>(getKeys()))) {
 			/*
 			If there is only one sequential supplier and all aggregation keys are requested, then there is no need for
@@ -459,8 +585,8 @@ public class Aggregation implements IAggregation, Initializable<Aggregation>, Ev
 	}
 
 	private <T> StreamSupplier<T> sequenceStream(AggregationPredicate where,
-			List<AggregationChunk> individualChunks, Class<T> sequenceClass,
-			DefiningClassLoader queryClassLoader) {
+			List<AggregationChunk> individualChunks, List<String> queryFields, Class<T> sequenceClass,
+			DefiningClassLoader queryClassLoader, AggregationChunkStorage<Object> chunkStorage) {
 		Iterator<AggregationChunk> chunkIterator = individualChunks.iterator();
 		return StreamSupplier.concat(new Iterator<StreamSupplier<T>>() {
 			@Override
@@ -471,15 +597,17 @@ public class Aggregation implements IAggregation, Initializable<Aggregation>, Ev
 			@Override
 			public StreamSupplier<T> next() {
 				AggregationChunk chunk = chunkIterator.next();
-				return chunkReaderWithFilter(where, chunk, sequenceClass, queryClassLoader);
+				return chunkReaderWithFilter(where, chunk, queryFields, sequenceClass, queryClassLoader, chunkStorage);
 			}
 		});
 	}
 
 	private <T> StreamSupplier<T> chunkReaderWithFilter(AggregationPredicate where, AggregationChunk chunk,
-			Class<T> chunkRecordClass, DefiningClassLoader queryClassLoader) {
+			List<String> queryFields, Class<T> chunkRecordClass, DefiningClassLoader queryClassLoader,
+			AggregationChunkStorage<Object> chunkStorage) {
+		List<String> readFields = chunk.getMeasures().stream().filter(queryFields::contains).collect(toList());
 		return StreamSupplier.ofPromise(
-				aggregationChunkStorage.read(structure, chunk.getMeasures(), chunkRecordClass, chunk.getChunkId(), classLoader))
+				chunkStorage.read(structure, chunk.getMeasures(), readFields, chunkRecordClass, chunk.getChunkId(), classLoader))
 				.transformWith(where != AggregationPredicates.alwaysTrue() ?
 						StreamFilter.create(
 								createPredicate(chunkRecordClass, where, queryClassLoader)) :
@@ -542,6 +670,29 @@ public class Aggregation implements IAggregation, Initializable<Aggregation>, Ev
 		}
 	}
 
+	/**
+	 * Roughly estimates heap size of a record with given fields, assuming that
+	 * a field of reference type points to a small object of its own
+	 */
+	private int estimateRecordSize(List<String> keys, List<String> measures) {
+		int size = 16;
+		for (String key : keys) {
+			size += estimateFieldSize(structure.getKeyType(key).getInternalDataType());
+		}
+		for (String measure : measures) {
+			size += estimateFieldSize(structure.getMeasureType(measure).getInternalDataType());
+		}
+		return (size + 7) & ~7;
+	}
+
+	private static int estimateFieldSize(Class<?> type) {
+		if (type == long.class || type == double.class) return 8;
+		if (type == int.class || type == float.class) return 4;
+		if (type == short.class || type == char.class) return 2;
+		if (type == byte.class || type == boolean.class) return 1;
+		return 8 + 32;
+	}
+
 	private void deleteSortDirSilent(Path sortDir) {
 		try {
 			Files.delete(sortDir);
@@ -580,6 +731,17 @@ public class Aggregation implements IAggregation, Initializable<Aggregation>, Ev
 		this.chunkSize = chunkSize;
 	}
 
+	@JmxAttribute
+	@Nullable
+	public String getFlatAccumulatorsMemory() {
+		return flatAccumulatorsMemory != null ? flatAccumulatorsMemory.format() : null;
+	}
+
+	@JmxAttribute
+	public void setFlatAccumulatorsMemory(@Nullable String flatAccumulatorsMemory) {
+		this.flatAccumulatorsMemory = flatAccumulatorsMemory != null ? MemSize.valueOf(flatAccumulatorsMemory) : null;
+	}
+
 	@JmxAttribute
 	public int getSorterItemsInMemory() {
 		return sorterItemsInMemory;
@@ -590,6 +752,58 @@ public class Aggregation implements IAggregation, Initializable<Aggregation>, Ev
 		this.sorterItemsInMemory = sorterItemsInMemory;
 	}
 
+	@JmxAttribute
+	public int getSorterMergeFanIn() {
+		return sorterMergeFanIn;
+	}
+
+	@JmxAttribute
+	public void setSorterMergeFanIn(int sorterMergeFanIn) {
+		this.sorterMergeFanIn = sorterMergeFanIn;
+	}
+
+	@JmxAttribute
+	public boolean isSorterCompression() {
+		return sorterCompression;
+	}
+
+	@JmxAttribute
+	public void setSorterCompression(boolean sorterCompression) {
+		this.sorterCompression = sorterCompression;
+	}
+
+	@JmxAttribute
+	public boolean isSorterMemoryMappedReads() {
+		return sorterMemoryMappedReads;
+	}
+
+	@JmxAttribute
+	public void setSorterMemoryMappedReads(boolean sorterMemoryMappedReads) {
+		this.sorterMemoryMappedReads = sorterMemoryMappedReads;
+	}
+
+	@JmxAttribute
+	public int getSorterParallelRuns() {
+		return sorterParallelRuns;
+	}
+
+	@JmxAttribute
+	public void setSorterParallelRuns(int sorterParallelRuns) {
+		checkArgument(sorterParallelRuns > 0, "Sorter parallel runs should be positive");
+		this.sorterParallelRuns = sorterParallelRuns;
+	}
+
+	@JmxAttribute
+	@Nullable
+	public String getSorterMemory() {
+		return sorterMemory != null ? sorterMemory.format() : null;
+	}
+
+	@JmxAttribute
+	public void setSorterMemory(@Nullable String sorterMemory) {
+		this.sorterMemory = sorterMemory != null ? MemSize.valueOf(sorterMemory) : null;
+	}
+
 	@JmxAttribute
 	public boolean isIgnoreChunkReadingExceptions() {
 		return ignoreChunkReadingExceptions;
@@ -16,6 +16,8 @@
 
 package io.datakernel.aggregation;
 
+import org.jetbrains.annotations.Nullable;
+
 import java.util.ArrayList;
 import java.util.List;
 import java.util.Objects;
@@ -28,7 +30,15 @@ public class AggregationChunk {
 			List<String> fields,
 			PrimaryKey minPrimaryKey, PrimaryKey maxPrimaryKey,
 			int count) {
-		return new AggregationChunk(chunkId, fields, minPrimaryKey, maxPrimaryKey, count);
+		return new AggregationChunk(chunkId, fields, minPrimaryKey, maxPrimaryKey, count, null);
+	}
+
+	public static AggregationChunk create(Object chunkId,
+			List<String> fields,
+			PrimaryKey minPrimaryKey, PrimaryKey maxPrimaryKey,
+			int count,
+			@Nullable ChunkZoneMap zoneMap) {
+		return new AggregationChunk(chunkId, fields, minPrimaryKey, maxPrimaryKey, count, zoneMap);
 	}
 
 	private final Object chunkId;
@@ -36,16 +46,20 @@ public class AggregationChunk {
 	private final PrimaryKey minPrimaryKey;
 	private final PrimaryKey maxPrimaryKey;
 	private final int count;
+	@Nullable
+	private final ChunkZoneMap zoneMap;
 
 	private AggregationChunk(Object chunkId,
 			List<String> measures,
 			PrimaryKey minPrimaryKey, PrimaryKey maxPrimaryKey,
-			int count) {
+			int count,
+			@Nullable ChunkZoneMap zoneMap) {
 		this.chunkId = chunkId;
 		this.measures = measures;
 		this.minPrimaryKey = minPrimaryKey;
 		this.maxPrimaryKey = maxPrimaryKey;
 		this.count = count;
+		this.zoneMap = zoneMap;
 	}
 
 	public Object getChunkId() {
@@ -68,6 +82,11 @@ public class AggregationChunk {
 		return count;
 	}
 
+	@Nullable
+	public ChunkZoneMap getZoneMap() {
+		return zoneMap;
+	}
+
 	@Override
 	public boolean equals(Object o) {
 		if (this == o) return true;
@@ -16,16 +16,17 @@
 
 package io.datakernel.aggregation;
 
+import io.datakernel.aggregation.ChunkZoneMap.Zone;
+import io.datakernel.aggregation.util.BloomFilter;
 import io.datakernel.codec.StructuredCodec;
 import io.datakernel.codec.StructuredInput;
 import io.datakernel.codec.StructuredOutput;
 import io.datakernel.common.parse.ParseException;
 
-import java.util.ArrayList;
-import java.util.List;
-import java.util.Set;
+import java.util.*;
 
 import static io.datakernel.codec.StructuredCodecs.STRING_CODEC;
+import static java.util.Collections.emptyMap;
 
 public class AggregationChunkCodec implements StructuredCodec<AggregationChunk> {
 	private static final StructuredCodec<List<String>> MEASURES_CODEC = STRING_CODEC.ofList();
@@ -34,24 +35,38 @@ public class AggregationChunkCodec implements StructuredCodec<AggregationChunk>
 	public static final String MAX = "max";
 	public static final String COUNT = "count";
 	public static final String MEASURES = "measures";
+	public static final String ZONES = "zones";
 
 	private final ChunkIdCodec<Object> chunkIdCodec;
 	private final StructuredCodec<PrimaryKey> primaryKeyCodec;
 	private final Set<String> allowedMeasures;
+	private final Map<String, StructuredCodec<Object>> keyCodecs;
 
 	@SuppressWarnings("unchecked")
 	private AggregationChunkCodec(ChunkIdCodec<?> chunkIdCodec,
 			StructuredCodec<PrimaryKey> primaryKeyCodec,
-			Set<String> allowedMeasures) {
+			Set<String> allowedMeasures,
+			Map<String, ? extends StructuredCodec<?>> keyCodecs) {
 		this.chunkIdCodec = (ChunkIdCodec<Object>) chunkIdCodec;
 		this.primaryKeyCodec = primaryKeyCodec;
 		this.allowedMeasures = allowedMeasures;
+		this.keyCodecs = (Map<String, StructuredCodec<Object>>) keyCodecs;
 	}
 
 	public static AggregationChunkCodec create(ChunkIdCodec<?> chunkIdCodec,
 			StructuredCodec<PrimaryKey> primaryKeyCodec,
 			Set<String> allowedMeasures) {
-		return new AggregationChunkCodec(chunkIdCodec, primaryKeyCodec, allowedMeasures);
+		return new AggregationChunkCodec(chunkIdCodec, primaryKeyCodec, allowedMeasures, emptyMap());
+	}
+
+	/**
+	 * Creates a codec which also encodes zone maps of chunks, using given internal codecs of keys
+	 */
+	public static AggregationChunkCodec create(ChunkIdCodec<?> chunkIdCodec,
+			StructuredCodec<PrimaryKey> primaryKeyCodec,
+			Set<String> allowedMeasures,
+			Map<String, ? extends StructuredCodec<?>> keyCodecs) {
+		return new AggregationChunkCodec(chunkIdCodec, primaryKeyCodec, allowedMeasures, keyCodecs);
 	}
 
 	@Override
@@ -67,7 +82,49 @@ public class AggregationChunkCodec implements StructuredCodec<AggregationChunk>
 			out.writeInt(chunk.getCount());
 			out.writeKey(MEASURES);
 			MEASURES_CODEC.encode(out, chunk.getMeasures());
+			ChunkZoneMap zoneMap = chunk.getZoneMap();
+			if (zoneMap != null && !keyCodecs.isEmpty()) {
+				out.writeKey(ZONES);
+				encodeZoneMap(out, zoneMap);
+			}
+		});
+	}
+
+	private void encodeZoneMap(StructuredOutput out, ChunkZoneMap zoneMap) {
+		out.writeObject(() -> {
+			for (Map.Entry<String, Zone> entry : zoneMap.getZones().entrySet()) {
+				StructuredCodec<Object> keyCodec = keyCodecs.get(entry.getKey());
+				if (keyCodec == null) continue;
+				Zone zone = entry.getValue();
+				out.writeKey(entry.getKey());
+				out.writeTuple(() -> {
+					keyCodec.encode(out, zone.getMin());
+					keyCodec.encode(out, zone.getMax());
+					BloomFilter bloomFilter = zone.getBloomFilter();
+					if (bloomFilter != null) {
+						out.writeBytes(bloomFilter.getBytes());
+					}
+				});
+			}
+		});
+	}
+
+	private ChunkZoneMap decodeZoneMap(StructuredInput in) throws ParseException {
+		Map<String, Zone> zones = new LinkedHashMap<>();
+		in.readObject(() -> {
+			while (in.hasNext()) {
+				String key = in.readKey();
+				StructuredCodec<Object> keyCodec = keyCodecs.get(key);
+				if (keyCodec == null) throw new ParseException("Unknown key: " + key);
+				zones.put(key, in.readTuple($ -> {
+					Object min = keyCodec.decode(in);
+					Object max = keyCodec.decode(in);
+					BloomFilter bloomFilter = in.hasNext() ? BloomFilter.ofBytes(in.readBytes()) : null;
+					return Zone.of(min, max, bloomFilter);
+				}));
+			}
 		});
+		return ChunkZoneMap.of(zones);
 	}
 
 	@Override
@@ -85,7 +142,12 @@ public class AggregationChunkCodec implements StructuredCodec<AggregationChunk>
 			List<String> measures = MEASURES_CODEC.decode(in);
 			List<String> invalidMeasures = getInvalidMeasures(measures);
 			if (!invalidMeasures.isEmpty()) throw new ParseException("Unknown fields: " + invalidMeasures);
-			return AggregationChunk.create(id, measures, from, to, count);
+			ChunkZoneMap zoneMap = null;
+			if (in.hasNext()) {
+				in.readKey(ZONES);
+				zoneMap = decodeZoneMap(in);
+			}
+			return AggregationChunk.create(id, measures, from, to, count, zoneMap);
 		});
 	}
 
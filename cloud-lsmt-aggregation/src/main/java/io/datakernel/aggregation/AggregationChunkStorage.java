@@ -41,6 +41,21 @@ public interface AggregationChunkStorage<C> extends IdGenerator<C> {
 	<T> Promise<StreamSupplier<T>> read(AggregationStructure aggregation, List<String> fields,
 			Class<T> recordClass, C chunkId, DefiningClassLoader classLoader);
 
+	/**
+	 * Creates a {@code StreamSupplier} that streams records contained in the chunk,
+	 * only {@code readFields} are required to be set in streamed records.
+	 * Storages which are able to decode a subset of fields may skip reading the rest of chunk fields.
+	 *
+	 * @param fields      fields of chunk record
+	 * @param readFields  subset of chunk fields which need to be read
+	 * @param recordClass class of chunk record
+	 * @param chunkId     id of chunk
+	 */
+	default <T> Promise<StreamSupplier<T>> read(AggregationStructure aggregation, List<String> fields, List<String> readFields,
+			Class<T> recordClass, C chunkId, DefiningClassLoader classLoader) {
+		return read(aggregation, fields, recordClass, chunkId, classLoader);
+	}
+
 	/**
 	 * Creates a {@code StreamConsumer} that persists streamed records.
 	 * The chunk to write is determined by {@code aggregationId} and {@code id}.
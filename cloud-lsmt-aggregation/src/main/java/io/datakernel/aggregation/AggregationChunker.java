@@ -84,6 +84,7 @@ public final class AggregationChunker<C, T> extends ForwardingStreamConsumer<T>
 		private final int chunkSize;
 		private final PartitionPredicate<T> partitionPredicate;
 		private StreamDataAcceptor<T> dataAcceptor;
+		private ChunkZoneMap.Collector<T> zoneMapCollector;
 
 		private T first;
 		private T last;
@@ -103,7 +104,8 @@ public final class AggregationChunker<C, T> extends ForwardingStreamConsumer<T>
 									fields,
 									PrimaryKey.ofObject(first, aggregation.getKeys()),
 									PrimaryKey.ofObject(last, aggregation.getKeys()),
-									count))
+									count,
+									zoneMapCollector.build()))
 					.whenComplete(result::trySet);
 			getAcknowledgement().whenException(result::trySetException);
 		}
@@ -119,12 +121,15 @@ public final class AggregationChunker<C, T> extends ForwardingStreamConsumer<T>
 			});
 		}
 
+		@SuppressWarnings("unchecked")
 		@Override
 		public void accept(T item) {
 			if (first == null) {
 				first = item;
+				zoneMapCollector = ChunkZoneMap.collector(aggregation, (Class<T>) item.getClass(), chunkSize, classLoader);
 			}
 			last = item;
+			zoneMapCollector.accept(item);
 			dataAcceptor.accept(item);
 			if (++count == chunkSize || (partitionPredicate != null && !partitionPredicate.isSamePartition(last, item))) {
 				if (!switched) {
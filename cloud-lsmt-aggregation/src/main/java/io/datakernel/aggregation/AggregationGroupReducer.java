@@ -25,11 +25,13 @@ import io.datakernel.datastream.StreamDataAcceptor;
 import io.datakernel.datastream.StreamSupplier;
 import io.datakernel.promise.Promise;
 import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import java.util.ArrayList;
 import java.util.HashMap;
+import java.util.Iterator;
 import java.util.List;
 import java.util.Map;
 import java.util.function.Function;
@@ -37,6 +39,11 @@ import java.util.function.Function;
 public final class AggregationGroupReducer<C, T, K extends Comparable> extends AbstractStreamConsumer<T> implements StreamDataAcceptor<T> {
 	private static final Logger logger = LoggerFactory.getLogger(AggregationGroupReducer.class);
 
+	/**
+	 * Maximum number of flushes in progress, the consumer is suspended once it is reached
+	 */
+	public static final int MAX_ACTIVE_FLUSHES = 3;
+
 	private final AggregationChunkStorage<C> storage;
 	private final AggregationStructure aggregation;
 	private final List<String> measures;
@@ -50,6 +57,9 @@ public final class AggregationGroupReducer<C, T, K extends Comparable> extends A
 
 	private final HashMap<K, Object> map = new HashMap<>();
 
+	@Nullable
+	private FlatAggregationTable table;
+
 	public AggregationGroupReducer(@NotNull AggregationChunkStorage<C> storage,
 			@NotNull AggregationStructure aggregation, @NotNull List<String> measures,
 			@NotNull Class<T> recordClass, @NotNull PartitionPredicate<T> partitionPredicate,
@@ -67,12 +77,27 @@ public final class AggregationGroupReducer<C, T, K extends Comparable> extends A
 		this.classLoader = classLoader;
 	}
 
+	/**
+	 * Accumulates records in the given flat table instead of a map of accumulators.
+	 * The table is spilled as a sorted batch of chunks whenever its memory budget is exhausted.
+	 */
+	public AggregationGroupReducer<C, T, K> withFlatTable(@Nullable FlatAggregationTable table) {
+		this.table = table;
+		return this;
+	}
+
 	public Promise<List<AggregationChunk>> getResult() {
 		return chunksCollector.get();
 	}
 
 	@Override
 	public void accept(T item) {
+		if (table != null) {
+			if (table.accumulate(item)) {
+				doFlush();
+			}
+			return;
+		}
 		K key = keyFunction.apply(item);
 		Object accumulator = map.get(key);
 		if (accumulator != null) {
@@ -94,10 +119,15 @@ public final class AggregationGroupReducer<C, T, K extends Comparable> extends A
 
 	@SuppressWarnings("unchecked")
 	private void doFlush() {
-		if (map.isEmpty())
+		if (table != null) {
+			if (table.isEmpty())
+				return;
+			doFlush(StreamSupplier.ofIterator((Iterator<T>) table.drain()));
 			return;
+		}
 
-		suspendOrResume();
+		if (map.isEmpty())
+			return;
 
 		List<Map.Entry<K, Object>> entryList = new ArrayList<>(map.entrySet());
 		map.clear();
@@ -113,7 +143,10 @@ public final class AggregationGroupReducer<C, T, K extends Comparable> extends A
 			list.add((T) entry.getValue());
 		}
 
-		StreamSupplier<T> supplier = StreamSupplier.ofIterable(list);
+		doFlush(StreamSupplier.ofIterable(list));
+	}
+
+	private void doFlush(StreamSupplier<T> supplier) {
 		AggregationChunker<C, T> chunker = AggregationChunker.create(aggregation, measures, recordClass,
 				partitionPredicate, storage, classLoader, chunkSize);
 
@@ -122,10 +155,11 @@ public final class AggregationGroupReducer<C, T, K extends Comparable> extends A
 						.then($ -> chunker.getResult()),
 				List::addAll)
 				.whenResult($ -> suspendOrResume());
+		suspendOrResume();
 	}
 
 	private void suspendOrResume() {
-		if (chunksCollector.getActivePromises() > 2) {
+		if (chunksCollector.getActivePromises() >= MAX_ACTIVE_FLUSHES) {
 			logger.trace("Suspend group reduce: {}", this);
 			getSupplier().suspend();
 		} else {
@@ -151,7 +185,7 @@ public final class AggregationGroupReducer<C, T, K extends Comparable> extends A
 	}
 
 	public int getBufferSize() {
-		return map.size();
+		return table != null ? table.size() : map.size();
 	}
 
 	@Override
@@ -160,7 +194,7 @@ public final class AggregationGroupReducer<C, T, K extends Comparable> extends A
 				"keys=" + aggregation.getKeys() +
 				"measures=" + measures +
 				", chunkSize=" + chunkSize +
-				", map.size=" + map.size() +
+				", bufferSize=" + getBufferSize() +
 				'}';
 	}
 }
@@ -1537,7 +1537,7 @@ public class AggregationPredicates {
 	}
 
 	@SuppressWarnings("unchecked")
-	private static Object toInternalValue(Map<String, FieldType> fields, String key, Object value) {
+	static Object toInternalValue(Map<String, FieldType> fields, String key, Object value) {
 		return fields.containsKey(key) ? fields.get(key).toInternalValue(value) : value;
 	}
 
@@ -18,6 +18,7 @@ package io.datakernel.aggregation;
 
 import io.datakernel.aggregation.AggregationPredicates.RangeScan;
 import io.datakernel.aggregation.RangeTree.Segment;
+import io.datakernel.aggregation.fieldtype.FieldType;
 import io.datakernel.aggregation.ot.AggregationDiff;
 import io.datakernel.aggregation.ot.AggregationStructure;
 import io.datakernel.ot.OTState;
@@ -37,7 +38,7 @@ import static java.util.Collections.emptyList;
 import static java.util.Collections.unmodifiableMap;
 
 /**
- * Represents aggregation metadata. Stores chunks in an index (represented by an array of {@link RangeTree}) for efficient search.
+ * Represents aggregation metadata. Stores chunks in an index (represented by an array of {@link IntervalTree}) for efficient search.
  * Provides methods for managing index, querying for chunks by key, searching for chunks that are available for consolidation.
  */
 public final class AggregationState implements OTState<AggregationDiff> {
@@ -46,7 +47,7 @@ public final class AggregationState implements OTState<AggregationDiff> {
 	private final AggregationStructure aggregation;
 
 	private final Map<Object, AggregationChunk> chunks = new LinkedHashMap<>();
-	private RangeTree<PrimaryKey, AggregationChunk>[] prefixRanges;
+	private IntervalTree<PrimaryKey, AggregationChunk>[] prefixRanges;
 
 	private static final Comparator<AggregationChunk> MIN_KEY_ASCENDING_COMPARATOR = Comparator.comparing(AggregationChunk::getMinPrimaryKey);
 
@@ -83,7 +84,7 @@ public final class AggregationState implements OTState<AggregationDiff> {
 						"\n chunks: " + toLimitedString(chunks.keySet(), 100));
 
 		for (int size = 0; size <= aggregation.getKeys().size(); size++) {
-			RangeTree<PrimaryKey, AggregationChunk> index = prefixRanges[size];
+			IntervalTree<PrimaryKey, AggregationChunk> index = prefixRanges[size];
 
 			PrimaryKey lower = chunk.getMinPrimaryKey().prefix(size);
 			PrimaryKey upper = chunk.getMaxPrimaryKey().prefix(size);
@@ -99,7 +100,7 @@ public final class AggregationState implements OTState<AggregationDiff> {
 						"\n chunks: " + toLimitedString(chunks.keySet(), 100));
 
 		for (int size = 0; size <= aggregation.getKeys().size(); size++) {
-			RangeTree<PrimaryKey, AggregationChunk> index = prefixRanges[size];
+			IntervalTree<PrimaryKey, AggregationChunk> index = prefixRanges[size];
 
 			PrimaryKey lower = chunk.getMinPrimaryKey().prefix(size);
 			PrimaryKey upper = chunk.getMaxPrimaryKey().prefix(size);
@@ -109,12 +110,22 @@ public final class AggregationState implements OTState<AggregationDiff> {
 
 	@SuppressWarnings("unchecked")
 	void initIndex() {
-		prefixRanges = new RangeTree[aggregation.getKeys().size() + 1];
+		prefixRanges = new IntervalTree[aggregation.getKeys().size() + 1];
 		for (int size = 0; size <= aggregation.getKeys().size(); size++) {
-			prefixRanges[size] = RangeTree.create();
+			prefixRanges[size] = size == 0 ?
+					IntervalTree.createWithLongKeys(key -> 0L) :
+					size == 1 && isIntegral(aggregation.getKeyType(aggregation.getKeys().get(0))) ?
+							IntervalTree.createWithLongKeys(key -> ((Number) key.get(0)).longValue()) :
+							IntervalTree.create();
 		}
 	}
 
+	private static boolean isIntegral(FieldType<?> keyType) {
+		Class<?> type = keyType.getInternalDataType();
+		return type == int.class || type == long.class || type == short.class || type == byte.class ||
+				type == Integer.class || type == Long.class || type == Short.class || type == Byte.class;
+	}
+
 	@Override
 	public void init() {
 		initIndex();
@@ -128,7 +139,7 @@ public final class AggregationState implements OTState<AggregationDiff> {
 	public Set<AggregationChunk> findOverlappingChunks() {
 		int minOverlaps = 2;
 		Set<AggregationChunk> result = new HashSet<>();
-		RangeTree<PrimaryKey, AggregationChunk> tree = prefixRanges[aggregation.getKeys().size()];
+		IntervalTree<PrimaryKey, AggregationChunk> tree = prefixRanges[aggregation.getKeys().size()];
 		for (Map.Entry<PrimaryKey, Segment<AggregationChunk>> segmentEntry : tree.getSegments().entrySet()) {
 			Segment<AggregationChunk> segment = segmentEntry.getValue();
 			int overlaps = getNumberOfOverlaps(segment);
@@ -144,7 +155,7 @@ public final class AggregationState implements OTState<AggregationDiff> {
 		return findChunksGroupWithMostOverlaps(prefixRanges[aggregation.getKeys().size()]);
 	}
 
-	private static List<AggregationChunk> findChunksGroupWithMostOverlaps(RangeTree<PrimaryKey, AggregationChunk> tree) {
+	private static List<AggregationChunk> findChunksGroupWithMostOverlaps(RangeIndex<PrimaryKey, AggregationChunk> tree) {
 		int maxOverlaps = 2;
 		List<AggregationChunk> result = new ArrayList<>();
 		for (Map.Entry<PrimaryKey, Segment<AggregationChunk>> segmentEntry : tree.getSegments().entrySet()) {
@@ -232,10 +243,10 @@ public final class AggregationState implements OTState<AggregationDiff> {
 	private static class PickedChunks {
 		private final PickingStrategy strategy;
 		@Nullable
-		private final RangeTree<PrimaryKey, AggregationChunk> partitionTree;
+		private final RangeIndex<PrimaryKey, AggregationChunk> partitionTree;
 		private final List<AggregationChunk> chunks;
 
-		public PickedChunks(PickingStrategy strategy, @Nullable RangeTree<PrimaryKey, AggregationChunk> partitionTree,
+		public PickedChunks(PickingStrategy strategy, @Nullable RangeIndex<PrimaryKey, AggregationChunk> partitionTree,
 				List<AggregationChunk> chunks) {
 			this.strategy = strategy;
 			this.partitionTree = partitionTree;
@@ -309,13 +320,13 @@ public final class AggregationState implements OTState<AggregationDiff> {
 	}
 
 	public List<AggregationChunk> findChunksForConsolidationHotSegment(int maxChunks) {
-		RangeTree<PrimaryKey, AggregationChunk> tree = prefixRanges[aggregation.getKeys().size()];
+		IntervalTree<PrimaryKey, AggregationChunk> tree = prefixRanges[aggregation.getKeys().size()];
 		List<AggregationChunk> chunks = findChunksGroupWithMostOverlaps(tree);
 		return processSelection(chunks, maxChunks, tree, PickingStrategy.HOT_SEGMENT);
 	}
 
 	private static List<AggregationChunk> processSelection(List<AggregationChunk> chunks, int maxChunks,
-			RangeTree<PrimaryKey, AggregationChunk> partitionTree,
+			RangeIndex<PrimaryKey, AggregationChunk> partitionTree,
 			PickingStrategy strategy) {
 		if (chunks.isEmpty() || chunks.size() == maxChunks) {
 			logChunksAndStrategy(chunks, strategy);
@@ -360,7 +371,7 @@ public final class AggregationState implements OTState<AggregationDiff> {
 		return chunks.subList(0, maxChunks);
 	}
 
-	private static boolean expandRange(RangeTree<PrimaryKey, AggregationChunk> tree, Set<AggregationChunk> chunks) {
+	private static boolean expandRange(RangeIndex<PrimaryKey, AggregationChunk> tree, Set<AggregationChunk> chunks) {
 		PrimaryKey minKey = null;
 		PrimaryKey maxKey = null;
 
@@ -385,7 +396,7 @@ public final class AggregationState implements OTState<AggregationDiff> {
 		return chunks.addAll(chunksForRange);
 	}
 
-	private static void expandRange(RangeTree<PrimaryKey, AggregationChunk> tree, Set<AggregationChunk> chunks, int maxChunks) {
+	private static void expandRange(RangeIndex<PrimaryKey, AggregationChunk> tree, Set<AggregationChunk> chunks, int maxChunks) {
 		boolean expand = chunks.size() < maxChunks;
 
 		while (expand) {
@@ -394,7 +405,7 @@ public final class AggregationState implements OTState<AggregationDiff> {
 		}
 	}
 
-	private static List<AggregationChunk> expandRange(RangeTree<PrimaryKey, AggregationChunk> tree,
+	private static List<AggregationChunk> expandRange(RangeIndex<PrimaryKey, AggregationChunk> tree,
 			List<AggregationChunk> chunks, int maxChunks) {
 		Set<AggregationChunk> chunkSet = new HashSet<>(chunks);
 		expandRange(tree, chunkSet, maxChunks);
@@ -403,7 +414,7 @@ public final class AggregationState implements OTState<AggregationDiff> {
 
 	public List<ConsolidationDebugInfo> getConsolidationDebugInfo() {
 		List<ConsolidationDebugInfo> infos = new ArrayList<>();
-		RangeTree<PrimaryKey, AggregationChunk> tree = prefixRanges[aggregation.getKeys().size()];
+		IntervalTree<PrimaryKey, AggregationChunk> tree = prefixRanges[aggregation.getKeys().size()];
 
 		for (Map.Entry<PrimaryKey, Segment<AggregationChunk>> segmentEntry : tree.getSegments().entrySet()) {
 			PrimaryKey key = segmentEntry.getKey();
@@ -481,12 +492,17 @@ public final class AggregationState implements OTState<AggregationDiff> {
 		Set<String> requestedFields = new HashSet<>(fields);
 
 		RangeScan rangeScan = toRangeScan(predicate, aggregation.getKeys(), aggregation.getKeyTypes());
+		AggregationPredicate simplified = predicate.simplify();
 
 		List<AggregationChunk> chunks = new ArrayList<>();
 		for (AggregationChunk chunk : rangeQuery(rangeScan.getFrom(), rangeScan.getTo())) {
 			if (intersection(new HashSet<>(chunk.getMeasures()), requestedFields).isEmpty())
 				continue;
 
+			ChunkZoneMap zoneMap = chunk.getZoneMap();
+			if (zoneMap != null && !zoneMap.mayMatch(simplified, aggregation.getKeyTypes()))
+				continue;
+
 			chunks.add(chunk);
 		}
 
@@ -496,7 +512,7 @@ public final class AggregationState implements OTState<AggregationDiff> {
 	private List<AggregationChunk> rangeQuery(PrimaryKey minPrimaryKey, PrimaryKey maxPrimaryKey) {
 		checkArgument(minPrimaryKey.size() == maxPrimaryKey.size(), "Sizes of min primary key and max primary key should match");
 		int size = minPrimaryKey.size();
-		RangeTree<PrimaryKey, AggregationChunk> index = prefixRanges[size];
+		IntervalTree<PrimaryKey, AggregationChunk> index = prefixRanges[size];
 		return new ArrayList<>(index.getRange(minPrimaryKey, maxPrimaryKey));
 	}
 
@@ -1,5 +1,6 @@
 package io.datakernel.aggregation;
 
+import io.datakernel.datastream.processor.StreamSorterStorageImpl;
 import io.datakernel.datastream.stats.StreamStats;
 import io.datakernel.datastream.stats.StreamStatsBasic;
 import io.datakernel.jmx.api.JmxAttribute;
@@ -10,6 +11,7 @@ public class AggregationStats {
 	final StreamStatsBasic<?> mergeMapOutput = StreamStats.basic();
 	final StreamStatsBasic<?> mergeReducerInput = StreamStats.basic();
 	final StreamStatsBasic<?> mergeReducerOutput = StreamStats.basic();
+	final StreamSorterStorageImpl.Stats sorterStorage = new StreamSorterStorageImpl.Stats();
 
 	@JmxAttribute
 	public StreamStatsBasic getMergeReducerInput() {
@@ -30,4 +32,9 @@ public class AggregationStats {
 	public StreamStatsBasic getMergeMapOutput() {
 		return mergeMapOutput;
 	}
+
+	@JmxAttribute
+	public StreamSorterStorageImpl.Stats getSorterStorage() {
+		return sorterStorage;
+	}
 }
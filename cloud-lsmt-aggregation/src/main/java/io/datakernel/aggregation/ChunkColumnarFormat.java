@@ -0,0 +1,364 @@
+/*
+ * Copyright (C) 2015-2019 SoftIndex LLC.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package io.datakernel.aggregation;
+
+import io.datakernel.aggregation.fieldtype.FieldType;
+import io.datakernel.aggregation.ot.AggregationStructure;
+import io.datakernel.bytebuf.ByteBuf;
+import io.datakernel.bytebuf.ByteBufPool;
+import io.datakernel.codegen.ClassBuilder;
+import io.datakernel.codegen.DefiningClassLoader;
+import io.datakernel.common.parse.ParseException;
+import io.datakernel.serializer.BinaryInput;
+import io.datakernel.serializer.BinarySerializer;
+import net.jpountz.lz4.LZ4Compressor;
+import net.jpountz.lz4.LZ4Exception;
+import net.jpountz.lz4.LZ4FastDecompressor;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+
+import static io.datakernel.aggregation.Utils.createBinarySerializer;
+import static io.datakernel.aggregation.Utils.createRecordClass;
+import static io.datakernel.codegen.Expressions.*;
+import static io.datakernel.common.Preconditions.checkArgument;
+import static java.nio.charset.StandardCharsets.UTF_8;
+import static java.util.Collections.emptyList;
+import static java.util.Collections.emptyMap;
+import static java.util.Collections.singletonList;
+import static java.util.Collections.singletonMap;
+
+/**
+ * Columnar layout of aggregation chunk files.
+ * <p>
+ * A chunk is split into blocks of records. Inside a block every key and every measure
+ * is stored as a separate, independently LZ4-compressed column, so that a reader
+ * may fetch and decode only the columns it needs. The file ends with a footer
+ * which describes column names and the sizes of every column of every block:
+ * <pre>
+ * [block 0: column 0 | column 1 | ... ] ... [block N] [footer] [footer length: int] [magic: int]
+ * </pre>
+ */
+public final class ChunkColumnarFormat {
+	public static final int MAGIC = 0x444B4343; // "DKCC"
+	public static final int VERSION = 1;
+	public static final int TRAILER_SIZE = 4 + 4;
+
+	public static final ParseException CORRUPTED_FOOTER = new ParseException(ChunkColumnarFormat.class, "Columnar chunk footer is corrupted");
+
+	private ChunkColumnarFormat() {
+	}
+
+	public static List<String> columns(AggregationStructure aggregation, List<String> fields) {
+		List<String> columns = new ArrayList<>(aggregation.getKeys());
+		columns.addAll(fields);
+		return columns;
+	}
+
+	public static final class Block {
+		private final int count;
+		private final int[] compressedSizes;
+		private final int[] rawSizes;
+		private long offset;
+
+		public Block(int count, int[] compressedSizes, int[] rawSizes) {
+			this.count = count;
+			this.compressedSizes = compressedSizes;
+			this.rawSizes = rawSizes;
+		}
+
+		public int getCount() {
+			return count;
+		}
+
+		public int getCompressedSize(int column) {
+			return compressedSizes[column];
+		}
+
+		public int getRawSize(int column) {
+			return rawSizes[column];
+		}
+
+		public long getOffset() {
+			return offset;
+		}
+
+		public long getColumnOffset(int column) {
+			long result = offset;
+			for (int i = 0; i < column; i++) {
+				result += compressedSizes[i];
+			}
+			return result;
+		}
+
+		public long getSize() {
+			long result = 0;
+			for (int compressedSize : compressedSizes) {
+				result += compressedSize;
+			}
+			return result;
+		}
+	}
+
+	public static final class Footer {
+		private final List<String> columns;
+		private final List<Block> blocks;
+
+		public Footer(List<String> columns, List<Block> blocks) {
+			this.columns = columns;
+			this.blocks = blocks;
+			long offset = 0;
+			for (Block block : blocks) {
+				block.offset = offset;
+				offset += block.getSize();
+			}
+		}
+
+		public List<String> getColumns() {
+			return columns;
+		}
+
+		public List<Block> getBlocks() {
+			return blocks;
+		}
+
+		public ByteBuf encode() {
+			List<byte[]> names = new ArrayList<>(columns.size());
+			int size = varIntSize(VERSION) + varIntSize(columns.size()) + varIntSize(blocks.size()) + TRAILER_SIZE;
+			for (String column : columns) {
+				byte[] bytes = column.getBytes(UTF_8);
+				names.add(bytes);
+				size += varIntSize(bytes.length) + bytes.length;
+			}
+			for (Block block : blocks) {
+				size += varIntSize(block.count);
+				for (int i = 0; i < columns.size(); i++) {
+					size += varIntSize(block.compressedSizes[i]) + varIntSize(block.rawSizes[i]);
+				}
+			}
+			ByteBuf buf = ByteBufPool.allocate(size);
+			buf.writeVarInt(VERSION);
+			buf.writeVarInt(columns.size());
+			for (byte[] bytes : names) {
+				buf.writeVarInt(bytes.length);
+				buf.write(bytes);
+			}
+			buf.writeVarInt(blocks.size());
+			for (Block block : blocks) {
+				buf.writeVarInt(block.count);
+				for (int i = 0; i < columns.size(); i++) {
+					buf.writeVarInt(block.compressedSizes[i]);
+					buf.writeVarInt(block.rawSizes[i]);
+				}
+			}
+			int footerSize = buf.readRemaining();
+			buf.writeInt(footerSize);
+			buf.writeInt(MAGIC);
+			return buf;
+		}
+
+		public static Footer decode(ByteBuf buf) throws ParseException {
+			try {
+				if (buf.readVarInt() != VERSION) throw CORRUPTED_FOOTER;
+				int columnsCount = buf.readVarInt();
+				List<String> columns = new ArrayList<>(columnsCount);
+				for (int i = 0; i < columnsCount; i++) {
+					int size = buf.readVarInt();
+					if (size > buf.readRemaining()) throw CORRUPTED_FOOTER;
+					byte[] bytes = new byte[size];
+					buf.read(bytes);
+					columns.add(new String(bytes, UTF_8));
+				}
+				int blocksCount = buf.readVarInt();
+				List<Block> blocks = new ArrayList<>(blocksCount);
+				for (int i = 0; i < blocksCount; i++) {
+					int count = buf.readVarInt();
+					int[] compressedSizes = new int[columnsCount];
+					int[] rawSizes = new int[columnsCount];
+					for (int j = 0; j < columnsCount; j++) {
+						compressedSizes[j] = buf.readVarInt();
+						rawSizes[j] = buf.readVarInt();
+					}
+					blocks.add(new Block(count, compressedSizes, rawSizes));
+				}
+				if (buf.readRemaining() != 0) throw CORRUPTED_FOOTER;
+				return new Footer(columns, blocks);
+			} catch (IndexOutOfBoundsException | NegativeArraySizeException | IllegalStateException e) {
+				throw CORRUPTED_FOOTER;
+			}
+		}
+	}
+
+	private static int varIntSize(int value) {
+		return value < 0 ? 5 : 1 + (31 - Integer.numberOfLeadingZeros(value | 1)) / 7;
+	}
+
+	/**
+	 * Reads footer size from the trailer in the last {@link #TRAILER_SIZE} bytes of the buffer.
+	 *
+	 * @return footer size, or -1 if the buffer does not end with a columnar chunk trailer
+	 */
+	public static int readFooterSize(ByteBuf tail) {
+		if (tail.readRemaining() < TRAILER_SIZE) return -1;
+		byte[] array = tail.array();
+		int pos = tail.tail() - TRAILER_SIZE;
+		int footerSize = readInt(array, pos);
+		int magic = readInt(array, pos + 4);
+		return magic == MAGIC && footerSize >= 0 ? footerSize : -1;
+	}
+
+	private static int readInt(byte[] array, int pos) {
+		return (array[pos] & 0xFF) << 24
+				| (array[pos + 1] & 0xFF) << 16
+				| (array[pos + 2] & 0xFF) << 8
+				| (array[pos + 3] & 0xFF);
+	}
+
+	/**
+	 * Compresses a single column, the column is stored as is if it is not compressible
+	 */
+	static ByteBuf compressColumn(LZ4Compressor compressor, ByteBuf column) {
+		int rawSize = column.readRemaining();
+		ByteBuf buf = ByteBufPool.allocate(compressor.maxCompressedLength(rawSize));
+		int compressedSize = compressor.compress(column.array(), column.head(), rawSize, buf.array(), 0, buf.writeRemaining());
+		if (compressedSize >= rawSize) {
+			System.arraycopy(column.array(), column.head(), buf.array(), 0, rawSize);
+			compressedSize = rawSize;
+		}
+		buf.tail(compressedSize);
+		return buf;
+	}
+
+	static ByteBuf decompressColumn(LZ4FastDecompressor decompressor, ByteBuf column, int rawSize) throws ParseException {
+		if (column.readRemaining() == rawSize) return column;
+		ByteBuf buf = ByteBufPool.allocate(rawSize);
+		try {
+			int read = decompressor.decompress(column.array(), column.head(), buf.array(), 0, rawSize);
+			if (read != column.readRemaining()) {
+				buf.recycle();
+				throw new ParseException(ChunkColumnarFormat.class, "Column is corrupted");
+			}
+		} catch (LZ4Exception e) {
+			buf.recycle();
+			throw new ParseException(ChunkColumnarFormat.class, "Column is corrupted", e);
+		} finally {
+			column.recycle();
+		}
+		buf.tail(rawSize);
+		return buf;
+	}
+
+	/**
+	 * Creates serializers which write a single column out of a record of given class
+	 */
+	static <T> List<BinarySerializer<T>> createColumnEncoders(AggregationStructure aggregation, Class<T> recordClass,
+			List<String> fields, DefiningClassLoader classLoader) {
+		List<BinarySerializer<T>> encoders = new ArrayList<>();
+		for (String key : aggregation.getKeys()) {
+			encoders.add(createBinarySerializer(aggregation, recordClass, singletonList(key), emptyList(), classLoader));
+		}
+		for (String field : fields) {
+			encoders.add(createBinarySerializer(aggregation, recordClass, emptyList(), singletonList(field), classLoader));
+		}
+		return encoders;
+	}
+
+	public interface ColumnSetter {
+		void set(Object record, Object column);
+	}
+
+	/**
+	 * Assembles records out of decompressed columns of a block.
+	 * <p>
+	 * The first column is decoded directly into new records,
+	 * every other column is decoded into a small holder object and then copied into a record.
+	 */
+	public static final class BlockDecoder<T> {
+		private final List<String> columns;
+		private final BinarySerializer<T> firstColumn;
+		private final List<BinarySerializer<Object>> columnSerializers = new ArrayList<>();
+		private final List<ColumnSetter> columnSetters = new ArrayList<>();
+
+		@SuppressWarnings("unchecked")
+		private BlockDecoder(AggregationStructure aggregation, Class<T> recordClass, List<String> columns,
+				DefiningClassLoader classLoader) {
+			checkArgument(!columns.isEmpty(), "No columns to decode");
+			this.columns = columns;
+			this.firstColumn = createColumnSerializer(aggregation, recordClass, columns.get(0), classLoader);
+			for (String column : columns.subList(1, columns.size())) {
+				Map<String, FieldType> keys = aggregation.getKeyTypes().containsKey(column) ?
+						singletonMap(column, aggregation.getKeyTypes().get(column)) : emptyMap();
+				Map<String, FieldType> fields = keys.isEmpty() ?
+						singletonMap(column, aggregation.getMeasureTypes().get(column)) : emptyMap();
+				Class<Object> holderClass = createRecordClass(keys, fields, classLoader);
+				columnSerializers.add(createColumnSerializer(aggregation, holderClass, column, classLoader));
+				columnSetters.add(ClassBuilder.create(classLoader, ColumnSetter.class)
+						.withClassKey(recordClass, holderClass, column)
+						.withMethod("set",
+								set(property(cast(arg(0), recordClass), column),
+										property(cast(arg(1), holderClass), column)))
+						.buildClassAndCreateNewInstance());
+			}
+		}
+
+		public static <T> BlockDecoder<T> create(AggregationStructure aggregation, Class<T> recordClass,
+				List<String> columns, DefiningClassLoader classLoader) {
+			return new BlockDecoder<>(aggregation, recordClass, columns, classLoader);
+		}
+
+		public List<String> getColumns() {
+			return columns;
+		}
+
+		/**
+		 * Decodes records of a block
+		 *
+		 * @param count   number of records in a block
+		 * @param columns decompressed columns, in the order of {@link #getColumns()}
+		 */
+		@SuppressWarnings("unchecked")
+		public List<T> decode(int count, List<ByteBuf> columns) {
+			Object[] records = new Object[count];
+			BinaryInput in = new BinaryInput(columns.get(0).array(), columns.get(0).head());
+			for (int i = 0; i < count; i++) {
+				records[i] = firstColumn.decode(in);
+			}
+			for (int c = 0; c < columnSerializers.size(); c++) {
+				ByteBuf column = columns.get(c + 1);
+				BinarySerializer<Object> serializer = columnSerializers.get(c);
+				ColumnSetter setter = columnSetters.get(c);
+				in = new BinaryInput(column.array(), column.head());
+				for (int i = 0; i < count; i++) {
+					setter.set(records[i], serializer.decode(in));
+				}
+			}
+			List<T> result = new ArrayList<>(count);
+			for (Object record : records) {
+				result.add((T) record);
+			}
+			return result;
+		}
+
+		private static <R> BinarySerializer<R> createColumnSerializer(AggregationStructure aggregation, Class<R> recordClass,
+				String column, DefiningClassLoader classLoader) {
+			return aggregation.getKeyTypes().containsKey(column) ?
+					createBinarySerializer(aggregation, recordClass, singletonList(column), emptyList(), classLoader) :
+					createBinarySerializer(aggregation, recordClass, emptyList(), singletonList(column), classLoader);
+		}
+	}
+}
@@ -0,0 +1,199 @@
+/*
+ * Copyright (C) 2015-2019 SoftIndex LLC.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package io.datakernel.aggregation;
+
+import io.datakernel.aggregation.ChunkColumnarFormat.Block;
+import io.datakernel.aggregation.ChunkColumnarFormat.Footer;
+import io.datakernel.aggregation.ot.AggregationStructure;
+import io.datakernel.bytebuf.ByteBuf;
+import io.datakernel.bytebuf.ByteBufPool;
+import io.datakernel.codegen.DefiningClassLoader;
+import io.datakernel.common.MemSize;
+import io.datakernel.csp.ChannelConsumer;
+import io.datakernel.csp.ChannelOutput;
+import io.datakernel.datastream.AbstractStreamConsumer;
+import io.datakernel.datastream.StreamDataAcceptor;
+import io.datakernel.datastream.csp.WithStreamToChannel;
+import io.datakernel.promise.Promise;
+import io.datakernel.serializer.BinarySerializer;
+import net.jpountz.lz4.LZ4Compressor;
+import net.jpountz.lz4.LZ4Factory;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.List;
+
+import static io.datakernel.common.Utils.nullify;
+import static java.lang.Math.max;
+
+/**
+ * Serializes records of aggregation chunk into {@link ChunkColumnarFormat columnar format}.
+ * Records are split into columns as they arrive, so no records are retained in memory,
+ * only encoded columns of the current block.
+ */
+public final class ChunkColumnarSerializer<T> extends AbstractStreamConsumer<T> implements WithStreamToChannel<ChunkColumnarSerializer<T>, T, ByteBuf> {
+	public static final MemSize DEFAULT_BLOCK_SIZE = MemSize.megabytes(4);
+	public static final int DEFAULT_BLOCK_RECORDS = 256 * 1024;
+
+	private static final int INITIAL_COLUMN_SIZE = 256;
+
+	private final List<String> columns;
+	private final List<BinarySerializer<T>> encoders;
+	private final LZ4Compressor compressor;
+	private int blockSize = DEFAULT_BLOCK_SIZE.toInt();
+	private int blockRecords = DEFAULT_BLOCK_RECORDS;
+
+	private final Input input = new Input();
+	private final ByteBuf[] columnBufs;
+	private int count;
+	private final List<Block> blocks = new ArrayList<>();
+
+	private ChannelConsumer<ByteBuf> output;
+	private final ArrayDeque<ByteBuf> bufs = new ArrayDeque<>();
+	private boolean flushing;
+
+	// region creators
+	private ChunkColumnarSerializer(List<String> columns, List<BinarySerializer<T>> encoders, LZ4Compressor compressor) {
+		this.columns = columns;
+		this.encoders = encoders;
+		this.compressor = compressor;
+		this.columnBufs = new ByteBuf[columns.size()];
+		for (int i = 0; i < columnBufs.length; i++) {
+			columnBufs[i] = ByteBufPool.allocate(INITIAL_COLUMN_SIZE);
+		}
+	}
+
+	public static <T> ChunkColumnarSerializer<T> create(AggregationStructure aggregation, List<String> fields,
+			Class<T> recordClass, DefiningClassLoader classLoader) {
+		return new ChunkColumnarSerializer<>(ChunkColumnarFormat.columns(aggregation, fields),
+				ChunkColumnarFormat.createColumnEncoders(aggregation, recordClass, fields, classLoader),
+				LZ4Factory.fastestInstance().fastCompressor());
+	}
+
+	/**
+	 * Sets the approximate size of uncompressed columns of a single block
+	 */
+	public ChunkColumnarSerializer<T> withBlockSize(MemSize blockSize) {
+		this.blockSize = blockSize.toInt();
+		return this;
+	}
+
+	public ChunkColumnarSerializer<T> withBlockRecords(int blockRecords) {
+		this.blockRecords = blockRecords;
+		return this;
+	}
+
+	@Override
+	public ChannelOutput<ByteBuf> getOutput() {
+		return output -> this.output = output;
+	}
+	// endregion
+
+	@Override
+	protected void onStarted() {
+		getSupplier().resume(input);
+	}
+
+	@Override
+	protected Promise<Void> onEndOfStream() {
+		encodeBlock();
+		bufs.add(new Footer(columns, blocks).encode());
+		doFlush();
+		return getAcknowledgement();
+	}
+
+	@Override
+	protected void onError(Throwable e) {
+		bufs.forEach(ByteBuf::recycle);
+		bufs.clear();
+		output.close(e);
+	}
+
+	@Override
+	protected void cleanup() {
+		for (int i = 0; i < columnBufs.length; i++) {
+			columnBufs[i] = nullify(columnBufs[i], ByteBuf::recycle);
+		}
+	}
+
+	private final class Input implements StreamDataAcceptor<T> {
+		@Override
+		public void accept(T item) {
+			int size = 0;
+			for (int i = 0; i < columnBufs.length; i++) {
+				ByteBuf buf = columnBufs[i];
+				BinarySerializer<T> encoder = encoders.get(i);
+				for (; ; ) {
+					try {
+						buf.tail(encoder.encode(buf.array(), buf.tail(), item));
+						break;
+					} catch (ArrayIndexOutOfBoundsException e) {
+						buf = ByteBufPool.ensureWriteRemaining(buf, buf.writeRemaining() + max(INITIAL_COLUMN_SIZE, buf.readRemaining()));
+						columnBufs[i] = buf;
+					}
+				}
+				size += buf.readRemaining();
+			}
+			if (++count >= blockRecords || size >= blockSize) {
+				encodeBlock();
+				getSupplier().suspend();
+				doFlush();
+			}
+		}
+	}
+
+	private void encodeBlock() {
+		if (count == 0) return;
+		int[] compressedSizes = new int[columnBufs.length];
+		int[] rawSizes = new int[columnBufs.length];
+		for (int i = 0; i < columnBufs.length; i++) {
+			ByteBuf column = columnBufs[i];
+			ByteBuf compressed = ChunkColumnarFormat.compressColumn(compressor, column);
+			rawSizes[i] = column.readRemaining();
+			compressedSizes[i] = compressed.readRemaining();
+			column.head(0);
+			column.tail(0);
+			bufs.add(compressed);
+		}
+		blocks.add(new Block(count, compressedSizes, rawSizes));
+		count = 0;
+	}
+
+	private void doFlush() {
+		if (flushing) return;
+		if (!bufs.isEmpty()) {
+			flushing = true;
+			output.accept(bufs.poll())
+					.whenComplete(($, e) -> {
+						if (e == null) {
+							flushing = false;
+							doFlush();
+						} else {
+							close(e);
+						}
+					});
+		} else {
+			if (getEndOfStream().isResult()) {
+				flushing = true;
+				output.accept(null)
+						.whenResult($ -> acknowledge());
+			} else {
+				getSupplier().resume(input);
+			}
+		}
+	}
+}
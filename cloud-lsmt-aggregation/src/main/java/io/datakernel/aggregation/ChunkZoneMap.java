@@ -0,0 +1,309 @@
+/*
+ * Copyright (C) 2015-2019 SoftIndex LLC.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package io.datakernel.aggregation;
+
+import io.datakernel.aggregation.AggregationPredicates.*;
+import io.datakernel.aggregation.fieldtype.FieldType;
+import io.datakernel.aggregation.ot.AggregationStructure;
+import io.datakernel.aggregation.util.BloomFilter;
+import io.datakernel.codegen.ClassBuilder;
+import io.datakernel.codegen.DefiningClassLoader;
+import io.datakernel.codegen.Expression;
+import org.jetbrains.annotations.Nullable;
+
+import java.util.*;
+
+import static io.datakernel.aggregation.AggregationPredicates.toInternalValue;
+import static io.datakernel.codegen.Expressions.*;
+import static java.util.Collections.unmodifiableMap;
+
+/**
+ * Per-chunk statistics of aggregation keys: minimum and maximum value of each key
+ * and, optionally, a bloom filter of its values.
+ * <p>
+ * Zone maps are evaluated against query predicates before any chunk is read,
+ * so that chunks whose key ranges do not intersect the predicate are skipped,
+ * even if the predicate is on non-leading keys of the primary key.
+ */
+public final class ChunkZoneMap {
+	private final Map<String, Zone> zones;
+
+	private ChunkZoneMap(Map<String, Zone> zones) {
+		this.zones = zones;
+	}
+
+	public static ChunkZoneMap of(Map<String, Zone> zones) {
+		return new ChunkZoneMap(new LinkedHashMap<>(zones));
+	}
+
+	public Map<String, Zone> getZones() {
+		return unmodifiableMap(zones);
+	}
+
+	@Nullable
+	public Zone getZone(String key) {
+		return zones.get(key);
+	}
+
+	public static final class Zone {
+		private final Comparable<Object> min;
+		private final Comparable<Object> max;
+		@Nullable
+		private final BloomFilter bloomFilter;
+
+		@SuppressWarnings("unchecked")
+		private Zone(Object min, Object max, @Nullable BloomFilter bloomFilter) {
+			this.min = (Comparable<Object>) min;
+			this.max = (Comparable<Object>) max;
+			this.bloomFilter = bloomFilter;
+		}
+
+		public static Zone of(Object min, Object max, @Nullable BloomFilter bloomFilter) {
+			return new Zone(min, max, bloomFilter);
+		}
+
+		public Object getMin() {
+			return min;
+		}
+
+		public Object getMax() {
+			return max;
+		}
+
+		@Nullable
+		public BloomFilter getBloomFilter() {
+			return bloomFilter;
+		}
+
+		boolean mayContain(Object value) {
+			return min.compareTo(value) <= 0 && max.compareTo(value) >= 0 &&
+					(bloomFilter == null || bloomFilter.mightContain(value));
+		}
+
+		boolean mayIntersect(@Nullable Object from, boolean fromInclusive, @Nullable Object to, boolean toInclusive) {
+			if (from != null) {
+				int cmp = max.compareTo(from);
+				if (cmp < 0 || cmp == 0 && !fromInclusive) return false;
+			}
+			if (to != null) {
+				int cmp = min.compareTo(to);
+				return cmp < 0 || cmp == 0 && toInclusive;
+			}
+			return true;
+		}
+
+		@Override
+		public String toString() {
+			return "[" + min + ", " + max + (bloomFilter != null ? ", bloom=" + bloomFilter.getBits() : "") + ']';
+		}
+	}
+
+	/**
+	 * Conservatively checks whether any record of a chunk may satisfy a predicate.
+	 *
+	 * @return {@code false} only if it is guaranteed that no record of a chunk matches the predicate
+	 */
+	public boolean mayMatch(AggregationPredicate predicate, Map<String, FieldType> keyTypes) {
+		try {
+			return doMayMatch(predicate, keyTypes);
+		} catch (ClassCastException e) {
+			return true;
+		}
+	}
+
+	@SuppressWarnings("unchecked")
+	private boolean doMayMatch(AggregationPredicate predicate, Map<String, FieldType> keyTypes) {
+		if (predicate instanceof PredicateAlwaysFalse) {
+			return false;
+		}
+		if (predicate instanceof PredicateAnd) {
+			for (AggregationPredicate child : ((PredicateAnd) predicate).predicates) {
+				if (!doMayMatch(child, keyTypes)) return false;
+			}
+			return true;
+		}
+		if (predicate instanceof PredicateOr) {
+			for (AggregationPredicate child : ((PredicateOr) predicate).predicates) {
+				if (doMayMatch(child, keyTypes)) return true;
+			}
+			return false;
+		}
+		if (predicate instanceof PredicateEq) {
+			PredicateEq eq = (PredicateEq) predicate;
+			Zone zone = zones.get(eq.key);
+			return zone == null || eq.value == null ||
+					zone.mayContain(toInternalValue(keyTypes, eq.key, eq.value));
+		}
+		if (predicate instanceof PredicateIn) {
+			PredicateIn in = (PredicateIn) predicate;
+			Zone zone = zones.get(in.key);
+			if (zone == null) return true;
+			for (Object value : (SortedSet<Object>) in.values) {
+				if (value == null || zone.mayContain(toInternalValue(keyTypes, in.key, value))) return true;
+			}
+			return false;
+		}
+		if (predicate instanceof PredicateBetween) {
+			PredicateBetween between = (PredicateBetween) predicate;
+			Zone zone = zones.get(between.key);
+			return zone == null || zone.mayIntersect(
+					toInternalValue(keyTypes, between.key, between.from), true,
+					toInternalValue(keyTypes, between.key, between.to), true);
+		}
+		if (predicate instanceof PredicateLe) {
+			PredicateLe le = (PredicateLe) predicate;
+			Zone zone = zones.get(le.key);
+			return zone == null || zone.mayIntersect(null, false, toInternalValue(keyTypes, le.key, le.value), true);
+		}
+		if (predicate instanceof PredicateLt) {
+			PredicateLt lt = (PredicateLt) predicate;
+			Zone zone = zones.get(lt.key);
+			return zone == null || zone.mayIntersect(null, false, toInternalValue(keyTypes, lt.key, lt.value), false);
+		}
+		if (predicate instanceof PredicateGe) {
+			PredicateGe ge = (PredicateGe) predicate;
+			Zone zone = zones.get(ge.key);
+			return zone == null || zone.mayIntersect(toInternalValue(keyTypes, ge.key, ge.value), true, null, false);
+		}
+		if (predicate instanceof PredicateGt) {
+			PredicateGt gt = (PredicateGt) predicate;
+			Zone zone = zones.get(gt.key);
+			return zone == null || zone.mayIntersect(toInternalValue(keyTypes, gt.key, gt.value), false, null, false);
+		}
+		return true;
+	}
+
+	@Override
+	public String toString() {
+		return zones.toString();
+	}
+
+	public static <T> Collector<T> collector(AggregationStructure aggregation, Class<T> recordClass,
+			int expectedRecords, DefiningClassLoader classLoader) {
+		return new Collector<>(aggregation, recordClass, expectedRecords, classLoader);
+	}
+
+	/**
+	 * Accumulates minimum, maximum and, optionally, a bloom filter of values of a single key.
+	 * Implementations are generated for the type of the key, so that primitive values are not boxed.
+	 */
+	public interface KeyCollector {
+		void accept(Object record, @Nullable BloomFilter bloomFilter);
+
+		@Nullable
+		Object getMin();
+
+		@Nullable
+		Object getMax();
+	}
+
+	/**
+	 * Accumulates a zone map of records of a single chunk
+	 */
+	public static final class Collector<T> {
+		private final List<String> keys;
+		private final KeyCollector[] collectors;
+		private final BloomFilter[] bloomFilters;
+
+		private Collector(AggregationStructure aggregation, Class<T> recordClass, int expectedRecords, DefiningClassLoader classLoader) {
+			this.keys = aggregation.getKeys();
+			this.collectors = new KeyCollector[keys.size()];
+			this.bloomFilters = new BloomFilter[keys.size()];
+			for (int i = 0; i < keys.size(); i++) {
+				String key = keys.get(i);
+				boolean bloomFilter = aggregation.getBloomFilterKeys().contains(key);
+				collectors[i] = createKeyCollector(recordClass, key.replace('.', '$'), bloomFilter, classLoader);
+				if (bloomFilter) {
+					bloomFilters[i] = BloomFilter.create(expectedRecords);
+				}
+			}
+		}
+
+		public void accept(T record) {
+			for (int i = 0; i < collectors.length; i++) {
+				collectors[i].accept(record, bloomFilters[i]);
+			}
+		}
+
+		public ChunkZoneMap build() {
+			Map<String, Zone> zones = new LinkedHashMap<>();
+			for (int i = 0; i < keys.size(); i++) {
+				Object min = collectors[i].getMin();
+				if (min == null) continue;
+				BloomFilter bloomFilter = bloomFilters[i] != null ? bloomFilters[i].compact() : null;
+				zones.put(keys.get(i), new Zone(min, collectors[i].getMax(), bloomFilter));
+			}
+			return new ChunkZoneMap(zones);
+		}
+	}
+
+	private static KeyCollector createKeyCollector(Class<?> recordClass, String field, boolean bloomFilter,
+			DefiningClassLoader classLoader) {
+		Class<?> type;
+		try {
+			type = recordClass.getField(field).getType();
+		} catch (NoSuchFieldException e) {
+			throw new IllegalArgumentException("No key field " + field + " in " + recordClass, e);
+		}
+		return ClassBuilder.create(classLoader, KeyCollector.class)
+				.withClassKey(recordClass, field, bloomFilter)
+				.withField("initialized", boolean.class)
+				.withField("min", type)
+				.withField("max", type)
+				.withField("last", type)
+				.withMethod("accept", let(property(cast(arg(0), recordClass), field), value -> {
+					Expression add = bloomFilter ?
+							sequence(addToBloomFilter(arg(1), value, type), set(property(self(), "last"), value)) :
+							voidExp();
+					Expression accept = ifThenElse(cmpEq(property(self(), "initialized"), value(false)),
+							sequence(
+									set(property(self(), "min"), value),
+									set(property(self(), "max"), value),
+									set(property(self(), "initialized"), value(true)),
+									add),
+							sequence(
+									ifThenElse(cmpLt(value, property(self(), "min")),
+											set(property(self(), "min"), value),
+											ifThenElse(cmpGt(value, property(self(), "max")),
+													set(property(self(), "max"), value),
+													voidExp())),
+									bloomFilter ?
+											ifThenElse(cmpNe(value, property(self(), "last")), add, voidExp()) :
+											voidExp()));
+					return type.isPrimitive() ? accept : ifThenElse(isNull(value), voidExp(), accept);
+				}))
+				.withMethod("getMin", boundary("min"))
+				.withMethod("getMax", boundary("max"))
+				.buildClassAndCreateNewInstance();
+	}
+
+	private static Expression boundary(String field) {
+		return ifThenElse(cmpEq(property(self(), "initialized"), value(false)),
+				nullRef(Object.class),
+				cast(property(self(), field), Object.class));
+	}
+
+	private static Expression addToBloomFilter(Expression bloomFilter, Expression value, Class<?> type) {
+		if (type == long.class || type == int.class || type == short.class || type == byte.class || type == char.class) {
+			return call(bloomFilter, "addLong", cast(value, long.class));
+		}
+		if (type == double.class || type == float.class) {
+			return call(bloomFilter, "addDouble", cast(value, double.class));
+		}
+		return call(bloomFilter, "add", cast(value, Object.class));
+	}
+}
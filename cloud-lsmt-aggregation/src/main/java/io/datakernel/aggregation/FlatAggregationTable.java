@@ -0,0 +1,412 @@
+/*
+ * Copyright (C) 2015-2019 SoftIndex LLC.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package io.datakernel.aggregation;
+
+import io.datakernel.aggregation.ot.AggregationStructure;
+import io.datakernel.codegen.ClassBuilder;
+import io.datakernel.codegen.DefiningClassLoader;
+import io.datakernel.codegen.Expression;
+import io.datakernel.common.MemSize;
+
+import java.util.*;
+
+import static io.datakernel.codegen.Expressions.*;
+import static io.datakernel.common.Preconditions.checkArgument;
+import static java.util.Arrays.asList;
+
+/**
+ * Hash aggregation table, which keeps keys and measure accumulators in primitive slots of a flat {@code long[]}
+ * array instead of a map of boxed keys and accumulator objects.
+ * <p>
+ * Every entry occupies a fixed number of slots: first the keys, then the measures.
+ * Entries are located by an open addressing index, and records are materialized only when the table is drained,
+ * in the order of their keys. The table never grows beyond its memory budget, {@link #accumulate} reports
+ * when it is full, so that its content can be spilled as a sorted chunk.
+ * <p>
+ * The budget covers the arrays of the table, including the ones which briefly coexist while it grows,
+ * as well as the arrays of up to {@link AggregationGroupReducer#MAX_ACTIVE_FLUSHES} drained tables,
+ * which are kept until their records are spilled.
+ * <p>
+ * Only aggregations with integral keys and primitive measure accumulators are supported, see {@link #isSupported}.
+ */
+public final class FlatAggregationTable {
+	private static final Set<Class<?>> KEY_TYPES = new HashSet<>(asList(
+			byte.class, short.class, char.class, int.class, long.class));
+	private static final Set<Class<?>> MEASURE_TYPES = new HashSet<>(asList(
+			byte.class, short.class, char.class, int.class, long.class, float.class, double.class));
+
+	private static final int INITIAL_ENTRIES = 1024;
+
+	public interface SlotCodec {
+		void encodeKey(Object item, long[] slots);
+
+		void encode(Object record, long[] slots, int offset);
+
+		void encodeMeasures(Object record, long[] slots, int offset);
+
+		void decodeMeasures(long[] slots, int offset, Object record);
+
+		Object decode(long[] slots, int offset);
+	}
+
+	private final SlotCodec codec;
+	private final Aggregate<Object, Object> aggregate;
+	private final int keySlots;
+	private final int width;
+	private final int maxEntries;
+
+	private final long[] keyBuffer;
+
+	private long[] slots;
+	private int[] index;
+	private int size;
+
+	private Object scratch;
+
+	private long memory;
+	private long peakMemory;
+
+	private FlatAggregationTable(SlotCodec codec, Aggregate<Object, Object> aggregate, int keySlots, int width, int maxEntries) {
+		this.codec = codec;
+		this.aggregate = aggregate;
+		this.keySlots = keySlots;
+		this.width = width;
+		this.maxEntries = maxEntries;
+		this.keyBuffer = new long[keySlots];
+		reset();
+	}
+
+	@SuppressWarnings("unchecked")
+	public static FlatAggregationTable create(AggregationStructure structure, Class<?> inputClass, Class<?> recordClass,
+			Map<String, String> keyFields, List<String> measures,
+			Aggregate<?, Object> aggregate, MemSize memoryBudget, DefiningClassLoader classLoader) {
+		checkArgument(isSupported(structure, measures), "Keys and measures of aggregation should be primitive");
+		List<String> keys = structure.getKeys();
+		int width = keys.size() + measures.size();
+		long maxEntries = memoryBudget.toLong() / entryMemory(width);
+		checkArgument(maxEntries > 0, "Memory budget is too small: %s", memoryBudget);
+		SlotCodec codec = createSlotCodec(structure, inputClass, recordClass, keyFields, measures, classLoader);
+		return new FlatAggregationTable(codec, (Aggregate<Object, Object>) aggregate, keys.size(), width,
+				(int) Math.min(maxEntries, (1 << 29) / width));
+	}
+
+	/**
+	 * Returns the number of bytes of the budget which are reserved for every entry of the table
+	 */
+	static long entryMemory(int width) {
+		long slotsMemory = width * 8L;
+		// a drained table keeps its slots and the sort order of its entries
+		long drainedMemory = slotsMemory + 4L;
+		// while fewer than MAX_ACTIVE_FLUSHES tables are drained, a growing table keeps its old slots of up to
+		// the same size next to the new slots and up to 4 index ints per entry, and once MAX_ACTIVE_FLUSHES
+		// tables are drained, a fresh table of no more entries is started
+		return AggregationGroupReducer.MAX_ACTIVE_FLUSHES * drainedMemory + slotsMemory + 16L;
+	}
+
+	public static boolean isSupported(AggregationStructure structure, List<String> measures) {
+		return structure.getKeys().stream()
+				.map(key -> structure.getKeyTypes().get(key).getInternalDataType())
+				.allMatch(KEY_TYPES::contains) &&
+				measures.stream()
+						.map(measure -> structure.getMeasureTypes().get(measure).getInternalDataType())
+						.allMatch(MEASURE_TYPES::contains);
+	}
+
+	/**
+	 * Accumulates an item into the table.
+	 *
+	 * @return {@code true} if the table is full and should be drained before accepting more items
+	 */
+	public boolean accumulate(Object item) {
+		codec.encodeKey(item, keyBuffer);
+		int mask = index.length - 1;
+		for (int pos = hash(keyBuffer) & mask; ; pos = (pos + 1) & mask) {
+			int entry = index[pos];
+			if (entry == 0) {
+				int offset = size * width;
+				codec.encode(aggregate.createAccumulator(item), slots, offset);
+				index[pos] = ++size;
+				if (size == maxEntries) {
+					return true;
+				}
+				if (size * width == slots.length) {
+					grow();
+				}
+				return false;
+			}
+			int offset = (entry - 1) * width;
+			if (keyEquals(offset)) {
+				if (scratch == null) {
+					scratch = codec.decode(slots, offset);
+				} else {
+					codec.decodeMeasures(slots, offset, scratch);
+				}
+				aggregate.accumulate(scratch, item);
+				codec.encodeMeasures(scratch, slots, offset);
+				return false;
+			}
+		}
+	}
+
+	/**
+	 * Returns all accumulated records sorted by keys and clears the table.
+	 * Records are materialized lazily, while the returned iterator is traversed.
+	 */
+	public Iterator<Object> drain() {
+		long[] slots = this.slots;
+		allocate(size * 4L);
+		int[] order = new int[size];
+		for (int i = 0; i < order.length; i++) {
+			order[i] = i * width;
+		}
+		sort(slots, order, 0, order.length - 1);
+		reset();
+		if (order.length == 0) {
+			release(slots.length * 8L);
+		}
+		return new Iterator<Object>() {
+			int i;
+
+			@Override
+			public boolean hasNext() {
+				return i < order.length;
+			}
+
+			@Override
+			public Object next() {
+				if (i == order.length) throw new NoSuchElementException();
+				Object record = codec.decode(slots, order[i++]);
+				if (i == order.length) {
+					release(slots.length * 8L + order.length * 4L);
+				}
+				return record;
+			}
+		};
+	}
+
+	public int size() {
+		return size;
+	}
+
+	public boolean isEmpty() {
+		return size == 0;
+	}
+
+	public int getMaxEntries() {
+		return maxEntries;
+	}
+
+	/**
+	 * Returns the largest number of bytes which have been held at once by arrays of this table,
+	 * including drained tables until all of their records are traversed
+	 */
+	public long getPeakMemory() {
+		return peakMemory;
+	}
+
+	private void reset() {
+		int entries = Math.min(INITIAL_ENTRIES, maxEntries);
+		// slots of a drained table are released once its records are traversed
+		releaseIndex();
+		allocate(entries * width * 8L + indexCapacity(entries) * 4L);
+		slots = new long[entries * width];
+		index = new int[indexCapacity(entries)];
+		size = 0;
+	}
+
+	private void grow() {
+		int entries = Math.min(slots.length / width * 2, maxEntries);
+		// old index is not needed to rebuild the new one, while old slots are copied into the new ones
+		releaseIndex();
+		allocate(entries * width * 8L + indexCapacity(entries) * 4L);
+		long[] oldSlots = slots;
+		slots = Arrays.copyOf(oldSlots, entries * width);
+		release(oldSlots.length * 8L);
+		index = new int[indexCapacity(entries)];
+		int mask = index.length - 1;
+		for (int entry = 0; entry < size; entry++) {
+			int pos = hash(slots, entry * width) & mask;
+			while (index[pos] != 0) {
+				pos = (pos + 1) & mask;
+			}
+			index[pos] = entry + 1;
+		}
+	}
+
+	private void releaseIndex() {
+		if (index != null) {
+			release(index.length * 4L);
+			index = null;
+		}
+	}
+
+	private void allocate(long bytes) {
+		memory += bytes;
+		peakMemory = Math.max(peakMemory, memory);
+	}
+
+	private void release(long bytes) {
+		memory -= bytes;
+	}
+
+	private static int indexCapacity(int entries) {
+		return Integer.highestOneBit(Math.max(entries, 1)) << 2;
+	}
+
+	private boolean keyEquals(int offset) {
+		for (int i = 0; i < keySlots; i++) {
+			if (slots[offset + i] != keyBuffer[i]) return false;
+		}
+		return true;
+	}
+
+	private int hash(long[] keys) {
+		return hash(keys, 0);
+	}
+
+	private int hash(long[] array, int offset) {
+		long h = 0;
+		for (int i = 0; i < keySlots; i++) {
+			h = (h + array[offset + i]) * 0x9E3779B97F4A7C15L;
+		}
+		return (int) (h ^ (h >>> 32));
+	}
+
+	private int compare(long[] slots, int offset1, int offset2) {
+		for (int i = 0; i < keySlots; i++) {
+			int result = Long.compare(slots[offset1 + i], slots[offset2 + i]);
+			if (result != 0) return result;
+		}
+		return 0;
+	}
+
+	private void sort(long[] slots, int[] order, int from, int to) {
+		while (to - from > 16) {
+			int mid = (from + to) >>> 1;
+			if (compare(slots, order[mid], order[from]) < 0) swap(order, mid, from);
+			if (compare(slots, order[to], order[from]) < 0) swap(order, to, from);
+			if (compare(slots, order[to], order[mid]) < 0) swap(order, to, mid);
+			int pivot = order[mid];
+			int i = from;
+			int j = to;
+			while (i <= j) {
+				while (compare(slots, order[i], pivot) < 0) i++;
+				while (compare(slots, order[j], pivot) > 0) j--;
+				if (i <= j) swap(order, i++, j--);
+			}
+			// recurse into the smaller part to bound the stack depth
+			if (j - from < to - i) {
+				sort(slots, order, from, j);
+				from = i;
+			} else {
+				sort(slots, order, i, to);
+				to = j;
+			}
+		}
+		for (int i = from + 1; i <= to; i++) {
+			int current = order[i];
+			int j = i - 1;
+			while (j >= from && compare(slots, order[j], current) > 0) {
+				order[j + 1] = order[j];
+				j--;
+			}
+			order[j + 1] = current;
+		}
+	}
+
+	private static void swap(int[] array, int i, int j) {
+		int tmp = array[i];
+		array[i] = array[j];
+		array[j] = tmp;
+	}
+
+	private static SlotCodec createSlotCodec(AggregationStructure structure, Class<?> inputClass, Class<?> recordClass,
+			Map<String, String> keyFields, List<String> measures,
+			DefiningClassLoader classLoader) {
+		List<String> keys = structure.getKeys();
+		return ClassBuilder.create(classLoader, SlotCodec.class)
+				.withClassKey(inputClass, recordClass, keyFields, measures)
+				.withMethod("encodeKey", sequence(expressions -> {
+					for (int i = 0; i < keys.size(); i++) {
+						String key = keys.get(i);
+						Class<?> type = structure.getKeyTypes().get(key).getInternalDataType();
+						expressions.add(arraySet(arg(1), value(i),
+								toSlot(cast(property(cast(arg(0), inputClass), keyFields.get(key)), type), type)));
+					}
+				}))
+				.withMethod("encode", sequence(expressions -> {
+					for (int i = 0; i < keys.size(); i++) {
+						String key = keys.get(i);
+						Class<?> type = structure.getKeyTypes().get(key).getInternalDataType();
+						expressions.add(arraySet(arg(1), add(arg(2), value(i)),
+								toSlot(property(cast(arg(0), recordClass), key), type)));
+					}
+					expressions.add(encodeMeasures(structure, recordClass, keys.size(), measures));
+				}))
+				.withMethod("encodeMeasures", encodeMeasures(structure, recordClass, keys.size(), measures))
+				.withMethod("decodeMeasures", sequence(expressions -> {
+					for (int i = 0; i < measures.size(); i++) {
+						String measure = measures.get(i);
+						Class<?> type = structure.getMeasureTypes().get(measure).getInternalDataType();
+						expressions.add(set(property(cast(arg(2), recordClass), measure),
+								fromSlot(arrayGet(arg(0), add(arg(1), value(keys.size() + i))), type)));
+					}
+					expressions.add(voidExp());
+				}))
+				.withMethod("decode", let(constructor(recordClass), record ->
+						sequence(expressions -> {
+							for (int i = 0; i < keys.size(); i++) {
+								String key = keys.get(i);
+								Class<?> type = structure.getKeyTypes().get(key).getInternalDataType();
+								expressions.add(set(property(record, key),
+										fromSlot(arrayGet(arg(0), add(arg(1), value(i))), type)));
+							}
+							for (int i = 0; i < measures.size(); i++) {
+								String measure = measures.get(i);
+								Class<?> type = structure.getMeasureTypes().get(measure).getInternalDataType();
+								expressions.add(set(property(record, measure),
+										fromSlot(arrayGet(arg(0), add(arg(1), value(keys.size() + i))), type)));
+							}
+							expressions.add(record);
+						})))
+				.buildClassAndCreateNewInstance();
+	}
+
+	private static Expression encodeMeasures(AggregationStructure structure, Class<?> recordClass, int keySlots, List<String> measures) {
+		return sequence(expressions -> {
+			for (int i = 0; i < measures.size(); i++) {
+				String measure = measures.get(i);
+				Class<?> type = structure.getMeasureTypes().get(measure).getInternalDataType();
+				expressions.add(arraySet(arg(1), add(arg(2), value(keySlots + i)),
+						toSlot(property(cast(arg(0), recordClass), measure), type)));
+			}
+			expressions.add(voidExp());
+		});
+	}
+
+	private static Expression toSlot(Expression value, Class<?> type) {
+		if (type == double.class) return staticCall(Double.class, "doubleToRawLongBits", value);
+		if (type == float.class) return cast(staticCall(Float.class, "floatToRawIntBits", value), long.class);
+		return cast(value, long.class);
+	}
+
+	private static Expression fromSlot(Expression slot, Class<?> type) {
+		if (type == double.class) return staticCall(Double.class, "longBitsToDouble", slot);
+		if (type == float.class) return staticCall(Float.class, "intBitsToFloat", cast(slot, int.class));
+		return cast(slot, type);
+	}
+}
@@ -0,0 +1,402 @@
+/*
+ * Copyright (C) 2015-2019 SoftIndex LLC.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package io.datakernel.aggregation;
+
+import io.datakernel.aggregation.RangeTree.Segment;
+import org.jetbrains.annotations.Nullable;
+
+import java.util.*;
+import java.util.function.ToLongFunction;
+
+import static java.util.Collections.unmodifiableSortedMap;
+
+/**
+ * Compact array-backed {@link RangeIndex}.
+ * <p>
+ * Ranges are kept in a few immutable runs, sorted by lower bound, each of which
+ * is indexed by an implicit augmented binary tree laid out over the run itself
+ * (every node stores the maximum upper bound of its subtree), so that no per-range
+ * objects are allocated. New ranges are added as single-element runs, which are
+ * merged with previous runs of similar size, so there are at most logarithmic number of runs.
+ * Removed ranges are marked in place and are purged when runs are merged.
+ * <p>
+ * If keys can be mapped to {@code long} values preserving their order,
+ * bounds are compared as primitive longs.
+ * <p>
+ * Unlike {@link RangeTree}, segments are not maintained, but computed on demand.
+ */
+public final class IntervalTree<K extends Comparable<K>, V> implements RangeIndex<K, V> {
+	@Nullable
+	private final ToLongFunction<K> toLong;
+
+	private final ArrayList<Run> runs = new ArrayList<>();
+	private int size;
+	private int removed;
+
+	private IntervalTree(@Nullable ToLongFunction<K> toLong) {
+		this.toLong = toLong;
+	}
+
+	public static <K extends Comparable<K>, V> IntervalTree<K, V> create() {
+		return new IntervalTree<>(null);
+	}
+
+	/**
+	 * Creates an interval tree, which compares keys as primitive longs
+	 *
+	 * @param toLong a function that maps keys to longs, so that order of longs is the same as order of keys
+	 */
+	public static <K extends Comparable<K>, V> IntervalTree<K, V> createWithLongKeys(ToLongFunction<K> toLong) {
+		return new IntervalTree<>(toLong);
+	}
+
+	public int size() {
+		return size;
+	}
+
+	@Override
+	public void put(K lower, K upper, V value) {
+		runs.add(new Run(lower, upper, value));
+		size++;
+		int last;
+		while ((last = runs.size() - 1) > 0 && runs.get(last).n * 2 >= runs.get(last - 1).n) {
+			Run merged = merge(runs.get(last - 1), runs.remove(last));
+			runs.set(last - 1, merged);
+		}
+	}
+
+	@Override
+	public boolean remove(K lower, K upper, V value) {
+		long lowerLong = toLong(lower);
+		long upperLong = toLong(upper);
+		for (int r = runs.size() - 1; r >= 0; r--) {
+			Run run = runs.get(r);
+			for (int i = run.lowerBound(lower, lowerLong); i < run.n && run.compareLower(i, lower, lowerLong) == 0; i++) {
+				if (value.equals(run.values[i]) && run.compareUpper(i, upper, upperLong) == 0) {
+					run.values[i] = null;
+					run.live--;
+					size--;
+					removed++;
+					if (run.live == 0) {
+						runs.remove(r);
+						removed -= run.n;
+					} else if (removed > size) {
+						compact();
+					}
+					return true;
+				}
+			}
+		}
+		return false;
+	}
+
+	@Override
+	public Set<V> get(K key) {
+		return getRange(key, key);
+	}
+
+	@Override
+	public Set<V> getRange(K lower, K upper) {
+		LinkedHashSet<V> result = new LinkedHashSet<>();
+		long lowerLong = toLong(lower);
+		long upperLong = toLong(upper);
+		for (Run run : runs) {
+			run.collect(lower, lowerLong, upper, upperLong, result);
+		}
+		return result;
+	}
+
+	@SuppressWarnings("unchecked")
+	@Override
+	public Set<V> getAll() {
+		LinkedHashSet<V> result = new LinkedHashSet<>();
+		for (Run run : runs) {
+			for (int i = 0; i < run.n; i++) {
+				if (run.values[i] != null) {
+					result.add((V) run.values[i]);
+				}
+			}
+		}
+		return result;
+	}
+
+	@SuppressWarnings("unchecked")
+	@Override
+	public SortedMap<K, Segment<V>> getSegments() {
+		compact();
+		TreeMap<K, Segment<V>> segments = new TreeMap<>();
+		if (runs.isEmpty()) return unmodifiableSortedMap(segments);
+		Run run = runs.get(0);
+
+		Integer[] byUpper = new Integer[run.n];
+		for (int i = 0; i < run.n; i++) {
+			byUpper[i] = i;
+		}
+		Arrays.sort(byUpper, (i1, i2) -> ((K) run.uppers[i1]).compareTo((K) run.uppers[i2]));
+
+		LinkedHashSet<V> active = new LinkedHashSet<>();
+		int l = 0;
+		int u = 0;
+		while (u < run.n) {
+			K key = (K) run.uppers[byUpper[u]];
+			if (l < run.n && ((K) run.lowers[l]).compareTo(key) < 0) {
+				key = (K) run.lowers[l];
+			}
+			for (; l < run.n && ((K) run.lowers[l]).compareTo(key) == 0; l++) {
+				active.add((V) run.values[l]);
+			}
+			List<V> closing = new ArrayList<>();
+			for (; u < run.n && ((K) run.uppers[byUpper[u]]).compareTo(key) == 0; u++) {
+				V value = (V) run.values[byUpper[u]];
+				active.remove(value);
+				closing.add(value);
+			}
+			segments.put(key, Segment.of(active, closing));
+		}
+		return unmodifiableSortedMap(segments);
+	}
+
+	private void compact() {
+		while (runs.size() > 1) {
+			int last = runs.size() - 1;
+			runs.set(last - 1, merge(runs.get(last - 1), runs.remove(last)));
+		}
+		if (removed != 0 && !runs.isEmpty()) {
+			runs.set(0, merge(runs.get(0), null));
+		}
+		removed = 0;
+	}
+
+	private long toLong(K key) {
+		return toLong != null ? toLong.applyAsLong(key) : 0L;
+	}
+
+	@SuppressWarnings("unchecked")
+	private Run merge(Run run1, @Nullable Run run2) {
+		int n1 = run1.n;
+		int n2 = run2 != null ? run2.n : 0;
+		int n = run1.live + (run2 != null ? run2.live : 0);
+		removed -= n1 + n2 - n;
+		Run result = new Run(n);
+		int i1 = 0;
+		int i2 = 0;
+		for (int i = 0; i < n; i++) {
+			while (i1 < n1 && run1.values[i1] == null) i1++;
+			while (i2 < n2 && run2.values[i2] == null) i2++;
+			if (i2 == n2 || i1 < n1 && (toLong != null ?
+					run1.lowerLongs[i1] <= run2.lowerLongs[i2] :
+					((K) run1.lowers[i1]).compareTo((K) run2.lowers[i2]) <= 0)) {
+				result.copyFrom(i, run1, i1++);
+			} else {
+				result.copyFrom(i, run2, i2++);
+			}
+		}
+		result.buildIndex();
+		return result;
+	}
+
+	/**
+	 * Immutable array of ranges, sorted by lower bound,
+	 * with maximum upper bounds of implicit subtrees
+	 */
+	private final class Run {
+		final int n;
+		final Object[] lowers;
+		final Object[] uppers;
+		final Object[] values;
+		final Object[] maxUppers;
+		final long[] lowerLongs;
+		final long[] upperLongs;
+		final long[] maxUpperLongs;
+		int rootLevel;
+		int live;
+
+		Run(int n) {
+			this.n = n;
+			this.live = n;
+			this.lowers = new Object[n];
+			this.uppers = new Object[n];
+			this.values = new Object[n];
+			if (toLong == null) {
+				this.maxUppers = new Object[n];
+				this.lowerLongs = null;
+				this.upperLongs = null;
+				this.maxUpperLongs = null;
+			} else {
+				this.maxUppers = null;
+				this.lowerLongs = new long[n];
+				this.upperLongs = new long[n];
+				this.maxUpperLongs = new long[n];
+			}
+		}
+
+		Run(K lower, K upper, V value) {
+			this(1);
+			lowers[0] = lower;
+			uppers[0] = upper;
+			values[0] = value;
+			if (toLong != null) {
+				lowerLongs[0] = toLong.applyAsLong(lower);
+				upperLongs[0] = toLong.applyAsLong(upper);
+			}
+			buildIndex();
+		}
+
+		void copyFrom(int i, Run run, int j) {
+			lowers[i] = run.lowers[j];
+			uppers[i] = run.uppers[j];
+			values[i] = run.values[j];
+			if (toLong != null) {
+				lowerLongs[i] = run.lowerLongs[j];
+				upperLongs[i] = run.upperLongs[j];
+			}
+		}
+
+		@SuppressWarnings("unchecked")
+		int compareLower(int i, K key, long keyLong) {
+			return toLong != null ? Long.compare(lowerLongs[i], keyLong) : ((K) lowers[i]).compareTo(key);
+		}
+
+		@SuppressWarnings("unchecked")
+		int compareUpper(int i, K key, long keyLong) {
+			return toLong != null ? Long.compare(upperLongs[i], keyLong) : ((K) uppers[i]).compareTo(key);
+		}
+
+		@SuppressWarnings("unchecked")
+		int compareMaxUpper(int i, K key, long keyLong) {
+			return toLong != null ? Long.compare(maxUpperLongs[i], keyLong) : ((K) maxUppers[i]).compareTo(key);
+		}
+
+		int lowerBound(K key, long keyLong) {
+			int lo = 0;
+			int hi = n;
+			while (lo < hi) {
+				int mid = (lo + hi) >>> 1;
+				if (compareLower(mid, key, keyLong) < 0) {
+					lo = mid + 1;
+				} else {
+					hi = mid;
+				}
+			}
+			return lo;
+		}
+
+		/**
+		 * Computes maximum upper bounds of implicit subtrees, where leaves are at even indices,
+		 * and a node at level {@code k} has its {@code k} lowest bits set.
+		 * Nodes with right subtrees partially out of bounds use maximum of the last complete subtree.
+		 */
+		void buildIndex() {
+			if (n == 0) return;
+			int k = toLong != null ? buildLongIndex() : buildIndex0();
+			rootLevel = k - 1;
+		}
+
+		private int buildLongIndex() {
+			int lastIndex = 0;
+			long last = 0;
+			for (int i = 0; i < n; i += 2) {
+				lastIndex = i;
+				last = maxUpperLongs[i] = upperLongs[i];
+			}
+			int k;
+			for (k = 1; 1L << k <= n; k++) {
+				int x = 1 << (k - 1);
+				for (int i = (x << 1) - 1; i < n; i += x << 2) {
+					long max = upperLongs[i];
+					max = Math.max(max, maxUpperLongs[i - x]);
+					max = Math.max(max, i + x < n ? maxUpperLongs[i + x] : last);
+					maxUpperLongs[i] = max;
+				}
+				lastIndex = (lastIndex >>> k & 1) != 0 ? lastIndex - x : lastIndex + x;
+				if (lastIndex < n && maxUpperLongs[lastIndex] > last) {
+					last = maxUpperLongs[lastIndex];
+				}
+			}
+			return k;
+		}
+
+		@SuppressWarnings("unchecked")
+		private int buildIndex0() {
+			int lastIndex = 0;
+			K last = null;
+			for (int i = 0; i < n; i += 2) {
+				lastIndex = i;
+				last = (K) (maxUppers[i] = uppers[i]);
+			}
+			int k;
+			for (k = 1; 1L << k <= n; k++) {
+				int x = 1 << (k - 1);
+				for (int i = (x << 1) - 1; i < n; i += x << 2) {
+					K max = (K) uppers[i];
+					max = max(max, (K) maxUppers[i - x]);
+					max = max(max, i + x < n ? (K) maxUppers[i + x] : last);
+					maxUppers[i] = max;
+				}
+				lastIndex = (lastIndex >>> k & 1) != 0 ? lastIndex - x : lastIndex + x;
+				if (lastIndex < n && ((K) maxUppers[lastIndex]).compareTo(last) > 0) {
+					last = (K) maxUppers[lastIndex];
+				}
+			}
+			return k;
+		}
+
+		private K max(K key1, K key2) {
+			return key1.compareTo(key2) >= 0 ? key1 : key2;
+		}
+
+		@SuppressWarnings("unchecked")
+		void collect(K lower, long lowerLong, K upper, long upperLong, Set<V> result) {
+			int[] stack = new int[3 * 64];
+			int t = 0;
+			stack[t++] = (1 << rootLevel) - 1;
+			stack[t++] = rootLevel;
+			stack[t++] = 0;
+			while (t != 0) {
+				int w = stack[--t];
+				int k = stack[--t];
+				int x = stack[--t];
+				if (k <= 3) {
+					int i0 = x >> k << k;
+					int i1 = Math.min(i0 + (1 << (k + 1)) - 1, n);
+					for (int i = i0; i < i1 && compareLower(i, upper, upperLong) <= 0; i++) {
+						if (values[i] != null && compareUpper(i, lower, lowerLong) >= 0) {
+							result.add((V) values[i]);
+						}
+					}
+				} else if (w == 0) {
+					int y = x - (1 << (k - 1));
+					stack[t++] = x;
+					stack[t++] = k;
+					stack[t++] = 1;
+					if (y >= n || compareMaxUpper(y, lower, lowerLong) >= 0) {
+						stack[t++] = y;
+						stack[t++] = k - 1;
+						stack[t++] = 0;
+					}
+				} else if (x < n && compareLower(x, upper, upperLong) <= 0) {
+					if (values[x] != null && compareUpper(x, lower, lowerLong) >= 0) {
+						result.add((V) values[x]);
+					}
+					stack[t++] = x + (1 << (k - 1));
+					stack[t++] = k - 1;
+					stack[t++] = 0;
+				}
+			}
+		}
+	}
+}
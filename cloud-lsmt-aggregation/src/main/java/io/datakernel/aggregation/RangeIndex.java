@@ -0,0 +1,53 @@
+/*
+ * Copyright (C) 2015-2019 SoftIndex LLC.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package io.datakernel.aggregation;
+
+import io.datakernel.aggregation.RangeTree.Segment;
+
+import java.util.Set;
+import java.util.SortedMap;
+
+/**
+ * An index of values by closed key ranges {@code [lower, upper]}
+ *
+ * @see RangeTree
+ * @see IntervalTree
+ */
+public interface RangeIndex<K, V> {
+	void put(K lower, K upper, V value);
+
+	boolean remove(K lower, K upper, V value);
+
+	/**
+	 * Returns all values, whose ranges contain a given key
+	 */
+	Set<V> get(K key);
+
+	/**
+	 * Returns all values, whose ranges intersect a given range
+	 */
+	Set<V> getRange(K lower, K upper);
+
+	Set<V> getAll();
+
+	/**
+	 * Returns segments between adjacent range boundaries.
+	 * Each segment contains values, whose ranges start at or before its key and end after it,
+	 * as well as values, whose ranges end exactly at its key.
+	 */
+	SortedMap<K, Segment<V>> getSegments();
+}
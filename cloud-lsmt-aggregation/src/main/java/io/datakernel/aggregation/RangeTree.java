@@ -20,7 +20,7 @@ import java.util.*;
 
 import static java.util.Collections.*;
 
-public final class RangeTree<K, V> {
+public final class RangeTree<K, V> implements RangeIndex<K, V> {
 
 	public static final class Segment<V> {
 		private final LinkedHashSet<V> set = new LinkedHashSet<>();
@@ -34,6 +34,13 @@ public final class RangeTree<K, V> {
 			return unmodifiableSet(closing);
 		}
 
+		static <V> Segment<V> of(Collection<V> set, Collection<V> closing) {
+			Segment<V> result = new Segment<>();
+			result.set.addAll(set);
+			result.closing.addAll(closing);
+			return result;
+		}
+
 		private static <V> Segment<V> cloneOf(Segment<V> segment) {
 			Segment<V> result = new Segment<>();
 			result.set.addAll(segment.set);
@@ -49,6 +56,7 @@ public final class RangeTree<K, V> {
 
 	private final TreeMap<K, Segment<V>> segments;
 
+	@Override
 	public SortedMap<K, Segment<V>> getSegments() {
 		return unmodifiableSortedMap(segments);
 	}
@@ -80,6 +88,7 @@ public final class RangeTree<K, V> {
 		return segment;
 	}
 
+	@Override
 	public void put(K lower, K upper, V value) {
 		ensureSegment(lower);
 		ensureSegment(upper).closing.add(value);
@@ -91,6 +100,7 @@ public final class RangeTree<K, V> {
 	}
 
 	@SuppressWarnings("ConstantConditions")
+	@Override
 	public boolean remove(K lower, K upper, V value) {
 		boolean removed = false;
 
@@ -113,6 +123,7 @@ public final class RangeTree<K, V> {
 		return removed;
 	}
 
+	@Override
 	public Set<V> get(K key) {
 		LinkedHashSet<V> result = new LinkedHashSet<>();
 		for (Map.Entry<K, Segment<V>> entry : segments.headMap(key, true).descendingMap().entrySet()) {
@@ -125,6 +136,7 @@ public final class RangeTree<K, V> {
 		return result;
 	}
 
+	@Override
 	public Set<V> getRange(K lower, K upper) {
 		LinkedHashSet<V> result = new LinkedHashSet<>();
 
@@ -142,6 +154,7 @@ public final class RangeTree<K, V> {
 		return result;
 	}
 
+	@Override
 	public Set<V> getAll() {
 		LinkedHashSet<V> result = new LinkedHashSet<>();
 		for (Segment<V> segment : segments.values()) {
@@ -16,12 +16,17 @@
 
 package io.datakernel.aggregation;
 
+import io.datakernel.aggregation.ChunkColumnarFormat.Block;
+import io.datakernel.aggregation.ChunkColumnarFormat.BlockDecoder;
+import io.datakernel.aggregation.ChunkColumnarFormat.Footer;
 import io.datakernel.aggregation.ot.AggregationStructure;
 import io.datakernel.async.service.EventloopService;
 import io.datakernel.bytebuf.ByteBuf;
+import io.datakernel.bytebuf.ByteBufQueue;
 import io.datakernel.codegen.DefiningClassLoader;
 import io.datakernel.common.Initializable;
 import io.datakernel.common.MemSize;
+import io.datakernel.common.parse.ParseException;
 import io.datakernel.common.ref.RefInt;
 import io.datakernel.csp.process.ChannelByteChunker;
 import io.datakernel.csp.process.ChannelLZ4Compressor;
@@ -46,6 +51,8 @@ import io.datakernel.promise.Promises;
 import io.datakernel.promise.jmx.PromiseStats;
 import io.datakernel.remotefs.FileMetadata;
 import io.datakernel.remotefs.FsClient;
+import net.jpountz.lz4.LZ4Factory;
+import net.jpountz.lz4.LZ4FastDecompressor;
 import org.jetbrains.annotations.NotNull;
 import org.jetbrains.annotations.Nullable;
 import org.slf4j.Logger;
@@ -54,6 +61,9 @@ import java.io.File;
 import java.nio.file.attribute.FileTime;
 import java.time.Duration;
 import java.time.Instant;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Iterator;
 import java.util.List;
 import java.util.Set;
 import java.util.function.Predicate;
@@ -65,12 +75,14 @@ import static io.datakernel.async.util.LogUtils.toLogger;
 import static io.datakernel.common.collection.CollectionUtils.difference;
 import static io.datakernel.common.collection.CollectionUtils.toLimitedString;
 import static io.datakernel.datastream.stats.StreamStatsSizeCounter.forByteBufs;
+import static java.lang.Math.min;
 import static org.slf4j.LoggerFactory.getLogger;
 
 @SuppressWarnings("rawtypes") // JMX doesn't work with generic types
 public final class RemoteFsChunkStorage<C> implements AggregationChunkStorage<C>, EventloopService, Initializable<RemoteFsChunkStorage<C>>, EventloopJmxMBeanEx {
 	private static final Logger logger = getLogger(RemoteFsChunkStorage.class);
 	public static final MemSize DEFAULT_BUFFER_SIZE = MemSize.kilobytes(256);
+	public static final MemSize DEFAULT_FOOTER_READ_SIZE = MemSize.kilobytes(16);
 
 	public static final Duration DEFAULT_SMOOTHING_WINDOW = Duration.ofMinutes(5);
 	public static final String DEFAULT_BACKUP_FOLDER_NAME = "backups";
@@ -86,6 +98,11 @@ public final class RemoteFsChunkStorage<C> implements AggregationChunkStorage<C>
 
 	private MemSize bufferSize = DEFAULT_BUFFER_SIZE;
 
+	private boolean columnar;
+	private MemSize columnarBlockSize = ChunkColumnarSerializer.DEFAULT_BLOCK_SIZE;
+	private MemSize footerReadSize = DEFAULT_FOOTER_READ_SIZE;
+	private final LZ4FastDecompressor decompressor = LZ4Factory.fastestInstance().fastDecompressor();
+
 	private final ValueStats chunksCount = ValueStats.create(DEFAULT_SMOOTHING_WINDOW);
 	private final PromiseStats promiseIdGenerator = PromiseStats.create(DEFAULT_SMOOTHING_WINDOW);
 	private final PromiseStats promiseOpenR = PromiseStats.create(DEFAULT_SMOOTHING_WINDOW);
@@ -109,6 +126,9 @@ public final class RemoteFsChunkStorage<C> implements AggregationChunkStorage<C>
 	private final StreamStatsDetailed<ByteBuf> writeChunker = StreamStats.detailed(forByteBufs());
 	private final StreamStatsDetailed<ByteBuf> writeFile = StreamStats.detailed(forByteBufs());
 
+	private final ValueStats readColumnarBytes = ValueStats.create(DEFAULT_SMOOTHING_WINDOW).withUnit("bytes");
+	private final ValueStats readColumnarSkippedBytes = ValueStats.create(DEFAULT_SMOOTHING_WINDOW).withUnit("bytes");
+
 	private final ExceptionStats cleanupWarnings = ExceptionStats.create();
 	private int cleanupPreservedFiles;
 	private int cleanupDeletedFiles;
@@ -141,6 +161,32 @@ public final class RemoteFsChunkStorage<C> implements AggregationChunkStorage<C>
 		return this;
 	}
 
+	/**
+	 * Enables writing of new chunks in {@link ChunkColumnarFormat columnar format},
+	 * which allows queries to read only requested measures of a chunk.
+	 * The format of a chunk which is read is detected by its trailer, so chunks which were previously written
+	 * in a row format are still readable. A storage without this setting reads chunks as rows
+	 * without an extra request for the trailer, so the setting must not be disabled while columnar chunks exist.
+	 */
+	public RemoteFsChunkStorage<C> withColumnarFormat() {
+		return withColumnarFormat(true);
+	}
+
+	public RemoteFsChunkStorage<C> withColumnarFormat(boolean columnar) {
+		this.columnar = columnar;
+		return this;
+	}
+
+	public RemoteFsChunkStorage<C> withColumnarBlockSize(MemSize columnarBlockSize) {
+		this.columnarBlockSize = columnarBlockSize;
+		return this;
+	}
+
+	public RemoteFsChunkStorage<C> withFooterReadSize(MemSize footerReadSize) {
+		this.footerReadSize = footerReadSize;
+		return this;
+	}
+
 	private String getPath(C chunkId) {
 		return toFileName(chunkId) + LOG;
 	}
@@ -157,13 +203,63 @@ public final class RemoteFsChunkStorage<C> implements AggregationChunkStorage<C>
 		return chunkIdCodec.fromFileName(fileName);
 	}
 
-	@SuppressWarnings("unchecked")
 	@Override
 	public <T> Promise<StreamSupplier<T>> read(AggregationStructure aggregation, List<String> fields,
 			Class<T> recordClass, C chunkId,
 			DefiningClassLoader classLoader) {
+		return read(aggregation, fields, fields, recordClass, chunkId, classLoader);
+	}
+
+	/**
+	 * Reads a chunk of either format, if columnar format is enabled, otherwise reads a chunk as rows.
+	 * <p>
+	 * The format is detected by the tail of a chunk, which is downloaded along with the footer of a columnar chunk,
+	 * so reading a chunk takes a metadata request and a tail request before the chunk itself is read.
+	 * A chunk which is not larger than {@link #withFooterReadSize footer read size} is read entirely by the tail request,
+	 * otherwise requested columns are downloaded by a ranged request per adjacent columns of each block.
+	 */
+	@Override
+	public <T> Promise<StreamSupplier<T>> read(AggregationStructure aggregation, List<String> fields, List<String> readFields,
+			Class<T> recordClass, C chunkId,
+			DefiningClassLoader classLoader) {
+		if (!columnar) {
+			return readRows(aggregation, fields, recordClass, chunkId, classLoader)
+					.whenComplete(promiseOpenR.recordStats());
+		}
+		String path = getPath(chunkId);
+		return client.getMetadata(path)
+				.then(metadata -> {
+					if (metadata == null) return Promise.ofException(FsClient.FILE_NOT_FOUND);
+					long size = metadata.getSize();
+					long tailSize = min(size, footerReadSize.toLong());
+					return download(path, size - tailSize, tailSize)
+							.then(tail -> {
+								int footerSize = ChunkColumnarFormat.readFooterSize(tail);
+								if (footerSize == -1) {
+									tail.recycle();
+									return readRows(aggregation, fields, recordClass, chunkId, classLoader);
+								}
+								if (footerSize + ChunkColumnarFormat.TRAILER_SIZE > size) {
+									tail.recycle();
+									return Promise.ofException(ChunkColumnarFormat.CORRUPTED_FOOTER);
+								}
+								// a chunk which is downloaded entirely is not downloaded again for its columns
+								ByteBuf file = tailSize == size ? tail.slice() : null;
+								return readFooter(path, size, tail, footerSize)
+										.map(footer -> readColumns(aggregation, readFields, recordClass, path, footer, file, classLoader))
+										.whenException(e -> {
+											if (file != null) file.recycle();
+										});
+							});
+				})
+				.whenComplete(promiseOpenR.recordStats());
+	}
+
+	@SuppressWarnings("unchecked")
+	private <T> Promise<StreamSupplier<T>> readRows(AggregationStructure aggregation, List<String> fields,
+			Class<T> recordClass, C chunkId,
+			DefiningClassLoader classLoader) {
 		return client.download(getPath(chunkId))
-				.whenComplete(promiseOpenR.recordStats())
 				.map(supplier -> supplier
 						.transformWith(readFile)
 						.transformWith(ChannelLZ4Decompressor.create())
@@ -174,11 +270,141 @@ public final class RemoteFsChunkStorage<C> implements AggregationChunkStorage<C>
 						.withLateBinding());
 	}
 
+	private Promise<ByteBuf> download(String path, long offset, long length) {
+		return client.download(path, offset, length)
+				.then(supplier -> supplier
+						.transformWith(readFile)
+						.toCollector(ByteBufQueue.collector()));
+	}
+
+	private Promise<Footer> readFooter(String path, long size, ByteBuf tail, int footerSize) {
+		Promise<ByteBuf> footerPromise;
+		if (footerSize + ChunkColumnarFormat.TRAILER_SIZE <= tail.readRemaining()) {
+			tail.moveHead(tail.readRemaining() - footerSize - ChunkColumnarFormat.TRAILER_SIZE);
+			tail.moveTail(-ChunkColumnarFormat.TRAILER_SIZE);
+			footerPromise = Promise.of(tail);
+		} else {
+			tail.recycle();
+			footerPromise = download(path, size - ChunkColumnarFormat.TRAILER_SIZE - footerSize, footerSize);
+		}
+		return footerPromise
+				.then(buf -> {
+					try {
+						return Promise.of(Footer.decode(buf));
+					} catch (ParseException e) {
+						return Promise.ofException(e);
+					} finally {
+						buf.recycle();
+					}
+				});
+	}
+
+	@SuppressWarnings("unchecked")
+	private <T> StreamSupplier<T> readColumns(AggregationStructure aggregation, List<String> readFields,
+			Class<T> recordClass, String path, Footer footer, @Nullable ByteBuf file,
+			DefiningClassLoader classLoader) {
+		List<String> columns = ChunkColumnarFormat.columns(aggregation, readFields);
+		int[] columnIndexes = new int[columns.size()];
+		for (int i = 0; i < columns.size(); i++) {
+			columnIndexes[i] = footer.getColumns().indexOf(columns.get(i));
+			if (columnIndexes[i] == -1) {
+				if (file != null) file.recycle();
+				return StreamSupplier.closingWithError(
+						new ParseException(ChunkColumnarFormat.class, "Missing column '" + columns.get(i) + "' in chunk " + path));
+			}
+		}
+		BlockDecoder<T> decoder = BlockDecoder.create(aggregation, recordClass, columns, classLoader);
+		Iterator<Block> blocks = footer.getBlocks().iterator();
+		StreamSupplier<T> supplier = StreamSupplier.concat(new Iterator<StreamSupplier<T>>() {
+			@Override
+			public boolean hasNext() {
+				return blocks.hasNext();
+			}
+
+			@Override
+			public StreamSupplier<T> next() {
+				return StreamSupplier.ofPromise(readBlock(path, blocks.next(), columnIndexes, decoder, file));
+			}
+		});
+		if (file != null) {
+			supplier = supplier.withEndOfStream(eos -> eos.whenComplete(file::recycle));
+		}
+		return supplier
+				.transformWith((StreamStats<T>) (detailed ? readDeserializeDetailed : readDeserialize))
+				.withLateBinding();
+	}
+
+	/**
+	 * Downloads requested columns of a block, adjacent columns are downloaded with a single request,
+	 * or sliced out of a chunk which is already downloaded entirely
+	 */
+	private <T> Promise<StreamSupplier<T>> readBlock(String path, Block block, int[] columnIndexes, BlockDecoder<T> decoder,
+			@Nullable ByteBuf file) {
+		int[] sortedIndexes = columnIndexes.clone();
+		Arrays.sort(sortedIndexes);
+		List<int[]> ranges = new ArrayList<>();
+		for (int index : sortedIndexes) {
+			int[] last = ranges.isEmpty() ? null : ranges.get(ranges.size() - 1);
+			if (last != null && last[1] == index) {
+				last[1] = index + 1;
+			} else {
+				ranges.add(new int[]{index, index + 1});
+			}
+		}
+		long readBytes = 0;
+		for (int[] range : ranges) {
+			for (int i = range[0]; i < range[1]; i++) {
+				readBytes += block.getCompressedSize(i);
+			}
+		}
+		readColumnarBytes.recordValue(readBytes);
+		readColumnarSkippedBytes.recordValue(block.getSize() - readBytes);
+		return Promises.toList(ranges.stream()
+				.map(range -> {
+					long offset = block.getColumnOffset(range[0]);
+					long length = block.getColumnOffset(range[1]) - offset;
+					if (length == 0) return Promise.of(ByteBuf.empty());
+					return file != null ?
+							Promise.of(file.slice(file.head() + (int) offset, (int) length)) :
+							download(path, offset, length);
+				}))
+				.then(bufs -> {
+					List<ByteBuf> columns = new ArrayList<>();
+					try {
+						for (int index : columnIndexes) {
+							int r = 0;
+							while (ranges.get(r)[1] <= index) r++;
+							ByteBuf buf = bufs.get(r);
+							int from = (int) (block.getColumnOffset(index) - block.getColumnOffset(ranges.get(r)[0]));
+							ByteBuf column = buf.slice(buf.head() + from, block.getCompressedSize(index));
+							columns.add(ChunkColumnarFormat.decompressColumn(decompressor, column, block.getRawSize(index)));
+						}
+						return Promise.of(StreamSupplier.ofIterable(decoder.decode(block.getCount(), columns)));
+					} catch (ParseException e) {
+						return Promise.ofException(e);
+					} finally {
+						columns.forEach(ByteBuf::recycle);
+						bufs.forEach(ByteBuf::recycle);
+					}
+				});
+	}
+
 	@SuppressWarnings("unchecked")
 	@Override
 	public <T> Promise<StreamConsumer<T>> write(AggregationStructure aggregation, List<String> fields,
 			Class<T> recordClass, C chunkId,
 			DefiningClassLoader classLoader) {
+		if (columnar) {
+			return client.upload(getTempPath(chunkId))
+					.whenComplete(promiseOpenW.recordStats())
+					.map(consumer -> StreamConsumer.ofSupplier(
+							supplier -> supplier
+									.transformWith((StreamStats<T>) (detailed ? writeSerializeDetailed : writeSerialize))
+									.transformWith(ChunkColumnarSerializer.create(aggregation, fields, recordClass, classLoader)
+											.withBlockSize(columnarBlockSize))
+									.transformWith(writeFile)
+									.streamTo(consumer)));
+		}
 		return client.upload(getTempPath(chunkId))
 				.whenComplete(promiseOpenW.recordStats())
 				.map(consumer -> StreamConsumer.ofSupplier(
@@ -393,6 +619,21 @@ public final class RemoteFsChunkStorage<C> implements AggregationChunkStorage<C>
 		return writeFile;
 	}
 
+	@JmxAttribute
+	public ValueStats getReadColumnarBytes() {
+		return readColumnarBytes;
+	}
+
+	@JmxAttribute
+	public ValueStats getReadColumnarSkippedBytes() {
+		return readColumnarSkippedBytes;
+	}
+
+	@JmxAttribute
+	public boolean isColumnar() {
+		return columnar;
+	}
+
 	@JmxAttribute
 	public int getFinishChunks() {
 		return finishChunks;
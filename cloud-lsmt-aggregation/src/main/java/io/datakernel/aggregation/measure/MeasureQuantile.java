@@ -0,0 +1,102 @@
+/*
+ * Copyright (C) 2015-2019 SoftIndex LLC.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package io.datakernel.aggregation.measure;
+
+import io.datakernel.aggregation.fieldtype.FieldType;
+import io.datakernel.codegen.Expression;
+import io.datakernel.codegen.Variable;
+import io.datakernel.serializer.SerializerDef;
+import io.datakernel.serializer.impl.SerializerDefArray;
+import io.datakernel.serializer.impl.SerializerDefByte;
+import io.datakernel.serializer.impl.SerializerDefClass;
+
+import static io.datakernel.codec.StructuredCodecs.DOUBLE_CODEC;
+import static io.datakernel.codegen.Expressions.*;
+import static java.util.Collections.singletonList;
+
+/**
+ * Approximate quantile of values, backed by a mergeable {@link QuantileSketch}.
+ */
+public final class MeasureQuantile extends Measure {
+	private final double quantile;
+	private final double relativeAccuracy;
+
+	private static final class FieldTypeQuantileSketch extends FieldType<Double> {
+		public FieldTypeQuantileSketch() {
+			super(QuantileSketch.class, double.class, serializerDef(), DOUBLE_CODEC, null);
+		}
+
+		private static SerializerDef serializerDef() {
+			SerializerDefClass serializer = SerializerDefClass.of(QuantileSketch.class);
+			try {
+				serializer.addGetter(QuantileSketch.class.getMethod("getBytes"),
+						new SerializerDefArray(new SerializerDefByte(false), byte[].class), -1, -1);
+				serializer.setConstructor(QuantileSketch.class.getConstructor(byte[].class),
+						singletonList("bytes"));
+			} catch (NoSuchMethodException ignored) {
+				throw new RuntimeException("Unable to construct SerializerDef for QuantileSketch");
+			}
+			return serializer;
+		}
+	}
+
+	MeasureQuantile(double quantile, double relativeAccuracy) {
+		super(new FieldTypeQuantileSketch());
+		if (quantile < 0 || quantile > 1)
+			throw new IllegalArgumentException("Quantile should be in [0, 1] range");
+		this.quantile = quantile;
+		this.relativeAccuracy = relativeAccuracy;
+	}
+
+	public static MeasureQuantile create(double quantile, double relativeAccuracy) {
+		return new MeasureQuantile(quantile, relativeAccuracy);
+	}
+
+	@Override
+	public Expression valueOfAccumulator(Expression accumulator) {
+		return call(accumulator, "quantile", value(quantile));
+	}
+
+	@Override
+	public Expression zeroAccumulator(Variable accumulator) {
+		return set(accumulator, constructor(QuantileSketch.class, value(relativeAccuracy)));
+	}
+
+	@Override
+	public Expression initAccumulatorWithAccumulator(Variable accumulator, Expression firstAccumulator) {
+		return sequence(
+				set(accumulator, constructor(QuantileSketch.class, value(relativeAccuracy))),
+				call(accumulator, "union", firstAccumulator));
+	}
+
+	@Override
+	public Expression reduce(Variable accumulator, Variable nextAccumulator) {
+		return call(accumulator, "union", nextAccumulator);
+	}
+
+	@Override
+	public Expression initAccumulatorWithValue(Variable accumulator, Variable firstValue) {
+		return sequence(
+				set(accumulator, constructor(QuantileSketch.class, value(relativeAccuracy))),
+				call(accumulator, "add", cast(firstValue, double.class)));
+	}
+
+	@Override
+	public Expression accumulate(Variable accumulator, Variable nextValue) {
+		return call(accumulator, "add", cast(nextValue, double.class));
+	}
+}
@@ -0,0 +1,131 @@
+/*
+ * Copyright (C) 2015-2019 SoftIndex LLC.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package io.datakernel.aggregation.measure;
+
+import io.datakernel.aggregation.fieldtype.FieldType;
+import io.datakernel.codec.StructuredCodec;
+import io.datakernel.codegen.Expression;
+import io.datakernel.codegen.Variable;
+import io.datakernel.codegen.utils.Primitives;
+import io.datakernel.common.reflection.RecursiveType;
+import io.datakernel.serializer.SerializerDef;
+import io.datakernel.serializer.impl.SerializerDefArray;
+import io.datakernel.serializer.impl.SerializerDefByte;
+import io.datakernel.serializer.impl.SerializerDefClass;
+
+import java.lang.reflect.Type;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+import static io.datakernel.codec.StructuredCodecs.ofList;
+import static io.datakernel.codegen.Expressions.*;
+import static java.util.Arrays.asList;
+import static java.util.Collections.singletonList;
+
+/**
+ * Approximate list of the most frequent values, backed by a mergeable {@link TopKSketch}.
+ */
+public final class MeasureTopK extends Measure {
+	private static final Set<Class<?>> ITEM_TYPES = new HashSet<>(asList(
+			int.class, Integer.class, long.class, Long.class, String.class));
+
+	private final int k;
+	private final int capacity;
+
+	/**
+	 * Items are reported in their internal representation, which is what the sketch holds,
+	 * so both data type and codec of the list are derived from the internal type of items.
+	 */
+	private static final class FieldTypeTopKSketch extends FieldType<List<Object>> {
+		@SuppressWarnings("unchecked")
+		public FieldTypeTopKSketch(FieldType<?> itemType) {
+			super(TopKSketch.class, listType(itemType), serializerDef(), ofList((StructuredCodec<Object>) itemCodec(itemType)), null);
+		}
+
+		private static Type listType(FieldType<?> itemType) {
+			Class<?> wrappedItemType = Primitives.wrap(itemType.getInternalDataType());
+			return RecursiveType.of(List.class, RecursiveType.of(wrappedItemType)).getType();
+		}
+
+		private static StructuredCodec<?> itemCodec(FieldType<?> itemType) {
+			StructuredCodec<?> internalCodec = itemType.getInternalCodec();
+			return internalCodec != null ? internalCodec : itemType.getCodec();
+		}
+
+		private static SerializerDef serializerDef() {
+			SerializerDefClass serializer = SerializerDefClass.of(TopKSketch.class);
+			try {
+				serializer.addGetter(TopKSketch.class.getMethod("getBytes"),
+						new SerializerDefArray(new SerializerDefByte(false), byte[].class), -1, -1);
+				serializer.setConstructor(TopKSketch.class.getConstructor(byte[].class),
+						singletonList("bytes"));
+			} catch (NoSuchMethodException ignored) {
+				throw new RuntimeException("Unable to construct SerializerDef for TopKSketch");
+			}
+			return serializer;
+		}
+	}
+
+	<T> MeasureTopK(FieldType<T> itemType, int k, int capacity) {
+		super(new FieldTypeTopKSketch(itemType));
+		if (!ITEM_TYPES.contains(itemType.getInternalDataType()))
+			throw new IllegalArgumentException("Unsupported type of items: " + itemType);
+		if (k <= 0 || capacity < k)
+			throw new IllegalArgumentException("Capacity should be not less than k, which should be positive");
+		this.k = k;
+		this.capacity = capacity;
+	}
+
+	public static <T> MeasureTopK create(FieldType<T> itemType, int k, int capacity) {
+		return new MeasureTopK(itemType, k, capacity);
+	}
+
+	@Override
+	public Expression valueOfAccumulator(Expression accumulator) {
+		return call(accumulator, "getTop", value(k));
+	}
+
+	@Override
+	public Expression zeroAccumulator(Variable accumulator) {
+		return set(accumulator, constructor(TopKSketch.class, value(capacity)));
+	}
+
+	@Override
+	public Expression initAccumulatorWithAccumulator(Variable accumulator, Expression firstAccumulator) {
+		return sequence(
+				set(accumulator, constructor(TopKSketch.class, value(capacity))),
+				call(accumulator, "union", firstAccumulator));
+	}
+
+	@Override
+	public Expression reduce(Variable accumulator, Variable nextAccumulator) {
+		return call(accumulator, "union", nextAccumulator);
+	}
+
+	@Override
+	public Expression initAccumulatorWithValue(Variable accumulator, Variable firstValue) {
+		return sequence(
+				set(accumulator, constructor(TopKSketch.class, value(capacity))),
+				call(accumulator, "add", cast(firstValue, Object.class)));
+	}
+
+	@Override
+	public Expression accumulate(Variable accumulator, Variable nextValue) {
+		return call(accumulator, "add", cast(nextValue, Object.class));
+	}
+}
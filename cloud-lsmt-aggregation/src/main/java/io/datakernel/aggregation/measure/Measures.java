@@ -40,6 +40,28 @@ public class Measures {
 		return new MeasureHyperLogLog(registers);
 	}
 
+	/**
+	 * Approximate {@code k} most frequent values, monitoring {@code 10 * k} distinct values.
+	 */
+	public static Measure topK(FieldType<?> itemType, int k) {
+		return new MeasureTopK(itemType, k, 10 * k);
+	}
+
+	public static Measure topK(FieldType<?> itemType, int k, int capacity) {
+		return new MeasureTopK(itemType, k, capacity);
+	}
+
+	/**
+	 * Approximate quantile of values, within 1% relative error.
+	 */
+	public static Measure quantile(double quantile) {
+		return new MeasureQuantile(quantile, 0.01);
+	}
+
+	public static Measure quantile(double quantile, double relativeAccuracy) {
+		return new MeasureQuantile(quantile, relativeAccuracy);
+	}
+
 	public static Measure union(FieldType<?> fieldType) {
 		return new MeasureUnion(FieldTypes.ofSet(fieldType));
 	}
@@ -0,0 +1,251 @@
+/*
+ * Copyright (C) 2015-2019 SoftIndex LLC.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package io.datakernel.aggregation.measure;
+
+import java.nio.ByteBuffer;
+
+import static java.lang.Math.*;
+
+/**
+ * Mergeable quantile sketch with relative accuracy guarantee (DDSketch).
+ * <p>
+ * Values are counted in logarithmic buckets, so that any quantile is estimated within
+ * the given relative error of the actual value. Sketches with the same accuracy are merged
+ * by adding their bucket counts. Number of buckets is bounded, when it is exceeded,
+ * buckets of values closest to zero are collapsed together.
+ */
+public final class QuantileSketch implements Comparable<QuantileSketch> {
+	public static final int DEFAULT_MAX_BUCKETS = 2048;
+
+	private static final double MIN_INDEXABLE_VALUE = Double.MIN_NORMAL * 1e16;
+
+	private final double relativeAccuracy;
+	private final int maxBuckets;
+	private final double gamma;
+	private final double logGamma;
+
+	private final Store positive;
+	private final Store negative;
+	private long zeroCount;
+
+	public QuantileSketch(double relativeAccuracy, int maxBuckets) {
+		if (relativeAccuracy <= 0 || relativeAccuracy >= 1)
+			throw new IllegalArgumentException("Relative accuracy should be in (0, 1) range");
+		if (maxBuckets <= 0)
+			throw new IllegalArgumentException("Max buckets should be positive");
+		this.relativeAccuracy = relativeAccuracy;
+		this.maxBuckets = maxBuckets;
+		this.gamma = (1 + relativeAccuracy) / (1 - relativeAccuracy);
+		this.logGamma = log(gamma);
+		this.positive = new Store(maxBuckets);
+		this.negative = new Store(maxBuckets);
+	}
+
+	public QuantileSketch(double relativeAccuracy) {
+		this(relativeAccuracy, DEFAULT_MAX_BUCKETS);
+	}
+
+	public QuantileSketch(byte[] bytes) {
+		this(ByteBuffer.wrap(bytes));
+	}
+
+	private QuantileSketch(ByteBuffer buffer) {
+		this(buffer.getDouble(), buffer.getInt());
+		zeroCount = buffer.getLong();
+		positive.read(buffer);
+		negative.read(buffer);
+	}
+
+	public byte[] getBytes() {
+		ByteBuffer buffer = ByteBuffer.allocate(8 + 4 + 8 + positive.bytes() + negative.bytes());
+		buffer.putDouble(relativeAccuracy);
+		buffer.putInt(maxBuckets);
+		buffer.putLong(zeroCount);
+		positive.write(buffer);
+		negative.write(buffer);
+		return buffer.array();
+	}
+
+	public double getRelativeAccuracy() {
+		return relativeAccuracy;
+	}
+
+	public long getCount() {
+		return zeroCount + positive.total + negative.total;
+	}
+
+	public void add(double value) {
+		if (value > MIN_INDEXABLE_VALUE) {
+			positive.add(index(value), 1);
+		} else if (value < -MIN_INDEXABLE_VALUE) {
+			negative.add(index(-value), 1);
+		} else {
+			zeroCount++;
+		}
+	}
+
+	public void union(QuantileSketch another) {
+		if (this.relativeAccuracy != another.relativeAccuracy)
+			throw new IllegalArgumentException("Cannot merge sketches with different relative accuracy");
+		zeroCount += another.zeroCount;
+		positive.union(another.positive);
+		negative.union(another.negative);
+	}
+
+	/**
+	 * Returns an estimate of the value at the given quantile, or {@code NaN} if the sketch is empty.
+	 *
+	 * @param quantile quantile in [0, 1] range
+	 */
+	public double quantile(double quantile) {
+		long count = getCount();
+		if (count == 0) return Double.NaN;
+		long rank = (long) (quantile * (count - 1));
+		long seen = 0;
+		for (int index = negative.max; index >= negative.min; index--) {
+			seen += negative.counts[index - negative.offset];
+			if (seen > rank) return -value(index);
+		}
+		seen += zeroCount;
+		if (seen > rank) return 0;
+		for (int index = positive.min; index <= positive.max; index++) {
+			seen += positive.counts[index - positive.offset];
+			if (seen > rank) return value(index);
+		}
+		return value(positive.max);
+	}
+
+	private int index(double value) {
+		return (int) ceil(log(value) / logGamma);
+	}
+
+	private double value(int index) {
+		return 2 * pow(gamma, index) / (gamma + 1);
+	}
+
+	@Override
+	public int compareTo(QuantileSketch that) {
+		return Double.compare(this.quantile(0.5), that.quantile(0.5));
+	}
+
+	@Override
+	public String toString() {
+		return "QuantileSketch{count=" + getCount() + ", median=" + quantile(0.5) + '}';
+	}
+
+	/**
+	 * Dense array of bucket counts, starting from bucket {@code offset}.
+	 * Buckets {@code min..max} enclose all non-empty buckets and span no more than {@code maxBuckets} buckets,
+	 * counts which do not fit are collapsed into the lowest bucket.
+	 */
+	private static final class Store {
+		final int maxBuckets;
+		int offset;
+		long[] counts = new long[0];
+		long total;
+		int min = Integer.MAX_VALUE;
+		int max = Integer.MIN_VALUE;
+
+		Store(int maxBuckets) {
+			this.maxBuckets = maxBuckets;
+		}
+
+		void add(int index, long count) {
+			if (total != 0) {
+				if (index < (long) max - maxBuckets + 1) {
+					index = max - maxBuckets + 1;
+				} else if ((long) index - min >= maxBuckets) {
+					collapse(index - maxBuckets + 1);
+				}
+			}
+			put(index, count);
+		}
+
+		void union(Store another) {
+			for (int index = another.min; index <= another.max; index++) {
+				long count = another.counts[index - another.offset];
+				if (count != 0) {
+					add(index, count);
+				}
+			}
+		}
+
+		/**
+		 * Merges all buckets below {@code newMin} into bucket {@code newMin}.
+		 */
+		private void collapse(int newMin) {
+			long collapsed = 0;
+			for (int index = min; index < newMin && index <= max; index++) {
+				collapsed += counts[index - offset];
+				counts[index - offset] = 0;
+			}
+			total -= collapsed;
+			if (newMin > max) {
+				min = Integer.MAX_VALUE;
+				max = Integer.MIN_VALUE;
+			} else {
+				min = newMin;
+			}
+			put(newMin, collapsed);
+		}
+
+		private void put(int index, long count) {
+			if (counts.length == 0 || index < offset || index >= offset + counts.length) {
+				resize(total == 0 ? index : Math.min(min, index), total == 0 ? index : Math.max(max, index));
+			}
+			counts[index - offset] += count;
+			total += count;
+			min = Math.min(min, index);
+			max = Math.max(max, index);
+		}
+
+		private void resize(int newMin, int newMax) {
+			int length = Math.min(maxBuckets, max(newMax - newMin + 1, max(counts.length * 2, 8)));
+			int newOffset = counts.length != 0 && newMin < offset ? newMax - length + 1 : newMin;
+			long[] newCounts = new long[length];
+			if (total != 0) {
+				System.arraycopy(counts, min - offset, newCounts, min - newOffset, max - min + 1);
+			}
+			offset = newOffset;
+			counts = newCounts;
+		}
+
+		int bytes() {
+			return 4 + 4 + 8 * (total == 0 ? 0 : max - min + 1);
+		}
+
+		void write(ByteBuffer buffer) {
+			int length = total == 0 ? 0 : max - min + 1;
+			buffer.putInt(min);
+			buffer.putInt(length);
+			for (int i = 0; i < length; i++) {
+				buffer.putLong(counts[min - offset + i]);
+			}
+		}
+
+		void read(ByteBuffer buffer) {
+			int from = buffer.getInt();
+			int length = buffer.getInt();
+			for (int i = 0; i < length; i++) {
+				long count = buffer.getLong();
+				if (count != 0) {
+					add(from + i, count);
+				}
+			}
+		}
+	}
+}
@@ -0,0 +1,261 @@
+/*
+ * Copyright (C) 2015-2019 SoftIndex LLC.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package io.datakernel.aggregation.measure;
+
+import java.nio.ByteBuffer;
+import java.util.*;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+
+/**
+ * Mergeable sketch of the most frequent items (Space-Saving algorithm).
+ * <p>
+ * At most {@code capacity} items are monitored. When a new item arrives and the sketch is full,
+ * it replaces the item with the lowest count, inheriting its count as an overestimation error.
+ * Items with a frequency greater than {@code 1 / capacity} of all items are guaranteed to be monitored.
+ * <p>
+ * Items are expected to be of {@link Integer}, {@link Long} or {@link String} types.
+ */
+public final class TopKSketch {
+	private static final byte INT = 0;
+	private static final byte LONG = 1;
+	private static final byte STRING = 2;
+
+	private final int capacity;
+	private final Map<Object, Counter> counters;
+	private Counter[] heap;
+	private int size;
+
+	private static final class Counter {
+		final Object item;
+		long count;
+		long error;
+		int position;
+
+		Counter(Object item, long count, long error) {
+			this.item = item;
+			this.count = count;
+			this.error = error;
+		}
+	}
+
+	public TopKSketch(int capacity) {
+		if (capacity <= 0) throw new IllegalArgumentException("Capacity should be positive");
+		this.capacity = capacity;
+		this.counters = new HashMap<>();
+		this.heap = new Counter[Math.min(capacity, 16)];
+	}
+
+	public TopKSketch(byte[] bytes) {
+		this(ByteBuffer.wrap(bytes));
+	}
+
+	private TopKSketch(ByteBuffer buffer) {
+		this(buffer.getInt());
+		int size = buffer.getInt();
+		for (int i = 0; i < size; i++) {
+			Object item = readItem(buffer);
+			long count = buffer.getLong();
+			long error = buffer.getLong();
+			insert(new Counter(item, count, error));
+		}
+	}
+
+	public byte[] getBytes() {
+		List<byte[]> items = new ArrayList<>(size);
+		int bytes = 4 + 4;
+		for (int i = 0; i < size; i++) {
+			byte[] item = writeItem(heap[i].item);
+			items.add(item);
+			bytes += item.length + 8 + 8;
+		}
+		ByteBuffer buffer = ByteBuffer.allocate(bytes);
+		buffer.putInt(capacity);
+		buffer.putInt(size);
+		for (int i = 0; i < size; i++) {
+			buffer.put(items.get(i));
+			buffer.putLong(heap[i].count);
+			buffer.putLong(heap[i].error);
+		}
+		return buffer.array();
+	}
+
+	public int getCapacity() {
+		return capacity;
+	}
+
+	public int size() {
+		return size;
+	}
+
+	public void add(Object item) {
+		add(item, 1);
+	}
+
+	public void add(Object item, long count) {
+		Counter counter = counters.get(item);
+		if (counter != null) {
+			counter.count += count;
+			siftDown(counter.position);
+		} else if (size < capacity) {
+			insert(new Counter(item, count, 0));
+		} else {
+			Counter min = heap[0];
+			counters.remove(min.item);
+			Counter replacement = new Counter(item, min.count + count, min.count);
+			replacement.position = 0;
+			heap[0] = replacement;
+			counters.put(item, replacement);
+			siftDown(0);
+		}
+	}
+
+	/**
+	 * Merges another sketch into this one. Items which are not monitored by one of the sketches
+	 * are assumed to have the minimum count of that sketch, if it is full.
+	 */
+	public void union(TopKSketch another) {
+		long thisMin = size == capacity ? heap[0].count : 0;
+		long anotherMin = another.size == another.capacity ? another.heap[0].count : 0;
+
+		List<Counter> merged = new ArrayList<>(size + another.size);
+		for (int i = 0; i < size; i++) {
+			Counter counter = heap[i];
+			Counter anotherCounter = another.counters.get(counter.item);
+			merged.add(anotherCounter != null ?
+					new Counter(counter.item, counter.count + anotherCounter.count, counter.error + anotherCounter.error) :
+					new Counter(counter.item, counter.count + anotherMin, counter.error + anotherMin));
+		}
+		for (int i = 0; i < another.size; i++) {
+			Counter anotherCounter = another.heap[i];
+			if (!counters.containsKey(anotherCounter.item)) {
+				merged.add(new Counter(anotherCounter.item, anotherCounter.count + thisMin, anotherCounter.error + thisMin));
+			}
+		}
+		merged.sort(Comparator.comparingLong((Counter counter) -> counter.count).reversed());
+
+		counters.clear();
+		size = 0;
+		for (int i = 0; i < merged.size() && i < capacity; i++) {
+			insert(merged.get(i));
+		}
+	}
+
+	/**
+	 * Returns up to {@code k} most frequent items, in the descending order of their estimated counts.
+	 */
+	public List<Object> getTop(int k) {
+		List<Counter> sorted = new ArrayList<>(size);
+		for (int i = 0; i < size; i++) {
+			sorted.add(heap[i]);
+		}
+		sorted.sort(Comparator.comparingLong((Counter counter) -> counter.count).reversed());
+		List<Object> result = new ArrayList<>(Math.min(k, size));
+		for (int i = 0; i < sorted.size() && i < k; i++) {
+			result.add(sorted.get(i).item);
+		}
+		return result;
+	}
+
+	/**
+	 * Returns estimated count of the item, which may exceed the actual count by no more than its error,
+	 * or 0 if the item is not monitored.
+	 */
+	public long getCount(Object item) {
+		Counter counter = counters.get(item);
+		return counter != null ? counter.count : 0;
+	}
+
+	public long getError(Object item) {
+		Counter counter = counters.get(item);
+		return counter != null ? counter.error : 0;
+	}
+
+	private void insert(Counter counter) {
+		if (size == heap.length) {
+			heap = Arrays.copyOf(heap, Math.min(capacity, heap.length * 2));
+		}
+		counter.position = size;
+		heap[size++] = counter;
+		counters.put(counter.item, counter);
+		siftUp(counter.position);
+	}
+
+	private void siftUp(int position) {
+		Counter counter = heap[position];
+		while (position > 0) {
+			int parent = (position - 1) >>> 1;
+			if (heap[parent].count <= counter.count) break;
+			place(heap[parent], position);
+			position = parent;
+		}
+		place(counter, position);
+	}
+
+	private void siftDown(int position) {
+		Counter counter = heap[position];
+		while (true) {
+			int child = 2 * position + 1;
+			if (child >= size) break;
+			if (child + 1 < size && heap[child + 1].count < heap[child].count) child++;
+			if (counter.count <= heap[child].count) break;
+			place(heap[child], position);
+			position = child;
+		}
+		place(counter, position);
+	}
+
+	private void place(Counter counter, int position) {
+		heap[position] = counter;
+		counter.position = position;
+	}
+
+	private static byte[] writeItem(Object item) {
+		if (item instanceof Integer) {
+			return ByteBuffer.allocate(1 + 4).put(INT).putInt((Integer) item).array();
+		}
+		if (item instanceof Long) {
+			return ByteBuffer.allocate(1 + 8).put(LONG).putLong((Long) item).array();
+		}
+		if (item instanceof String) {
+			byte[] bytes = ((String) item).getBytes(UTF_8);
+			return ByteBuffer.allocate(1 + 4 + bytes.length).put(STRING).putInt(bytes.length).put(bytes).array();
+		}
+		throw new IllegalArgumentException("Unsupported type of item: " + item.getClass().getName());
+	}
+
+	private static Object readItem(ByteBuffer buffer) {
+		byte type = buffer.get();
+		switch (type) {
+			case INT:
+				return buffer.getInt();
+			case LONG:
+				return buffer.getLong();
+			case STRING:
+				byte[] bytes = new byte[buffer.getInt()];
+				buffer.get(bytes);
+				return new String(bytes, UTF_8);
+			default:
+				throw new IllegalArgumentException("Unknown type of item: " + type);
+		}
+	}
+
+	@Override
+	public String toString() {
+		return "TopKSketch{top=" + getTop(10) + '}';
+	}
+}
@@ -25,6 +25,8 @@ import io.datakernel.codec.StructuredOutput;
 import io.datakernel.common.parse.ParseException;
 
 import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
 import java.util.Set;
 
 import static io.datakernel.aggregation.Utils.getPrimaryKeyCodec;
@@ -44,7 +46,9 @@ public class AggregationDiffCodec implements StructuredCodec<AggregationDiff> {
 	public static AggregationDiffCodec create(AggregationStructure structure) {
 		Set<String> allowedMeasures = structure.getMeasureTypes().keySet();
 		StructuredCodec<PrimaryKey> primaryKeyCodec = getPrimaryKeyCodec(structure);
-		return new AggregationDiffCodec(AggregationChunkCodec.create(structure.getChunkIdCodec(), primaryKeyCodec, allowedMeasures));
+		Map<String, StructuredCodec<?>> keyCodecs = new HashMap<>();
+		structure.getKeyTypes().forEach((key, type) -> keyCodecs.put(key, type.getInternalCodec()));
+		return new AggregationDiffCodec(AggregationChunkCodec.create(structure.getChunkIdCodec(), primaryKeyCodec, allowedMeasures, keyCodecs));
 	}
 
 	@Override
@@ -16,6 +16,7 @@ public final class AggregationStructure implements Initializable<AggregationStru
 	private final Map<String, FieldType> measureTypes = new LinkedHashMap<>();
 	private final List<String> partitioningKey = new ArrayList<>();
 	private final Map<String, Measure> measures = new LinkedHashMap<>();
+	private final Set<String> bloomFilterKeys = new LinkedHashSet<>();
 
 	private AggregationStructure(ChunkIdCodec<?> chunkIdCodec) {
 		this.chunkIdCodec = chunkIdCodec;
@@ -49,6 +50,19 @@ public final class AggregationStructure implements Initializable<AggregationStru
 		return this;
 	}
 
+	/**
+	 * Enables bloom filters in zone maps of chunks for given keys.
+	 * Useful for high-cardinality keys, which are queried by exact values.
+	 */
+	public AggregationStructure withBloomFilterKeys(Collection<String> keys) {
+		this.bloomFilterKeys.addAll(keys);
+		return this;
+	}
+
+	public AggregationStructure withBloomFilterKeys(String... keys) {
+		return withBloomFilterKeys(Arrays.asList(keys));
+	}
+
 	public ChunkIdCodec<?> getChunkIdCodec() {
 		return chunkIdCodec;
 	}
@@ -90,4 +104,8 @@ public final class AggregationStructure implements Initializable<AggregationStru
 		return partitioningKey;
 	}
 
+	public Set<String> getBloomFilterKeys() {
+		return bloomFilterKeys;
+	}
+
 }
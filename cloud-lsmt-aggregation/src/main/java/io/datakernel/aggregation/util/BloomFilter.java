@@ -0,0 +1,182 @@
+/*
+ * Copyright (C) 2015-2019 SoftIndex LLC.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package io.datakernel.aggregation.util;
+
+import io.datakernel.common.parse.ParseException;
+import org.jetbrains.annotations.Nullable;
+
+/**
+ * Compact bloom filter over internal values of aggregation keys.
+ * <p>
+ * Number of bits is always a power of two, so a filter can be folded in half
+ * after all values are added, which lets sparse filters be stored compactly.
+ * Hashes are stable across JVMs, so filters may be persisted as a part of chunk metadata.
+ * <p>
+ * As chunk metadata is a part of OT diffs and is kept in memory for every chunk,
+ * a filter is limited to {@link #MAX_BITS} bits, which is enough for about 1400 distinct values.
+ * Filters over more distinct values are too dense and are dropped by {@link #compact()}.
+ */
+public final class BloomFilter {
+	public static final int HASHES = 4;
+	public static final int MIN_BITS = 512;
+	public static final int MAX_BITS = 1 << 13;
+
+	private static final double MAX_FOLDED_FILL = 0.5;
+
+	private final byte[] bits;
+
+	private BloomFilter(byte[] bits) {
+		this.bits = bits;
+	}
+
+	public static BloomFilter create(int expectedValues) {
+		int bits = MIN_BITS;
+		while (bits < MAX_BITS && bits < expectedValues * 8L) {
+			bits <<= 1;
+		}
+		return new BloomFilter(new byte[bits >>> 3]);
+	}
+
+	/**
+	 * Restores a filter of given bits, a filter larger than {@link #MAX_BITS} is folded down to it
+	 */
+	public static BloomFilter ofBytes(byte[] bytes) throws ParseException {
+		if (bytes.length < MIN_BITS >>> 3 || Integer.bitCount(bytes.length) != 1)
+			throw new ParseException(BloomFilter.class, "Invalid bloom filter size: " + bytes.length);
+		while (bytes.length > MAX_BITS >>> 3) {
+			bytes = fold(bytes);
+		}
+		return new BloomFilter(bytes);
+	}
+
+	public byte[] getBytes() {
+		return bits;
+	}
+
+	public int getBits() {
+		return bits.length << 3;
+	}
+
+	public void add(@Nullable Object value) {
+		addHash(hash(value));
+	}
+
+	/**
+	 * Adds an integral value, same as {@link #add(Object)} of a boxed value
+	 */
+	public void addLong(long value) {
+		addHash(mix(value));
+	}
+
+	/**
+	 * Adds a floating point value, same as {@link #add(Object)} of a boxed value
+	 */
+	public void addDouble(double value) {
+		addHash(mix(Double.doubleToLongBits(value)));
+	}
+
+	private void addHash(long hash) {
+		int h1 = (int) hash;
+		int h2 = (int) (hash >>> 32) | 1;
+		int mask = getBits() - 1;
+		for (int i = 0; i < HASHES; i++) {
+			int bit = (h1 + i * h2) & mask;
+			bits[bit >>> 3] |= 1 << (bit & 7);
+		}
+	}
+
+	public boolean mightContain(@Nullable Object value) {
+		long hash = hash(value);
+		int h1 = (int) hash;
+		int h2 = (int) (hash >>> 32) | 1;
+		int mask = getBits() - 1;
+		for (int i = 0; i < HASHES; i++) {
+			int bit = (h1 + i * h2) & mask;
+			if ((bits[bit >>> 3] & (1 << (bit & 7))) == 0) return false;
+		}
+		return true;
+	}
+
+	public double getFill() {
+		int set = 0;
+		for (byte b : bits) {
+			set += Integer.bitCount(b & 0xFF);
+		}
+		return (double) set / getBits();
+	}
+
+	/**
+	 * Folds this filter in half while the folded filter stays sparse enough
+	 *
+	 * @return compacted filter, or {@code null} if this filter is too dense to be useful
+	 */
+	@Nullable
+	public BloomFilter compact() {
+		double fill = getFill();
+		if (fill > MAX_FOLDED_FILL) return null;
+		byte[] result = bits;
+		int length = bits.length;
+		while (length > MIN_BITS >>> 3) {
+			double foldedFill = 1.0 - (1.0 - fill) * (1.0 - fill);
+			if (foldedFill > MAX_FOLDED_FILL) break;
+			length >>>= 1;
+			result = fold(result);
+			fill = foldedFill;
+		}
+		return result == bits ? this : new BloomFilter(result);
+	}
+
+	private static byte[] fold(byte[] bits) {
+		int length = bits.length >>> 1;
+		byte[] folded = new byte[length];
+		for (int i = 0; i < length; i++) {
+			folded[i] = (byte) (bits[i] | bits[i + length]);
+		}
+		return folded;
+	}
+
+	static long hash(@Nullable Object value) {
+		long h;
+		if (value == null) {
+			h = 0;
+		} else if (value instanceof Long || value instanceof Integer || value instanceof Short || value instanceof Byte) {
+			h = ((Number) value).longValue();
+		} else if (value instanceof Double || value instanceof Float) {
+			h = Double.doubleToLongBits(((Number) value).doubleValue());
+		} else if (value instanceof Character) {
+			h = (Character) value;
+		} else if (value instanceof Boolean) {
+			h = (Boolean) value ? 1 : 0;
+		} else {
+			String string = value instanceof Enum ? ((Enum<?>) value).name() : value.toString();
+			h = 0xcbf29ce484222325L;
+			for (int i = 0; i < string.length(); i++) {
+				h = (h ^ string.charAt(i)) * 0x100000001b3L;
+			}
+		}
+		return mix(h);
+	}
+
+	private static long mix(long h) {
+		h ^= h >>> 33;
+		h *= 0xff51afd7ed558ccdL;
+		h ^= h >>> 33;
+		h *= 0xc4ceb9fe1a85ec53L;
+		h ^= h >>> 33;
+		return h;
+	}
+}
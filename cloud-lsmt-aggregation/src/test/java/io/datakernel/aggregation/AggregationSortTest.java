@@ -0,0 +1,174 @@
+/*
+ * Copyright (C) 2015-2019 SoftIndex LLC.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package io.datakernel.aggregation;
+
+import io.datakernel.aggregation.annotation.Key;
+import io.datakernel.aggregation.annotation.Measures;
+import io.datakernel.aggregation.fieldtype.FieldTypes;
+import io.datakernel.aggregation.ot.AggregationDiff;
+import io.datakernel.aggregation.ot.AggregationStructure;
+import io.datakernel.codegen.DefiningClassLoader;
+import io.datakernel.common.MemSize;
+import io.datakernel.datastream.StreamSupplier;
+import io.datakernel.datastream.processor.StreamSorterStorageImpl;
+import io.datakernel.eventloop.Eventloop;
+import io.datakernel.remotefs.LocalFsClient;
+import io.datakernel.test.rules.ByteBufRule;
+import io.datakernel.test.rules.EventloopRule;
+import org.junit.Before;
+import org.junit.ClassRule;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Executor;
+import java.util.concurrent.Executors;
+import java.util.stream.Collectors;
+
+import static io.datakernel.aggregation.fieldtype.FieldTypes.ofLong;
+import static io.datakernel.aggregation.measure.Measures.count;
+import static io.datakernel.aggregation.measure.Measures.sum;
+import static io.datakernel.promise.TestUtils.await;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public final class AggregationSortTest {
+	@Rule
+	public TemporaryFolder temporaryFolder = new TemporaryFolder();
+
+	@ClassRule
+	public static final EventloopRule eventloopRule = new EventloopRule();
+
+	@ClassRule
+	public static final ByteBufRule byteBufRule = new ByteBufRule();
+
+	private static final int RECORDS = 1000;
+
+	@Measures("eventCount")
+	public static class EventRecord {
+		@Key
+		public int siteId;
+
+		@Key
+		public int campaignId;
+
+		@Measures("sumClicks")
+		public long clicks;
+
+		public EventRecord(int siteId, int campaignId, long clicks) {
+			this.siteId = siteId;
+			this.campaignId = campaignId;
+			this.clicks = clicks;
+		}
+	}
+
+	public static class QueryResult {
+		public int campaignId;
+
+		public long eventCount;
+		public long sumClicks;
+	}
+
+	private final Eventloop eventloop = Eventloop.getCurrentEventloop();
+	private final Executor executor = Executors.newCachedThreadPool();
+	private final DefiningClassLoader classLoader = DefiningClassLoader.create();
+	private final AggregationStructure structure = AggregationStructure.create(ChunkIdCodec.ofLong())
+			.withKey("siteId", FieldTypes.ofInt())
+			.withKey("campaignId", FieldTypes.ofInt())
+			.withMeasure("eventCount", count(ofLong()))
+			.withMeasure("sumClicks", sum(ofLong()));
+
+	private RemoteFsChunkStorage<Long> storage;
+
+	@Before
+	public void setUp() throws Exception {
+		Path storagePath = temporaryFolder.newFolder().toPath();
+		storage = RemoteFsChunkStorage.create(eventloop, ChunkIdCodec.ofLong(), new IdGeneratorStub(),
+				LocalFsClient.create(eventloop, executor, storagePath));
+	}
+
+	@Test
+	public void testUncompressedMemoryMappedSort() throws Exception {
+		Aggregation aggregation = Aggregation.create(eventloop, executor, classLoader, storage, structure)
+				.withTemporarySortDir(temporaryFolder.newFolder().toPath())
+				.withSorterItemsInMemory(RECORDS / 10)
+				.withSorterCompression(false)
+				.withSorterMemoryMappedReads(true);
+		consume(aggregation);
+
+		assertQueryResult(aggregation);
+
+		StreamSorterStorageImpl.Stats stats = aggregation.getStats().getSorterStorage();
+		long timestamp = eventloop.currentTimeMillis();
+		stats.getPartitionsWritten().refresh(timestamp);
+		stats.getBytesWritten().refresh(timestamp);
+		stats.getBytesRead().refresh(timestamp);
+		assertTrue(stats.getPartitionsWritten().getTotalCount() >= 10);
+		assertEquals(stats.getBytesWritten().getTotalCount(), stats.getBytesRead().getTotalCount());
+	}
+
+	@Test
+	public void testSorterMemoryLimit() throws Exception {
+		Aggregation aggregation = Aggregation.create(eventloop, executor, classLoader, storage, structure)
+				.withTemporarySortDir(temporaryFolder.newFolder().toPath())
+				.withSorterItemsInMemory(RECORDS)
+				.withSorterParallelRuns(4)
+				.withSorterMemory(MemSize.kilobytes(4));
+		consume(aggregation);
+
+		assertQueryResult(aggregation);
+
+		StreamSorterStorageImpl.Stats stats = aggregation.getStats().getSorterStorage();
+		stats.getPartitionsWritten().refresh(eventloop.currentTimeMillis());
+		assertTrue(stats.getPartitionsWritten().getTotalCount() >= 10);
+	}
+
+	private void consume(Aggregation aggregation) {
+		List<EventRecord> records = new ArrayList<>();
+		for (int i = 0; i < RECORDS; i++) {
+			records.add(new EventRecord(i, i % 10, i));
+		}
+		AggregationDiff diff = await(StreamSupplier.ofIterable(records).streamTo(aggregation.consume(EventRecord.class)));
+		await(storage.finish(diff.getAddedChunks().stream().map(AggregationChunk::getChunkId).map(id -> (long) id).collect(Collectors.toSet())));
+		aggregation.getState().apply(diff);
+	}
+
+	private void assertQueryResult(Aggregation aggregation) {
+		// records are sorted by a key which is not a prefix of the aggregation keys
+		List<QueryResult> results = await(aggregation.query(
+				AggregationQuery.create()
+						.withKeys("campaignId")
+						.withMeasures("eventCount", "sumClicks"),
+				QueryResult.class, DefiningClassLoader.create(classLoader))
+				.toList());
+
+		assertEquals(10, results.size());
+		for (int campaignId = 0; campaignId < 10; campaignId++) {
+			QueryResult result = results.get(campaignId);
+			assertEquals(campaignId, result.campaignId);
+			assertEquals(RECORDS / 10, result.eventCount);
+			long sumClicks = 0;
+			for (int i = campaignId; i < RECORDS; i += 10) {
+				sumClicks += i;
+			}
+			assertEquals(sumClicks, result.sumClicks);
+		}
+	}
+}
@@ -0,0 +1,221 @@
+/*
+ * Copyright (C) 2015-2019 SoftIndex LLC.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package io.datakernel.aggregation;
+
+import io.datakernel.aggregation.annotation.Key;
+import io.datakernel.aggregation.annotation.Measures;
+import io.datakernel.aggregation.fieldtype.FieldTypes;
+import io.datakernel.aggregation.ot.AggregationDiff;
+import io.datakernel.aggregation.ot.AggregationDiffCodec;
+import io.datakernel.aggregation.ot.AggregationStructure;
+import io.datakernel.aggregation.util.BloomFilter;
+import io.datakernel.codegen.DefiningClassLoader;
+import io.datakernel.datastream.StreamSupplier;
+import io.datakernel.eventloop.Eventloop;
+import io.datakernel.remotefs.LocalFsClient;
+import io.datakernel.test.rules.ByteBufRule;
+import io.datakernel.test.rules.EventloopRule;
+import org.junit.Before;
+import org.junit.ClassRule;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Executor;
+import java.util.concurrent.Executors;
+import java.util.stream.Collectors;
+
+import static io.datakernel.aggregation.AggregationPredicates.*;
+import static io.datakernel.aggregation.fieldtype.FieldTypes.ofDouble;
+import static io.datakernel.aggregation.measure.Measures.sum;
+import static io.datakernel.codec.json.JsonUtils.fromJson;
+import static io.datakernel.codec.json.JsonUtils.toJson;
+import static io.datakernel.promise.TestUtils.await;
+import static java.util.Arrays.asList;
+import static org.junit.Assert.*;
+
+public class ChunkZoneMapTest {
+	@Rule
+	public TemporaryFolder temporaryFolder = new TemporaryFolder();
+
+	@ClassRule
+	public static final EventloopRule eventloopRule = new EventloopRule();
+
+	@ClassRule
+	public static final ByteBufRule byteBufRule = new ByteBufRule();
+
+	public static class EventRecord {
+		@Key
+		public int siteId;
+
+		@Key
+		public int hour;
+
+		@Key
+		public String userId;
+
+		@Measures("sumRevenue")
+		public double revenue;
+
+		public EventRecord(int siteId, int hour, String userId, double revenue) {
+			this.siteId = siteId;
+			this.hour = hour;
+			this.userId = userId;
+			this.revenue = revenue;
+		}
+	}
+
+	public static class QueryResult {
+		public int hour;
+		public double sumRevenue;
+	}
+
+	private final Eventloop eventloop = Eventloop.getCurrentEventloop();
+	private final Executor executor = Executors.newCachedThreadPool();
+	private final DefiningClassLoader classLoader = DefiningClassLoader.create();
+	private final AggregationStructure structure = AggregationStructure.create(ChunkIdCodec.ofLong())
+			.withKey("siteId", FieldTypes.ofInt())
+			.withKey("hour", FieldTypes.ofInt())
+			.withKey("userId", FieldTypes.ofString())
+			.withMeasure("sumRevenue", sum(ofDouble()))
+			.withBloomFilterKeys("userId");
+
+	private RemoteFsChunkStorage<Long> storage;
+	private Aggregation aggregation;
+
+	@Before
+	public void setUp() throws Exception {
+		storage = RemoteFsChunkStorage.create(eventloop, ChunkIdCodec.ofLong(), new IdGeneratorStub(),
+				LocalFsClient.create(eventloop, executor, temporaryFolder.newFolder().toPath()));
+		aggregation = Aggregation.create(eventloop, executor, classLoader, storage, structure)
+				.withTemporarySortDir(temporaryFolder.newFolder().toPath());
+
+		// every batch is a separate chunk with a single site and a distinct range of hours and users
+		for (int batch = 0; batch < 10; batch++) {
+			List<EventRecord> records = new ArrayList<>();
+			for (int i = 0; i < 100; i++) {
+				records.add(new EventRecord(i % 2, batch * 10 + i % 10, "user" + (batch * 100 + i), 1.0));
+			}
+			AggregationDiff diff = await(StreamSupplier.ofIterable(records).streamTo(aggregation.consume(EventRecord.class)));
+			await(storage.finish(diff.getAddedChunks().stream().map(AggregationChunk::getChunkId).map(id -> (long) id).collect(Collectors.toSet())));
+			aggregation.getState().apply(diff);
+		}
+	}
+
+	@Test
+	public void testZoneMapIsRecorded() {
+		for (AggregationChunk chunk : aggregation.getState().getChunks().values()) {
+			ChunkZoneMap zoneMap = chunk.getZoneMap();
+			assertNotNull(zoneMap);
+			assertEquals(0, zoneMap.getZone("siteId").getMin());
+			assertEquals(1, zoneMap.getZone("siteId").getMax());
+			int hourMin = (int) zoneMap.getZone("hour").getMin();
+			assertEquals(hourMin + 9, zoneMap.getZone("hour").getMax());
+			assertNull(zoneMap.getZone("hour").getBloomFilter());
+			BloomFilter bloomFilter = zoneMap.getZone("userId").getBloomFilter();
+			assertNotNull(bloomFilter);
+			assertTrue(bloomFilter.getBits() <= 1024);
+			for (int i = 0; i < 100; i++) {
+				assertTrue(bloomFilter.mightContain("user" + (hourMin * 10 + i)));
+			}
+		}
+	}
+
+	@Test
+	public void testPruneByNonLeadingKey() {
+		AggregationState state = aggregation.getState();
+		assertEquals(10, state.findChunks(alwaysTrue(), asList("sumRevenue")).size());
+		assertEquals(1, state.findChunks(eq("hour", 35), asList("sumRevenue")).size());
+		assertEquals(2, state.findChunks(between("hour", 35, 45), asList("sumRevenue")).size());
+		assertEquals(3, state.findChunks(ge("hour", 70), asList("sumRevenue")).size());
+		assertEquals(3, state.findChunks(lt("hour", 30), asList("sumRevenue")).size());
+		assertEquals(2, state.findChunks(or(eq("hour", 5), eq("hour", 95)), asList("sumRevenue")).size());
+		assertEquals(0, state.findChunks(and(eq("siteId", 1), eq("hour", 100)), asList("sumRevenue")).size());
+		assertEquals(10, state.findChunks(not(eq("hour", 35)), asList("sumRevenue")).size());
+	}
+
+	@Test
+	public void testPruneByBloomFilter() {
+		AggregationState state = aggregation.getState();
+		List<AggregationChunk> chunks = state.findChunks(eq("userId", "user555"), asList("sumRevenue"));
+		assertEquals(1, chunks.size());
+		assertEquals(50, chunks.get(0).getZoneMap().getZone("hour").getMin());
+
+		assertTrue(state.findChunks(in("userId", asList("user555", "user777")), asList("sumRevenue")).size() >= 2);
+		assertTrue(state.findChunks(eq("userId", "unknown"), asList("sumRevenue")).size() <= 1);
+	}
+
+	@Test
+	public void testQueryWithPrunedChunks() {
+		List<QueryResult> results = await(aggregation.query(
+				AggregationQuery.create()
+						.withKeys("hour")
+						.withMeasures("sumRevenue")
+						.withPredicate(between("hour", 35, 36)),
+				QueryResult.class, DefiningClassLoader.create(classLoader))
+				.toList());
+
+		assertEquals(2, results.size());
+		for (QueryResult result : results) {
+			assertEquals(10.0, result.sumRevenue, 1e-6);
+		}
+	}
+
+	@Test
+	public void testCodec() throws Exception {
+		AggregationDiffCodec codec = AggregationDiffCodec.create(structure);
+		AggregationDiff diff = AggregationDiff.of(aggregation.getState().getChunks().values().stream().collect(Collectors.toSet()));
+		AggregationDiff decoded = fromJson(codec, toJson(codec, diff));
+
+		for (AggregationChunk chunk : decoded.getAddedChunks()) {
+			AggregationChunk original = aggregation.getState().getChunks().get(chunk.getChunkId());
+			assertEquals(original.getZoneMap().toString(), chunk.getZoneMap().toString());
+			assertArrayEquals(original.getZoneMap().getZone("userId").getBloomFilter().getBytes(),
+					chunk.getZoneMap().getZone("userId").getBloomFilter().getBytes());
+		}
+
+		String legacyJson = "{\"added\":[{\"id\":1,\"min\":[0,0,\"a\"],\"max\":[1,9,\"b\"],\"count\":10,\"measures\":[\"sumRevenue\"]}]}";
+		AggregationChunk legacyChunk = fromJson(codec, legacyJson).getAddedChunks().iterator().next();
+		assertNull(legacyChunk.getZoneMap());
+	}
+
+	@Test
+	public void testBloomFilterSize() throws Exception {
+		BloomFilter bloomFilter = BloomFilter.create(1_000_000);
+		assertEquals(BloomFilter.MAX_BITS, bloomFilter.getBits());
+		for (long i = 0; i < 1000; i++) {
+			bloomFilter.addLong(i);
+		}
+		for (long i = 0; i < 1000; i++) {
+			assertTrue(bloomFilter.mightContain(i));
+			assertTrue(bloomFilter.mightContain((int) i));
+		}
+
+		byte[] legacyBytes = new byte[(1 << 20) >>> 3];
+		legacyBytes[legacyBytes.length - 1] = 1;
+		BloomFilter legacy = BloomFilter.ofBytes(legacyBytes);
+		assertEquals(BloomFilter.MAX_BITS, legacy.getBits());
+		assertEquals(1, legacy.getBytes()[legacy.getBytes().length - 1]);
+
+		for (int i = 0; i < 100_000; i++) {
+			bloomFilter.addLong(i);
+		}
+		assertNull(bloomFilter.compact());
+	}
+}
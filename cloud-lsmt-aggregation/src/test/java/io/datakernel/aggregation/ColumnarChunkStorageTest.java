@@ -0,0 +1,283 @@
+/*
+ * Copyright (C) 2015-2019 SoftIndex LLC.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package io.datakernel.aggregation;
+
+import io.datakernel.aggregation.annotation.Key;
+import io.datakernel.aggregation.annotation.Measures;
+import io.datakernel.aggregation.fieldtype.FieldTypes;
+import io.datakernel.aggregation.ot.AggregationDiff;
+import io.datakernel.aggregation.ot.AggregationStructure;
+import io.datakernel.bytebuf.ByteBuf;
+import io.datakernel.codegen.DefiningClassLoader;
+import io.datakernel.common.MemSize;
+import io.datakernel.common.parse.ParseException;
+import io.datakernel.datastream.StreamSupplier;
+import io.datakernel.eventloop.Eventloop;
+import io.datakernel.remotefs.LocalFsClient;
+import io.datakernel.test.rules.ByteBufRule;
+import io.datakernel.test.rules.EventloopRule;
+import org.junit.Before;
+import org.junit.ClassRule;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.Executor;
+import java.util.concurrent.Executors;
+import java.util.stream.Collectors;
+
+import static io.datakernel.aggregation.fieldtype.FieldTypes.ofDouble;
+import static io.datakernel.aggregation.fieldtype.FieldTypes.ofLong;
+import static io.datakernel.aggregation.measure.Measures.*;
+import static io.datakernel.common.collection.CollectionUtils.set;
+import static io.datakernel.promise.TestUtils.await;
+import static io.datakernel.promise.TestUtils.awaitException;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class ColumnarChunkStorageTest {
+	@Rule
+	public TemporaryFolder temporaryFolder = new TemporaryFolder();
+
+	@ClassRule
+	public static final EventloopRule eventloopRule = new EventloopRule();
+
+	@ClassRule
+	public static final ByteBufRule byteBufRule = new ByteBufRule();
+
+	@Measures("eventCount")
+	public static class EventRecord {
+		@Key
+		public int siteId;
+
+		@Key
+		public String campaign;
+
+		@Measures({"sumRevenue", "maxRevenue"})
+		public double revenue;
+
+		@Measures("uniqueUserIds")
+		public long userId;
+
+		public EventRecord(int siteId, String campaign, double revenue, long userId) {
+			this.siteId = siteId;
+			this.campaign = campaign;
+			this.revenue = revenue;
+			this.userId = userId;
+		}
+	}
+
+	public static class QueryResult {
+		public int siteId;
+		public String campaign;
+
+		public long eventCount;
+		public double sumRevenue;
+		public double maxRevenue;
+		public Set<Long> uniqueUserIds;
+	}
+
+	private final Eventloop eventloop = Eventloop.getCurrentEventloop();
+	private final Executor executor = Executors.newCachedThreadPool();
+	private final DefiningClassLoader classLoader = DefiningClassLoader.create();
+	private final AggregationStructure structure = AggregationStructure.create(ChunkIdCodec.ofLong())
+			.withKey("siteId", FieldTypes.ofInt())
+			.withKey("campaign", FieldTypes.ofString())
+			.withMeasure("eventCount", count(ofLong()))
+			.withMeasure("sumRevenue", sum(ofDouble()))
+			.withMeasure("maxRevenue", max(ofDouble()))
+			.withMeasure("uniqueUserIds", union(ofLong()));
+
+	private Path storagePath;
+	private IdGeneratorStub idGenerator;
+
+	@Before
+	public void setUp() throws Exception {
+		storagePath = temporaryFolder.newFolder().toPath();
+		idGenerator = new IdGeneratorStub();
+	}
+
+	@Test
+	public void testQuerySubsetOfMeasures() throws Exception {
+		RemoteFsChunkStorage<Long> storage = createStorage(true);
+		Aggregation aggregation = createAggregation(storage);
+		consume(aggregation, storage, createRecords(1000));
+
+		List<QueryResult> results = await(aggregation.query(
+				AggregationQuery.create()
+						.withKeys("siteId")
+						.withMeasures("sumRevenue"),
+				QueryResult.class, DefiningClassLoader.create(classLoader))
+				.toList());
+
+		assertEquals(10, results.size());
+		for (QueryResult result : results) {
+			assertEquals(expectedSumRevenue(1000, result.siteId), result.sumRevenue, 1e-6);
+			assertEquals(0, result.eventCount);
+			assertEquals(null, result.uniqueUserIds);
+		}
+		storage.getReadColumnarSkippedBytes().refresh(eventloop.currentTimeMillis());
+		assertTrue(storage.getReadColumnarSkippedBytes().getAbsoluteMax() > 0);
+	}
+
+	@Test
+	public void testQueryAllMeasures() throws Exception {
+		RemoteFsChunkStorage<Long> storage = createStorage(true);
+		Aggregation aggregation = createAggregation(storage);
+		consume(aggregation, storage, createRecords(1000));
+		consume(aggregation, storage, createRecords(500));
+
+		List<QueryResult> results = await(aggregation.query(
+				AggregationQuery.create()
+						.withKeys("siteId", "campaign")
+						.withMeasures("eventCount", "sumRevenue", "maxRevenue", "uniqueUserIds"),
+				QueryResult.class, DefiningClassLoader.create(classLoader))
+				.toList());
+
+		assertEquals(10, results.size());
+		long totalCount = 0;
+		for (QueryResult result : results) {
+			assertEquals("campaign" + (result.siteId % 2), result.campaign);
+			assertEquals(set(result.siteId * 10L, result.siteId * 10L + 1), result.uniqueUserIds);
+			totalCount += result.eventCount;
+		}
+		assertEquals(1500, totalCount);
+	}
+
+	@Test
+	public void testReadRowChunksWithColumnarStorage() throws Exception {
+		RemoteFsChunkStorage<Long> rowStorage = createStorage(false);
+		Aggregation rowAggregation = createAggregation(rowStorage);
+		consume(rowAggregation, rowStorage, createRecords(1000));
+
+		RemoteFsChunkStorage<Long> columnarStorage = createStorage(true);
+		Aggregation aggregation = createAggregation(columnarStorage);
+		aggregation.setState(rowAggregation.getState());
+		consume(aggregation, columnarStorage, createRecords(1000));
+
+		List<QueryResult> results = await(aggregation.query(
+				AggregationQuery.create()
+						.withKeys("siteId")
+						.withMeasures("sumRevenue", "eventCount"),
+				QueryResult.class, DefiningClassLoader.create(classLoader))
+				.toList());
+
+		assertEquals(10, results.size());
+		for (QueryResult result : results) {
+			assertEquals(2 * expectedSumRevenue(1000, result.siteId), result.sumRevenue, 1e-6);
+			assertEquals(200, result.eventCount);
+		}
+	}
+
+	@Test
+	public void testRowStorageDoesNotDetectFormat() throws Exception {
+		RemoteFsChunkStorage<Long> columnarStorage = createStorage(true);
+		Aggregation columnarAggregation = createAggregation(columnarStorage);
+		consume(columnarAggregation, columnarStorage, createRecords(1000));
+
+		// chunks are read as rows without probing for a footer
+		RemoteFsChunkStorage<Long> rowStorage = createStorage(false);
+		Aggregation aggregation = createAggregation(rowStorage);
+		aggregation.setState(columnarAggregation.getState());
+
+		Throwable e = awaitException(aggregation.query(
+				AggregationQuery.create()
+						.withKeys("siteId")
+						.withMeasures("sumRevenue", "eventCount"),
+				QueryResult.class, DefiningClassLoader.create(classLoader))
+				.toList());
+		assertTrue(e instanceof ParseException);
+	}
+
+	@Test
+	public void testFooterWithLongColumnNames() throws Exception {
+		List<String> columns = new ArrayList<>();
+		for (int i = 0; i < 5; i++) {
+			StringBuilder sb = new StringBuilder();
+			for (int j = 0; j < 300; j++) {
+				sb.append(i % 2 == 0 ? 'c' : '\u0436');
+			}
+			columns.add(sb.append(i).toString());
+		}
+		List<ChunkColumnarFormat.Block> blocks = new ArrayList<>();
+		for (int i = 0; i < 100; i++) {
+			int[] compressedSizes = new int[columns.size()];
+			int[] rawSizes = new int[columns.size()];
+			for (int j = 0; j < columns.size(); j++) {
+				compressedSizes[j] = Integer.MAX_VALUE - i - j;
+				rawSizes[j] = Integer.MAX_VALUE - j;
+			}
+			blocks.add(new ChunkColumnarFormat.Block(Integer.MAX_VALUE - i, compressedSizes, rawSizes));
+		}
+
+		ByteBuf buf = new ChunkColumnarFormat.Footer(columns, blocks).encode();
+		int footerSize = ChunkColumnarFormat.readFooterSize(buf);
+		assertEquals(buf.readRemaining() - ChunkColumnarFormat.TRAILER_SIZE, footerSize);
+		buf.moveTail(-ChunkColumnarFormat.TRAILER_SIZE);
+		ChunkColumnarFormat.Footer footer = ChunkColumnarFormat.Footer.decode(buf);
+		buf.recycle();
+
+		assertEquals(columns, footer.getColumns());
+		assertEquals(blocks.size(), footer.getBlocks().size());
+		for (int i = 0; i < blocks.size(); i++) {
+			ChunkColumnarFormat.Block block = footer.getBlocks().get(i);
+			assertEquals(Integer.MAX_VALUE - i, block.getCount());
+			for (int j = 0; j < columns.size(); j++) {
+				assertEquals(Integer.MAX_VALUE - i - j, block.getCompressedSize(j));
+				assertEquals(Integer.MAX_VALUE - j, block.getRawSize(j));
+			}
+		}
+	}
+
+	private RemoteFsChunkStorage<Long> createStorage(boolean columnar) {
+		return RemoteFsChunkStorage.create(eventloop, ChunkIdCodec.ofLong(), idGenerator, LocalFsClient.create(eventloop, executor, storagePath))
+				.withColumnarFormat(columnar)
+				.withColumnarBlockSize(MemSize.bytes(1000));
+	}
+
+	private Aggregation createAggregation(AggregationChunkStorage<Long> storage) throws Exception {
+		return Aggregation.create(eventloop, executor, classLoader, storage, structure)
+				.withTemporarySortDir(temporaryFolder.newFolder().toPath());
+	}
+
+	private static List<EventRecord> createRecords(int count) {
+		List<EventRecord> records = new ArrayList<>();
+		for (int i = 0; i < count; i++) {
+			int siteId = i % 10;
+			records.add(new EventRecord(siteId, "campaign" + (i % 2), i * 0.5, siteId * 10L + (i % 20 < 10 ? 0 : 1)));
+		}
+		return records;
+	}
+
+	private static double expectedSumRevenue(int count, int siteId) {
+		double sum = 0;
+		for (int i = siteId; i < count; i += 10) {
+			sum += i * 0.5;
+		}
+		return sum;
+	}
+
+	private static void consume(Aggregation aggregation, RemoteFsChunkStorage<Long> storage, List<EventRecord> records) {
+		AggregationDiff diff = await(StreamSupplier.ofIterable(records).streamTo(aggregation.consume(EventRecord.class)));
+		await(storage.finish(diff.getAddedChunks().stream().map(AggregationChunk::getChunkId).map(id -> (long) id).collect(Collectors.toSet())));
+		aggregation.getState().apply(diff);
+	}
+}
@@ -0,0 +1,237 @@
+/*
+ * Copyright (C) 2015-2019 SoftIndex LLC.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package io.datakernel.aggregation;
+
+import io.datakernel.aggregation.annotation.Key;
+import io.datakernel.aggregation.annotation.Measures;
+import io.datakernel.aggregation.ot.AggregationDiff;
+import io.datakernel.aggregation.ot.AggregationStructure;
+import io.datakernel.codegen.DefiningClassLoader;
+import io.datakernel.common.MemSize;
+import io.datakernel.datastream.StreamSupplier;
+import io.datakernel.eventloop.Eventloop;
+import io.datakernel.remotefs.LocalFsClient;
+import io.datakernel.test.rules.ByteBufRule;
+import io.datakernel.test.rules.EventloopRule;
+import org.junit.ClassRule;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.util.*;
+import java.util.concurrent.Executor;
+import java.util.concurrent.Executors;
+
+import static io.datakernel.aggregation.Utils.*;
+import static io.datakernel.aggregation.fieldtype.FieldTypes.*;
+import static io.datakernel.aggregation.measure.Measures.*;
+import static io.datakernel.promise.TestUtils.await;
+import static java.util.Arrays.asList;
+import static java.util.stream.Collectors.toSet;
+import static org.junit.Assert.*;
+
+public class FlatAggregationTableTest {
+	@Rule
+	public TemporaryFolder temporaryFolder = new TemporaryFolder();
+
+	@ClassRule
+	public static final EventloopRule eventloopRule = new EventloopRule();
+
+	@ClassRule
+	public static final ByteBufRule byteBufRule = new ByteBufRule();
+
+	public static class EventRecord {
+		@Key
+		public int siteId;
+
+		@Key
+		public long userId;
+
+		@Measures({"clicks", "maxClicks"})
+		public int clicks;
+
+		@Measures("revenue")
+		public double revenue;
+
+		public EventRecord(int siteId, long userId, int clicks, double revenue) {
+			this.siteId = siteId;
+			this.userId = userId;
+			this.clicks = clicks;
+			this.revenue = revenue;
+		}
+	}
+
+	public static class QueryResult {
+		public int siteId;
+		public long userId;
+		public long clicks;
+		public int maxClicks;
+		public double revenue;
+
+		@Override
+		public boolean equals(Object o) {
+			if (this == o) return true;
+			if (o == null || getClass() != o.getClass()) return false;
+			QueryResult that = (QueryResult) o;
+			return siteId == that.siteId && userId == that.userId && clicks == that.clicks &&
+					maxClicks == that.maxClicks && Double.compare(that.revenue, revenue) == 0;
+		}
+
+		@Override
+		public int hashCode() {
+			return Objects.hash(siteId, userId, clicks, maxClicks, revenue);
+		}
+
+		@Override
+		public String toString() {
+			return siteId + ":" + userId + "=" + clicks + "/" + maxClicks + "/" + revenue;
+		}
+	}
+
+	private final Eventloop eventloop = Eventloop.getCurrentEventloop();
+	private final Executor executor = Executors.newCachedThreadPool();
+	private final DefiningClassLoader classLoader = DefiningClassLoader.create();
+	private final AggregationStructure structure = AggregationStructure.create(ChunkIdCodec.ofLong())
+			.withKey("siteId", ofInt())
+			.withKey("userId", ofLong())
+			.withMeasure("clicks", sum(ofLong()))
+			.withMeasure("maxClicks", max(ofInt()))
+			.withMeasure("revenue", sum(ofDouble()));
+
+	@Test
+	public void testDrainIsSortedByKeys() {
+		List<String> measures = asList("clicks", "maxClicks", "revenue");
+		Map<String, String> keyFields = scanKeyFields(EventRecord.class);
+		Class<Object> recordClass = createRecordClass(structure, structure.getKeys(), measures, classLoader);
+		Aggregate<Object, Object> aggregate = createPreaggregator(structure, EventRecord.class, recordClass,
+				keyFields, scanMeasureFields(EventRecord.class), classLoader);
+		FlatAggregationTable table = FlatAggregationTable.create(structure, EventRecord.class, recordClass,
+				keyFields, measures, aggregate, MemSize.megabytes(1), classLoader);
+
+		Random random = new Random(1);
+		Map<List<Long>, long[]> expected = new TreeMap<>((a, b) -> {
+			int result = Long.compare(a.get(0), b.get(0));
+			return result != 0 ? result : Long.compare(a.get(1), b.get(1));
+		});
+		for (int i = 0; i < 10_000; i++) {
+			EventRecord event = new EventRecord(random.nextInt(5) - 2, random.nextInt(1000) - 500L, random.nextInt(10), 0.5);
+			assertFalse(table.accumulate(event));
+			long[] values = expected.computeIfAbsent(asList((long) event.siteId, event.userId), $ -> new long[2]);
+			values[0] += event.clicks;
+			values[1] = Math.max(values[1], event.clicks);
+		}
+		assertEquals(expected.size(), table.size());
+
+		Iterator<Object> iterator = table.drain();
+		assertTrue(table.isEmpty());
+		for (Map.Entry<List<Long>, long[]> entry : expected.entrySet()) {
+			String record = iterator.next().toString();
+			assertTrue(record, record.contains("siteId=" + entry.getKey().get(0)));
+			assertTrue(record, record.contains("userId=" + entry.getKey().get(1)));
+			assertTrue(record, record.contains("clicks=" + entry.getValue()[0]));
+			assertTrue(record, record.contains("maxClicks=" + entry.getValue()[1]));
+		}
+		assertFalse(iterator.hasNext());
+	}
+
+	@Test
+	public void testPeakMemoryWithinBudget() {
+		List<String> measures = asList("clicks", "maxClicks", "revenue");
+		Map<String, String> keyFields = scanKeyFields(EventRecord.class);
+		Class<Object> recordClass = createRecordClass(structure, structure.getKeys(), measures, classLoader);
+		Aggregate<Object, Object> aggregate = createPreaggregator(structure, EventRecord.class, recordClass,
+				keyFields, scanMeasureFields(EventRecord.class), classLoader);
+		MemSize budget = MemSize.kilobytes(256);
+		FlatAggregationTable table = FlatAggregationTable.create(structure, EventRecord.class, recordClass,
+				keyFields, measures, aggregate, budget, classLoader);
+
+		// drained tables are kept until spilled, while the group reducer keeps accumulating
+		List<Iterator<Object>> drained = new ArrayList<>();
+		long userId = 0;
+		for (int i = 0; i < AggregationGroupReducer.MAX_ACTIVE_FLUSHES; i++) {
+			while (!table.accumulate(new EventRecord(1, userId++, 1, 1.0))) {
+			}
+			drained.add(table.drain());
+		}
+		assertEquals(AggregationGroupReducer.MAX_ACTIVE_FLUSHES * table.getMaxEntries(), userId);
+		assertTrue(table.getPeakMemory() <= budget.toLong());
+		assertTrue(table.getPeakMemory() > budget.toLong() / 2);
+
+		long peakMemory = table.getPeakMemory();
+		for (Iterator<Object> iterator : drained) {
+			iterator.forEachRemaining($ -> {});
+		}
+		for (int i = 0; i < table.getMaxEntries() - 1; i++) {
+			assertFalse(table.accumulate(new EventRecord(1, userId++, 1, 1.0)));
+		}
+		assertEquals(peakMemory, table.getPeakMemory());
+	}
+
+	@Test
+	public void testFlatAccumulatorsMatchMapOfAccumulators() throws Exception {
+		List<EventRecord> events = new ArrayList<>();
+		Random random = new Random(1);
+		for (int i = 0; i < 20_000; i++) {
+			events.add(new EventRecord(random.nextInt(3), random.nextInt(2000), random.nextInt(100), random.nextInt(10) / 4.0));
+		}
+
+		RemoteFsChunkStorage<Long> mapStorage = createStorage();
+		Aggregation mapAggregation = Aggregation.create(eventloop, executor, classLoader, mapStorage, structure);
+		consume(mapAggregation, mapStorage, events);
+
+		// budget of 256 entries forces many spills
+		RemoteFsChunkStorage<Long> flatStorage = createStorage();
+		Aggregation flatAggregation = Aggregation.create(eventloop, executor, classLoader, flatStorage, structure)
+				.withFlatAccumulators(MemSize.bytes(256 * FlatAggregationTable.entryMemory(5)));
+		int chunks = consume(flatAggregation, flatStorage, events);
+		assertTrue(chunks > 20);
+
+		AggregationQuery query = AggregationQuery.create()
+				.withKeys("siteId", "userId")
+				.withMeasures("clicks", "maxClicks", "revenue");
+		List<QueryResult> expected = await(mapAggregation.query(query, QueryResult.class, DefiningClassLoader.create(classLoader)).toList());
+		List<QueryResult> actual = await(flatAggregation.query(query, QueryResult.class, DefiningClassLoader.create(classLoader)).toList());
+		assertEquals(expected, actual);
+	}
+
+	@Test
+	public void testUnsupportedTypes() {
+		AggregationStructure withStrings = AggregationStructure.create(ChunkIdCodec.ofLong())
+				.withKey("userId", ofString())
+				.withMeasure("clicks", sum(ofLong()));
+		assertFalse(FlatAggregationTable.isSupported(withStrings, asList("clicks")));
+
+		AggregationStructure withSets = AggregationStructure.create(ChunkIdCodec.ofLong())
+				.withKey("siteId", ofInt())
+				.withMeasure("users", union(ofLong()));
+		assertFalse(FlatAggregationTable.isSupported(withSets, asList("users")));
+
+		assertTrue(FlatAggregationTable.isSupported(structure, asList("clicks", "maxClicks", "revenue")));
+	}
+
+	private RemoteFsChunkStorage<Long> createStorage() throws Exception {
+		return RemoteFsChunkStorage.create(eventloop, ChunkIdCodec.ofLong(), new IdGeneratorStub(),
+				LocalFsClient.create(eventloop, executor, temporaryFolder.newFolder().toPath()));
+	}
+
+	private static int consume(Aggregation aggregation, RemoteFsChunkStorage<Long> storage, List<EventRecord> events) {
+		AggregationDiff diff = await(StreamSupplier.ofIterable(events).streamTo(aggregation.consume(EventRecord.class)));
+		await(storage.finish(diff.getAddedChunks().stream().map(chunk -> (long) chunk.getChunkId()).collect(toSet())));
+		aggregation.getState().apply(diff);
+		return diff.getAddedChunks().size();
+	}
+}
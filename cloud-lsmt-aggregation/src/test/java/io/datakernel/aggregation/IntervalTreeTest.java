@@ -0,0 +1,116 @@
+/*
+ * Copyright (C) 2015-2019 SoftIndex LLC.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package io.datakernel.aggregation;
+
+import io.datakernel.aggregation.RangeTree.Segment;
+import org.junit.Test;
+
+import java.util.*;
+import java.util.stream.Stream;
+
+import static java.util.stream.Collectors.toSet;
+import static org.junit.Assert.*;
+
+public class IntervalTreeTest {
+
+	@Test
+	public void testPut() {
+		IntervalTree<Integer, String> tree = IntervalTree.create();
+		tree.put(1, 10, "a");
+		tree.put(3, 8, "b");
+		tree.put(5, 5, "c");
+		assertEquals(Stream.of().collect(toSet()), tree.get(0));
+		assertEquals(Stream.of("a").collect(toSet()), tree.get(1));
+		assertEquals(Stream.of("a", "b").collect(toSet()), tree.get(3));
+		assertEquals(Stream.of("a", "b", "c").collect(toSet()), tree.get(5));
+		assertEquals(Stream.of("a", "b").collect(toSet()), tree.get(8));
+		assertEquals(Stream.of("a").collect(toSet()), tree.get(10));
+		assertEquals(Stream.of().collect(toSet()), tree.get(11));
+
+		assertEquals(Stream.of("a", "b", "c").collect(toSet()), tree.getRange(0, 11));
+		assertEquals(Stream.of("a", "b").collect(toSet()), tree.getRange(6, 11));
+		assertEquals(Stream.of("a").collect(toSet()), tree.getRange(9, 11));
+		assertEquals(Stream.of().collect(toSet()), tree.getRange(11, 12));
+	}
+
+	@Test
+	public void testRemove() {
+		IntervalTree<Integer, String> tree = IntervalTree.create();
+		tree.put(1, 10, "a");
+		tree.put(3, 8, "b");
+		tree.put(5, 5, "c");
+
+		assertFalse(tree.remove(3, 9, "b"));
+		assertTrue(tree.remove(3, 8, "b"));
+		assertFalse(tree.remove(3, 8, "b"));
+		assertEquals(Stream.of("a", "c").collect(toSet()), tree.get(5));
+		assertEquals(2, tree.size());
+
+		assertTrue(tree.remove(1, 10, "a"));
+		assertTrue(tree.remove(5, 5, "c"));
+		assertEquals(Stream.of().collect(toSet()), tree.getAll());
+		assertTrue(tree.getSegments().isEmpty());
+	}
+
+	@Test
+	public void testRandomAgainstRangeTree() {
+		doTestRandomAgainstRangeTree(IntervalTree.create());
+	}
+
+	@Test
+	public void testRandomAgainstRangeTreeWithLongKeys() {
+		doTestRandomAgainstRangeTree(IntervalTree.createWithLongKeys(Integer::longValue));
+	}
+
+	private static void doTestRandomAgainstRangeTree(IntervalTree<Integer, Integer> tree) {
+		Random random = new Random(1);
+		RangeTree<Integer, Integer> expected = RangeTree.create();
+		Map<Integer, int[]> ranges = new HashMap<>();
+		for (int step = 0; step < 5000; step++) {
+			if (ranges.isEmpty() || random.nextInt(3) != 0) {
+				int lower = random.nextInt(1000);
+				int upper = lower + random.nextInt(50);
+				tree.put(lower, upper, step);
+				expected.put(lower, upper, step);
+				ranges.put(step, new int[]{lower, upper});
+			} else {
+				Integer value = new ArrayList<>(ranges.keySet()).get(random.nextInt(ranges.size()));
+				int[] range = ranges.remove(value);
+				assertTrue(tree.remove(range[0], range[1], value));
+				expected.remove(range[0], range[1], value);
+			}
+
+			int lower = random.nextInt(1100) - 50;
+			int upper = lower + random.nextInt(100);
+			assertEquals(expected.get(lower), tree.get(lower));
+			assertEquals(expected.getRange(lower, upper), tree.getRange(lower, upper));
+		}
+		assertEquals(ranges.size(), tree.size());
+		assertEquals(expected.getAll(), tree.getAll());
+		assertEquals(toMap(expected.getSegments()), toMap(tree.getSegments()));
+	}
+
+	private static Map<Integer, List<Set<Integer>>> toMap(SortedMap<Integer, Segment<Integer>> segments) {
+		Map<Integer, List<Set<Integer>>> result = new TreeMap<>();
+		for (Map.Entry<Integer, Segment<Integer>> entry : segments.entrySet()) {
+			Segment<Integer> segment = entry.getValue();
+			if (segment.getSet().isEmpty() && segment.getClosingSet().isEmpty()) continue;
+			result.put(entry.getKey(), Arrays.asList(new HashSet<>(segment.getSet()), new HashSet<>(segment.getClosingSet())));
+		}
+		return result;
+	}
+}
@@ -0,0 +1,95 @@
+/*
+ * Copyright (C) 2015-2019 SoftIndex LLC.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package io.datakernel.aggregation.fieldtype;
+
+import io.datakernel.aggregation.measure.QuantileSketch;
+import org.junit.Test;
+
+import java.util.Arrays;
+import java.util.Random;
+
+import static java.lang.Math.abs;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class QuantileSketchTest {
+	private static final double[] QUANTILES = {0.0, 0.1, 0.5, 0.9, 0.99, 0.999, 1.0};
+
+	@Test
+	public void testRelativeAccuracy() {
+		Random random = new Random(1);
+		double[] values = new double[100_000];
+		QuantileSketch sketch = new QuantileSketch(0.01);
+		for (int i = 0; i < values.length; i++) {
+			values[i] = Math.exp(random.nextGaussian() * 3);
+			sketch.add(values[i]);
+		}
+		assertAccurate(values, sketch, 0.01);
+	}
+
+	@Test
+	public void testUnionAndSerialization() {
+		Random random = new Random(1);
+		double[] values = new double[30_000];
+		QuantileSketch[] sketches = {new QuantileSketch(0.02), new QuantileSketch(0.02), new QuantileSketch(0.02)};
+		for (int i = 0; i < values.length; i++) {
+			values[i] = i % 10 == 0 ? 0 : random.nextGaussian() * 1000;
+			sketches[i % 3].add(values[i]);
+		}
+		QuantileSketch union = new QuantileSketch(0.02);
+		for (QuantileSketch sketch : sketches) {
+			union.union(new QuantileSketch(sketch.getBytes()));
+		}
+		assertEquals(values.length, union.getCount());
+		assertAccurate(values, union, 0.02);
+	}
+
+	@Test
+	public void testBoundedBuckets() {
+		QuantileSketch sketch = new QuantileSketch(0.01, 100);
+		for (int i = 1; i <= 1_000_000; i *= 2) {
+			sketch.add(i);
+		}
+		assertTrue(sketch.getBytes().length < 8 + 4 + 8 + 2 * 8 + 100 * 8 + 1);
+		assertEquals(1 << 19, sketch.quantile(1.0), (1 << 19) * 0.01);
+	}
+
+	@Test
+	public void testBoundedBucketsOfExtremeValues() {
+		QuantileSketch sketch = new QuantileSketch(0.01, 100);
+		QuantileSketch union = new QuantileSketch(0.01, 100);
+		for (int exponent = 300; exponent >= -300; exponent--) {
+			sketch.add(Math.pow(10, exponent));
+			union.add(Math.pow(10, -exponent));
+		}
+		union.union(new QuantileSketch(sketch.getBytes()));
+		assertEquals(2 * 601, union.getCount());
+		assertTrue(union.getBytes().length < 8 + 4 + 8 + 2 * 8 + 100 * 8 + 1);
+		assertEquals(1e300, union.quantile(1.0), 1e300 * 0.01);
+		assertEquals(1e300, sketch.quantile(1.0), 1e300 * 0.01);
+	}
+
+	private static void assertAccurate(double[] values, QuantileSketch sketch, double relativeAccuracy) {
+		double[] sorted = values.clone();
+		Arrays.sort(sorted);
+		for (double quantile : QUANTILES) {
+			double expected = sorted[(int) (quantile * (sorted.length - 1))];
+			double actual = sketch.quantile(quantile);
+			assertTrue(quantile + ": " + expected + " vs " + actual, abs(actual - expected) <= abs(expected) * relativeAccuracy + 1e-9);
+		}
+	}
+}
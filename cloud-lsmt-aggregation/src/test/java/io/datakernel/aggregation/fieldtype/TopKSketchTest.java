@@ -0,0 +1,108 @@
+/*
+ * Copyright (C) 2015-2019 SoftIndex LLC.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package io.datakernel.aggregation.fieldtype;
+
+import io.datakernel.aggregation.measure.TopKSketch;
+import io.datakernel.codec.StructuredCodec;
+import io.datakernel.common.parse.ParseException;
+import io.datakernel.common.reflection.RecursiveType;
+import org.junit.Test;
+
+import java.util.*;
+
+import static io.datakernel.aggregation.fieldtype.FieldTypes.ofLocalDate;
+import static io.datakernel.aggregation.measure.Measures.topK;
+import static io.datakernel.codec.json.JsonUtils.fromJson;
+import static io.datakernel.codec.json.JsonUtils.toJson;
+import static java.util.Arrays.asList;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class TopKSketchTest {
+	@Test
+	public void testHeavyHitters() {
+		Random random = new Random(1);
+		TopKSketch sketch = new TopKSketch(50);
+		Map<String, Long> counts = new HashMap<>();
+		for (int i = 0; i < 100_000; i++) {
+			// zipf-like distribution over 10000 urls
+			String url = "/page" + (int) Math.pow(10_000, random.nextDouble());
+			sketch.add(url);
+			counts.merge(url, 1L, Long::sum);
+		}
+		List<Object> expected = topOf(counts, 5);
+		assertEquals(expected, sketch.getTop(5));
+		for (Object item : expected) {
+			long actual = counts.get(item);
+			assertTrue(sketch.getCount(item) >= actual);
+			assertTrue(sketch.getCount(item) - sketch.getError(item) <= actual);
+		}
+	}
+
+	@Test
+	public void testUnionAndSerialization() {
+		Random random = new Random(1);
+		TopKSketch[] sketches = {new TopKSketch(100), new TopKSketch(100), new TopKSketch(100)};
+		Map<Long, Long> counts = new HashMap<>();
+		for (int i = 0; i < 60_000; i++) {
+			long item = (long) Math.pow(100_000, random.nextDouble());
+			sketches[i % 3].add(item);
+			counts.merge(item, 1L, Long::sum);
+		}
+		TopKSketch union = new TopKSketch(100);
+		for (TopKSketch sketch : sketches) {
+			union.union(new TopKSketch(sketch.getBytes()));
+		}
+		assertEquals(topOf(counts, 3), union.getTop(3));
+	}
+
+	@Test
+	public void testExactWhenNotFull() {
+		TopKSketch sketch = new TopKSketch(10);
+		for (int item : asList(1, 2, 2, 3, 3, 3)) {
+			sketch.add(item);
+		}
+		TopKSketch copy = new TopKSketch(sketch.getBytes());
+		assertEquals(asList(3, 2, 1), copy.getTop(10));
+		assertEquals(3, copy.getCount(3));
+		assertEquals(0, copy.getError(3));
+	}
+
+	@Test
+	public void testItemsOfMeasureAreInInternalRepresentation() throws ParseException {
+		FieldType<?> fieldType = topK(ofLocalDate(), 3).getFieldType();
+		assertEquals(RecursiveType.of(List.class, RecursiveType.of(Integer.class)).getType().getTypeName(), fieldType.getDataType().getTypeName());
+
+		TopKSketch sketch = new TopKSketch(10);
+		for (int item : asList(17000, 17001, 17001)) {
+			sketch.add(item);
+		}
+		@SuppressWarnings("unchecked")
+		StructuredCodec<List<Object>> codec = (StructuredCodec<List<Object>>) fieldType.getCodec();
+		assertEquals(sketch.getTop(3), fromJson(codec, toJson(codec, sketch.getTop(3))));
+	}
+
+	private static <T> List<Object> topOf(Map<T, Long> counts, int k) {
+		List<Map.Entry<T, Long>> entries = new ArrayList<>(counts.entrySet());
+		entries.sort(Map.Entry.<T, Long>comparingByValue().reversed());
+		List<Object> result = new ArrayList<>();
+		for (int i = 0; i < k; i++) {
+			result.add(entries.get(i).getKey());
+		}
+		return result;
+	}
+}
@@ -26,6 +26,7 @@ import io.datakernel.async.function.AsyncSupplier;
 import io.datakernel.async.process.AsyncCollector;
 import io.datakernel.codegen.*;
 import io.datakernel.common.Initializable;
+import io.datakernel.common.MemSize;
 import io.datakernel.common.ref.Ref;
 import io.datakernel.cube.CubeQuery.Ordering;
 import io.datakernel.cube.asm.MeasuresFunction;
@@ -50,6 +51,7 @@ import io.datakernel.ot.OTState;
 import io.datakernel.promise.Promise;
 import io.datakernel.promise.Promises;
 import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
@@ -59,6 +61,7 @@ import java.nio.file.Path;
 import java.time.Duration;
 import java.util.*;
 import java.util.Map.Entry;
+import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.Executor;
 import java.util.function.Function;
 import java.util.function.Predicate;
@@ -94,6 +97,7 @@ public final class Cube implements ICube, OTState<CubeDiff>, Initializable<Cube>
 	private static final Logger logger = LoggerFactory.getLogger(Cube.class);
 
 	public static final int DEFAULT_OVERLAPPING_CHUNKS_THRESHOLD = 300;
+	public static final int DEFAULT_QUERY_PARTITION_MIN_RECORDS = 100_000;
 
 	private final Eventloop eventloop;
 	private final Executor executor;
@@ -129,19 +133,41 @@ public final class Cube implements ICube, OTState<CubeDiff>, Initializable<Cube>
 	private int aggregationsSorterItemsInMemory = Aggregation.DEFAULT_SORTER_ITEMS_IN_MEMORY;
 	private int aggregationsMaxChunksToConsolidate = Aggregation.DEFAULT_MAX_CHUNKS_TO_CONSOLIDATE;
 	private boolean aggregationsIgnoreChunkReadingExceptions = false;
+	private boolean aggregationsSorterCompression = true;
+	private boolean aggregationsSorterMemoryMappedReads = false;
+	private int aggregationsSorterParallelRuns = Aggregation.DEFAULT_SORTER_PARALLEL_RUNS;
+	@Nullable
+	private MemSize aggregationsSorterMemory;
+	@Nullable
+	private MemSize aggregationsFlatAccumulatorsMemory;
 
 	private int maxOverlappingChunksToProcessLogs = Cube.DEFAULT_OVERLAPPING_CHUNKS_THRESHOLD;
 	private Duration maxIncrementalReloadPeriod = Aggregation.DEFAULT_MAX_INCREMENTAL_RELOAD_PERIOD;
 
+	private int queryParallelism = 1;
+	private int queryPartitionMinRecords = DEFAULT_QUERY_PARTITION_MIN_RECORDS;
+	private List<Eventloop> queryEventloops = Collections.emptyList();
+	private Function<Eventloop, ? extends AggregationChunkStorage<?>> queryChunkStorageFactory;
+	private final Map<Eventloop, AggregationChunkStorage<?>> queryChunkStorages = new ConcurrentHashMap<>();
+	private int queryEventloopIndex;
+
 	static final class AggregationContainer {
 		private final Aggregation aggregation;
 		private final List<String> measures;
 		private final AggregationPredicate predicate;
+		@Nullable
+		private final Rollup rollup;
+		private final String rollupRoot;
+		private final int rollupLevel;
 
-		private AggregationContainer(Aggregation aggregation, List<String> measures, AggregationPredicate predicate) {
+		private AggregationContainer(Aggregation aggregation, List<String> measures, AggregationPredicate predicate,
+				@Nullable Rollup rollup, String rollupRoot, int rollupLevel) {
 			this.aggregation = aggregation;
 			this.measures = measures;
 			this.predicate = predicate;
+			this.rollup = rollup;
+			this.rollupRoot = rollupRoot;
+			this.rollupLevel = rollupLevel;
 		}
 
 		@Override
@@ -236,16 +262,51 @@ public final class Cube implements ICube, OTState<CubeDiff>, Initializable<Cube>
 		return this;
 	}
 
+	/**
+	 * Enables parallel execution of queries.
+	 * <p>
+	 * Chunks of each queried aggregation are split by primary key ranges into up to {@code parallelism} partitions.
+	 * Each partition is read, filtered and pre-aggregated by one of {@code queryEventloops},
+	 * and partial results of all partitions are merged by the eventloop of this cube.
+	 * Partitions are assigned to eventloops in turn, an eventloop runs its partitions concurrently,
+	 * so there may be more partitions than eventloops.
+	 * <p>
+	 * Chunk storages are bound to their eventloops, so partitions read chunks from the storage of their eventloop,
+	 * created by {@code chunkStorageFactory} once per eventloop.
+	 *
+	 * @param queryEventloops     eventloops which run in their own threads and are kept alive, e.g. eventloops of a worker pool
+	 * @param parallelism         maximum number of partitions of a single aggregation query
+	 * @param chunkStorageFactory factory of chunk storages, which provide access to the same chunks as the storage of this cube
+	 */
+	public Cube withParallelQueries(List<Eventloop> queryEventloops, int parallelism,
+			Function<Eventloop, ? extends AggregationChunkStorage<?>> chunkStorageFactory) {
+		checkArgument(!queryEventloops.isEmpty(), "No eventloops to run queries");
+		checkArgument(parallelism > 0, "Parallelism must be positive");
+		this.queryEventloops = new ArrayList<>(queryEventloops);
+		this.queryParallelism = parallelism;
+		this.queryChunkStorageFactory = chunkStorageFactory;
+		return this;
+	}
+
+	public Cube withQueryPartitionMinRecords(int queryPartitionMinRecords) {
+		checkArgument(queryPartitionMinRecords > 0, "Minimal number of records of a partition must be positive");
+		this.queryPartitionMinRecords = queryPartitionMinRecords;
+		return this;
+	}
+
 	public static final class AggregationConfig implements Initializable<AggregationConfig> {
 		private final String id;
 		private final List<String> dimensions = new ArrayList<>();
 		private final List<String> measures = new ArrayList<>();
 		private AggregationPredicate predicate = AggregationPredicates.alwaysTrue();
 		private final List<String> partitioningKey = new ArrayList<>();
+		private final List<String> bloomFilterDimensions = new ArrayList<>();
 		private int chunkSize;
 		private int reducerBufferSize;
 		private int sorterItemsInMemory;
 		private int maxChunksToConsolidate;
+		@Nullable
+		private Rollup rollup;
 
 		public AggregationConfig(String id) {
 			this.id = id;
@@ -292,6 +353,15 @@ public final class Cube implements ICube, OTState<CubeDiff>, Initializable<Cube>
 			return this;
 		}
 
+		public AggregationConfig withBloomFilterDimensions(Collection<String> bloomFilterDimensions) {
+			this.bloomFilterDimensions.addAll(bloomFilterDimensions);
+			return this;
+		}
+
+		public AggregationConfig withBloomFilterDimensions(String... bloomFilterDimensions) {
+			return withBloomFilterDimensions(asList(bloomFilterDimensions));
+		}
+
 		public AggregationConfig withChunkSize(int chunkSize) {
 			this.chunkSize = chunkSize;
 			return this;
@@ -311,6 +381,42 @@ public final class Cube implements ICube, OTState<CubeDiff>, Initializable<Cube>
 			this.maxChunksToConsolidate = maxChunksToConsolidate;
 			return this;
 		}
+
+		/**
+		 * Declares this aggregation as a time-bucketed rollup of another aggregation, e.g. hourly rollup of minutely data.
+		 * <p>
+		 * Values of {@code dimension} are computed from values of {@code sourceDimension}
+		 * by floor division by {@code bucketSize}, so both dimensions must have integral internal types.
+		 * Rollup is not fed from input records directly, it receives the same records as the source aggregation,
+		 * so that it is always consistent with the source aggregation.
+		 * <p>
+		 * Unless specified explicitly, dimensions and measures of a rollup are those of the source aggregation,
+		 * with {@code sourceDimension} replaced by {@code dimension}.
+		 */
+		public AggregationConfig withRollupOf(String sourceAggregationId, String sourceDimension, String dimension, long bucketSize) {
+			checkArgument(bucketSize > 0, "Bucket size must be positive");
+			this.rollup = new Rollup(sourceAggregationId, sourceDimension, dimension, bucketSize);
+			return this;
+		}
+	}
+
+	static final class Rollup {
+		final String sourceAggregationId;
+		final String sourceDimension;
+		final String dimension;
+		final long bucketSize;
+
+		Rollup(String sourceAggregationId, String sourceDimension, String dimension, long bucketSize) {
+			this.sourceAggregationId = sourceAggregationId;
+			this.sourceDimension = sourceDimension;
+			this.dimension = dimension;
+			this.bucketSize = bucketSize;
+		}
+
+		@Override
+		public String toString() {
+			return sourceAggregationId + '(' + sourceDimension + " -> " + dimension + " / " + bucketSize + ')';
+		}
 	}
 
 	public Cube withAggregation(AggregationConfig aggregationConfig) {
@@ -346,17 +452,52 @@ public final class Cube implements ICube, OTState<CubeDiff>, Initializable<Cube>
 	public Cube addAggregation(AggregationConfig config) {
 		checkArgument(!aggregations.containsKey(config.id), "Aggregation '%s' is already defined", config.id);
 
+		List<String> dimensions = config.dimensions;
+		List<String> aggregationMeasures = config.measures;
+		AggregationPredicate predicate = config.predicate;
+		String rollupRoot = config.id;
+		int rollupLevel = 0;
+		Rollup rollup = config.rollup;
+		if (rollup != null) {
+			AggregationContainer source = aggregations.get(rollup.sourceAggregationId);
+			checkArgument(source != null, "Unknown source aggregation of rollup '%s': %s", config.id, rollup.sourceAggregationId);
+			List<String> sourceKeys = source.aggregation.getKeys();
+			checkArgument(sourceKeys.contains(rollup.sourceDimension), "Source aggregation does not contain dimension %s", rollup.sourceDimension);
+			checkArgument(isIntegral(rollup.sourceDimension) && isIntegral(rollup.dimension),
+					"Dimensions %s and %s must have integral internal types", rollup.sourceDimension, rollup.dimension);
+			if (dimensions.isEmpty()) {
+				dimensions = sourceKeys.stream()
+						.map(key -> key.equals(rollup.sourceDimension) ? rollup.dimension : key)
+						.collect(toList());
+			}
+			checkArgument(dimensions.stream().allMatch(d -> d.equals(rollup.dimension) || sourceKeys.contains(d)),
+					"Dimensions of rollup '%s' can not be derived from source aggregation: %s", config.id, dimensions);
+			if (aggregationMeasures.isEmpty()) {
+				aggregationMeasures = source.measures;
+			}
+			checkArgument(source.measures.containsAll(aggregationMeasures),
+					"Measures of rollup '%s' are not contained in source aggregation: %s", config.id, aggregationMeasures);
+			checkArgument(predicate.equals(AggregationPredicates.alwaysTrue()) || predicate.equals(source.predicate),
+					"Predicate of rollup '%s' must be the same as the predicate of source aggregation", config.id);
+			predicate = source.predicate;
+			rollupRoot = source.rollupRoot;
+			rollupLevel = source.rollupLevel + 1;
+		}
+		List<String> finalDimensions = dimensions;
+		List<String> finalMeasures = aggregationMeasures;
+
 		AggregationStructure structure = AggregationStructure.create(ChunkIdCodec.ofLong())
-				.initialize(s -> config.dimensions.forEach(dimensionId ->
+				.initialize(s -> finalDimensions.forEach(dimensionId ->
 						s.withKey(dimensionId, dimensionTypes.get(dimensionId))))
-				.initialize(s -> config.measures.forEach(measureId ->
+				.initialize(s -> finalMeasures.forEach(measureId ->
 						s.withMeasure(measureId, measures.get(measureId))))
 				.initialize(s -> measures.forEach((measureId, measure) -> {
-					if (!config.measures.contains(measureId)) {
+					if (!finalMeasures.contains(measureId)) {
 						s.withIgnoredMeasure(measureId, measure.getFieldType());
 					}
 				}))
-				.withPartitioningKey(config.partitioningKey);
+				.withPartitioningKey(config.partitioningKey)
+				.withBloomFilterKeys(config.bloomFilterDimensions);
 
 		Aggregation aggregation = Aggregation.create(eventloop, executor, classLoader, aggregationChunkStorage, structure)
 				.withTemporarySortDir(temporarySortDir)
@@ -365,13 +506,25 @@ public final class Cube implements ICube, OTState<CubeDiff>, Initializable<Cube>
 				.withSorterItemsInMemory(config.sorterItemsInMemory != 0 ? config.sorterItemsInMemory : aggregationsSorterItemsInMemory)
 				.withMaxChunksToConsolidate(config.maxChunksToConsolidate != 0 ? config.maxChunksToConsolidate : aggregationsMaxChunksToConsolidate)
 				.withIgnoreChunkReadingExceptions(aggregationsIgnoreChunkReadingExceptions)
+				.withSorterCompression(aggregationsSorterCompression)
+				.withSorterMemoryMappedReads(aggregationsSorterMemoryMappedReads)
+				.withSorterParallelRuns(aggregationsSorterParallelRuns)
+				.withSorterMemory(aggregationsSorterMemory)
+				.withFlatAccumulators(aggregationsFlatAccumulatorsMemory)
 				.withStats(aggregationStats);
 
-		aggregations.put(config.id, new AggregationContainer(aggregation, config.measures, config.predicate));
+		aggregations.put(config.id, new AggregationContainer(aggregation, finalMeasures, predicate, rollup, rollupRoot, rollupLevel));
 		logger.info("Added aggregation {} for id '{}'", aggregation, config.id);
 		return this;
 	}
 
+	private boolean isIntegral(String dimension) {
+		FieldType type = dimensionTypes.get(dimension);
+		checkArgument(type != null, "Unknown dimension: %s", dimension);
+		Class<?> internalType = (Class<?>) type.getInternalDataType();
+		return internalType == int.class || internalType == long.class;
+	}
+
 	@NotNull
 	public Class<?> getAttributeInternalType(String attribute) {
 		if (dimensionTypes.containsKey(attribute))
@@ -519,12 +672,89 @@ public final class Cube implements ICube, OTState<CubeDiff>, Initializable<Cube>
 				output = output
 						.transformWith(StreamFilter.create(filterPredicate));
 			}
-			Promise<AggregationDiff> consume = output.streamTo(aggregation.consume(inputClass, aggregationKeyFields, aggregationMeasureFields));
+			Promise<AggregationDiff> consume = aggregationContainer.rollup == null ?
+					output.streamTo(aggregation.consume(inputClass, aggregationKeyFields, aggregationMeasureFields)) :
+					output.transformWith(StreamMapper.create(createRollupMapper(aggregationContainer, inputClass, dimensionFields, aggregationMeasureFields)))
+							.streamTo(aggregation.consume(getRollupRecordClass(aggregationContainer, inputClass, dimensionFields, aggregationMeasureFields),
+									keysToMap(keys.stream(), identity()), keysToMap(aggregationMeasureFields.keySet().stream(), identity())));
 			diffsCollector.addPromise(consume, (accumulator, diff) -> accumulator.put(aggregationId, diff));
 		}
 		return StreamConsumerWithResult.of(streamSplitter.getInput(), diffsCollector.run().get().map(CubeDiff::of));
 	}
 
+	/**
+	 * Creates a class of records consumed by a rollup, which contains keys of the rollup
+	 * and input fields of its measures, named after the measures
+	 */
+	private <T, R> Class<R> getRollupRecordClass(AggregationContainer container, Class<T> inputClass,
+			Map<String, String> dimensionFields, Map<String, String> measureFields) {
+		List<String> keys = container.aggregation.getKeys();
+		return (Class<R>) ClassBuilder.create(classLoader, Object.class)
+				.withClassKey(inputClass, keys, dimensionFields, measureFields)
+				.initialize(cb -> keys.forEach(key ->
+						cb.withField(key, dimensionTypes.get(key).getInternalDataType())))
+				.initialize(cb -> measureFields.forEach((measure, field) -> {
+					if (field != null) {
+						cb.withField(measure, getPropertyType(inputClass, field));
+					}
+				}))
+				.build();
+	}
+
+	private <T, R> Function<T, R> createRollupMapper(AggregationContainer container, Class<T> inputClass,
+			Map<String, String> dimensionFields, Map<String, String> measureFields) {
+		Class<R> rollupRecordClass = getRollupRecordClass(container, inputClass, dimensionFields, measureFields);
+		return ClassBuilder.create(classLoader, Function.class)
+				.withClassKey(inputClass, rollupRecordClass)
+				.withMethod("apply",
+						let(constructor(rollupRecordClass), record ->
+								sequence(expressions -> {
+									Expression input = cast(arg(0), inputClass);
+									for (String key : container.aggregation.getKeys()) {
+										expressions.add(set(property(record, key),
+												rollupKeyValue(container, key, input, dimensionFields)));
+									}
+									measureFields.forEach((measure, field) -> {
+										if (field != null) {
+											expressions.add(set(property(record, measure), property(input, field)));
+										}
+									});
+									expressions.add(record);
+								})))
+				.buildClassAndCreateNewInstance();
+	}
+
+	private Expression rollupKeyValue(AggregationContainer container, String dimension, Expression input,
+			Map<String, String> dimensionFields) {
+		Rollup rollup = container.rollup;
+		if (rollup == null) {
+			return property(input, dimensionFields.get(dimension));
+		}
+		AggregationContainer source = aggregations.get(rollup.sourceAggregationId);
+		if (!dimension.equals(rollup.dimension)) {
+			return rollupKeyValue(source, dimension, input, dimensionFields);
+		}
+		Expression sourceValue = rollupKeyValue(source, rollup.sourceDimension, input, dimensionFields);
+		return cast(
+				staticCall(Math.class, "floorDiv", cast(sourceValue, long.class), value(rollup.bucketSize)),
+				(Class<?>) dimensionTypes.get(dimension).getInternalDataType());
+	}
+
+	private static Class<?> getPropertyType(Class<?> cls, String property) {
+		try {
+			return cls.getField(property).getType();
+		} catch (NoSuchFieldException ignored) {
+		}
+		String name = Character.toUpperCase(property.charAt(0)) + property.substring(1);
+		for (String prefix : asList("get", "is")) {
+			try {
+				return cls.getMethod(prefix + name).getReturnType();
+			} catch (NoSuchMethodException ignored) {
+			}
+		}
+		throw new IllegalArgumentException("No property " + property + " in " + cls.getName());
+	}
+
 	Map<String, AggregationPredicate> getCompatibleAggregationsForDataInput(Map<String, String> dimensionFields,
 			Map<String, String> measureFields,
 			AggregationPredicate predicate) {
@@ -534,6 +764,15 @@ public final class Cube implements ICube, OTState<CubeDiff>, Initializable<Cube>
 			AggregationContainer container = aggregationContainer.getValue();
 			Aggregation aggregation = container.aggregation;
 
+			if (container.rollup != null) {
+				// rollups are declared after their sources and receive the same records as their sources
+				AggregationPredicate sourcePredicate = aggregationToDataInputFilterPredicate.get(container.rollup.sourceAggregationId);
+				if (sourcePredicate != null && measureFields.keySet().stream().anyMatch(container.measures::contains)) {
+					aggregationToDataInputFilterPredicate.put(aggregationContainer.getKey(), sourcePredicate);
+				}
+				continue;
+			}
+
 			Set<String> dimensions = dimensionFields.keySet();
 			if (!dimensions.containsAll(aggregation.getKeys())) continue;
 
@@ -596,6 +835,7 @@ public final class Cube implements ICube, OTState<CubeDiff>, Initializable<Cube>
 			containerWithScores.add(new AggregationContainerWithScore(compatibleAggregation, score));
 		}
 		sort(containerWithScores);
+		preferCoarserRollups(containerWithScores);
 
 		Class<K> resultKeyClass = createKeyClass(
 				keysToMap(dimensions.stream(), dimensionTypes::get),
@@ -617,9 +857,9 @@ public final class Cube implements ICube, OTState<CubeDiff>, Initializable<Cube>
 					keysToMap(compatibleMeasures.stream(), m -> measures.get(m).getFieldType()),
 					queryClassLoader);
 
-			StreamSupplier<S> aggregationSupplier = aggregationContainer.aggregation.query(
+			StreamSupplier<S> aggregationSupplier = queryAggregation(aggregationContainer.aggregation,
 					AggregationQuery.create(dimensions, compatibleMeasures, where),
-					aggregationClass, queryClassLoader);
+					aggregationClass, resultKeyClass, queryClassLoader);
 
 			if (storedMeasures.isEmpty() && streamReducer.getInputs().isEmpty()) {
 				/*
@@ -646,6 +886,72 @@ public final class Cube implements ICube, OTState<CubeDiff>, Initializable<Cube>
 		return queryResultSupplier;
 	}
 
+	private <K extends Comparable, S> StreamSupplier<S> queryAggregation(Aggregation aggregation, AggregationQuery query,
+			Class<S> aggregationClass, Class<K> keyClass, DefiningClassLoader queryClassLoader) {
+		if (queryParallelism <= 1) {
+			return aggregation.query(query, aggregationClass, queryClassLoader);
+		}
+
+		List<AggregationChunk> chunks = aggregation.findChunks(query);
+		List<List<AggregationChunk>> partitions = splitByPrimaryKey(chunks, queryParallelism, queryPartitionMinRecords);
+		if (partitions.size() <= 1) {
+			return aggregation.queryChunks(query, chunks, aggregationClass, queryClassLoader);
+		}
+
+		logger.info("Query {} of aggregation {} is split into {} partitions", query, aggregation, partitions.size());
+
+		/*
+		Partitions are split by primary key ranges of chunks, which may overlap,
+		so records of the same key from different partitions are merged by reducer.
+		 */
+		StreamReducer<K, S, Object> partitionsReducer = StreamReducer.create(Comparable::compareTo);
+		Function<S, K> keyFunction = io.datakernel.aggregation.Utils.createKeyFunction(aggregationClass, keyClass,
+				query.getKeys(), queryClassLoader);
+		for (List<AggregationChunk> partition : partitions) {
+			Reducer<K, S, S, Object> reducer = aggregation.aggregationReducer(aggregationClass, aggregationClass,
+					query.getKeys(), query.getMeasures(), queryClassLoader);
+			Eventloop partitionEventloop = queryEventloops.get(queryEventloopIndex++ % queryEventloops.size());
+			QueryPartitionSupplier.create(partitionEventloop, $ ->
+					aggregation.queryChunks(query, partition, aggregationClass, queryClassLoader,
+							queryChunkStorages.computeIfAbsent(partitionEventloop, queryChunkStorageFactory)))
+					.streamTo(partitionsReducer.newInput(keyFunction, reducer));
+		}
+		return partitionsReducer.getOutput();
+	}
+
+	/**
+	 * Splits chunks, ordered by their minimal primary keys, into contiguous partitions with roughly equal number of records
+	 */
+	static List<List<AggregationChunk>> splitByPrimaryKey(List<AggregationChunk> chunks, int parallelism, int minRecords) {
+		List<AggregationChunk> sortedChunks = new ArrayList<>(chunks);
+		sortedChunks.sort(Comparator.comparing(AggregationChunk::getMinPrimaryKey));
+		long totalRecords = sortedChunks.stream().mapToLong(AggregationChunk::getCount).sum();
+
+		long partitions = min(parallelism, sortedChunks.size());
+		if (minRecords > 0) {
+			partitions = min(partitions, totalRecords / minRecords);
+		}
+		if (partitions <= 1) {
+			return sortedChunks.isEmpty() ? Collections.emptyList() : singletonList(sortedChunks);
+		}
+
+		List<List<AggregationChunk>> result = new ArrayList<>();
+		List<AggregationChunk> partition = new ArrayList<>();
+		long records = 0;
+		for (AggregationChunk chunk : sortedChunks) {
+			partition.add(chunk);
+			records += chunk.getCount();
+			if (result.size() < partitions - 1 && records * partitions >= totalRecords * (result.size() + 1)) {
+				result.add(partition);
+				partition = new ArrayList<>();
+			}
+		}
+		if (!partition.isEmpty()) {
+			result.add(partition);
+		}
+		return result;
+	}
+
 	List<AggregationContainer> getCompatibleAggregationsForQuery(Collection<String> dimensions,
 			Collection<String> storedMeasures,
 			AggregationPredicate where) {
@@ -667,6 +973,22 @@ public final class Cube implements ICube, OTState<CubeDiff>, Initializable<Cube>
 		return compatibleAggregations;
 	}
 
+	/**
+	 * Among sorted aggregations of the same cost, moves coarser tiers of a rollup chain ahead of finer ones,
+	 * within the positions which are taken by this chain
+	 */
+	private static void preferCoarserRollups(List<AggregationContainerWithScore> containerWithScores) {
+		for (int i = 0; i < containerWithScores.size(); i++) {
+			for (int j = i + 1; j < containerWithScores.size() && containerWithScores.get(j).isCostEqual(containerWithScores.get(i)); j++) {
+				AggregationContainer container = containerWithScores.get(i).aggregationContainer;
+				AggregationContainer other = containerWithScores.get(j).aggregationContainer;
+				if (other.rollupRoot.equals(container.rollupRoot) && other.rollupLevel > container.rollupLevel) {
+					Collections.swap(containerWithScores, i, j);
+				}
+			}
+		}
+	}
+
 	static class AggregationContainerWithScore implements Comparable<AggregationContainerWithScore> {
 		final AggregationContainer aggregationContainer;
 		final double score;
@@ -676,6 +998,10 @@ public final class Cube implements ICube, OTState<CubeDiff>, Initializable<Cube>
 			this.aggregationContainer = aggregationContainer;
 		}
 
+		boolean isCostEqual(AggregationContainerWithScore o) {
+			return aggregationContainer.measures.size() == o.aggregationContainer.measures.size() && score == o.score;
+		}
+
 		@Override
 		public int compareTo(@NotNull AggregationContainerWithScore o) {
 			int result;
@@ -1237,6 +1563,96 @@ public final class Cube implements ICube, OTState<CubeDiff>, Initializable<Cube>
 		return this;
 	}
 
+	@JmxAttribute
+	public boolean getAggregationsSorterCompression() {
+		return aggregationsSorterCompression;
+	}
+
+	@JmxAttribute
+	public void setAggregationsSorterCompression(boolean aggregationsSorterCompression) {
+		this.aggregationsSorterCompression = aggregationsSorterCompression;
+		for (AggregationContainer aggregationContainer : aggregations.values()) {
+			aggregationContainer.aggregation.setSorterCompression(aggregationsSorterCompression);
+		}
+	}
+
+	/**
+	 * Enables or disables compression of temporary sort files of aggregations,
+	 * see {@link Aggregation#withSorterCompression(boolean)}.
+	 */
+	public Cube withAggregationsSorterCompression(boolean aggregationsSorterCompression) {
+		this.aggregationsSorterCompression = aggregationsSorterCompression;
+		return this;
+	}
+
+	@JmxAttribute
+	public boolean getAggregationsSorterMemoryMappedReads() {
+		return aggregationsSorterMemoryMappedReads;
+	}
+
+	@JmxAttribute
+	public void setAggregationsSorterMemoryMappedReads(boolean aggregationsSorterMemoryMappedReads) {
+		this.aggregationsSorterMemoryMappedReads = aggregationsSorterMemoryMappedReads;
+		for (AggregationContainer aggregationContainer : aggregations.values()) {
+			aggregationContainer.aggregation.setSorterMemoryMappedReads(aggregationsSorterMemoryMappedReads);
+		}
+	}
+
+	/**
+	 * Makes aggregations read temporary sort files from memory-mapped files,
+	 * see {@link Aggregation#withSorterMemoryMappedReads(boolean)}.
+	 */
+	public Cube withAggregationsSorterMemoryMappedReads(boolean aggregationsSorterMemoryMappedReads) {
+		this.aggregationsSorterMemoryMappedReads = aggregationsSorterMemoryMappedReads;
+		return this;
+	}
+
+	@JmxAttribute
+	public int getAggregationsSorterParallelRuns() {
+		return aggregationsSorterParallelRuns;
+	}
+
+	@JmxAttribute
+	public void setAggregationsSorterParallelRuns(int aggregationsSorterParallelRuns) {
+		this.aggregationsSorterParallelRuns = aggregationsSorterParallelRuns;
+		for (AggregationContainer aggregationContainer : aggregations.values()) {
+			aggregationContainer.aggregation.setSorterParallelRuns(aggregationsSorterParallelRuns);
+		}
+	}
+
+	/**
+	 * Sets the number of runs which sorters of aggregations sort and write concurrently,
+	 * see {@link Aggregation#withSorterParallelRuns(int)}.
+	 */
+	public Cube withAggregationsSorterParallelRuns(int aggregationsSorterParallelRuns) {
+		this.aggregationsSorterParallelRuns = aggregationsSorterParallelRuns;
+		return this;
+	}
+
+	@JmxAttribute
+	@Nullable
+	public String getAggregationsSorterMemory() {
+		return aggregationsSorterMemory != null ? aggregationsSorterMemory.format() : null;
+	}
+
+	@JmxAttribute
+	public void setAggregationsSorterMemory(@Nullable String aggregationsSorterMemory) {
+		this.aggregationsSorterMemory = aggregationsSorterMemory != null ?
+				MemSize.valueOf(aggregationsSorterMemory) : null;
+		for (AggregationContainer aggregationContainer : aggregations.values()) {
+			aggregationContainer.aggregation.setSorterMemory(aggregationsSorterMemory);
+		}
+	}
+
+	/**
+	 * Limits estimated memory of records kept by each sorter of aggregations,
+	 * see {@link Aggregation#withSorterMemory(MemSize)}.
+	 */
+	public Cube withAggregationsSorterMemory(@Nullable MemSize aggregationsSorterMemory) {
+		this.aggregationsSorterMemory = aggregationsSorterMemory;
+		return this;
+	}
+
 	@JmxAttribute
 	public int getAggregationsMaxChunksToConsolidate() {
 		return aggregationsMaxChunksToConsolidate;
@@ -1273,6 +1689,30 @@ public final class Cube implements ICube, OTState<CubeDiff>, Initializable<Cube>
 		return this;
 	}
 
+	@JmxAttribute
+	@Nullable
+	public String getAggregationsFlatAccumulatorsMemory() {
+		return aggregationsFlatAccumulatorsMemory != null ? aggregationsFlatAccumulatorsMemory.format() : null;
+	}
+
+	@JmxAttribute
+	public void setAggregationsFlatAccumulatorsMemory(@Nullable String aggregationsFlatAccumulatorsMemory) {
+		this.aggregationsFlatAccumulatorsMemory = aggregationsFlatAccumulatorsMemory != null ?
+				MemSize.valueOf(aggregationsFlatAccumulatorsMemory) : null;
+		for (AggregationContainer aggregation : aggregations.values()) {
+			aggregation.aggregation.setFlatAccumulatorsMemory(aggregationsFlatAccumulatorsMemory);
+		}
+	}
+
+	/**
+	 * Makes aggregations accumulate consumed records in flat primitive arrays,
+	 * see {@link Aggregation#withFlatAccumulators(MemSize)}.
+	 */
+	public Cube withAggregationsFlatAccumulators(@Nullable MemSize memoryBudget) {
+		this.aggregationsFlatAccumulatorsMemory = memoryBudget;
+		return this;
+	}
+
 	@JmxAttribute
 	public int getMaxOverlappingChunksToProcessLogs() {
 		return maxOverlappingChunksToProcessLogs;
@@ -1303,6 +1743,28 @@ public final class Cube implements ICube, OTState<CubeDiff>, Initializable<Cube>
 		return this;
 	}
 
+	@JmxAttribute
+	public int getQueryParallelism() {
+		return queryParallelism;
+	}
+
+	@JmxAttribute
+	public void setQueryParallelism(int queryParallelism) {
+		checkArgument(queryParallelism == 1 || !queryEventloops.isEmpty(), "Parallel queries are not configured");
+		this.queryParallelism = queryParallelism;
+	}
+
+	@JmxAttribute
+	public int getQueryPartitionMinRecords() {
+		return queryPartitionMinRecords;
+	}
+
+	@JmxAttribute
+	public void setQueryPartitionMinRecords(int queryPartitionMinRecords) {
+		checkArgument(queryPartitionMinRecords > 0, "Minimal number of records of a partition must be positive");
+		this.queryPartitionMinRecords = queryPartitionMinRecords;
+	}
+
 	@JmxAttribute
 	public ValueStats getQueryTimes() {
 		return queryTimes;
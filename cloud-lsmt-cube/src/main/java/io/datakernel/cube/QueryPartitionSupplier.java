@@ -0,0 +1,182 @@
+/*
+ * Copyright (C) 2015-2019 SoftIndex LLC.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package io.datakernel.cube;
+
+import io.datakernel.common.ApplicationSettings;
+import io.datakernel.datastream.AbstractStreamConsumer;
+import io.datakernel.datastream.AbstractStreamSupplier;
+import io.datakernel.datastream.StreamDataAcceptor;
+import io.datakernel.datastream.StreamSupplier;
+import io.datakernel.eventloop.Eventloop;
+import io.datakernel.promise.Promise;
+import org.jetbrains.annotations.Nullable;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.function.Function;
+
+/**
+ * Supplies records of a query partition, which is run by another eventloop.
+ * <p>
+ * Records are passed to the eventloop of this supplier in batches, with no more than {@link #MAX_BATCHES}
+ * batches in flight, so the partition query is suspended while its records are not consumed.
+ * A suspended partition does not hold a thread, so an eventloop may run any number of partitions at the same time.
+ */
+final class QueryPartitionSupplier<T> extends AbstractStreamSupplier<T> {
+	static final int BATCH_SIZE = ApplicationSettings.getInt(QueryPartitionSupplier.class, "batchSize", 1024);
+	static final int MAX_BATCHES = ApplicationSettings.getInt(QueryPartitionSupplier.class, "maxBatches", 4);
+
+	private final ArrayDeque<List<T>> batches = new ArrayDeque<>();
+	private int position;
+	private boolean endOfStream;
+
+	@Nullable
+	private volatile Sender sender;
+	@Nullable
+	private volatile Throwable cancelled;
+
+	private QueryPartitionSupplier() {
+	}
+
+	/**
+	 * Runs a partition query by the partition eventloop, which should be kept alive by its owner
+	 *
+	 * @param partitionEventloop eventloop which runs the partition query in its own thread
+	 * @param partitionQuery     creates a supplier of records of the partition for the partition eventloop
+	 */
+	static <T> QueryPartitionSupplier<T> create(Eventloop partitionEventloop, Function<Eventloop, StreamSupplier<T>> partitionQuery) {
+		QueryPartitionSupplier<T> supplier = new QueryPartitionSupplier<>();
+		supplier.eventloop.startExternalTask();
+		partitionEventloop.execute(() -> supplier.runPartition(partitionEventloop, partitionQuery));
+		return supplier;
+	}
+
+	private void runPartition(Eventloop partitionEventloop, Function<Eventloop, StreamSupplier<T>> partitionQuery) {
+		Sender sender = new Sender(partitionEventloop);
+		this.sender = sender;
+		sender.getAcknowledgement()
+				.whenComplete(() -> eventloop.completeExternalTask());
+		try {
+			partitionQuery.apply(partitionEventloop).streamTo(sender);
+		} catch (RuntimeException e) {
+			sender.close(e);
+		}
+		Throwable e = cancelled;
+		if (e != null) {
+			sender.close(e);
+		}
+	}
+
+	private void onBatch(List<T> batch) {
+		if (isClosed()) return;
+		batches.add(batch);
+		postProduce();
+	}
+
+	private void onPartitionEndOfStream() {
+		if (isClosed()) return;
+		endOfStream = true;
+		postProduce();
+	}
+
+	@Override
+	protected void produce(AsyncProduceController async) {
+		while (isReceiverReady() && !batches.isEmpty()) {
+			List<T> batch = batches.peek();
+			while (isReceiverReady() && position < batch.size()) {
+				send(batch.get(position++));
+			}
+			if (position == batch.size()) {
+				batches.poll();
+				position = 0;
+				Sender sender = this.sender;
+				assert sender != null;
+				sender.partitionEventloop.execute(sender::onBatchConsumed);
+			}
+		}
+		if (batches.isEmpty() && endOfStream) {
+			sendEndOfStream();
+		}
+	}
+
+	@Override
+	protected void onError(Throwable e) {
+		batches.clear();
+		cancelled = e;
+		Sender sender = this.sender;
+		if (sender != null) {
+			sender.partitionEventloop.execute(() -> sender.close(e));
+		}
+	}
+
+	private final class Sender extends AbstractStreamConsumer<T> implements StreamDataAcceptor<T> {
+		final Eventloop partitionEventloop;
+
+		private List<T> batch = new ArrayList<>();
+		private int batchesInFlight;
+
+		Sender(Eventloop partitionEventloop) {
+			this.partitionEventloop = partitionEventloop;
+		}
+
+		@Override
+		protected void onStarted() {
+			getSupplier().resume(this);
+		}
+
+		@Override
+		public void accept(T item) {
+			batch.add(item);
+			if (batch.size() >= BATCH_SIZE) {
+				sendBatch();
+			}
+		}
+
+		private void sendBatch() {
+			List<T> batch = this.batch;
+			this.batch = new ArrayList<>();
+			batchesInFlight++;
+			QueryPartitionSupplier.this.eventloop.execute(() -> onBatch(batch));
+			if (batchesInFlight >= MAX_BATCHES) {
+				getSupplier().suspend();
+			}
+		}
+
+		void onBatchConsumed() {
+			batchesInFlight--;
+			if (batchesInFlight < MAX_BATCHES && !getEndOfStream().isComplete()) {
+				getSupplier().resume(this);
+			}
+		}
+
+		@Override
+		protected Promise<Void> onEndOfStream() {
+			if (!batch.isEmpty()) {
+				sendBatch();
+			}
+			QueryPartitionSupplier.this.eventloop.execute(QueryPartitionSupplier.this::onPartitionEndOfStream);
+			return Promise.complete();
+		}
+
+		@Override
+		protected void onError(Throwable e) {
+			QueryPartitionSupplier.this.eventloop.execute(() -> QueryPartitionSupplier.this.close(e));
+		}
+	}
+}
@@ -18,8 +18,11 @@ package io.datakernel.cube.http;
 
 import io.datakernel.aggregation.AggregationPredicate;
 import io.datakernel.aggregation.QueryException;
+import io.datakernel.bytebuf.ByteBuf;
+import io.datakernel.bytebuf.ByteBufPool;
 import io.datakernel.codec.StructuredCodec;
 import io.datakernel.codec.registry.CodecFactory;
+import io.datakernel.common.MemSize;
 import io.datakernel.common.Stopwatch;
 import io.datakernel.common.parse.ParseException;
 import io.datakernel.cube.CubeQuery;
@@ -28,13 +31,19 @@ import io.datakernel.cube.QueryResult;
 import io.datakernel.cube.ReportType;
 import io.datakernel.eventloop.Eventloop;
 import io.datakernel.http.*;
+import io.datakernel.jmx.api.JmxAttribute;
+import io.datakernel.jmx.api.JmxOperation;
 import io.datakernel.promise.Promise;
 import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import java.nio.charset.StandardCharsets;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.function.Supplier;
 import java.util.regex.Pattern;
 
 import static io.datakernel.bytebuf.ByteBufStrings.wrapUtf8;
@@ -55,6 +64,19 @@ public final class ReportingServiceServlet extends AsyncServletWithStats {
 	private StructuredCodec<QueryResult> queryResultCodec;
 	private StructuredCodec<AggregationPredicate> aggregationPredicateCodec;
 
+	@Nullable
+	private Supplier<?> revisionSupplier;
+	private MemSize resultCacheMaxSize = MemSize.ZERO;
+	private final LinkedHashMap<CubeQuery, byte[]> resultCache = new LinkedHashMap<>(16, 0.75f, true);
+	private long resultCacheBytes;
+	@Nullable
+	private Object resultCacheRevision;
+
+	// JMX
+	private long resultCacheHits;
+	private long resultCacheMisses;
+	private long resultCacheEvictions;
+
 	private ReportingServiceServlet(Eventloop eventloop, ICube cube, CodecFactory mapping) {
 		super(eventloop);
 		this.cube = cube;
@@ -65,6 +87,22 @@ public final class ReportingServiceServlet extends AsyncServletWithStats {
 		return new ReportingServiceServlet(eventloop, cube, CUBE_TYPES);
 	}
 
+	/**
+	 * Enables caching of query results.
+	 * <p>
+	 * Results are cached as serialized JSON by the normalized query. The whole cache is dropped
+	 * as soon as a new revision of the cube state is seen, so that results of a previous revision
+	 * are neither served nor kept in memory.
+	 *
+	 * @param maxSize          maximum total size of cached results, least recently used results are evicted first
+	 * @param revisionSupplier supplier of the current revision of the cube state, such as {@code OTStateManager::getCommitId}
+	 */
+	public ReportingServiceServlet withResultCache(MemSize maxSize, Supplier<?> revisionSupplier) {
+		this.resultCacheMaxSize = maxSize;
+		this.revisionSupplier = revisionSupplier;
+		return this;
+	}
+
 	public static RoutingServlet createRootServlet(Eventloop eventloop, ICube cube) {
 		return createRootServlet(
 				ReportingServiceServlet.create(eventloop, cube));
@@ -96,11 +134,27 @@ public final class ReportingServiceServlet extends AsyncServletWithStats {
 		try {
 			Stopwatch totalTimeStopwatch = Stopwatch.createStarted();
 			CubeQuery cubeQuery = parseQuery(httpRequest);
+			Object revision = getResultCacheRevision();
+			CubeQuery cacheKey = revision != null ? normalize(cubeQuery) : null;
+			if (cacheKey != null) {
+				byte[] cached = resultCache.get(cacheKey);
+				if (cached != null) {
+					resultCacheHits++;
+					logger.info("Processed request {} ({}) from cache [totalTime={}]", httpRequest, cubeQuery, totalTimeStopwatch);
+					ByteBuf body = ByteBufPool.allocate(cached.length);
+					body.put(cached);
+					return Promise.of(createResponse(body));
+				}
+				resultCacheMisses++;
+			}
 			return cube.query(cubeQuery)
 					.map(queryResult -> {
 						Stopwatch resultProcessingStopwatch = Stopwatch.createStarted();
 						String json = toJson(getQueryResultCodec(), queryResult);
-						HttpResponse httpResponse = createResponse(json);
+						if (cacheKey != null && revision.equals(getResultCacheRevision())) {
+							putResult(cacheKey, json.getBytes(StandardCharsets.UTF_8));
+						}
+						HttpResponse httpResponse = createResponse(wrapUtf8(json));
 						logger.info("Processed request {} ({}) [totalTime={}, jsonConstruction={}]", httpRequest,
 								cubeQuery, totalTimeStopwatch, resultProcessingStopwatch);
 						return httpResponse;
@@ -114,10 +168,58 @@ public final class ReportingServiceServlet extends AsyncServletWithStats {
 		}
 	}
 
-	private static HttpResponse createResponse(String body) {
+	/**
+	 * Returns the current revision of the cube state, dropping cached results of a previous revision,
+	 * or {@code null} if results are not cached
+	 */
+	@Nullable
+	private Object getResultCacheRevision() {
+		if (revisionSupplier == null || resultCacheMaxSize.toLong() <= 0) return null;
+		Object revision = revisionSupplier.get();
+		if (revision == null) return null;
+		if (!revision.equals(resultCacheRevision)) {
+			resultCacheEvictions += resultCache.size();
+			clearResultCache();
+			resultCacheRevision = revision;
+		}
+		return revision;
+	}
+
+	private static CubeQuery normalize(CubeQuery query) {
+		return CubeQuery.create()
+				.withAttributes(query.getAttributes())
+				.withMeasures(query.getMeasures())
+				.withWhere(query.getWhere().simplify())
+				.withHaving(query.getHaving().simplify())
+				.withOrderings(query.getOrderings())
+				.withLimit(query.getLimit())
+				.withOffset(query.getOffset())
+				.withReportType(query.getReportType());
+	}
+
+	private void putResult(CubeQuery query, byte[] result) {
+		if (result.length > resultCacheMaxSize.toLong()) return;
+		byte[] replaced = resultCache.put(query, result);
+		if (replaced != null) {
+			resultCacheBytes -= replaced.length;
+		}
+		resultCacheBytes += result.length;
+		evictResults();
+	}
+
+	private void evictResults() {
+		Iterator<byte[]> iterator = resultCache.values().iterator();
+		while (resultCacheBytes > resultCacheMaxSize.toLong() && iterator.hasNext()) {
+			resultCacheBytes -= iterator.next().length;
+			iterator.remove();
+			resultCacheEvictions++;
+		}
+	}
+
+	private static HttpResponse createResponse(ByteBuf body) {
 		HttpResponse response = HttpResponse.ok200();
 		response.addHeader(CONTENT_TYPE, ofContentType(ContentType.of(MediaTypes.JSON, StandardCharsets.UTF_8)));
-		response.setBody(wrapUtf8(body));
+		response.setBody(body);
 		response.addHeader(ACCESS_CONTROL_ALLOW_ORIGIN, "*");
 		return response;
 	}
@@ -178,4 +280,47 @@ public final class ReportingServiceServlet extends AsyncServletWithStats {
 		return query;
 	}
 
+	// region JMX
+	@JmxAttribute
+	public String getResultCacheMaxSize() {
+		return resultCacheMaxSize.format();
+	}
+
+	@JmxAttribute
+	public void setResultCacheMaxSize(String resultCacheMaxSize) {
+		this.resultCacheMaxSize = MemSize.valueOf(resultCacheMaxSize);
+		evictResults();
+	}
+
+	@JmxAttribute
+	public long getResultCacheBytes() {
+		return resultCacheBytes;
+	}
+
+	@JmxAttribute
+	public int getResultCacheEntries() {
+		return resultCache.size();
+	}
+
+	@JmxAttribute
+	public long getResultCacheHits() {
+		return resultCacheHits;
+	}
+
+	@JmxAttribute
+	public long getResultCacheMisses() {
+		return resultCacheMisses;
+	}
+
+	@JmxAttribute
+	public long getResultCacheEvictions() {
+		return resultCacheEvictions;
+	}
+
+	@JmxOperation
+	public void clearResultCache() {
+		resultCache.clear();
+		resultCacheBytes = 0;
+	}
+	// endregion
 }
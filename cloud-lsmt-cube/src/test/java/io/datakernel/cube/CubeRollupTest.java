@@ -0,0 +1,194 @@
+/*
+ * Copyright (C) 2015-2019 SoftIndex LLC.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package io.datakernel.cube;
+
+import io.datakernel.aggregation.AggregationChunkStorage;
+import io.datakernel.aggregation.ChunkIdCodec;
+import io.datakernel.aggregation.RemoteFsChunkStorage;
+import io.datakernel.aggregation.annotation.Key;
+import io.datakernel.aggregation.annotation.Measures;
+import io.datakernel.codegen.DefiningClassLoader;
+import io.datakernel.cube.ot.CubeDiff;
+import io.datakernel.datastream.StreamSupplier;
+import io.datakernel.eventloop.Eventloop;
+import io.datakernel.remotefs.LocalFsClient;
+import io.datakernel.test.rules.ByteBufRule;
+import io.datakernel.test.rules.EventloopRule;
+import org.junit.Before;
+import org.junit.ClassRule;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.*;
+import java.util.concurrent.Executors;
+
+import static io.datakernel.aggregation.AggregationPredicates.alwaysTrue;
+import static io.datakernel.aggregation.AggregationPredicates.eq;
+import static io.datakernel.aggregation.fieldtype.FieldTypes.ofInt;
+import static io.datakernel.aggregation.fieldtype.FieldTypes.ofLong;
+import static io.datakernel.aggregation.measure.Measures.sum;
+import static io.datakernel.cube.Cube.AggregationConfig.id;
+import static io.datakernel.promise.TestUtils.await;
+import static java.util.Arrays.asList;
+import static java.util.Collections.singletonList;
+import static java.util.stream.Collectors.toSet;
+import static org.junit.Assert.*;
+
+public final class CubeRollupTest {
+	@Rule
+	public TemporaryFolder temporaryFolder = new TemporaryFolder();
+
+	@ClassRule
+	public static final EventloopRule eventloopRule = new EventloopRule();
+
+	@ClassRule
+	public static final ByteBufRule byteBufRule = new ByteBufRule();
+
+	public static class Event {
+		@Key
+		public int minute;
+		@Key
+		public int advertiser;
+		@Measures
+		public int impressions;
+
+		public Event(int minute, int advertiser, int impressions) {
+			this.minute = minute;
+			this.advertiser = advertiser;
+			this.impressions = impressions;
+		}
+	}
+
+	public static class HourResult {
+		public int hour;
+		public long impressions;
+	}
+
+	public static class DayResult {
+		public int day;
+		public long impressions;
+	}
+
+	public static class AdvertiserResult {
+		public int advertiser;
+		public long impressions;
+	}
+
+	private final DefiningClassLoader classLoader = DefiningClassLoader.create();
+	private Path storageDir;
+	private AggregationChunkStorage<Long> chunkStorage;
+	private Cube cube;
+
+	@Before
+	public void setUp() throws Exception {
+		Eventloop eventloop = Eventloop.getCurrentEventloop();
+		storageDir = temporaryFolder.newFolder().toPath();
+		chunkStorage = RemoteFsChunkStorage.create(eventloop, ChunkIdCodec.ofLong(), new IdGeneratorStub(),
+				LocalFsClient.create(eventloop, storageDir));
+		cube = Cube.create(eventloop, Executors.newCachedThreadPool(), classLoader, chunkStorage)
+				.withDimension("minute", ofInt())
+				.withDimension("hour", ofInt())
+				.withDimension("day", ofInt())
+				.withDimension("advertiser", ofInt())
+				.withMeasure("impressions", sum(ofLong()))
+				.withAggregation(id("minutely").withDimensions("minute", "advertiser").withMeasures("impressions"))
+				.withAggregation(id("hourly").withRollupOf("minutely", "minute", "hour", 60))
+				.withAggregation(id("daily").withRollupOf("hourly", "hour", "day", 24));
+	}
+
+	@Test
+	public void testRollupIsConsumedWithSource() throws Exception {
+		List<Event> events = new ArrayList<>();
+		for (int minute = -60; minute < 3 * 24 * 60; minute += 7) {
+			events.add(new Event(minute, minute % 2 == 0 ? 1 : 2, 1));
+		}
+		CubeDiff diff = await(StreamSupplier.ofIterable(events).streamTo(cube.consume(Event.class)));
+		assertEquals(new HashSet<>(asList("minutely", "hourly", "daily")), diff.keySet());
+		await(chunkStorage.finish(diff.addedChunks().map(id -> (long) id).collect(toSet())));
+		cube.apply(diff);
+
+		Map<Integer, Long> expectedHours = new TreeMap<>();
+		Map<Integer, Long> expectedDays = new TreeMap<>();
+		for (Event event : events) {
+			expectedHours.merge(Math.floorDiv(event.minute, 60), 1L, Long::sum);
+			expectedDays.merge(Math.floorDiv(event.minute, 24 * 60), 1L, Long::sum);
+		}
+
+		List<HourResult> hours = await(cube.queryRawStream(singletonList("hour"), singletonList("impressions"), alwaysTrue(),
+				HourResult.class, DefiningClassLoader.create(classLoader)).toList());
+		assertEquals(expectedHours.size(), hours.size());
+		for (HourResult hour : hours) {
+			assertEquals(expectedHours.get(hour.hour).longValue(), hour.impressions);
+		}
+
+		// coarsest tier answers queries, so they do not depend on chunks of finer tiers
+		deleteChunks("minutely");
+		deleteChunks("hourly");
+
+		List<DayResult> days = await(cube.queryRawStream(singletonList("day"), singletonList("impressions"), eq("day", -1),
+				DayResult.class, DefiningClassLoader.create(classLoader)).toList());
+		assertEquals(1, days.size());
+		assertEquals(expectedDays.get(-1).longValue(), days.get(0).impressions);
+
+		List<AdvertiserResult> advertisers = await(cube.queryRawStream(singletonList("advertiser"), singletonList("impressions"), alwaysTrue(),
+				AdvertiserResult.class, DefiningClassLoader.create(classLoader)).toList());
+		assertEquals(2, advertisers.size());
+		assertEquals(events.size(), advertisers.get(0).impressions + advertisers.get(1).impressions);
+	}
+
+	@Test
+	public void testRollupLevelDoesNotOverrideOtherAggregations() throws Exception {
+		cube.withAggregation(id("advertisers").withDimensions("advertiser").withMeasures("impressions"));
+		List<Event> events = new ArrayList<>();
+		for (int minute = 0; minute < 24 * 60; minute += 7) {
+			events.add(new Event(minute, minute % 2 == 0 ? 1 : 2, 1));
+		}
+		CubeDiff diff = await(StreamSupplier.ofIterable(events).streamTo(cube.consume(Event.class)));
+		await(chunkStorage.finish(diff.addedChunks().map(id -> (long) id).collect(toSet())));
+		cube.apply(diff);
+
+		// aggregations of the same cost are ordered by the number of keys, regardless of rollup levels of other chains
+		deleteChunks("minutely");
+		deleteChunks("hourly");
+		deleteChunks("daily");
+
+		List<AdvertiserResult> advertisers = await(cube.queryRawStream(singletonList("advertiser"), singletonList("impressions"), alwaysTrue(),
+				AdvertiserResult.class, DefiningClassLoader.create(classLoader)).toList());
+		assertEquals(2, advertisers.size());
+		assertEquals(events.size(), advertisers.get(0).impressions + advertisers.get(1).impressions);
+	}
+
+	@Test
+	public void testRollupDefaults() {
+		assertEquals(asList("day", "advertiser"), cube.getAggregation("daily").getKeys());
+		assertEquals(singletonList("impressions"), cube.getAggregation("daily").getMeasures());
+	}
+
+	@Test(expected = IllegalArgumentException.class)
+	public void testRollupOfUnknownDimension() {
+		cube.withAggregation(id("invalid").withRollupOf("minutely", "hour", "day", 24));
+	}
+
+	private void deleteChunks(String aggregationId) throws Exception {
+		for (Object chunkId : cube.getAggregation(aggregationId).getState().getChunks().keySet()) {
+			Files.delete(storageDir.resolve(chunkId + RemoteFsChunkStorage.LOG));
+		}
+	}
+}
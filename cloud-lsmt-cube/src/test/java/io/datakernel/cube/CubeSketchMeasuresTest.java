@@ -0,0 +1,109 @@
+/*
+ * Copyright (C) 2015-2019 SoftIndex LLC.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package io.datakernel.cube;
+
+import io.datakernel.aggregation.AggregationChunkStorage;
+import io.datakernel.aggregation.ChunkIdCodec;
+import io.datakernel.aggregation.RemoteFsChunkStorage;
+import io.datakernel.aggregation.annotation.Key;
+import io.datakernel.aggregation.annotation.Measures;
+import io.datakernel.codegen.DefiningClassLoader;
+import io.datakernel.cube.ot.CubeDiff;
+import io.datakernel.datastream.StreamSupplier;
+import io.datakernel.eventloop.Eventloop;
+import io.datakernel.remotefs.LocalFsClient;
+import io.datakernel.test.rules.ByteBufRule;
+import io.datakernel.test.rules.EventloopRule;
+import org.junit.ClassRule;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.util.*;
+import java.util.concurrent.Executors;
+
+import static io.datakernel.aggregation.fieldtype.FieldTypes.*;
+import static io.datakernel.aggregation.measure.Measures.*;
+import static io.datakernel.cube.Cube.AggregationConfig.id;
+import static io.datakernel.promise.TestUtils.await;
+import static java.util.stream.Collectors.toSet;
+import static org.junit.Assert.assertEquals;
+
+public final class CubeSketchMeasuresTest {
+	@Rule
+	public TemporaryFolder temporaryFolder = new TemporaryFolder();
+
+	@ClassRule
+	public static final EventloopRule eventloopRule = new EventloopRule();
+
+	@ClassRule
+	public static final ByteBufRule byteBufRule = new ByteBufRule();
+
+	public static class Request {
+		@Key
+		public int site;
+		@Measures("topUrls")
+		public String url;
+		@Measures({"latencyMedian", "latencyP99"})
+		public double latency;
+
+		public Request(int site, String url, double latency) {
+			this.site = site;
+			this.url = url;
+			this.latency = latency;
+		}
+	}
+
+	@Test
+	public void testSketchMeasures() throws Exception {
+		Eventloop eventloop = Eventloop.getCurrentEventloop();
+		AggregationChunkStorage<Long> chunkStorage = RemoteFsChunkStorage.create(eventloop, ChunkIdCodec.ofLong(), new IdGeneratorStub(),
+				LocalFsClient.create(eventloop, temporaryFolder.newFolder().toPath()));
+		Cube cube = Cube.create(eventloop, Executors.newCachedThreadPool(), DefiningClassLoader.create(), chunkStorage)
+				.withDimension("site", ofInt())
+				.withMeasure("topUrls", topK(ofString(), 2))
+				.withMeasure("latencyMedian", quantile(0.5))
+				.withMeasure("latencyP99", quantile(0.99))
+				.withAggregation(id("sites").withDimensions("site").withMeasures("topUrls", "latencyMedian", "latencyP99"));
+
+		// every batch is consumed into separate chunks, so that sketches are merged when queried
+		for (int batch = 0; batch < 4; batch++) {
+			List<Request> requests = new ArrayList<>();
+			for (int i = 0; i < 1000; i++) {
+				String url = i % 2 == 0 ? "/index" : i % 3 == 0 ? "/search" : "/page" + i;
+				requests.add(new Request(i % 2, url, 1 + batch * 1000 + i));
+			}
+			CubeDiff diff = await(StreamSupplier.ofIterable(requests).streamTo(cube.consume(Request.class)));
+			await(chunkStorage.finish(diff.addedChunks().map(id -> (long) id).collect(toSet())));
+			cube.apply(diff);
+		}
+
+		QueryResult result = await(cube.query(CubeQuery.create()
+				.withAttributes("site")
+				.withMeasures("topUrls", "latencyMedian", "latencyP99")
+				.withOrderingAsc("site")));
+
+		List<Record> records = result.getRecords();
+		assertEquals(2, records.size());
+		assertEquals("/index", ((List<?>) records.get(0).get("topUrls")).get(0));
+		assertEquals("/search", ((List<?>) records.get(1).get("topUrls")).get(0));
+
+		// latencies of each site are uniformly distributed over 1..4000
+		assertEquals(2000, (double) records.get(0).get("latencyMedian"), 2000 * 0.02);
+		assertEquals(3960, (double) records.get(1).get("latencyP99"), 3960 * 0.02);
+	}
+}
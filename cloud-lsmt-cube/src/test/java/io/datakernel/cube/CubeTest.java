@@ -38,6 +38,8 @@ import org.junit.rules.TemporaryFolder;
 import java.io.IOException;
 import java.net.InetSocketAddress;
 import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.List;
 import java.util.concurrent.Executor;
 import java.util.stream.Stream;
@@ -133,6 +135,61 @@ public final class CubeTest {
 		assertEquals(expected, list);
 	}
 
+	@Test
+	public void testParallelQuery() throws Exception {
+		Path storageDir = temporaryFolder.newFolder().toPath();
+		AggregationChunkStorage<Long> chunkStorage = RemoteFsChunkStorage.create(Eventloop.getCurrentEventloop(),
+				ChunkIdCodec.ofLong(), new IdGeneratorStub(), LocalFsClient.create(Eventloop.getCurrentEventloop(), storageDir));
+		// fewer eventloops than partitions, so an eventloop runs several partitions at the same time
+		List<Eventloop> queryEventloops = new ArrayList<>();
+		List<Thread> queryThreads = new ArrayList<>();
+		for (int i = 0; i < 2; i++) {
+			Eventloop queryEventloop = Eventloop.create();
+			queryEventloop.keepAlive(true);
+			Thread queryThread = new Thread(queryEventloop);
+			queryThread.start();
+			queryEventloops.add(queryEventloop);
+			queryThreads.add(queryThread);
+		}
+		Cube cube = newCube(executor, classLoader, chunkStorage)
+				.withParallelQueries(queryEventloops, 4, eventloop ->
+						RemoteFsChunkStorage.create(eventloop, ChunkIdCodec.ofLong(), new IdGeneratorStub(),
+								LocalFsClient.create(eventloop, executor, storageDir)))
+				.withQueryPartitionMinRecords(1);
+
+		// key ranges of consecutive chunks overlap
+		for (int batch = 0; batch < 10; batch++) {
+			DataItem1[] items = new DataItem1[20];
+			for (int i = 0; i < items.length; i++) {
+				items[i] = new DataItem1(batch * 5 + i % 10, i % 3, i, 1);
+			}
+			await(consume(cube, chunkStorage, items[0], Arrays.copyOfRange(items, 1, items.length)));
+		}
+		List<AggregationChunk> chunks = cube.getAggregation("detailedAggregation")
+				.findChunks(AggregationQuery.create(asList("key1", "key2"), asList("metric1", "metric2"), alwaysTrue()));
+		assertEquals(4, Cube.splitByPrimaryKey(chunks, 4, 0).size());
+
+		List<List<String>> queries = asList(asList("key1", "key2"), singletonList("key2"));
+		for (List<String> dimensions : queries) {
+			cube.setQueryParallelism(4);
+			List<DataItemResult> parallel = await(cube.queryRawStream(dimensions, asList("metric1", "metric2"),
+					between("key1", 10, 40), DataItemResult.class, classLoader)
+					.toList());
+			cube.setQueryParallelism(1);
+			List<DataItemResult> sequential = await(cube.queryRawStream(dimensions, asList("metric1", "metric2"),
+					between("key1", 10, 40), DataItemResult.class, classLoader)
+					.toList());
+
+			assertFalse(parallel.isEmpty());
+			assertEquals(sequential, parallel);
+		}
+		for (int i = 0; i < queryEventloops.size(); i++) {
+			Eventloop queryEventloop = queryEventloops.get(i);
+			queryEventloop.execute(() -> queryEventloop.keepAlive(false));
+			queryThreads.get(i).join();
+		}
+	}
+
 	private RemoteFsServer startServer(Executor executor, Path serverStorage) throws IOException {
 		RemoteFsServer fileServer = RemoteFsServer.create(Eventloop.getCurrentEventloop(), executor, serverStorage)
 				.withListenPort(LISTEN_PORT);
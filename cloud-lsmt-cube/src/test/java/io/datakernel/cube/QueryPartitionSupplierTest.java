@@ -0,0 +1,164 @@
+/*
+ * Copyright (C) 2015-2019 SoftIndex LLC.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package io.datakernel.cube;
+
+import io.datakernel.datastream.AbstractStreamConsumer;
+import io.datakernel.datastream.StreamSupplier;
+import io.datakernel.datastream.processor.StreamMerger;
+import io.datakernel.eventloop.Eventloop;
+import io.datakernel.promise.Promise;
+import io.datakernel.test.rules.EventloopRule;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.ClassRule;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Function;
+import java.util.stream.IntStream;
+
+import static io.datakernel.cube.QueryPartitionSupplier.BATCH_SIZE;
+import static io.datakernel.cube.QueryPartitionSupplier.MAX_BATCHES;
+import static io.datakernel.eventloop.FatalErrorHandlers.rethrowOnAnyError;
+import static io.datakernel.promise.TestUtils.await;
+import static io.datakernel.promise.TestUtils.awaitException;
+import static java.util.stream.Collectors.toList;
+import static org.junit.Assert.*;
+
+public final class QueryPartitionSupplierTest {
+	@ClassRule
+	public static final EventloopRule eventloopRule = new EventloopRule();
+
+	private static final int ITEMS = 20 * BATCH_SIZE;
+	private static final Exception CANCELLED = new Exception("Cancelled");
+
+	private final AtomicInteger produced = new AtomicInteger();
+	private Eventloop partitionEventloop;
+	private Thread partitionThread;
+
+	@Before
+	public void setUp() {
+		partitionEventloop = Eventloop.create().withFatalErrorHandler(rethrowOnAnyError());
+		partitionEventloop.keepAlive(true);
+		partitionThread = new Thread(partitionEventloop);
+		partitionThread.start();
+	}
+
+	@After
+	public void tearDown() throws InterruptedException {
+		partitionEventloop.execute(() -> partitionEventloop.keepAlive(false));
+		partitionThread.join(10_000);
+		assertFalse(partitionThread.isAlive());
+	}
+
+	@Test
+	public void testSlowConsumer() {
+		SlowConsumer consumer = new SlowConsumer(Integer.MAX_VALUE);
+		await(QueryPartitionSupplier.create(partitionEventloop, $ -> partitionQuery()).streamTo(consumer));
+
+		assertEquals(IntStream.range(0, ITEMS).boxed().collect(toList()), consumer.received);
+		// the partition query is suspended while its records are not consumed
+		assertTrue(consumer.maxRecordsAhead <= (MAX_BATCHES + 1) * BATCH_SIZE);
+	}
+
+	@Test
+	public void testPartitionsShareEventloop() {
+		// a merger needs records of both partitions, so a partition which is suspended must not block the other one
+		StreamMerger<Integer, Integer> merger = StreamMerger.create(Function.identity(), Integer::compareTo, false);
+		for (int i = 0; i < 2; i++) {
+			QueryPartitionSupplier.create(partitionEventloop, $ -> StreamSupplier.ofStream(IntStream.range(0, ITEMS).boxed()))
+					.streamTo(merger.newInput());
+		}
+		List<Integer> result = await(merger.getOutput().toList());
+
+		assertEquals(IntStream.range(0, ITEMS).flatMap(i -> IntStream.of(i, i)).boxed().collect(toList()), result);
+	}
+
+	@Test
+	public void testCancel() {
+		SlowConsumer consumer = new SlowConsumer(3 * BATCH_SIZE);
+		Throwable e = awaitException(QueryPartitionSupplier.create(partitionEventloop, $ -> partitionQuery()).streamTo(consumer));
+
+		assertSame(CANCELLED, e);
+		assertTrue(produced.get() < ITEMS);
+	}
+
+	@Test
+	public void testPartitionError() {
+		Exception exception = new Exception("Partition error");
+		Throwable e = awaitException(QueryPartitionSupplier.<Integer>create(partitionEventloop, $ -> StreamSupplier.closingWithError(exception))
+				.toList());
+
+		assertSame(exception, e);
+	}
+
+	private StreamSupplier<Integer> partitionQuery() {
+		return StreamSupplier.ofIterator(new Iterator<Integer>() {
+			@Override
+			public boolean hasNext() {
+				return produced.get() < ITEMS;
+			}
+
+			@Override
+			public Integer next() {
+				return produced.getAndIncrement();
+			}
+		});
+	}
+
+	private final class SlowConsumer extends AbstractStreamConsumer<Integer> {
+		static final int ITEMS_PER_TICK = 100;
+		final List<Integer> received = new ArrayList<>();
+		final int cancelAfter;
+		int maxRecordsAhead;
+
+		SlowConsumer(int cancelAfter) {
+			this.cancelAfter = cancelAfter;
+		}
+
+		@Override
+		protected void onStarted() {
+			resumeLater();
+		}
+
+		private void resumeLater() {
+			eventloop.delay(1L, () -> getSupplier().resume(item -> {
+				received.add(item);
+				maxRecordsAhead = Math.max(maxRecordsAhead, produced.get() - received.size());
+				if (received.size() == cancelAfter) {
+					close(CANCELLED);
+				} else if (received.size() % ITEMS_PER_TICK == 0) {
+					getSupplier().suspend();
+					resumeLater();
+				}
+			}));
+		}
+
+		@Override
+		protected Promise<Void> onEndOfStream() {
+			return Promise.complete();
+		}
+
+		@Override
+		protected void onError(Throwable e) {
+		}
+	}
+}
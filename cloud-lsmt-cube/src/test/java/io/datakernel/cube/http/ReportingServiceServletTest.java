@@ -0,0 +1,148 @@
+/*
+ * Copyright (C) 2015-2019 SoftIndex LLC.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package io.datakernel.cube.http;
+
+import io.datakernel.aggregation.AggregationPredicate;
+import io.datakernel.common.MemSize;
+import io.datakernel.cube.*;
+import io.datakernel.eventloop.Eventloop;
+import io.datakernel.http.HttpRequest;
+import io.datakernel.http.HttpResponse;
+import io.datakernel.promise.Promise;
+import io.datakernel.test.rules.ByteBufRule;
+import io.datakernel.test.rules.EventloopRule;
+import org.junit.Before;
+import org.junit.ClassRule;
+import org.junit.Test;
+
+import java.lang.reflect.Type;
+import java.net.URLEncoder;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import static io.datakernel.aggregation.AggregationPredicates.and;
+import static io.datakernel.aggregation.AggregationPredicates.eq;
+import static io.datakernel.codec.json.JsonUtils.toJson;
+import static io.datakernel.cube.http.Utils.CUBE_TYPES;
+import static io.datakernel.promise.TestUtils.await;
+import static java.nio.charset.StandardCharsets.UTF_8;
+import static java.util.Collections.singletonList;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotEquals;
+
+public final class ReportingServiceServletTest {
+	@ClassRule
+	public static final EventloopRule eventloopRule = new EventloopRule();
+
+	@ClassRule
+	public static final ByteBufRule byteBufRule = new ByteBufRule();
+
+	private final Map<String, Type> attributeTypes = Collections.singletonMap("advertiser", int.class);
+	private final Map<String, Type> measureTypes = Collections.singletonMap("clicks", long.class);
+
+	private int queries;
+	private long revision;
+	private ReportingServiceServlet servlet;
+
+	@Before
+	public void setUp() {
+		ICube cube = new ICube() {
+			@Override
+			public Promise<QueryResult> query(CubeQuery cubeQuery) {
+				queries++;
+				RecordScheme recordScheme = RecordScheme.create()
+						.withField("advertiser", int.class)
+						.withField("clicks", long.class);
+				Record record = Record.create(recordScheme);
+				record.put("advertiser", 1);
+				record.put("clicks", revision);
+				return Promise.of(QueryResult.createForData(recordScheme, singletonList(record),
+						singletonList("advertiser"), singletonList("clicks"), singletonList("advertiser"), new LinkedHashMap<>()));
+			}
+
+			@Override
+			public Map<String, Type> getAttributeTypes() {
+				return attributeTypes;
+			}
+
+			@Override
+			public Map<String, Type> getMeasureTypes() {
+				return measureTypes;
+			}
+		};
+		servlet = ReportingServiceServlet.create(Eventloop.getCurrentEventloop(), cube)
+				.withResultCache(MemSize.kilobytes(1), () -> revision);
+	}
+
+	@Test
+	public void testResultCache() throws Exception {
+		String body = query(eq("advertiser", 1));
+		assertEquals(body, query(eq("advertiser", 1)));
+		assertEquals(body, query(and(eq("advertiser", 1))));
+		assertEquals(1, queries);
+		assertEquals(2, servlet.getResultCacheHits());
+		assertEquals(1, servlet.getResultCacheMisses());
+
+		query(eq("advertiser", 2));
+		assertEquals(2, servlet.getResultCacheEntries());
+
+		revision++;
+		String newBody = query(eq("advertiser", 1));
+		assertNotEquals(body, newBody);
+		assertEquals(3, queries);
+		assertEquals(newBody, query(eq("advertiser", 1)));
+		assertEquals(3, queries);
+		assertEquals(1, servlet.getResultCacheEntries());
+		assertEquals(2, servlet.getResultCacheEvictions());
+		assertEquals(3, servlet.getResultCacheHits());
+		assertEquals(3, servlet.getResultCacheMisses());
+	}
+
+	@Test
+	public void testResultCacheMaxSize() throws Exception {
+		int size = query(eq("advertiser", 1)).getBytes(UTF_8).length;
+		assertEquals(size, servlet.getResultCacheBytes());
+		servlet.setResultCacheMaxSize(MemSize.bytes(2 * size + size / 2).format());
+
+		query(eq("advertiser", 2));
+		query(eq("advertiser", 3));
+		assertEquals(3, queries);
+		assertEquals(2, servlet.getResultCacheEntries());
+		assertEquals(2 * size, servlet.getResultCacheBytes());
+		assertEquals(1, servlet.getResultCacheEvictions());
+
+		query(eq("advertiser", 1));
+		assertEquals(4, queries);
+
+		servlet.setResultCacheMaxSize(MemSize.bytes(size / 2).format());
+		assertEquals(0, servlet.getResultCacheEntries());
+		assertEquals(0, servlet.getResultCacheBytes());
+		query(eq("advertiser", 1));
+		assertEquals(5, queries);
+		assertEquals(0, servlet.getResultCacheEntries());
+	}
+
+	private String query(AggregationPredicate where) throws Exception {
+		String whereJson = toJson(AggregationPredicateCodec.create(CUBE_TYPES, attributeTypes, measureTypes), where);
+		HttpRequest request = HttpRequest.get("http://127.0.0.1/?attributes=advertiser&measures=clicks&reportType=data&where=" +
+				URLEncoder.encode(whereJson, "UTF-8"));
+		HttpResponse response = await(servlet.serve(request));
+		assertEquals(200, response.getCode());
+		return response.takeBody().asString(UTF_8);
+	}
+}
@@ -18,13 +18,17 @@ package io.datakernel.rpc.client;
 
 import io.datakernel.async.callback.Callback;
 import io.datakernel.common.exception.AsyncTimeoutException;
+import io.datakernel.datastream.StreamSupplier;
 import io.datakernel.promise.Promise;
 import io.datakernel.promise.SettablePromise;
 import io.datakernel.rpc.protocol.RpcOverloadException;
 
+import static io.datakernel.rpc.client.sender.RpcSender.STREAMING_NOT_SUPPORTED_EXCEPTION;
+
 public interface IRpcClient {
 	AsyncTimeoutException RPC_TIMEOUT_EXCEPTION = new AsyncTimeoutException(IRpcClient.class, "RPC request has timed out");
 	RpcOverloadException RPC_OVERLOAD_EXCEPTION = new RpcOverloadException(IRpcClient.class, "RPC client is overloaded");
+	RpcOverloadException RPC_SERVER_OVERLOAD_EXCEPTION = new RpcOverloadException(IRpcClient.class, "RPC server is overloaded");
 
 	default <I, O> Promise<O> sendRequest(I request, int timeout) {
 		SettablePromise<O> resultPromise = new SettablePromise<>();
@@ -43,4 +47,13 @@ public interface IRpcClient {
 	default <I, O> void sendRequest(I request, Callback<O> cb) {
 		sendRequest(request, Integer.MAX_VALUE, cb);
 	}
+
+	default <I, T, O> StreamSupplier<O> sendStreamRequest(I request, StreamSupplier<T> items) {
+		items.close(STREAMING_NOT_SUPPORTED_EXCEPTION);
+		return StreamSupplier.closingWithError(STREAMING_NOT_SUPPORTED_EXCEPTION);
+	}
+
+	default <I, O> StreamSupplier<O> sendStreamRequest(I request) {
+		return sendStreamRequest(request, StreamSupplier.of());
+	}
 }
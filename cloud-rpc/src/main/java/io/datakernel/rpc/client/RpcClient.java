@@ -21,6 +21,7 @@ import io.datakernel.async.service.EventloopService;
 import io.datakernel.common.Initializable;
 import io.datakernel.common.MemSize;
 import io.datakernel.common.exception.StacklessException;
+import io.datakernel.datastream.StreamSupplier;
 import io.datakernel.datastream.csp.ChannelSerializer;
 import io.datakernel.eventloop.Eventloop;
 import io.datakernel.eventloop.jmx.EventloopJmxMBeanEx;
@@ -36,10 +37,12 @@ import io.datakernel.promise.Promise;
 import io.datakernel.promise.Promises;
 import io.datakernel.promise.SettablePromise;
 import io.datakernel.rpc.client.jmx.RpcConnectStats;
+import io.datakernel.rpc.client.jmx.RpcHedgingStats;
 import io.datakernel.rpc.client.jmx.RpcRequestStats;
 import io.datakernel.rpc.client.sender.RpcSender;
 import io.datakernel.rpc.client.sender.RpcStrategies;
 import io.datakernel.rpc.client.sender.RpcStrategy;
+import io.datakernel.rpc.client.sender.RpcStrategyHedged;
 import io.datakernel.rpc.protocol.RpcMessage;
 import io.datakernel.rpc.protocol.RpcStream;
 import io.datakernel.rpc.server.RpcServer;
@@ -105,6 +108,7 @@ public final class RpcClient implements IRpcClient, EventloopService, Initializa
 	private Duration autoFlushInterval = Duration.ZERO;
 
 	private List<Class<?>> messageTypes;
+	private final Map<Class<?>, Integer> batchSizes = new HashMap<>();
 	private long connectTimeoutMillis = DEFAULT_CONNECT_TIMEOUT.toMillis();
 	private long reconnectIntervalMillis = DEFAULT_RECONNECT_INTERVAL.toMillis();
 
@@ -273,12 +277,37 @@ public final class RpcClient implements IRpcClient, EventloopService, Initializa
 		this.forcedStart = true;
 		return this;
 	}
+
+	/**
+	 * Sends requests of a specified class to the same server in batches.
+	 * Requests which are sent within one eventloop tick, but no more than
+	 * a max batch size, are sent as a single message, which saves framing
+	 * and dispatching of each request. A batch is processed by
+	 * {@code RpcBatchRequestHandler} at once, by other handlers - one request after another.
+	 * <p>
+	 * Responses to requests of a batch are received together, and a batch
+	 * expires after the shortest timeout of its requests.
+	 *
+	 * @param requestClass a class of requests which are batched
+	 * @param maxBatchSize the max number of requests in a batch
+	 * @return the RPC client, which sends requests of the class in batches
+	 * @see io.datakernel.rpc.server.RpcBatchRequestHandler
+	 */
+	public RpcClient withBatching(Class<?> requestClass, int maxBatchSize) {
+		checkArgument(maxBatchSize > 0, "Max batch size must be positive");
+		batchSizes.put(requestClass, maxBatchSize);
+		return this;
+	}
 	// endregion
 
 	public SocketSettings getSocketSettings() {
 		return socketSettings;
 	}
 
+	Map<Class<?>, Integer> getBatchSizes() {
+		return batchSizes;
+	}
+
 	@NotNull
 	@Override
 	public Eventloop getEventloop() {
@@ -410,6 +439,22 @@ public final class RpcClient implements IRpcClient, EventloopService, Initializa
 		requestSender.sendRequest(request, cb);
 	}
 
+	/**
+	 * Sends the streaming request to server along with the stream of items,
+	 * the server handles it with {@link io.datakernel.rpc.server.RpcStreamHandler}
+	 *
+	 * @param <I>     request class
+	 * @param <T>     class of items
+	 * @param <O>     response class
+	 * @param request request for server
+	 * @param items   items which are sent to server after the request
+	 * @return stream of responses
+	 */
+	@Override
+	public <I, T, O> StreamSupplier<O> sendStreamRequest(I request, StreamSupplier<T> items) {
+		return requestSender.sendStreamRequest(request, items);
+	}
+
 	public IRpcClient adaptToAnotherEventloop(Eventloop anotherEventloop) {
 		if (anotherEventloop == this.eventloop) {
 			return this;
@@ -444,6 +489,12 @@ public final class RpcClient implements IRpcClient, EventloopService, Initializa
 		public <I, O> void sendRequest(I request, int timeout, @NotNull Callback<O> cb) {
 			cb.accept(null, NO_SENDER_AVAILABLE_EXCEPTION);
 		}
+
+		@Override
+		public <I, T, O> StreamSupplier<O> sendStreamRequest(I request, StreamSupplier<T> items) {
+			items.close(NO_SENDER_AVAILABLE_EXCEPTION);
+			return StreamSupplier.closingWithError(NO_SENDER_AVAILABLE_EXCEPTION);
+		}
 	}
 
 	private static final class NoServersStrategy implements RpcStrategy {
@@ -530,6 +581,12 @@ public final class RpcClient implements IRpcClient, EventloopService, Initializa
 		return count;
 	}
 
+	@JmxAttribute(description = "hedged requests stats (only for a hedged strategy)")
+	@Nullable
+	public RpcHedgingStats getHedgingStats() {
+		return strategy instanceof RpcStrategyHedged ? ((RpcStrategyHedged) strategy).getStats() : null;
+	}
+
 	@JmxAttribute(description = "exception that occurred because of protocol error " +
 			"(serialization, deserialization, compression, decompression, etc)")
 	public ExceptionStats getLastProtocolError() {
@@ -21,6 +21,7 @@ import io.datakernel.common.ApplicationSettings;
 import io.datakernel.common.Stopwatch;
 import io.datakernel.common.exception.AsyncTimeoutException;
 import io.datakernel.datastream.StreamDataAcceptor;
+import io.datakernel.datastream.StreamSupplier;
 import io.datakernel.eventloop.Eventloop;
 import io.datakernel.eventloop.jmx.EventStats;
 import io.datakernel.eventloop.jmx.JmxRefreshable;
@@ -38,6 +39,7 @@ import java.util.*;
 import java.util.concurrent.TimeUnit;
 
 import static io.datakernel.rpc.client.IRpcClient.RPC_OVERLOAD_EXCEPTION;
+import static io.datakernel.rpc.client.IRpcClient.RPC_SERVER_OVERLOAD_EXCEPTION;
 import static io.datakernel.rpc.client.IRpcClient.RPC_TIMEOUT_EXCEPTION;
 import static org.slf4j.LoggerFactory.getLogger;
 
@@ -55,10 +57,20 @@ public final class RpcClientConnection implements RpcStream.Listener, RpcSender,
 	private final RpcStream stream;
 	private final InetSocketAddress address;
 	private final Map<Integer, Callback<?>> activeRequests = new HashMap<>();
+	private final Map<Integer, RpcStreamCall<?, ?>> activeStreams = new HashMap<>();
 	private final Map<Long, ExpirationList> expirationLists = new HashMap<>();
 
 	private ArrayList<RpcMessage> initialBuffer = new ArrayList<>();
 
+	private final Map<Class<?>, Integer> batchSizes;
+	private final Map<Class<?>, Batch> batches = new HashMap<>();
+
+	private static final class Batch {
+		final List<Object> requests = new ArrayList<>();
+		final List<Callback<?>> callbacks = new ArrayList<>();
+		int timeout = Integer.MAX_VALUE;
+	}
+
 	private static final class ExpirationList {
 		private int size;
 		private int[] cookies;
@@ -70,6 +82,7 @@ public final class RpcClientConnection implements RpcStream.Listener, RpcSender,
 
 	private int cookie = 0;
 	private boolean serverClosing;
+	private boolean shuttingDown;
 
 	// JMX
 	private boolean monitoring;
@@ -84,6 +97,7 @@ public final class RpcClientConnection implements RpcStream.Listener, RpcSender,
 		this.rpcClient = rpcClient;
 		this.stream = stream;
 		this.address = address;
+		this.batchSizes = rpcClient.getBatchSizes();
 
 		// JMX
 		this.monitoring = false;
@@ -101,73 +115,157 @@ public final class RpcClientConnection implements RpcStream.Listener, RpcSender,
 		connectionRequests.recordEvent();
 
 		if (!overloaded || request instanceof RpcMandatoryData) {
-			cookie++;
-
 			// jmx
 			if (monitoring) {
 				cb = doJmxMonitoring(request, timeout, cb);
 			}
 
-			if (timeout != Integer.MAX_VALUE) {
-				ExpirationList list = expirationLists.computeIfAbsent(eventloop.currentTimeMillis() + timeout, t -> {
-					ExpirationList l = new ExpirationList(new int[BUCKET_CAPACITY]);
-					eventloop.scheduleBackground(t, () -> {
-						expirationLists.remove(t);
-
-						for (int i = 0; i < l.size; i++) {
-							Callback<?> expiredCb = activeRequests.remove(l.cookies[i]);
-							if (expiredCb != null) {
-								// jmx
-								connectionStats.getExpiredRequests().recordEvent();
-								rpcClient.getGeneralRequestsStats().getExpiredRequests().recordEvent();
-
-								expiredCb.accept(null, RPC_TIMEOUT_EXCEPTION);
-							}
-						}
+			if (!batchSizes.isEmpty()) {
+				Integer maxBatchSize = batchSizes.get(request.getClass());
+				if (maxBatchSize != null) {
+					addToBatch(request, timeout, cb, maxBatchSize);
+					return;
+				}
+			}
 
-						if (serverClosing && activeRequests.size() == 0) {
-							shutdown();
+			doSendRequest(request, timeout, cb);
+		} else {
+			doProcessOverloaded(cb);
+		}
+	}
+
+	@Override
+	public <I, O> void sendRequest(I request, @NotNull Callback<O> cb) {
+		sendRequest(request, Integer.MAX_VALUE, cb);
+	}
+
+	private void doSendRequest(Object request, int timeout, Callback<?> cb) {
+		cookie++;
+
+		if (timeout != Integer.MAX_VALUE) {
+			ExpirationList list = expirationLists.computeIfAbsent(eventloop.currentTimeMillis() + timeout, t -> {
+				ExpirationList l = new ExpirationList(new int[BUCKET_CAPACITY]);
+				eventloop.scheduleBackground(t, () -> {
+					expirationLists.remove(t);
+
+					for (int i = 0; i < l.size; i++) {
+						Callback<?> expiredCb = activeRequests.remove(l.cookies[i]);
+						if (expiredCb != null) {
+							// jmx
+							connectionStats.getExpiredRequests().recordEvent();
+							rpcClient.getGeneralRequestsStats().getExpiredRequests().recordEvent();
+
+							expiredCb.accept(null, RPC_TIMEOUT_EXCEPTION);
 						}
-					});
-					return l;
+					}
+
+					if (serverClosing && isIdle()) {
+						shutdown();
+					}
 				});
+				return l;
+			});
 
-				if (list.size >= list.cookies.length) {
-					list.cookies = Arrays.copyOf(list.cookies, list.cookies.length * 2);
-				}
-				list.cookies[list.size++] = cookie;
+			if (list.size >= list.cookies.length) {
+				list.cookies = Arrays.copyOf(list.cookies, list.cookies.length * 2);
 			}
+			list.cookies[list.size++] = cookie;
+		}
 
-			activeRequests.put(cookie, cb);
+		activeRequests.put(cookie, cb);
 
-			downstreamDataAcceptor.accept(RpcMessage.of(cookie, request));
-		} else {
-			doProcessOverloaded(cb);
+		downstreamDataAcceptor.accept(RpcMessage.of(cookie, request));
+	}
+
+	private void addToBatch(Object request, int timeout, Callback<?> cb, int maxBatchSize) {
+		if (serverClosing) {
+			cb.accept(null, CONNECTION_CLOSED);
+			return;
+		}
+		Class<?> requestClass = request.getClass();
+		Batch batch = batches.get(requestClass);
+		if (batch == null) {
+			batch = new Batch();
+			batches.put(requestClass, batch);
+			Batch newBatch = batch;
+			eventloop.post(() -> flushBatch(requestClass, newBatch));
+		}
+		batch.requests.add(request);
+		batch.callbacks.add(cb);
+		batch.timeout = Math.min(batch.timeout, timeout);
+		if (batch.requests.size() >= maxBatchSize) {
+			flushBatch(requestClass, batch);
+		}
+	}
+
+	private void flushBatch(Class<?> requestClass, Batch batch) {
+		if (!batches.remove(requestClass, batch)) return;
+		if (batch.requests.size() == 1) {
+			doSendRequest(batch.requests.get(0), batch.timeout, batch.callbacks.get(0));
+			return;
+		}
+		List<Callback<?>> callbacks = batch.callbacks;
+		doSendRequest(new RpcBatch(batch.requests), batch.timeout, (RpcBatch result, @Nullable Throwable e) -> {
+			for (int i = 0; i < callbacks.size(); i++) {
+				@SuppressWarnings("unchecked")
+				Callback<Object> cb = (Callback<Object>) callbacks.get(i);
+				if (e != null) {
+					cb.accept(null, e);
+					continue;
+				}
+				Object response = result.getItems().get(i);
+				if (response instanceof RpcRemoteException) {
+					// jmx
+					connectionStats.getFailedRequests().recordEvent();
+					rpcClient.getGeneralRequestsStats().getFailedRequests().recordEvent();
+					connectionStats.getServerExceptions().recordException((RpcRemoteException) response, null);
+					rpcClient.getGeneralRequestsStats().getServerExceptions().recordException((RpcRemoteException) response, null);
+
+					cb.accept(null, (RpcRemoteException) response);
+				} else {
+					cb.accept(response, null);
+				}
+			}
+		});
+	}
+
+	private void flushBatches() {
+		for (Map.Entry<Class<?>, Batch> entry : new ArrayList<>(batches.entrySet())) {
+			flushBatch(entry.getKey(), entry.getValue());
 		}
 	}
 
 	@Override
-	public <I, O> void sendRequest(I request, @NotNull Callback<O> cb) {
+	public <I, T, O> StreamSupplier<O> sendStreamRequest(I request, StreamSupplier<T> items) {
 		assert eventloop.inEventloopThread();
 
 		// jmx
 		totalRequests.recordEvent();
 		connectionRequests.recordEvent();
 
-		if (!overloaded || request instanceof RpcMandatoryData) {
-			cookie++;
-
-			// jmx
-			if (monitoring) {
-				cb = doJmxMonitoring(request, Integer.MAX_VALUE, cb);
-			}
-
-			activeRequests.put(cookie, cb);
+		if (overloaded && !(request instanceof RpcMandatoryData)) {
+			recordOverloaded();
+			items.close(RPC_OVERLOAD_EXCEPTION);
+			return StreamSupplier.closingWithError(RPC_OVERLOAD_EXCEPTION);
+		}
 
-			downstreamDataAcceptor.accept(RpcMessage.of(cookie, request));
-		} else {
-			doProcessOverloaded(cb);
+		int cookie = ++this.cookie;
+		RpcStreamCall<T, O> streamCall = new RpcStreamCall<>(cookie, message -> downstreamDataAcceptor.accept(message));
+		activeStreams.put(cookie, streamCall);
+		if (overloaded) {
+			streamCall.onSenderSuspended();
 		}
+		streamCall.getCompletion()
+				.whenResult($ -> {
+					if (activeStreams.remove(cookie) == null) return;
+					if (shuttingDown ? activeStreams.isEmpty() : serverClosing && isIdle()) {
+						shutdown();
+					}
+				});
+
+		downstreamDataAcceptor.accept(RpcMessage.of(cookie, request));
+		items.streamTo(streamCall.getSender());
+		return streamCall.getReceiver();
 	}
 
 	private <I, O> Callback<O> doJmxMonitoring(I request, int timeout, @NotNull Callback<O> cb) {
@@ -177,27 +275,37 @@ public final class RpcClientConnection implements RpcStream.Listener, RpcSender,
 	}
 
 	private <O> void doProcessOverloaded(@NotNull Callback<O> cb) {
+		recordOverloaded();
+		cb.accept(null, RPC_OVERLOAD_EXCEPTION);
+	}
+
+	private void recordOverloaded() {
 		// jmx
 		rpcClient.getGeneralRequestsStats().getRejectedRequests().recordEvent();
 		connectionStats.getRejectedRequests().recordEvent();
 		if (logger.isTraceEnabled()) logger.trace("RPC client uplink is overloaded");
-
-		cb.accept(null, RPC_OVERLOAD_EXCEPTION);
 	}
 
 	@Override
 	public void accept(RpcMessage message) {
+		if (!activeStreams.isEmpty()) {
+			RpcStreamCall<?, ?> streamCall = activeStreams.get(message.getCookie());
+			if (streamCall != null) {
+				streamCall.accept(message.getData());
+				return;
+			}
+		}
 		if (message.getData().getClass() == RpcRemoteException.class) {
 			processErrorMessage(message);
 		} else if (message.getData().getClass() == RpcControlMessage.class) {
-			processControlMessage((RpcControlMessage) message.getData());
+			processControlMessage(message.getCookie(), (RpcControlMessage) message.getData());
 		} else {
 			@SuppressWarnings("unchecked")
 			Callback<Object> cb = (Callback<Object>) activeRequests.remove(message.getCookie());
 			if (cb == null) return;
 
 			cb.accept(message.getData(), null);
-			if (serverClosing && activeRequests.size() == 0) {
+			if (serverClosing && isIdle()) {
 				shutdown();
 			}
 		}
@@ -217,14 +325,28 @@ public final class RpcClientConnection implements RpcStream.Listener, RpcSender,
 		}
 	}
 
-	private void processControlMessage(RpcControlMessage controlMessage) {
+	private void processControlMessage(int cookie, RpcControlMessage controlMessage) {
 		if (controlMessage == RpcControlMessage.CLOSE) {
 			rpcClient.removeConnection(address);
 			serverClosing = true;
-			if (activeRequests.size() == 0) {
+			// the server does not accept new requests anymore, so pending batches are not sent to it
+			failBatches(CONNECTION_CLOSED);
+			if (isIdle()) {
 				shutdown();
 			}
-		} else {
+		} else if (controlMessage == RpcControlMessage.OVERLOADED) {
+			Callback<?> cb = activeRequests.remove(cookie);
+			if (cb == null) return;
+
+			// jmx
+			rpcClient.getGeneralRequestsStats().getRejectedRequests().recordEvent();
+			connectionStats.getRejectedRequests().recordEvent();
+
+			cb.accept(null, RPC_SERVER_OVERLOAD_EXCEPTION);
+			if (serverClosing && isIdle()) {
+				shutdown();
+			}
+		} else if (controlMessage != RpcControlMessage.END_OF_STREAM && controlMessage != RpcControlMessage.CANCEL_STREAM) {
 			throw new RuntimeException("Received unknown RpcControlMessage");
 		}
 	}
@@ -266,16 +388,38 @@ public final class RpcClientConnection implements RpcStream.Listener, RpcSender,
 			}
 			initialBuffer = null;
 		}
+		if (!activeStreams.isEmpty()) {
+			for (RpcStreamCall<?, ?> streamCall : new ArrayList<>(activeStreams.values())) {
+				streamCall.onSenderReady();
+			}
+		}
 	}
 
 	@Override
 	public void onSenderSuspended() {
 		overloaded = true;
+		if (!activeStreams.isEmpty()) {
+			for (RpcStreamCall<?, ?> streamCall : new ArrayList<>(activeStreams.values())) {
+				streamCall.onSenderSuspended();
+			}
+		}
+	}
+
+	private boolean isIdle() {
+		return activeRequests.isEmpty() && activeStreams.isEmpty() && batches.isEmpty();
 	}
 
 	private void doClose() {
 		rpcClient.removeConnection(address);
 
+		List<RpcStreamCall<?, ?>> streamCalls = new ArrayList<>(activeStreams.values());
+		activeStreams.clear();
+		for (RpcStreamCall<?, ?> streamCall : streamCalls) {
+			streamCall.close(CONNECTION_CLOSED);
+		}
+
+		failBatches(CONNECTION_CLOSED);
+
 		while (!activeRequests.isEmpty()) {
 			for (Integer cookie : new HashSet<>(activeRequests.keySet())) {
 				Callback<?> cb = activeRequests.remove(cookie);
@@ -286,7 +430,27 @@ public final class RpcClientConnection implements RpcStream.Listener, RpcSender,
 		}
 	}
 
+	private void failBatches(Throwable e) {
+		List<Batch> pendingBatches = new ArrayList<>(batches.values());
+		batches.clear();
+		for (Batch batch : pendingBatches) {
+			for (Callback<?> cb : batch.callbacks) {
+				cb.accept(null, e);
+			}
+		}
+	}
+
 	public void shutdown() {
+		if (serverClosing) {
+			failBatches(CONNECTION_CLOSED);
+		} else {
+			flushBatches();
+		}
+		// active streams still send credits and items, so the end of stream is sent once they are completed
+		if (!activeStreams.isEmpty()) {
+			shuttingDown = true;
+			return;
+		}
 		stream.sendEndOfStream();
 	}
 
@@ -319,6 +483,11 @@ public final class RpcClientConnection implements RpcStream.Listener, RpcSender,
 		return activeRequests.size();
 	}
 
+	@JmxAttribute(reducer = JmxReducerSum.class)
+	public int getActiveStreams() {
+		return activeStreams.size();
+	}
+
 	@Override
 	public void refresh(long timestamp) {
 		connectionStats.refresh(timestamp);
@@ -0,0 +1,94 @@
+/*
+ * Copyright (C) 2015-2019 SoftIndex LLC.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package io.datakernel.rpc.client.jmx;
+
+import io.datakernel.eventloop.jmx.EventStats;
+import io.datakernel.eventloop.jmx.JmxRefreshable;
+import io.datakernel.eventloop.jmx.ValueStats;
+import io.datakernel.jmx.api.JmxAttribute;
+
+import java.time.Duration;
+
+public final class RpcHedgingStats implements JmxRefreshable {
+	private final EventStats requests;
+	private final EventStats hedgedRequests;
+	private final EventStats hedgeWins;
+	private final EventStats budgetExhausted;
+	private final ValueStats hedgeDelay;
+
+	private RpcHedgingStats(Duration smoothingWindow) {
+		requests = EventStats.create(smoothingWindow);
+		hedgedRequests = EventStats.create(smoothingWindow);
+		hedgeWins = EventStats.create(smoothingWindow);
+		budgetExhausted = EventStats.create(smoothingWindow);
+		hedgeDelay = ValueStats.create(smoothingWindow).withUnit("milliseconds");
+	}
+
+	public static RpcHedgingStats create(Duration smoothingWindow) {
+		return new RpcHedgingStats(smoothingWindow);
+	}
+
+	@Override
+	public void refresh(long timestamp) {
+		requests.refresh(timestamp);
+		hedgedRequests.refresh(timestamp);
+		hedgeWins.refresh(timestamp);
+		budgetExhausted.refresh(timestamp);
+		hedgeDelay.refresh(timestamp);
+	}
+
+	@JmxAttribute(extraSubAttributes = "totalCount")
+	public EventStats getRequests() {
+		return requests;
+	}
+
+	@JmxAttribute(description = "requests which are sent again, because there was no response within hedge delay",
+			extraSubAttributes = "totalCount")
+	public EventStats getHedgedRequests() {
+		return hedgedRequests;
+	}
+
+	@JmxAttribute(description = "hedged requests which got a response earlier than the original ones",
+			extraSubAttributes = "totalCount")
+	public EventStats getHedgeWins() {
+		return hedgeWins;
+	}
+
+	@JmxAttribute(description = "requests which are not hedged, because hedge budget is exhausted",
+			extraSubAttributes = "totalCount")
+	public EventStats getBudgetExhausted() {
+		return budgetExhausted;
+	}
+
+	@JmxAttribute(description = "delay after which a request is hedged (in milliseconds)")
+	public ValueStats getHedgeDelay() {
+		return hedgeDelay;
+	}
+
+	@JmxAttribute(description = "ratio of hedged requests to all requests")
+	public double getHedgeRate() {
+		double rate = requests.getSmoothedRate();
+		return rate != 0 ? hedgedRequests.getSmoothedRate() / rate : 0;
+	}
+
+	@JmxAttribute(description = "ratio of hedge wins to hedged requests")
+	public double getHedgeWinRate() {
+		double rate = hedgedRequests.getSmoothedRate();
+		return rate != 0 ? hedgeWins.getSmoothedRate() / rate : 0;
+	}
+}
@@ -17,15 +17,30 @@
 package io.datakernel.rpc.client.sender;
 
 import io.datakernel.async.callback.Callback;
+import io.datakernel.datastream.StreamSupplier;
 import io.datakernel.rpc.protocol.RpcException;
 import org.jetbrains.annotations.NotNull;
 
 public interface RpcSender {
 	RpcException NO_SENDER_AVAILABLE_EXCEPTION = new RpcException(RpcSender.class, "No senders available");
+	RpcException STREAMING_NOT_SUPPORTED_EXCEPTION = new RpcException(RpcSender.class, "Streaming requests are not supported");
 
 	<I, O> void sendRequest(I request, int timeout, @NotNull Callback<O> cb);
 
 	default <I, O> void sendRequest(I request, @NotNull Callback<O> cb) {
 		sendRequest(request, Integer.MAX_VALUE, cb);
 	}
+
+	/**
+	 * Sends a streaming request along with a stream of items, and returns a stream of responses.
+	 * Streaming requests have no timeout.
+	 */
+	default <I, T, O> StreamSupplier<O> sendStreamRequest(I request, StreamSupplier<T> items) {
+		items.close(STREAMING_NOT_SUPPORTED_EXCEPTION);
+		return StreamSupplier.closingWithError(STREAMING_NOT_SUPPORTED_EXCEPTION);
+	}
+
+	default <I, O> StreamSupplier<O> sendStreamRequest(I request) {
+		return sendStreamRequest(request, StreamSupplier.of());
+	}
 }
@@ -85,6 +85,22 @@ public final class RpcStrategies {
 		return RpcStrategyRoundRobin.create(list);
 	}
 
+	public static RpcStrategyPowerOfTwoChoices powerOfTwoChoices(RpcStrategy... senders) {
+		return powerOfTwoChoices(asList(senders));
+	}
+
+	public static RpcStrategyPowerOfTwoChoices powerOfTwoChoices(List<RpcStrategy> senders) {
+		return RpcStrategyPowerOfTwoChoices.create(RpcStrategyList.ofStrategies(senders));
+	}
+
+	public static RpcStrategyPowerOfTwoChoices powerOfTwoChoices(RpcStrategyList list) {
+		return RpcStrategyPowerOfTwoChoices.create(list);
+	}
+
+	public static RpcStrategyHedged hedged(RpcStrategy strategy) {
+		return RpcStrategyHedged.create(strategy);
+	}
+
 	public static RpcStrategySharding sharding(ShardingFunction<?> hashFunction,
 			RpcStrategy... senders) {
 		return sharding(hashFunction, asList(senders));
@@ -0,0 +1,225 @@
+/*
+ * Copyright (C) 2015-2019 SoftIndex LLC.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package io.datakernel.rpc.client.sender;
+
+import io.datakernel.async.callback.Callback;
+import io.datakernel.datastream.StreamSupplier;
+import io.datakernel.eventloop.Eventloop;
+import io.datakernel.eventloop.ScheduledRunnable;
+import io.datakernel.rpc.client.RpcClientConnectionPool;
+import io.datakernel.rpc.client.jmx.RpcHedgingStats;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+import java.net.InetSocketAddress;
+import java.time.Duration;
+import java.util.Arrays;
+import java.util.Set;
+
+import static io.datakernel.common.Preconditions.checkArgument;
+import static io.datakernel.eventloop.Eventloop.getCurrentEventloop;
+
+/**
+ * Sends a request once again through the same sender, if there is no response within a hedge delay,
+ * and passes the response which arrives first. The other response is ignored.
+ * <p>
+ * The underlying strategy is expected to choose another server for the second request, e.g. it is a round-robin
+ * or a power-of-two-choices strategy. Only idempotent requests should be hedged.
+ * <p>
+ * The delay is either fixed or derived from a percentile of recent response times.
+ * Extra load is limited by a hedge budget: each request adds a fraction of a hedge to the budget,
+ * so that at most this fraction of requests is hedged.
+ */
+public final class RpcStrategyHedged implements RpcStrategy {
+	public static final Duration DEFAULT_HEDGE_DELAY = Duration.ofMillis(50);
+	public static final double DEFAULT_PERCENTILE = 0.95;
+	public static final double DEFAULT_MAX_EXTRA_LOAD = 0.05;
+
+	private static final Duration SMOOTHING_WINDOW = Duration.ofMinutes(1);
+	// allows short bursts of hedged requests
+	private static final double MAX_BUDGET = 10;
+	private static final int SAMPLES = 1000;
+	private static final int SAMPLES_PER_UPDATE = 100;
+
+	private final RpcStrategy strategy;
+	private final int hedgeDelay;
+	private final double percentile;
+	private final double maxExtraLoad;
+	private final RpcHedgingStats stats;
+
+	private RpcStrategyHedged(RpcStrategy strategy, int hedgeDelay, double percentile, double maxExtraLoad, RpcHedgingStats stats) {
+		this.strategy = strategy;
+		this.hedgeDelay = hedgeDelay;
+		this.percentile = percentile;
+		this.maxExtraLoad = maxExtraLoad;
+		this.stats = stats;
+	}
+
+	public static RpcStrategyHedged create(RpcStrategy strategy) {
+		return new RpcStrategyHedged(strategy, (int) DEFAULT_HEDGE_DELAY.toMillis(), DEFAULT_PERCENTILE, DEFAULT_MAX_EXTRA_LOAD,
+				RpcHedgingStats.create(SMOOTHING_WINDOW));
+	}
+
+	/**
+	 * Hedges requests after a fixed delay
+	 */
+	public RpcStrategyHedged withHedgeDelay(Duration hedgeDelay) {
+		checkArgument(!hedgeDelay.isNegative(), "Hedge delay cannot be negative");
+		return new RpcStrategyHedged(strategy, (int) hedgeDelay.toMillis(), 0, maxExtraLoad, stats);
+	}
+
+	/**
+	 * Hedges requests after the given percentile of recent response times,
+	 * the initial delay is used until there are enough response times
+	 */
+	public RpcStrategyHedged withHedgeDelayPercentile(double percentile, Duration initialDelay) {
+		checkArgument(percentile > 0 && percentile < 1, "Percentile must be within (0, 1)");
+		checkArgument(!initialDelay.isNegative(), "Hedge delay cannot be negative");
+		return new RpcStrategyHedged(strategy, (int) initialDelay.toMillis(), percentile, maxExtraLoad, stats);
+	}
+
+	/**
+	 * Sets the max ratio of hedged requests to all requests
+	 */
+	public RpcStrategyHedged withMaxExtraLoad(double maxExtraLoad) {
+		checkArgument(maxExtraLoad >= 0 && maxExtraLoad <= 1, "Max extra load must be within [0, 1]");
+		return new RpcStrategyHedged(strategy, hedgeDelay, percentile, maxExtraLoad, stats);
+	}
+
+	public RpcHedgingStats getStats() {
+		return stats;
+	}
+
+	@Override
+	public Set<InetSocketAddress> getAddresses() {
+		return strategy.getAddresses();
+	}
+
+	@Nullable
+	@Override
+	public RpcSender createSender(RpcClientConnectionPool pool) {
+		RpcSender sender = strategy.createSender(pool);
+		if (sender == null)
+			return null;
+		return new Sender(getCurrentEventloop(), sender, hedgeDelay, percentile, maxExtraLoad, stats);
+	}
+
+	static final class Sender implements RpcSender {
+		private final Eventloop eventloop;
+		private final RpcSender sender;
+		private final double percentile;
+		private final double maxExtraLoad;
+		private final RpcHedgingStats stats;
+
+		private int hedgeDelay;
+		private double budget;
+
+		private final int[] responseTimes;
+		private int responseTimesCount;
+
+		Sender(Eventloop eventloop, RpcSender sender, int hedgeDelay, double percentile, double maxExtraLoad, RpcHedgingStats stats) {
+			this.eventloop = eventloop;
+			this.sender = sender;
+			this.hedgeDelay = hedgeDelay;
+			this.percentile = percentile;
+			this.maxExtraLoad = maxExtraLoad;
+			this.stats = stats;
+			this.responseTimes = percentile != 0 ? new int[SAMPLES] : null;
+		}
+
+		@Override
+		public <I, O> void sendRequest(I request, int timeout, @NotNull Callback<O> cb) {
+			stats.getRequests().recordEvent();
+			budget = Math.min(budget + maxExtraLoad, MAX_BUDGET);
+
+			HedgedRequest<O> hedgedRequest = new HedgedRequest<>(cb, eventloop.currentTimeMillis());
+			sender.sendRequest(request, timeout, (O result, @Nullable Throwable e) -> {
+				if (e == null && responseTimes != null) {
+					recordResponseTime((int) (eventloop.currentTimeMillis() - hedgedRequest.timestamp));
+				}
+				hedgedRequest.accept(result, e, false);
+			});
+			if (hedgedRequest.done || timeout <= hedgeDelay) return;
+
+			int delay = hedgeDelay;
+			hedgedRequest.scheduledHedge = eventloop.delayBackground(delay, () -> {
+				hedgedRequest.scheduledHedge = null;
+				if (budget < 1) {
+					stats.getBudgetExhausted().recordEvent();
+					return;
+				}
+				budget -= 1;
+				stats.getHedgedRequests().recordEvent();
+				stats.getHedgeDelay().recordValue(delay);
+				hedgedRequest.pending++;
+				sender.sendRequest(request, timeout == Integer.MAX_VALUE ? timeout : timeout - delay,
+						(O result, @Nullable Throwable e) -> hedgedRequest.accept(result, e, true));
+			});
+		}
+
+		@Override
+		public <I, T, O> StreamSupplier<O> sendStreamRequest(I request, StreamSupplier<T> items) {
+			// streams are not hedged, as their items cannot be sent twice
+			return sender.sendStreamRequest(request, items);
+		}
+
+		private void recordResponseTime(int responseTime) {
+			assert responseTimes != null;
+			responseTimes[responseTimesCount++ % SAMPLES] = responseTime;
+			if (responseTimesCount % SAMPLES_PER_UPDATE == 0) {
+				int[] sorted = Arrays.copyOf(responseTimes, Math.min(responseTimesCount, SAMPLES));
+				Arrays.sort(sorted);
+				hedgeDelay = Math.max(1, sorted[(int) (sorted.length * percentile)]);
+			}
+			if (responseTimesCount == 2 * SAMPLES) {
+				responseTimesCount = SAMPLES;
+			}
+		}
+
+		private final class HedgedRequest<O> {
+			final Callback<O> cb;
+			final long timestamp;
+			int pending = 1;
+			boolean done;
+			@Nullable
+			ScheduledRunnable scheduledHedge;
+
+			HedgedRequest(Callback<O> cb, long timestamp) {
+				this.cb = cb;
+				this.timestamp = timestamp;
+			}
+
+			void accept(O result, @Nullable Throwable e, boolean hedge) {
+				if (done) return; // the response which arrives later is ignored
+				pending--;
+				if (e != null && pending != 0) {
+					return; // the other request may still succeed
+				}
+				done = true;
+				if (scheduledHedge != null) {
+					scheduledHedge.cancel();
+					scheduledHedge = null;
+				}
+				if (e == null && hedge) {
+					stats.getHedgeWins().recordEvent();
+				}
+				cb.accept(result, e);
+			}
+		}
+	}
+}
@@ -0,0 +1,160 @@
+/*
+ * Copyright (C) 2015-2019 SoftIndex LLC.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package io.datakernel.rpc.client.sender;
+
+import io.datakernel.async.callback.Callback;
+import io.datakernel.datastream.StreamSupplier;
+import io.datakernel.rpc.client.RpcClientConnectionPool;
+import io.datakernel.rpc.protocol.RpcOverloadException;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+import java.net.InetSocketAddress;
+import java.util.List;
+import java.util.Random;
+import java.util.Set;
+
+import static io.datakernel.common.Preconditions.checkArgument;
+
+/**
+ * Sends each request to the less loaded of two randomly chosen sub-senders.
+ * <p>
+ * The load of a sub-sender is the number of its requests in flight,
+ * weighted by an exponentially weighted moving average of its response times.
+ * So a slow or stalled server, e.g. the one which is paused by GC, quickly gets less traffic,
+ * while random choice avoids all clients herding to the same least loaded server.
+ * <p>
+ * Load is tracked by the sender itself, it starts anew whenever the sender is recreated.
+ */
+public final class RpcStrategyPowerOfTwoChoices implements RpcStrategy {
+	public static final double DEFAULT_SMOOTHING = 0.1;
+
+	private final Random random = new Random();
+	private final RpcStrategyList list;
+	private final double smoothing;
+
+	private RpcStrategyPowerOfTwoChoices(RpcStrategyList list, double smoothing) {
+		this.list = list;
+		this.smoothing = smoothing;
+	}
+
+	public static RpcStrategyPowerOfTwoChoices create(RpcStrategyList list) {
+		return new RpcStrategyPowerOfTwoChoices(list, DEFAULT_SMOOTHING);
+	}
+
+	/**
+	 * Sets the weight of a new response time in the moving average, higher values adapt faster
+	 */
+	public RpcStrategyPowerOfTwoChoices withSmoothing(double smoothing) {
+		checkArgument(smoothing > 0 && smoothing <= 1, "Smoothing must be within (0, 1]");
+		return new RpcStrategyPowerOfTwoChoices(list, smoothing);
+	}
+
+	@Override
+	public Set<InetSocketAddress> getAddresses() {
+		return list.getAddresses();
+	}
+
+	@Nullable
+	@Override
+	public RpcSender createSender(RpcClientConnectionPool pool) {
+		List<RpcSender> subSenders = list.listOfSenders(pool);
+		if (subSenders.size() == 0)
+			return null;
+		if (subSenders.size() == 1)
+			return subSenders.get(0);
+		long randomLong = random.nextLong();
+		return new Sender(subSenders, smoothing, randomLong != 0L ? randomLong : 2347230858016798896L);
+	}
+
+	static final class Sender implements RpcSender {
+		private final SubSender[] subSenders;
+		private final double smoothing;
+		private long lastRandomLong;
+
+		Sender(@NotNull List<RpcSender> senders, double smoothing, long seed) {
+			checkArgument(senders.size() > 1, "List of senders must contain at least two senders");
+			this.subSenders = new SubSender[senders.size()];
+			for (int i = 0; i < subSenders.length; i++) {
+				subSenders[i] = new SubSender(senders.get(i));
+			}
+			this.smoothing = smoothing;
+			this.lastRandomLong = seed;
+		}
+
+		@Override
+		public <I, O> void sendRequest(I request, int timeout, @NotNull Callback<O> cb) {
+			SubSender subSender = nextSubSender();
+			subSender.inFlight++;
+			long start = System.nanoTime();
+			subSender.sender.sendRequest(request, timeout, (O result, @Nullable Throwable e) -> {
+				subSender.inFlight--;
+				if (!(e instanceof RpcOverloadException)) {
+					subSender.recordResponseTime(System.nanoTime() - start, smoothing);
+				}
+				cb.accept(result, e);
+			});
+		}
+
+		@Override
+		public <I, T, O> StreamSupplier<O> sendStreamRequest(I request, StreamSupplier<T> items) {
+			// streams are long-lived, so their response times are not comparable with the ones of requests
+			return nextSubSender().sender.sendStreamRequest(request, items);
+		}
+
+		private SubSender nextSubSender() {
+			int first = nextRandom(subSenders.length);
+			int second = nextRandom(subSenders.length - 1);
+			if (second >= first) {
+				second++;
+			}
+			return choose(subSenders[first], subSenders[second]);
+		}
+
+		private static SubSender choose(SubSender first, SubSender second) {
+			// a sub-sender which has no response times yet is assumed to be as fast as the other one
+			double firstResponseTime = first.responseTime != 0 ? first.responseTime : second.responseTime;
+			double secondResponseTime = second.responseTime != 0 ? second.responseTime : first.responseTime;
+			if (firstResponseTime == 0) {
+				return first.inFlight <= second.inFlight ? first : second;
+			}
+			return firstResponseTime * (first.inFlight + 1) <= secondResponseTime * (second.inFlight + 1) ? first : second;
+		}
+
+		private int nextRandom(int bound) {
+			lastRandomLong ^= (lastRandomLong << 21);
+			lastRandomLong ^= (lastRandomLong >>> 35);
+			lastRandomLong ^= (lastRandomLong << 4);
+			return (int) ((lastRandomLong & Long.MAX_VALUE) % bound);
+		}
+	}
+
+	private static final class SubSender {
+		final RpcSender sender;
+		int inFlight;
+		double responseTime;
+
+		SubSender(RpcSender sender) {
+			this.sender = sender;
+		}
+
+		void recordResponseTime(long nanos, double smoothing) {
+			responseTime = responseTime == 0 ? nanos : responseTime + (nanos - responseTime) * smoothing;
+		}
+	}
+}
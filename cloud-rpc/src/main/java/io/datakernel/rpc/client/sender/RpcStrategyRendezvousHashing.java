@@ -17,6 +17,7 @@
 package io.datakernel.rpc.client.sender;
 
 import io.datakernel.async.callback.Callback;
+import io.datakernel.datastream.StreamSupplier;
 import io.datakernel.common.HashUtils;
 import io.datakernel.rpc.client.RpcClientConnectionPool;
 import io.datakernel.rpc.hash.HashBucketFunction;
@@ -150,6 +151,14 @@ public final class RpcStrategyRendezvousHashing implements RpcStrategy {
 			sender.sendRequest(request, timeout, cb);
 		}
 
+		@SuppressWarnings("unchecked")
+		@Override
+		public <I, T, O> StreamSupplier<O> sendStreamRequest(I request, StreamSupplier<T> items) {
+			int hash = ((HashFunction<Object>) hashFunction).hashCode(request);
+			RpcSender sender = hashBuckets[hash & (hashBuckets.length - 1)];
+			return sender.sendStreamRequest(request, items);
+		}
+
 	}
 
 	// visible for testing
@@ -17,6 +17,7 @@
 package io.datakernel.rpc.client.sender;
 
 import io.datakernel.async.callback.Callback;
+import io.datakernel.datastream.StreamSupplier;
 import io.datakernel.rpc.client.RpcClientConnectionPool;
 import io.datakernel.rpc.hash.ShardingFunction;
 import org.jetbrains.annotations.NotNull;
@@ -93,5 +94,18 @@ public final class RpcStrategySharding implements RpcStrategy {
 			}
 		}
 
+		@SuppressWarnings("unchecked")
+		@Override
+		public <I, T, O> StreamSupplier<O> sendStreamRequest(I request, StreamSupplier<T> items) {
+			int shardIndex = ((ShardingFunction<Object>) shardingFunction).getShard(request);
+			RpcSender sender = subSenders[shardIndex];
+			if (sender != null) {
+				return sender.sendStreamRequest(request, items);
+			} else {
+				items.close(NO_SENDER_AVAILABLE_EXCEPTION);
+				return StreamSupplier.closingWithError(NO_SENDER_AVAILABLE_EXCEPTION);
+			}
+		}
+
 	}
 }
@@ -17,6 +17,7 @@
 package io.datakernel.rpc.client.sender;
 
 import io.datakernel.async.callback.Callback;
+import io.datakernel.datastream.StreamSupplier;
 import io.datakernel.rpc.client.RpcClientConnectionPool;
 import org.jetbrains.annotations.NotNull;
 import org.jetbrains.annotations.Nullable;
@@ -103,5 +104,19 @@ public final class RpcStrategyTypeDispatching implements RpcStrategy {
 				cb.accept(null, NO_SENDER_AVAILABLE_EXCEPTION);
 			}
 		}
+
+		@Override
+		public <I, T, O> StreamSupplier<O> sendStreamRequest(I request, StreamSupplier<T> items) {
+			RpcSender sender = typeToSender.get(request.getClass());
+			if (sender == null) {
+				sender = defaultSender;
+			}
+			if (sender != null) {
+				return sender.sendStreamRequest(request, items);
+			} else {
+				items.close(NO_SENDER_AVAILABLE_EXCEPTION);
+				return StreamSupplier.closingWithError(NO_SENDER_AVAILABLE_EXCEPTION);
+			}
+		}
 	}
 }
@@ -0,0 +1,53 @@
+/*
+ * Copyright (C) 2015-2019 SoftIndex LLC.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package io.datakernel.rpc.protocol;
+
+import io.datakernel.serializer.annotations.Deserialize;
+import io.datakernel.serializer.annotations.Serialize;
+import io.datakernel.serializer.annotations.SerializeNullable;
+import io.datakernel.serializer.annotations.SerializeSubclasses;
+
+import java.util.List;
+
+import static io.datakernel.rpc.protocol.RpcMessage.MESSAGE_TYPES;
+
+/**
+ * Several requests of the same class which are sent in a single message, or their responses.
+ * <p>
+ * Responses are in the same order as requests, a request which is failed
+ * is responded to with {@link RpcRemoteException}.
+ */
+public final class RpcBatch {
+	private final List<Object> items;
+
+	public RpcBatch(@Deserialize("items") List<Object> items) {
+		this.items = items;
+	}
+
+	@Serialize(order = 0)
+	@SerializeSubclasses(path = 0, value = RpcRemoteException.class, extraSubclassesId = MESSAGE_TYPES)
+	@SerializeNullable(path = 0)
+	public List<Object> getItems() {
+		return items;
+	}
+
+	@Override
+	public String toString() {
+		return "RpcBatch{size=" + items.size() + '}';
+	}
+}
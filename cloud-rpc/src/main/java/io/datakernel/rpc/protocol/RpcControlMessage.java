@@ -17,5 +17,17 @@
 package io.datakernel.rpc.protocol;
 
 public enum RpcControlMessage {
-	CLOSE
+	CLOSE,
+	/**
+	 * The last message of a stream, sent instead of further items
+	 */
+	END_OF_STREAM,
+	/**
+	 * Asks the other side to stop sending items of a stream
+	 */
+	CANCEL_STREAM,
+	/**
+	 * A response to a request which is rejected by the server, because it is overloaded
+	 */
+	OVERLOADED
 }
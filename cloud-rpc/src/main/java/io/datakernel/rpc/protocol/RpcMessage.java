@@ -41,9 +41,11 @@ public final class RpcMessage {
 		return cookie;
 	}
 
+	// indices of message types are a part of the wire format, so new built-in types are added
+	// in front of the existing ones with negative indices, keeping indices of application messages intact
 	@Serialize(order = 2)
 	@SerializeSubclasses(
-			startIndex = -1, value = {RpcControlMessage.class, RpcRemoteException.class},
+			startIndex = -3, value = {RpcStreamCredits.class, RpcBatch.class, RpcControlMessage.class, RpcRemoteException.class},
 			extraSubclassesId = MESSAGE_TYPES
 	)
 
@@ -0,0 +1,300 @@
+/*
+ * Copyright (C) 2015-2019 SoftIndex LLC.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package io.datakernel.rpc.protocol;
+
+import io.datakernel.common.ApplicationSettings;
+import io.datakernel.common.exception.ExpectedException;
+import io.datakernel.common.exception.StacklessException;
+import io.datakernel.datastream.*;
+import io.datakernel.promise.Promise;
+import io.datakernel.promise.SettablePromise;
+
+import java.util.ArrayDeque;
+import java.util.EnumSet;
+import java.util.Set;
+
+import static io.datakernel.datastream.StreamCapability.LATE_BINDING;
+import static io.datakernel.rpc.protocol.RpcControlMessage.CANCEL_STREAM;
+import static io.datakernel.rpc.protocol.RpcControlMessage.END_OF_STREAM;
+
+/**
+ * A streaming call, whose items are sent in both directions over {@link RpcStream}
+ * along with other messages, the messages of a call share the cookie of its request.
+ * <p>
+ * Each direction ends with either {@link RpcControlMessage#END_OF_STREAM} or {@link RpcRemoteException}.
+ * A side sends no more items than it is allowed by {@link RpcStreamCredits} of the other side,
+ * which are granted as the received items are passed downstream. So, if a consumer of the items
+ * is suspended, the supplier on the other side is suspended as well once the window of items is sent.
+ * The supplier of the outgoing items is also suspended while the connection itself is suspended,
+ * see {@link #onSenderSuspended()}.
+ * A side which receives more items than it has granted credits for fails the call with {@link #CREDITS_EXCEEDED},
+ * so that a peer which ignores credits cannot make it buffer items without limit.
+ * A receiver which is closed asks the other side to stop sending items with {@link RpcControlMessage#CANCEL_STREAM},
+ * the other side ends its direction in response.
+ *
+ * @param <I> type of items which are sent
+ * @param <O> type of items which are received
+ */
+public final class RpcStreamCall<I, O> {
+	public static final int WINDOW = ApplicationSettings.getInt(RpcStreamCall.class, "window", 256);
+
+	public static final ExpectedException STREAM_CANCELLED = new ExpectedException("RPC stream has been cancelled");
+	public static final StacklessException CREDITS_EXCEEDED = new StacklessException(RpcStreamCall.class, "Received more stream items than credits granted");
+
+	private final int cookie;
+	private final StreamDataAcceptor<RpcMessage> messageSender;
+	private final Sender sender = new Sender();
+	private final Receiver receiver = new Receiver();
+	private final SettablePromise<Void> completion = new SettablePromise<>();
+
+	private boolean sent; // the last message of the outgoing items has been sent
+	private boolean received; // the last message of the incoming items has been received
+	private boolean suspended; // the connection does not accept messages without buffering them
+
+	public RpcStreamCall(int cookie, StreamDataAcceptor<RpcMessage> messageSender) {
+		this.cookie = cookie;
+		this.messageSender = messageSender;
+	}
+
+	public int getCookie() {
+		return cookie;
+	}
+
+	/**
+	 * Returns a consumer of items which are sent to the other side
+	 */
+	public StreamConsumer<I> getSender() {
+		return sender;
+	}
+
+	/**
+	 * Returns a supplier of items which are received from the other side
+	 */
+	public StreamSupplier<O> getReceiver() {
+		return receiver;
+	}
+
+	/**
+	 * Completes once both directions are ended, after which no more messages of this call are expected,
+	 * except for credits
+	 */
+	public Promise<Void> getCompletion() {
+		return completion;
+	}
+
+	/**
+	 * Suspends sending of the outgoing items, should be called when the underlying {@link RpcStream} is suspended
+	 */
+	public void onSenderSuspended() {
+		suspended = true;
+		sender.suspend();
+	}
+
+	/**
+	 * Resumes sending of the outgoing items, if there are credits for them
+	 */
+	public void onSenderReady() {
+		suspended = false;
+		sender.tryResume();
+	}
+
+	/**
+	 * Processes a message of this call which is received from the other side
+	 */
+	@SuppressWarnings("unchecked")
+	public void accept(Object data) {
+		if (data == END_OF_STREAM) {
+			receiver.onEndOfStream();
+		} else if (data == CANCEL_STREAM) {
+			sender.onCancel();
+		} else if (data.getClass() == RpcStreamCredits.class) {
+			sender.onCredits(((RpcStreamCredits) data).getCredits());
+		} else if (data.getClass() == RpcRemoteException.class) {
+			receiver.onRemoteError((RpcRemoteException) data);
+		} else {
+			receiver.onItem((O) data);
+		}
+	}
+
+	/**
+	 * Closes both directions without notifying the other side, e.g. if the connection is closed
+	 */
+	public void close(Throwable e) {
+		sent = true;
+		received = true;
+		sender.close(e);
+		receiver.close(e);
+		completion.trySet(null);
+	}
+
+	private void sendMessage(Object data) {
+		messageSender.accept(RpcMessage.of(cookie, data));
+	}
+
+	private void onSent() {
+		sent = true;
+		if (received) {
+			completion.trySet(null);
+		}
+	}
+
+	private void onReceived() {
+		received = true;
+		if (sent) {
+			completion.trySet(null);
+		}
+	}
+
+	private final class Sender extends AbstractStreamConsumer<I> implements StreamDataAcceptor<I> {
+		private int credits = WINDOW;
+
+		@Override
+		protected void onStarted() {
+			tryResume();
+		}
+
+		@Override
+		public void accept(I item) {
+			if (sent) return;
+			sendMessage(item);
+			if (--credits <= 0 || suspended) {
+				getSupplier().suspend();
+			}
+		}
+
+		void onCredits(int credits) {
+			this.credits += credits;
+			tryResume();
+		}
+
+		void tryResume() {
+			if (credits > 0 && !suspended && !sent && isWired()) {
+				getSupplier().resume(this);
+			}
+		}
+
+		void suspend() {
+			if (!sent && isWired()) {
+				getSupplier().suspend();
+			}
+		}
+
+		void onCancel() {
+			if (sent) return;
+			sendMessage(END_OF_STREAM);
+			onSent();
+			close(STREAM_CANCELLED);
+		}
+
+		@Override
+		protected Promise<Void> onEndOfStream() {
+			if (!sent) {
+				sendMessage(END_OF_STREAM);
+				onSent();
+			}
+			return Promise.complete();
+		}
+
+		@Override
+		protected void onError(Throwable e) {
+			if (sent) return;
+			sendMessage(new RpcRemoteException(e));
+			onSent();
+		}
+
+		@Override
+		public Set<StreamCapability> getCapabilities() {
+			return EnumSet.of(LATE_BINDING);
+		}
+	}
+
+	private final class Receiver extends AbstractStreamSupplier<O> {
+		private final ArrayDeque<O> buffer = new ArrayDeque<>();
+		private boolean endOfStream;
+		private int consumed;
+		private int credits = WINDOW; // items the other side is allowed to send
+
+		void onItem(O item) {
+			if (received) return;
+			if (--credits < 0) {
+				onCreditsExceeded();
+				return;
+			}
+			if (isClosed()) return;
+			buffer.add(item);
+			postProduce();
+		}
+
+		private void onCreditsExceeded() {
+			close(CREDITS_EXCEEDED);
+			onReceived();
+			sender.close(CREDITS_EXCEEDED);
+		}
+
+		void onEndOfStream() {
+			onReceived();
+			if (isClosed()) return;
+			endOfStream = true;
+			postProduce();
+		}
+
+		void onRemoteError(RpcRemoteException e) {
+			onReceived();
+			close(e);
+		}
+
+		@Override
+		protected void produce(AsyncProduceController async) {
+			while (isReceiverReady() && !buffer.isEmpty()) {
+				send(buffer.poll());
+				consumed++;
+			}
+			if (buffer.isEmpty() && endOfStream) {
+				sendEndOfStream();
+				return;
+			}
+			if (!received && !isClosed() && consumed >= (WINDOW + 1) / 2) {
+				sendMessage(new RpcStreamCredits(consumed));
+				credits += consumed;
+				consumed = 0;
+			}
+		}
+
+		@Override
+		protected void onError(Throwable e) {
+			buffer.clear();
+			if (!received) {
+				sendMessage(CANCEL_STREAM);
+			}
+		}
+
+		@Override
+		public Set<StreamCapability> getCapabilities() {
+			return EnumSet.of(LATE_BINDING);
+		}
+	}
+
+	@Override
+	public String toString() {
+		return "RpcStreamCall{" +
+				"cookie=" + cookie +
+				", sent=" + sent +
+				", received=" + received +
+				'}';
+	}
+}
@@ -0,0 +1,45 @@
+/*
+ * Copyright (C) 2015-2019 SoftIndex LLC.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package io.datakernel.rpc.server;
+
+import io.datakernel.promise.Promise;
+
+import java.util.List;
+
+import static java.util.Collections.singletonList;
+
+/**
+ * A handler which processes several requests at once, e.g. with a single lookup.
+ * Batches of requests are sent by {@code RpcClient} with batching enabled,
+ * other handlers process requests of a batch one by one.
+ *
+ * @param <I> class of request
+ * @param <O> class of response
+ */
+@FunctionalInterface
+public interface RpcBatchRequestHandler<I, O> extends RpcRequestHandler<I, O> {
+	/**
+	 * Returns responses in the same order as requests
+	 */
+	Promise<List<O>> runBatch(List<I> requests);
+
+	@Override
+	default Promise<O> run(I request) {
+		return runBatch(singletonList(request)).map(responses -> responses.get(0));
+	}
+}
@@ -0,0 +1,248 @@
+/*
+ * Copyright (C) 2015-2019 SoftIndex LLC.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package io.datakernel.rpc.server;
+
+import io.datakernel.eventloop.jmx.EventStats;
+import io.datakernel.eventloop.jmx.JmxRefreshable;
+import io.datakernel.jmx.api.JmxAttribute;
+import io.datakernel.rpc.protocol.RpcBatch;
+import io.datakernel.rpc.protocol.RpcMandatoryData;
+
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static io.datakernel.common.Preconditions.checkArgument;
+import static java.lang.Math.max;
+import static java.lang.Math.min;
+
+/**
+ * Limits the number of requests which are handled by {@link RpcServer} at the same time.
+ * <p>
+ * The limit adapts to the response times of the handlers: while they are close to the long-term average,
+ * the limit grows by about a square root of itself, once they exceed the average by more than
+ * a tolerance, the limit is decreased by the ratio of these times (but no more than by half).
+ * So a server which is slowed down by a load handles fewer requests at the same time
+ * and rejects the rest of them immediately, instead of increasing latency for all of them.
+ * <p>
+ * Mandatory requests are never rejected, though they are counted as in flight.
+ * A batch of requests takes as many permits as there are requests in it.
+ * <p>
+ * A limiter is thread-safe, so it may be shared by servers of a worker pool, which run in different eventloops.
+ */
+public final class RpcConcurrencyLimiter implements JmxRefreshable {
+	public static final int DEFAULT_INITIAL_LIMIT = 100;
+	public static final int DEFAULT_MIN_LIMIT = 10;
+	public static final int DEFAULT_MAX_LIMIT = 10_000;
+	public static final double DEFAULT_SMOOTHING = 0.2;
+	public static final double DEFAULT_TOLERANCE = 1.5;
+
+	// number of response times which are averaged
+	private static final int SHORT_WINDOW = 10;
+	private static final int LONG_WINDOW = 600;
+
+	private int minLimit = DEFAULT_MIN_LIMIT;
+	private int maxLimit = DEFAULT_MAX_LIMIT;
+	private double smoothing = DEFAULT_SMOOTHING;
+	private double tolerance = DEFAULT_TOLERANCE;
+
+	private final AtomicInteger inFlight = new AtomicInteger();
+	// guarded by this, volatile for reading
+	private volatile double limit = DEFAULT_INITIAL_LIMIT;
+	private volatile double shortResponseTime;
+	private volatile double longResponseTime;
+
+	// jmx
+	private final EventStats rejectedRequests = EventStats.create(RpcServer.SMOOTHING_WINDOW);
+
+	private RpcConcurrencyLimiter() {
+	}
+
+	public static RpcConcurrencyLimiter create() {
+		return new RpcConcurrencyLimiter();
+	}
+
+	public RpcConcurrencyLimiter withInitialLimit(int initialLimit) {
+		checkArgument(initialLimit > 0, "Limit must be positive");
+		this.limit = initialLimit;
+		return this;
+	}
+
+	public RpcConcurrencyLimiter withMinLimit(int minLimit) {
+		checkArgument(minLimit > 0, "Limit must be positive");
+		this.minLimit = minLimit;
+		return this;
+	}
+
+	public RpcConcurrencyLimiter withMaxLimit(int maxLimit) {
+		checkArgument(maxLimit > 0, "Limit must be positive");
+		this.maxLimit = maxLimit;
+		return this;
+	}
+
+	/**
+	 * Sets the weight of a new limit in the current one, higher values adapt faster
+	 */
+	public RpcConcurrencyLimiter withSmoothing(double smoothing) {
+		checkArgument(smoothing > 0 && smoothing <= 1, "Smoothing must be within (0, 1]");
+		this.smoothing = smoothing;
+		return this;
+	}
+
+	/**
+	 * Sets how many times response times may exceed the long-term average before the limit is decreased
+	 */
+	public RpcConcurrencyLimiter withTolerance(double tolerance) {
+		checkArgument(tolerance >= 1, "Tolerance must not be less than 1");
+		this.tolerance = tolerance;
+		return this;
+	}
+
+	boolean tryAcquire(Object request) {
+		int permits = permitsOf(request);
+		if (isMandatory(request)) {
+			inFlight.addAndGet(permits);
+			return true;
+		}
+		while (true) {
+			int current = inFlight.get();
+			// a batch which is larger than the limit is still handled once nothing else is in flight
+			if (current != 0 && current + permits > getLimit()) {
+				synchronized (this) {
+					rejectedRequests.recordEvent();
+				}
+				return false;
+			}
+			if (inFlight.compareAndSet(current, current + permits)) {
+				return true;
+			}
+		}
+	}
+
+	/**
+	 * Releases a request which is handled successfully
+	 *
+	 * @param responseTime time of handling the request in nanoseconds
+	 */
+	void release(long responseTime) {
+		release(1, responseTime);
+	}
+
+	/**
+	 * Releases a request which is failed, its response time is not taken into account
+	 */
+	void release() {
+		release(1);
+	}
+
+	/**
+	 * Releases permits of a request which is handled successfully,
+	 * each request of a batch is taken into account as if it was handled separately
+	 *
+	 * @param permits      number of permits which are acquired for the request, see {@link #permitsOf(Object)}
+	 * @param responseTime time of handling the request in nanoseconds
+	 */
+	void release(int permits, long responseTime) {
+		synchronized (this) {
+			for (int i = 0; i < permits; i++) {
+				update(max(responseTime, 1L));
+			}
+		}
+		inFlight.addAndGet(-permits);
+	}
+
+	void release(int permits) {
+		inFlight.addAndGet(-permits);
+	}
+
+	/**
+	 * Returns the number of permits which a request takes, a batch takes a permit per each of its requests
+	 */
+	static int permitsOf(Object request) {
+		return request.getClass() == RpcBatch.class ? max(1, ((RpcBatch) request).getItems().size()) : 1;
+	}
+
+	private static boolean isMandatory(Object request) {
+		if (request.getClass() == RpcBatch.class) {
+			// all requests of a batch are of the same class
+			List<Object> items = ((RpcBatch) request).getItems();
+			return !items.isEmpty() && items.get(0) instanceof RpcMandatoryData;
+		}
+		return request instanceof RpcMandatoryData;
+	}
+
+	private synchronized void update(long responseTime) {
+		if (longResponseTime == 0) {
+			shortResponseTime = longResponseTime = responseTime;
+			return;
+		}
+		shortResponseTime += (responseTime - shortResponseTime) / SHORT_WINDOW;
+		longResponseTime += (responseTime - longResponseTime) / LONG_WINDOW;
+
+		// the long-term average which is left high after an overload recovers faster
+		if (longResponseTime > 2 * shortResponseTime) {
+			longResponseTime *= 0.95;
+		}
+
+		// the limit which is not reached tells nothing about the capacity
+		if (inFlight.get() < limit / 2) return;
+
+		double gradient = max(0.5, min(1.0, tolerance * longResponseTime / shortResponseTime));
+		double newLimit = limit * gradient + Math.sqrt(limit);
+		limit = max(minLimit, min(maxLimit, limit * (1 - smoothing) + newLimit * smoothing));
+	}
+
+	// region JMX
+	@Override
+	public synchronized void refresh(long timestamp) {
+		rejectedRequests.refresh(timestamp);
+	}
+
+	@JmxAttribute(description = "current number of requests which may be handled at the same time")
+	public int getLimit() {
+		return (int) limit;
+	}
+
+	@JmxAttribute(description = "number of requests which are being handled")
+	public int getInFlight() {
+		return inFlight.get();
+	}
+
+	@JmxAttribute(extraSubAttributes = "totalCount", description = "requests which are rejected, because the limit is reached")
+	public EventStats getRejectedRequests() {
+		return rejectedRequests;
+	}
+
+	@JmxAttribute(description = "smoothed response time of recent requests (in milliseconds)")
+	public double getResponseTime() {
+		return shortResponseTime / 1_000_000;
+	}
+
+	@JmxAttribute(description = "long-term average response time (in milliseconds)")
+	public double getLongTermResponseTime() {
+		return longResponseTime / 1_000_000;
+	}
+	// endregion
+
+	@Override
+	public String toString() {
+		return "RpcConcurrencyLimiter{" +
+				"limit=" + getLimit() +
+				", inFlight=" + inFlight.get() +
+				'}';
+	}
+}
@@ -36,6 +36,7 @@ import io.datakernel.rpc.protocol.RpcStream;
 import io.datakernel.serializer.BinarySerializer;
 import io.datakernel.serializer.SerializerBuilder;
 import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
 
 import java.net.InetAddress;
 import java.time.Duration;
@@ -84,8 +85,11 @@ public final class RpcServer extends AbstractServer<RpcServer> {
 	private MemSize maxMessageSize = DEFAULT_MAX_MESSAGE_SIZE;
 	private boolean compression = false;
 	private Duration autoFlushInterval = Duration.ZERO;
+	@Nullable
+	private RpcConcurrencyLimiter concurrencyLimiter;
 
 	private final Map<Class<?>, RpcRequestHandler<?, ?>> handlers = new LinkedHashMap<>();
+	private final Map<Class<?>, RpcStreamHandler<?, ?, ?>> streamHandlers = new LinkedHashMap<>();
 	private ClassLoader classLoader = Thread.currentThread().getContextClassLoader();
 	private SerializerBuilder serializerBuilder = SerializerBuilder.create(classLoader);
 	private List<Class<?>> messageTypes;
@@ -185,13 +189,46 @@ public final class RpcServer extends AbstractServer<RpcServer> {
 		return this;
 	}
 
+	/**
+	 * Adds a handler for streaming requests of a specified class,
+	 * the handler returns a stream of responses for each request.
+	 *
+	 * @param requestClass  a class representing a request structure
+	 * @param responseClass a class representing a structure of items of response stream
+	 * @param handler       a class containing logic of request processing and
+	 *                      creating a stream of responses
+	 * @param <I>           class of request
+	 * @param <T>           class of items sent by client along with the request
+	 * @param <O>           class of response
+	 * @return server instance capable for handling streaming requests of concrete types
+	 * @see RpcStreamHandler
+	 */
+	public <I, T, O> RpcServer withStreamHandler(Class<I> requestClass, Class<O> responseClass, RpcStreamHandler<I, T, O> handler) {
+		streamHandlers.put(requestClass, handler);
+		return this;
+	}
+
+	/**
+	 * Limits the number of requests which are handled at the same time,
+	 * the requests over the limit are responded to with an overload error without being handled.
+	 * Streaming requests are not limited.
+	 *
+	 * @param concurrencyLimiter a limiter shared by all connections of the server, it may also be shared by servers of a worker pool
+	 * @return server instance which rejects excess requests
+	 * @see RpcConcurrencyLimiter
+	 */
+	public RpcServer withConcurrencyLimiter(RpcConcurrencyLimiter concurrencyLimiter) {
+		this.concurrencyLimiter = concurrencyLimiter;
+		return this;
+	}
+
 	// endregion
 
 	@Override
 	protected void serve(AsyncTcpSocket socket, InetAddress remoteAddress) {
 		RpcStream stream = new RpcStream(socket, serializer, initialBufferSize, maxMessageSize,
 				autoFlushInterval, compression, true); // , statsSerializer, statsDeserializer, statsCompressor, statsDecompressor);
-		RpcServerConnection connection = new RpcServerConnection(this, remoteAddress, handlers, stream);
+		RpcServerConnection connection = new RpcServerConnection(this, remoteAddress, handlers, streamHandlers, stream);
 		stream.setListener(connection);
 		add(connection);
 
@@ -300,6 +337,12 @@ public final class RpcServer extends AbstractServer<RpcServer> {
 		return stats;
 	}
 
+	@JmxAttribute(description = "limit of requests which are handled at the same time (only if the limiter is set)")
+	@Nullable
+	public RpcConcurrencyLimiter getConcurrencyLimiter() {
+		return concurrencyLimiter;
+	}
+
 	@JmxAttribute(description = "detailed information about connections")
 	public List<RpcServerConnection> getConnections() {
 		return connections;
@@ -18,31 +18,42 @@ package io.datakernel.rpc.server;
 
 import io.datakernel.common.parse.ParseException;
 import io.datakernel.datastream.StreamDataAcceptor;
+import io.datakernel.datastream.StreamSupplier;
 import io.datakernel.eventloop.jmx.EventStats;
 import io.datakernel.eventloop.jmx.ExceptionStats;
 import io.datakernel.eventloop.jmx.JmxRefreshable;
 import io.datakernel.eventloop.jmx.ValueStats;
 import io.datakernel.jmx.api.JmxAttribute;
 import io.datakernel.promise.Promise;
-import io.datakernel.rpc.protocol.RpcControlMessage;
-import io.datakernel.rpc.protocol.RpcMessage;
-import io.datakernel.rpc.protocol.RpcRemoteException;
-import io.datakernel.rpc.protocol.RpcStream;
+import io.datakernel.promise.Promises;
+import io.datakernel.rpc.protocol.*;
 import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import java.net.InetAddress;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
 import java.util.Map;
 
+import static io.datakernel.rpc.protocol.RpcStreamCall.STREAM_CANCELLED;
+
 public final class RpcServerConnection implements RpcStream.Listener, JmxRefreshable {
 	private static final Logger logger = LoggerFactory.getLogger(RpcServerConnection.class);
+	private static final RpcException CONNECTION_CLOSED = new RpcException(RpcServerConnection.class, "Connection closed");
 
 	private StreamDataAcceptor<RpcMessage> downstreamDataAcceptor;
+	private boolean suspended;
 
 	private final RpcServer rpcServer;
 	private final RpcStream stream;
 	private final Map<Class<?>, RpcRequestHandler<?, ?>> handlers;
+	private final Map<Class<?>, RpcStreamHandler<?, ?, ?>> streamHandlers;
+	private final Map<Integer, RpcStreamCall<Object, Object>> activeStreams = new HashMap<>();
+	@Nullable
+	private final RpcConcurrencyLimiter concurrencyLimiter;
 
 	private int activeRequests = 1;
 
@@ -55,10 +66,13 @@ public final class RpcServerConnection implements RpcStream.Listener, JmxRefresh
 	private boolean monitoring = false;
 
 	RpcServerConnection(RpcServer rpcServer, InetAddress remoteAddress,
-			Map<Class<?>, RpcRequestHandler<?, ?>> handlers, RpcStream stream) {
+			Map<Class<?>, RpcRequestHandler<?, ?>> handlers, Map<Class<?>, RpcStreamHandler<?, ?, ?>> streamHandlers,
+			RpcStream stream) {
 		this.rpcServer = rpcServer;
 		this.stream = stream;
 		this.handlers = handlers;
+		this.streamHandlers = streamHandlers;
+		this.concurrencyLimiter = rpcServer.getConcurrencyLimiter();
 
 		// jmx
 		this.remoteAddress = remoteAddress;
@@ -66,6 +80,9 @@ public final class RpcServerConnection implements RpcStream.Listener, JmxRefresh
 
 	@SuppressWarnings("unchecked")
 	private Promise<Object> serve(Object request) {
+		if (request.getClass() == RpcBatch.class) {
+			return serveBatch((RpcBatch) request);
+		}
 		RpcRequestHandler<Object, Object> requestHandler = (RpcRequestHandler<Object, Object>) handlers.get(request.getClass());
 		if (requestHandler == null) {
 			return Promise.ofException(new ParseException(RpcServerConnection.class, "Failed to process request " + request));
@@ -73,16 +90,71 @@ public final class RpcServerConnection implements RpcStream.Listener, JmxRefresh
 		return requestHandler.run(request);
 	}
 
+	@SuppressWarnings("unchecked")
+	private Promise<Object> serveBatch(RpcBatch batch) {
+		List<Object> requests = batch.getItems();
+		// all requests of a batch are of the same class
+		RpcRequestHandler<Object, Object> requestHandler = requests.isEmpty() ? null :
+				(RpcRequestHandler<Object, Object>) handlers.get(requests.get(0).getClass());
+		if (requestHandler == null) {
+			return Promise.ofException(new ParseException(RpcServerConnection.class, "Failed to process batch " + batch));
+		}
+		if (requestHandler instanceof RpcBatchRequestHandler) {
+			return ((RpcBatchRequestHandler<Object, Object>) requestHandler).runBatch(requests)
+					.then(responses -> responses.size() == requests.size() ?
+							Promise.of(new RpcBatch(responses)) :
+							Promise.ofException(new RpcException(RpcServerConnection.class,
+									"Number of responses does not match number of requests in " + batch)));
+		}
+		return Promises.toList(requests.stream()
+				.map(request -> requestHandler.run(request)
+						.thenEx((response, e) -> Promise.of(e == null ? response : new RpcRemoteException(e)))))
+				.map(RpcBatch::new);
+	}
+
 	@Override
 	public void accept(RpcMessage message) {
+		int cookie = message.getCookie();
+		Object messageData = message.getData();
+
+		if (!activeStreams.isEmpty()) {
+			RpcStreamCall<Object, Object> streamCall = activeStreams.get(cookie);
+			if (streamCall != null) {
+				streamCall.accept(messageData);
+				return;
+			}
+		}
+		if (messageData.getClass() == RpcStreamCredits.class || messageData == RpcControlMessage.CANCEL_STREAM) {
+			return; // a late message of a completed stream
+		}
+
+		RpcStreamHandler<?, ?, ?> streamHandler = streamHandlers.get(messageData.getClass());
+		if (streamHandler != null) {
+			activeRequests++;
+			serveStream(cookie, messageData, streamHandler, monitoring ? System.currentTimeMillis() : 0);
+			return;
+		}
+
+		if (concurrencyLimiter != null && !concurrencyLimiter.tryAcquire(messageData)) {
+			downstreamDataAcceptor.accept(RpcMessage.of(cookie, RpcControlMessage.OVERLOADED));
+			return;
+		}
+
 		activeRequests++;
 
-		int cookie = message.getCookie();
 		long startTime = monitoring ? System.currentTimeMillis() : 0;
+		long limiterStartTime = concurrencyLimiter != null ? System.nanoTime() : 0;
+		int permits = concurrencyLimiter != null ? RpcConcurrencyLimiter.permitsOf(messageData) : 0;
 
-		Object messageData = message.getData();
 		serve(messageData)
 				.whenComplete((result, e) -> {
+					if (concurrencyLimiter != null) {
+						if (e == null) {
+							concurrencyLimiter.release(permits, System.nanoTime() - limiterStartTime);
+						} else {
+							concurrencyLimiter.release(permits);
+						}
+					}
 					if (startTime != 0) {
 						int value = (int) (System.currentTimeMillis() - startTime);
 						requestHandlingTime.recordValue(value);
@@ -115,6 +187,48 @@ public final class RpcServerConnection implements RpcStream.Listener, JmxRefresh
 				});
 	}
 
+	@SuppressWarnings("unchecked")
+	private void serveStream(int cookie, Object request, RpcStreamHandler<?, ?, ?> streamHandler, long startTime) {
+		RpcStreamCall<Object, Object> streamCall = new RpcStreamCall<>(cookie, message -> downstreamDataAcceptor.accept(message));
+		activeStreams.put(cookie, streamCall);
+		if (suspended) {
+			streamCall.onSenderSuspended();
+		}
+
+		StreamSupplier<Object> responses = ((RpcStreamHandler<Object, Object, Object>) streamHandler).run(request, streamCall.getReceiver());
+		responses.streamTo(streamCall.getSender());
+
+		streamCall.getSender().getAcknowledgement()
+				.whenComplete(($, e) -> {
+					// items of request are not needed once responses are sent
+					streamCall.getReceiver().close(STREAM_CANCELLED);
+
+					if (startTime != 0) {
+						int value = (int) (System.currentTimeMillis() - startTime);
+						requestHandlingTime.recordValue(value);
+						rpcServer.getRequestHandlingTime().recordValue(value);
+					}
+					if (e == null || e == STREAM_CANCELLED) {
+						successfulRequests.recordEvent();
+						rpcServer.getSuccessfulRequests().recordEvent();
+					} else {
+						lastRequestHandlingException.recordException(e, request);
+						rpcServer.getLastRequestHandlingException().recordException(e, request);
+						failedRequests.recordEvent();
+						rpcServer.getFailedRequests().recordEvent();
+						logger.warn("Exception while processing stream request ID {}", cookie, e);
+					}
+				});
+		streamCall.getCompletion()
+				.whenResult($ -> {
+					if (activeStreams.remove(cookie) == null) return;
+					if (--activeRequests == 0) {
+						doClose();
+						stream.sendEndOfStream();
+					}
+				});
+	}
+
 	@Override
 	public void onReceiverEndOfStream() {
 		activeRequests--;
@@ -143,14 +257,31 @@ public final class RpcServerConnection implements RpcStream.Listener, JmxRefresh
 	@Override
 	public void onSenderReady(@NotNull StreamDataAcceptor<RpcMessage> acceptor) {
 		this.downstreamDataAcceptor = acceptor;
+		suspended = false;
+		if (!activeStreams.isEmpty()) {
+			for (RpcStreamCall<Object, Object> streamCall : new ArrayList<>(activeStreams.values())) {
+				streamCall.onSenderReady();
+			}
+		}
 	}
 
 	@Override
 	public void onSenderSuspended() {
+		suspended = true;
+		if (!activeStreams.isEmpty()) {
+			for (RpcStreamCall<Object, Object> streamCall : new ArrayList<>(activeStreams.values())) {
+				streamCall.onSenderSuspended();
+			}
+		}
 	}
 
 	private void doClose() {
 		rpcServer.remove(this);
+		List<RpcStreamCall<Object, Object>> streamCalls = new ArrayList<>(activeStreams.values());
+		activeStreams.clear();
+		for (RpcStreamCall<Object, Object> streamCall : streamCalls) {
+			streamCall.close(CONNECTION_CLOSED);
+		}
 	}
 
 	public void shutdown() {
@@ -0,0 +1,38 @@
+/*
+ * Copyright (C) 2015-2019 SoftIndex LLC.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package io.datakernel.rpc.server;
+
+import io.datakernel.datastream.StreamSupplier;
+
+/**
+ * Implementations of this interface handle streaming requests: the handler
+ * receives a request along with a stream of items sent by the client,
+ * and returns a stream of responses which is sent back to the client.
+ * <p>
+ * A server-streaming handler may ignore the stream of items, which is empty
+ * unless the client passes some. The stream of items is closed once the stream
+ * of responses ends.
+ *
+ * @param <I> class of request
+ * @param <T> class of items sent by the client
+ * @param <O> class of responses
+ */
+@FunctionalInterface
+public interface RpcStreamHandler<I, T, O> {
+	StreamSupplier<O> run(I request, StreamSupplier<T> items);
+}
@@ -0,0 +1,147 @@
+/*
+ * Copyright (C) 2015-2019 SoftIndex LLC.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package io.datakernel.rpc.client;
+
+import io.datakernel.eventloop.Eventloop;
+import io.datakernel.promise.Promise;
+import io.datakernel.promise.Promises;
+import io.datakernel.rpc.protocol.RpcControlMessage;
+import io.datakernel.rpc.protocol.RpcMessage;
+import io.datakernel.rpc.protocol.RpcRemoteException;
+import io.datakernel.rpc.server.RpcBatchRequestHandler;
+import io.datakernel.rpc.server.RpcServer;
+import io.datakernel.test.rules.ByteBufRule;
+import io.datakernel.test.rules.EventloopRule;
+import org.junit.Before;
+import org.junit.ClassRule;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.function.Supplier;
+import java.util.stream.IntStream;
+import java.util.stream.Stream;
+
+import static io.datakernel.promise.TestUtils.await;
+import static io.datakernel.rpc.client.sender.RpcStrategies.server;
+import static io.datakernel.test.TestUtils.getFreePort;
+import static java.util.Arrays.asList;
+import static java.util.stream.Collectors.toList;
+import static org.junit.Assert.*;
+
+public final class RpcClientBatchingTest {
+	@ClassRule
+	public static final EventloopRule eventloopRule = new EventloopRule();
+
+	@ClassRule
+	public static final ByteBufRule byteBufRule = new ByteBufRule();
+
+	private final List<Integer> batchSizes = new ArrayList<>();
+
+	private RpcServer server;
+	private RpcClient client;
+
+	@Before
+	public void setUp() throws IOException {
+		int port = getFreePort();
+		server = RpcServer.create(Eventloop.getCurrentEventloop())
+				.withMessageTypes(String.class, Integer.class, Long.class)
+				// processes a whole batch at once
+				.withHandler(Integer.class, String.class, (RpcBatchRequestHandler<Integer, String>) requests -> {
+					batchSizes.add(requests.size());
+					return Promise.of(requests.stream().map(request -> "response " + request).collect(toList()));
+				})
+				// processes requests of a batch one by one
+				.withHandler(String.class, String.class, request -> request.equals("error") ?
+						Promise.ofException(new Exception(request)) :
+						Promise.of("Hello, " + request))
+				.withHandler(Long.class, String.class, (RpcBatchRequestHandler<Long, String>) requests ->
+						Promise.ofException(new Exception("Failed batch")))
+				.withListenPort(port);
+		server.listen();
+
+		client = RpcClient.create(Eventloop.getCurrentEventloop())
+				.withMessageTypes(String.class, Integer.class, Long.class)
+				.withStrategy(server(new InetSocketAddress("localhost", port)))
+				.withBatching(Integer.class, 4)
+				.withBatching(String.class, 100)
+				.withBatching(Long.class, 100);
+	}
+
+	@Test
+	public void testBatchRequestHandler() {
+		List<String> responses = await(call(() -> Promises.toList(IntStream.range(0, 10)
+				.mapToObj(i -> client.<Integer, String>sendRequest(i)))
+				.then(list -> client.<Integer, String>sendRequest(10)
+						.map(last -> {
+							List<String> all = new ArrayList<>(list);
+							all.add(last);
+							return all;
+						}))));
+
+		assertEquals(IntStream.range(0, 11).mapToObj(i -> "response " + i).collect(toList()), responses);
+		// a request which is sent alone is not batched
+		assertEquals(asList(4, 4, 2, 1), batchSizes);
+	}
+
+	@Test
+	public void testRequestHandler() {
+		List<Object> responses = await(call(() -> Promises.toList(Stream.of("first", "error", "second")
+				.map(request -> client.<String, String>sendRequest(request)
+						.thenEx((response, e) -> Promise.of(e == null ? response : e))))));
+
+		assertEquals("Hello, first", responses.get(0));
+		assertTrue(responses.get(1) instanceof RpcRemoteException);
+		assertEquals("Hello, second", responses.get(2));
+	}
+
+	@Test
+	public void testFailedBatch() {
+		List<Object> responses = await(call(() -> Promises.toList(Stream.of(1L, 2L)
+				.map(request -> client.<Long, String>sendRequest(request)
+						.thenEx((response, e) -> Promise.of(e == null ? response : e))))));
+
+		assertTrue(responses.get(0) instanceof RpcRemoteException);
+		assertSame(responses.get(0), responses.get(1));
+	}
+
+	@Test
+	public void testServerClosingFailsPendingBatch() {
+		Throwable e = await(call(() -> {
+			Promise<String> response = client.sendRequest(1);
+			RpcClientConnection connection = client.getRequestStatsPerConnection().values().iterator().next();
+			connection.accept(RpcMessage.of(-1, RpcControlMessage.CLOSE));
+			return response.thenEx(($, e1) -> Promise.of(e1));
+		}));
+
+		assertSame(RpcClientConnection.CONNECTION_CLOSED, e);
+		// the pending batch is not sent to a closing server
+		assertTrue(batchSizes.isEmpty());
+	}
+
+	private <T> Promise<T> call(Supplier<Promise<T>> test) {
+		return client.start()
+				.then($ -> test.get())
+				.whenComplete(() -> {
+					client.stop();
+					server.close();
+				});
+	}
+}
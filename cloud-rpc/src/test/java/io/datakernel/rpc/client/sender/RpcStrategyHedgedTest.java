@@ -0,0 +1,195 @@
+/*
+ * Copyright (C) 2015-2019 SoftIndex LLC.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package io.datakernel.rpc.client.sender;
+
+import io.datakernel.async.callback.Callback;
+import io.datakernel.eventloop.Eventloop;
+import io.datakernel.promise.Promise;
+import io.datakernel.promise.Promises;
+import io.datakernel.rpc.client.jmx.RpcHedgingStats;
+import io.datakernel.rpc.client.sender.helper.RpcClientConnectionPoolStub;
+import io.datakernel.rpc.client.sender.helper.RpcMessageDataStub;
+import io.datakernel.test.rules.EventloopRule;
+import org.jetbrains.annotations.NotNull;
+import org.junit.ClassRule;
+import org.junit.Test;
+
+import java.net.InetSocketAddress;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+
+import static io.datakernel.promise.TestUtils.await;
+import static io.datakernel.rpc.client.sender.RpcStrategies.*;
+import static io.datakernel.test.TestUtils.getFreePort;
+import static java.util.Arrays.asList;
+import static org.junit.Assert.*;
+
+public class RpcStrategyHedgedTest {
+	@ClassRule
+	public static final EventloopRule eventloopRule = new EventloopRule();
+
+	private static final InetSocketAddress ADDRESS = new InetSocketAddress("localhost", getFreePort());
+
+	private static final int TIMEOUT = 1000;
+
+	@Test
+	public void itShouldPassTheFirstResponse() {
+		// the original request is answered after the hedged one
+		SimulatedServer server = new SimulatedServer(30, 1);
+		RpcStrategyHedged strategy = hedged(server(ADDRESS))
+				.withHedgeDelay(Duration.ofMillis(5))
+				.withMaxExtraLoad(1);
+		RpcSender sender = createSender(strategy, server);
+
+		List<Integer> results = new ArrayList<>();
+		await(Promises.delay(1L)
+				.then($ -> {
+					sender.<RpcMessageDataStub, Integer>sendRequest(new RpcMessageDataStub(), TIMEOUT, (result, e) -> {
+						assertNull(e);
+						results.add(result);
+					});
+					return Promises.delay(50L);
+				}));
+
+		assertEquals(2, server.requests);
+		assertEquals(2, server.responses);
+		// the late response is ignored
+		assertEquals(asList(2), results);
+
+		RpcHedgingStats stats = getStats(strategy);
+		assertEquals(1, stats.getRequests().getTotalCount());
+		assertEquals(1, stats.getHedgedRequests().getTotalCount());
+		assertEquals(1, stats.getHedgeWins().getTotalCount());
+	}
+
+	@Test
+	public void itShouldNotHedgeFastRequests() {
+		SimulatedServer server = new SimulatedServer(1);
+		RpcStrategyHedged strategy = hedged(server(ADDRESS))
+				.withHedgeDelay(Duration.ofMillis(20));
+
+		simulate(createSender(strategy, server), 100);
+
+		assertEquals(100, server.requests);
+		assertEquals(0, getStats(strategy).getHedgedRequests().getTotalCount());
+	}
+
+	@Test
+	public void itShouldLimitExtraLoad() {
+		SimulatedServer server = new SimulatedServer(-1);
+		RpcStrategyHedged strategy = hedged(server(ADDRESS))
+				.withHedgeDelay(Duration.ofMillis(1))
+				.withMaxExtraLoad(0.05);
+
+		simulate(createSender(strategy, server), 200);
+
+		long hedged = getStats(strategy).getHedgedRequests().getTotalCount();
+		assertEquals(200 + hedged, server.requests);
+		assertTrue(hedged >= 9 && hedged <= 10);
+		assertEquals(200 - hedged, getStats(strategy).getBudgetExhausted().getTotalCount());
+	}
+
+	@Test
+	public void itShouldDeriveDelayFromResponseTimes() {
+		SimulatedServer server = new SimulatedServer(5);
+		RpcStrategyHedged strategy = hedged(server(ADDRESS))
+				.withHedgeDelayPercentile(0.9, Duration.ofMillis(1))
+				.withMaxExtraLoad(1);
+
+		simulate(createSender(strategy, server), 300);
+
+		// only requests which are sent before there are enough response times are hedged
+		long hedged = getStats(strategy).getHedgedRequests().getTotalCount();
+		assertTrue(hedged >= 100 && hedged < 150);
+	}
+
+	@Test
+	public void itShouldPassErrorOfBothRequests() {
+		SimulatedServer server = new SimulatedServer(30, 10);
+		server.error = new Exception("Test");
+		RpcStrategyHedged strategy = hedged(server(ADDRESS))
+				.withHedgeDelay(Duration.ofMillis(5))
+				.withMaxExtraLoad(1);
+		RpcSender sender = createSender(strategy, server);
+
+		List<Throwable> errors = new ArrayList<>();
+		await(Promises.delay(1L)
+				.then($ -> {
+					sender.sendRequest(new RpcMessageDataStub(), TIMEOUT, (result, e) -> errors.add(e));
+					return Promises.delay(50L);
+				}));
+
+		assertEquals(2, server.requests);
+		assertEquals(asList(server.error), errors);
+	}
+
+	private static RpcHedgingStats getStats(RpcStrategyHedged strategy) {
+		RpcHedgingStats stats = strategy.getStats();
+		stats.refresh(System.currentTimeMillis());
+		return stats;
+	}
+
+	private static RpcSender createSender(RpcStrategy strategy, SimulatedServer server) {
+		RpcClientConnectionPoolStub pool = new RpcClientConnectionPoolStub();
+		pool.put(ADDRESS, server);
+		return strategy.createSender(pool);
+	}
+
+	private static void simulate(RpcSender sender, int requests) {
+		await(Promises.delay(1L)
+				.then($ -> sendRequests(sender, requests)));
+	}
+
+	private static Promise<Void> sendRequests(RpcSender sender, int requests) {
+		if (requests == 0) {
+			// lets the remaining responses arrive
+			return Promises.delay(50L);
+		}
+		sender.sendRequest(new RpcMessageDataStub(), TIMEOUT, (result, e) -> assertNull(e));
+		return Promises.delay(1L)
+				.then($ -> sendRequests(sender, requests - 1));
+	}
+
+	/**
+	 * Responds to requests after given delays, the last one is used for the rest of requests,
+	 * never responds if the delay is negative. A response is the number of the request.
+	 */
+	private static final class SimulatedServer implements RpcSender {
+		private final long[] latencies;
+		private int requests;
+		private int responses;
+		private Exception error;
+
+		SimulatedServer(long... latencies) {
+			this.latencies = latencies;
+		}
+
+		@SuppressWarnings("unchecked")
+		@Override
+		public <I, O> void sendRequest(I request, int timeout, @NotNull Callback<O> cb) {
+			int number = ++requests;
+			long latency = latencies[Math.min(number, latencies.length) - 1];
+			if (latency < 0) return;
+			Eventloop.getCurrentEventloop().delay(latency, () -> {
+				responses++;
+				cb.accept(error == null ? (O) Integer.valueOf(number) : null, error);
+			});
+		}
+	}
+}
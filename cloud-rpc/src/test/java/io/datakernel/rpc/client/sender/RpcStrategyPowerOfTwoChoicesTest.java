@@ -0,0 +1,161 @@
+/*
+ * Copyright (C) 2015-2019 SoftIndex LLC.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package io.datakernel.rpc.client.sender;
+
+import io.datakernel.async.callback.Callback;
+import io.datakernel.eventloop.Eventloop;
+import io.datakernel.promise.Promise;
+import io.datakernel.promise.Promises;
+import io.datakernel.rpc.client.sender.helper.RpcClientConnectionPoolStub;
+import io.datakernel.rpc.client.sender.helper.RpcMessageDataStub;
+import io.datakernel.rpc.client.sender.helper.RpcSenderStub;
+import io.datakernel.test.rules.EventloopRule;
+import org.jetbrains.annotations.NotNull;
+import org.junit.ClassRule;
+import org.junit.Test;
+
+import java.net.InetSocketAddress;
+
+import static io.datakernel.promise.TestUtils.await;
+import static io.datakernel.rpc.client.sender.Callbacks.assertNoCalls;
+import static io.datakernel.rpc.client.sender.RpcStrategies.*;
+import static io.datakernel.test.TestUtils.getFreePort;
+import static org.junit.Assert.*;
+
+public class RpcStrategyPowerOfTwoChoicesTest {
+	@ClassRule
+	public static final EventloopRule eventloopRule = new EventloopRule();
+
+	private static final String HOST = "localhost";
+
+	private static final InetSocketAddress ADDRESS_1 = new InetSocketAddress(HOST, getFreePort());
+	private static final InetSocketAddress ADDRESS_2 = new InetSocketAddress(HOST, getFreePort());
+	private static final InetSocketAddress ADDRESS_3 = new InetSocketAddress(HOST, getFreePort());
+
+	private static final int ROUNDS = 200;
+	private static final int REQUESTS_PER_ROUND = 10;
+	private static final int TIMEOUT = 1000;
+
+	@Test
+	public void itShouldBalanceRequestsInFlight() {
+		RpcClientConnectionPoolStub pool = new RpcClientConnectionPoolStub();
+		RpcSenderStub connection1 = new RpcSenderStub();
+		RpcSenderStub connection2 = new RpcSenderStub();
+		RpcSenderStub connection3 = new RpcSenderStub();
+		pool.put(ADDRESS_1, connection1);
+		pool.put(ADDRESS_2, connection2);
+		pool.put(ADDRESS_3, connection3);
+
+		RpcSender sender = powerOfTwoChoices(servers(ADDRESS_1, ADDRESS_2, ADDRESS_3)).createSender(pool);
+		for (int i = 0; i < 300; i++) {
+			sender.sendRequest(new RpcMessageDataStub(), TIMEOUT, assertNoCalls());
+		}
+
+		// requests never complete, so a sub-sender with more requests in flight is never chosen
+		assertEquals(100, connection1.getRequests(), 1);
+		assertEquals(100, connection2.getRequests(), 1);
+		assertEquals(100, connection3.getRequests(), 1);
+	}
+
+	@Test
+	public void itShouldReturnTheOnlyActiveSubSender() {
+		RpcClientConnectionPoolStub pool = new RpcClientConnectionPoolStub();
+		RpcSenderStub connection = new RpcSenderStub();
+		pool.put(ADDRESS_2, connection);
+
+		assertSame(connection, powerOfTwoChoices(servers(ADDRESS_1, ADDRESS_2)).createSender(pool));
+		assertNull(powerOfTwoChoices(servers(ADDRESS_1, ADDRESS_3)).createSender(pool));
+	}
+
+	@Test
+	public void itShouldSendLessRequestsToSlowServer() {
+		RpcClientConnectionPoolStub pool = new RpcClientConnectionPoolStub();
+		SimulatedServer fast1 = new SimulatedServer(1);
+		SimulatedServer fast2 = new SimulatedServer(1);
+		SimulatedServer slow = new SimulatedServer(20);
+		pool.put(ADDRESS_1, fast1);
+		pool.put(ADDRESS_2, fast2);
+		pool.put(ADDRESS_3, slow);
+
+		simulate(powerOfTwoChoices(servers(ADDRESS_1, ADDRESS_2, ADDRESS_3)).createSender(pool));
+
+		int total = ROUNDS * REQUESTS_PER_ROUND;
+		assertEquals(total, fast1.requests + fast2.requests + slow.requests);
+		assertEquals(total, fast1.responses + fast2.responses + slow.responses);
+		// round robin would send a third of requests to the slow server
+		assertTrue(slow.requests < total / 10);
+		assertTrue(fast1.requests > total / 3 && fast2.requests > total / 3);
+	}
+
+	@Test
+	public void itShouldAvoidStalledServer() {
+		RpcClientConnectionPoolStub pool = new RpcClientConnectionPoolStub();
+		SimulatedServer fast1 = new SimulatedServer(1);
+		SimulatedServer fast2 = new SimulatedServer(1);
+		SimulatedServer stalled = new SimulatedServer(-1);
+		pool.put(ADDRESS_1, fast1);
+		pool.put(ADDRESS_2, fast2);
+		pool.put(ADDRESS_3, stalled);
+
+		simulate(powerOfTwoChoices(servers(ADDRESS_1, ADDRESS_2, ADDRESS_3)).createSender(pool));
+
+		int total = ROUNDS * REQUESTS_PER_ROUND;
+		assertEquals(total, fast1.requests + fast2.requests + stalled.requests);
+		assertEquals(0, stalled.responses);
+		assertTrue(stalled.requests < total / 20);
+	}
+
+	private static void simulate(RpcSender sender) {
+		await(simulate(sender, ROUNDS));
+	}
+
+	private static Promise<Void> simulate(RpcSender sender, int rounds) {
+		if (rounds == 0) {
+			// lets the remaining responses arrive
+			return Promises.delay(100L);
+		}
+		for (int i = 0; i < REQUESTS_PER_ROUND; i++) {
+			sender.sendRequest(new RpcMessageDataStub(), TIMEOUT, (result, e) -> assertNull(e));
+		}
+		return Promises.delay(1L)
+				.then($ -> simulate(sender, rounds - 1));
+	}
+
+	/**
+	 * Responds to each request after a fixed delay, or never if the delay is negative
+	 */
+	private static final class SimulatedServer implements RpcSender {
+		private final long latency;
+		private int requests;
+		private int responses;
+
+		SimulatedServer(long latency) {
+			this.latency = latency;
+		}
+
+		@Override
+		public <I, O> void sendRequest(I request, int timeout, @NotNull Callback<O> cb) {
+			requests++;
+			if (latency < 0) return;
+			Eventloop.getCurrentEventloop().delay(latency, () -> {
+				responses++;
+				cb.accept(null, null);
+			});
+		}
+	}
+}
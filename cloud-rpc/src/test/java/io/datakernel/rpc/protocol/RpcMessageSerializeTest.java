@@ -24,7 +24,10 @@ import io.datakernel.test.rules.ByteBufRule;
 import org.junit.ClassRule;
 import org.junit.Test;
 
+import java.util.List;
+
 import static java.lang.ClassLoader.getSystemClassLoader;
+import static java.util.Arrays.asList;
 import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertTrue;
 
@@ -77,4 +80,46 @@ public final class RpcMessageSerializeTest {
 		TestRpcMessageData messageData2 = (TestRpcMessageData) message2.getData();
 		assertEquals(messageData1.getS(), messageData2.getS());
 	}
+
+	@Test
+	public void testRpcBatch() {
+		RpcBatch batch = new RpcBatch(asList(new TestRpcMessageData("first"), null, new RpcRemoteException("error", null, "failed")));
+		BinarySerializer<RpcMessage> serializer = SerializerBuilder.create(getSystemClassLoader())
+				.withSubclasses(RpcMessage.MESSAGE_TYPES, TestRpcMessageData.class, TestRpcMessageData2.class)
+				.build(RpcMessage.class);
+
+		byte[] buf = new byte[1000];
+		serializer.encode(buf, 0, RpcMessage.of(1, batch));
+		RpcMessage message = serializer.decode(buf, 0);
+		assertTrue(message.getData() instanceof RpcBatch);
+		List<Object> items = ((RpcBatch) message.getData()).getItems();
+		assertEquals(3, items.size());
+		assertEquals("first", ((TestRpcMessageData) items.get(0)).getS());
+		assertEquals(null, items.get(1));
+		assertEquals("failed", ((RpcRemoteException) items.get(2)).getCauseMessage());
+	}
+
+	@Test
+	public void testMessageTypeIndices() {
+		BinarySerializer<RpcMessage> serializer = SerializerBuilder.create(getSystemClassLoader())
+				.withSubclasses(RpcMessage.MESSAGE_TYPES, TestRpcMessageData.class, TestRpcMessageData2.class)
+				.build(RpcMessage.class);
+
+		// indices of application messages must not change between versions, old and new peers should understand each other
+		assertEquals(0, encodeDataIndex(serializer, null));
+		assertEquals(-1, encodeDataIndex(serializer, RpcControlMessage.CLOSE));
+		assertEquals(1, encodeDataIndex(serializer, new RpcRemoteException("error", null, "failed")));
+		assertEquals(2, encodeDataIndex(serializer, new TestRpcMessageData("test")));
+		assertEquals(3, encodeDataIndex(serializer, new TestRpcMessageData2(1)));
+
+		assertEquals(-3, encodeDataIndex(serializer, new RpcStreamCredits(1)));
+		assertEquals(-2, encodeDataIndex(serializer, new RpcBatch(asList(new TestRpcMessageData("test")))));
+	}
+
+	private static byte encodeDataIndex(BinarySerializer<RpcMessage> serializer, Object data) {
+		byte[] buf = new byte[1000];
+		int cookieSize = serializer.encode(buf, 0, RpcMessage.of(1, null)) - 1;
+		serializer.encode(buf, 0, RpcMessage.of(1, data));
+		return buf[cookieSize];
+	}
 }
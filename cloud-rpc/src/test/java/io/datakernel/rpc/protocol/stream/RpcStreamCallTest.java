@@ -0,0 +1,252 @@
+/*
+ * Copyright (C) 2015-2019 SoftIndex LLC.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package io.datakernel.rpc.protocol.stream;
+
+import io.datakernel.common.ref.Ref;
+import io.datakernel.datastream.StreamConsumer;
+import io.datakernel.datastream.StreamSupplier;
+import io.datakernel.datastream.processor.StreamMapper;
+import io.datakernel.eventloop.Eventloop;
+import io.datakernel.promise.Promise;
+import io.datakernel.promise.Promises;
+import io.datakernel.rpc.client.RpcClient;
+import io.datakernel.rpc.protocol.RpcRemoteException;
+import io.datakernel.rpc.protocol.RpcStreamCall;
+import io.datakernel.rpc.protocol.RpcStreamCredits;
+import io.datakernel.rpc.server.RpcServer;
+import io.datakernel.test.rules.ByteBufRule;
+import io.datakernel.test.rules.EventloopRule;
+import org.junit.Before;
+import org.junit.ClassRule;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.function.Supplier;
+import java.util.stream.IntStream;
+
+import static io.datakernel.promise.TestUtils.await;
+import static io.datakernel.promise.TestUtils.awaitException;
+import static io.datakernel.rpc.client.sender.RpcStrategies.server;
+import static io.datakernel.rpc.protocol.RpcControlMessage.CANCEL_STREAM;
+import static io.datakernel.rpc.protocol.RpcControlMessage.END_OF_STREAM;
+import static io.datakernel.rpc.protocol.RpcStreamCall.WINDOW;
+import static io.datakernel.test.TestUtils.getFreePort;
+import static java.util.stream.Collectors.toList;
+import static org.junit.Assert.*;
+
+public final class RpcStreamCallTest {
+	@ClassRule
+	public static final EventloopRule eventloopRule = new EventloopRule();
+
+	@ClassRule
+	public static final ByteBufRule byteBufRule = new ByteBufRule();
+
+	private static final int ITEMS = 10 * WINDOW;
+
+	private RpcServer server;
+	private RpcClient client;
+
+	private int produced;
+	private Promise<Void> producerEndOfStream;
+
+	@Before
+	public void setUp() throws IOException {
+		int port = getFreePort();
+		server = RpcServer.create(Eventloop.getCurrentEventloop())
+				.withMessageTypes(String.class, Long.class, Integer.class)
+				// server streaming, the request is a number of items
+				.withStreamHandler(Integer.class, Integer.class, (Integer request, StreamSupplier<Integer> items) ->
+						StreamSupplier.ofStream(IntStream.range(0, request).boxed()))
+				// bidirectional streaming, the request is a factor of items
+				.withStreamHandler(Long.class, Long.class, (Long request, StreamSupplier<Long> items) ->
+						items.transformWith(StreamMapper.create(item -> item * request)))
+				.withStreamHandler(String.class, Integer.class, (String request, StreamSupplier<Integer> items) -> {
+					if (request.equals("error")) {
+						return StreamSupplier.closingWithError(new Exception(request));
+					}
+					StreamSupplier<Integer> supplier = StreamSupplier.ofIterator(new Iterator<Integer>() {
+						@Override
+						public boolean hasNext() {
+							return true;
+						}
+
+						@Override
+						public Integer next() {
+							return produced++;
+						}
+					});
+					producerEndOfStream = supplier.getEndOfStream();
+					return supplier;
+				})
+				.withListenPort(port);
+		server.listen();
+
+		client = RpcClient.create(Eventloop.getCurrentEventloop())
+				.withMessageTypes(String.class, Long.class, Integer.class)
+				.withStrategy(server(new InetSocketAddress("localhost", port)));
+	}
+
+	@Test
+	public void testServerStreaming() {
+		List<Integer> result = await(call(() -> client.<Integer, Integer>sendStreamRequest(ITEMS).toList()));
+
+		assertEquals(IntStream.range(0, ITEMS).boxed().collect(toList()), result);
+	}
+
+	@Test
+	public void testBidirectionalStreaming() {
+		List<Long> items = IntStream.range(0, ITEMS).mapToObj(i -> (long) i).collect(toList());
+		List<Long> result = await(call(() -> client.<Long, Long, Long>sendStreamRequest(3L, StreamSupplier.ofIterable(items)).toList()));
+
+		assertEquals(items.stream().map(item -> item * 3).collect(toList()), result);
+	}
+
+	@Test
+	public void testConcurrentStreams() {
+		List<List<Integer>> results = await(call(() -> Promises.toList(IntStream.range(0, 10)
+				.mapToObj(i -> client.<Integer, Integer>sendStreamRequest(i * 100).toList()))));
+
+		for (int i = 0; i < results.size(); i++) {
+			assertEquals(IntStream.range(0, i * 100).boxed().collect(toList()), results.get(i));
+		}
+	}
+
+	@Test
+	public void testFlowControlAndCancel() {
+		Exception cancelled = new Exception("Cancelled");
+		List<Integer> received = new ArrayList<>();
+		int[] producedBeforeConsuming = new int[1];
+
+		Throwable e = awaitException(call(() -> {
+			StreamSupplier<Integer> responses = client.sendStreamRequest("endless");
+			return whenProduced(WINDOW)
+					.then($ -> Promises.delay(100L))
+					.then($ -> {
+						producedBeforeConsuming[0] = produced;
+						return responses.streamTo(StreamConsumer.of(item -> {
+							received.add(item);
+							if (received.size() == 3 * WINDOW) {
+								responses.close(cancelled);
+							}
+						}));
+					});
+		}));
+
+		// no items are consumed at first, so the server sends no more than a window of items
+		assertTrue(producedBeforeConsuming[0] <= WINDOW + 1);
+
+		assertSame(cancelled, e);
+		assertEquals(IntStream.range(0, 3 * WINDOW).boxed().collect(toList()), received);
+
+		// the producer is closed once the server receives cancel
+		assertTrue(producerEndOfStream.isException());
+		assertTrue(produced <= 5 * WINDOW);
+	}
+
+	@Test
+	public void testHandlerError() {
+		Throwable e = awaitException(call(() -> client.sendStreamRequest("error").toList()));
+
+		assertTrue(e instanceof RpcRemoteException);
+	}
+
+	@Test
+	public void testSlowConnection() {
+		int maxQueueSize = 10;
+		ArrayDeque<Object> sendQueue = new ArrayDeque<>();
+		List<Object> sent = new ArrayList<>();
+		int[] maxSendQueueSize = new int[1];
+
+		// a connection which is suspended once it has buffered a few messages
+		Ref<RpcStreamCall<Integer, Integer>> streamCallRef = new Ref<>();
+		RpcStreamCall<Integer, Integer> streamCall = new RpcStreamCall<>(1, message -> {
+			sendQueue.add(message.getData());
+			maxSendQueueSize[0] = Math.max(maxSendQueueSize[0], sendQueue.size());
+			if (sendQueue.size() == maxQueueSize) {
+				streamCallRef.get().onSenderSuspended();
+			}
+		});
+		streamCallRef.set(streamCall);
+
+		List<Integer> items = IntStream.range(0, ITEMS).boxed().collect(toList());
+		await(call(() -> {
+			StreamSupplier.ofIterable(items).streamTo(streamCall.getSender());
+			return drain(streamCall, sendQueue, sent);
+		}));
+
+		// items are not sent while the connection is suspended, unlike the end of stream
+		assertTrue(maxSendQueueSize[0] <= maxQueueSize + 1);
+		assertEquals(ITEMS + 1, sent.size());
+		assertEquals(items, sent.subList(0, ITEMS));
+		assertSame(END_OF_STREAM, sent.get(ITEMS));
+	}
+
+	@Test
+	public void testCreditsExceeded() {
+		server.close();
+		List<Object> sent = new ArrayList<>();
+		RpcStreamCall<Integer, Integer> streamCall = new RpcStreamCall<>(1, message -> sent.add(message.getData()));
+
+		// the other side ignores the credits and sends more items than the receiver has granted
+		for (int i = 0; i <= WINDOW; i++) {
+			streamCall.accept(i);
+		}
+
+		Throwable e = awaitException(streamCall.getReceiver().toList());
+		assertSame(RpcStreamCall.CREDITS_EXCEEDED, e);
+		assertTrue(streamCall.getCompletion().isComplete());
+		assertTrue(sent.contains(CANCEL_STREAM));
+		assertTrue(sent.stream().anyMatch(data -> data instanceof RpcRemoteException));
+	}
+
+	// slowly sends the buffered messages, granting credits for them as if the other side has consumed them
+	private static Promise<Void> drain(RpcStreamCall<Integer, Integer> streamCall, ArrayDeque<Object> sendQueue, List<Object> sent) {
+		return Promises.delay(1L)
+				.then($ -> {
+					int credits = 0;
+					for (int i = 0; i < 3 && !sendQueue.isEmpty(); i++) {
+						Object data = sendQueue.poll();
+						sent.add(data);
+						if (data == END_OF_STREAM) return Promise.complete();
+						credits++;
+					}
+					streamCall.accept(new RpcStreamCredits(credits));
+					streamCall.onSenderReady();
+					return drain(streamCall, sendQueue, sent);
+				});
+	}
+
+	private Promise<Void> whenProduced(int count) {
+		return produced >= count ?
+				Promise.complete() :
+				Promises.delay(10L).then($ -> whenProduced(count));
+	}
+
+	private <T> Promise<T> call(Supplier<Promise<T>> test) {
+		return client.start()
+				.then($ -> test.get())
+				.whenComplete(() -> {
+					client.stop();
+					server.close();
+				});
+	}
+}
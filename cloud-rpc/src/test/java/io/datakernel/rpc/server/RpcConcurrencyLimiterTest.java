@@ -0,0 +1,216 @@
+/*
+ * Copyright (C) 2015-2019 SoftIndex LLC.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package io.datakernel.rpc.server;
+
+import io.datakernel.eventloop.Eventloop;
+import io.datakernel.promise.Promise;
+import io.datakernel.promise.Promises;
+import io.datakernel.rpc.client.RpcClient;
+import io.datakernel.rpc.protocol.RpcBatch;
+import io.datakernel.rpc.protocol.RpcMandatoryData;
+import io.datakernel.test.rules.ByteBufRule;
+import io.datakernel.test.rules.EventloopRule;
+import org.junit.ClassRule;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static io.datakernel.promise.TestUtils.await;
+import static io.datakernel.rpc.client.IRpcClient.RPC_SERVER_OVERLOAD_EXCEPTION;
+import static io.datakernel.rpc.client.sender.RpcStrategies.server;
+import static io.datakernel.test.TestUtils.getFreePort;
+import static java.util.Arrays.asList;
+import static org.junit.Assert.*;
+
+public final class RpcConcurrencyLimiterTest {
+	@ClassRule
+	public static final EventloopRule eventloopRule = new EventloopRule();
+
+	@ClassRule
+	public static final ByteBufRule byteBufRule = new ByteBufRule();
+
+	private static final long MILLISECOND = 1_000_000;
+
+	@Test
+	public void testRejectsOverLimit() {
+		RpcConcurrencyLimiter limiter = RpcConcurrencyLimiter.create()
+				.withInitialLimit(2);
+
+		assertTrue(limiter.tryAcquire("first"));
+		assertTrue(limiter.tryAcquire("second"));
+		assertFalse(limiter.tryAcquire("third"));
+		assertTrue(limiter.tryAcquire(new RpcMandatoryData() {}));
+		assertEquals(3, limiter.getInFlight());
+
+		limiter.release();
+		limiter.release();
+		assertTrue(limiter.tryAcquire("fourth"));
+
+		limiter.getRejectedRequests().refresh(System.currentTimeMillis());
+		assertEquals(1, limiter.getRejectedRequests().getTotalCount());
+	}
+
+	@Test
+	public void testBatchTakesPermitPerRequest() {
+		RpcConcurrencyLimiter limiter = RpcConcurrencyLimiter.create()
+				.withInitialLimit(4);
+
+		RpcBatch batch = new RpcBatch(asList("first", "second", "third"));
+		assertTrue(limiter.tryAcquire(batch));
+		assertEquals(3, limiter.getInFlight());
+		assertFalse(limiter.tryAcquire(batch));
+		assertTrue(limiter.tryAcquire("fourth"));
+
+		RpcBatch mandatoryBatch = new RpcBatch(asList(new RpcMandatoryData() {}, new RpcMandatoryData() {}));
+		assertTrue(limiter.tryAcquire(mandatoryBatch));
+		assertEquals(6, limiter.getInFlight());
+
+		limiter.release(RpcConcurrencyLimiter.permitsOf(mandatoryBatch));
+		limiter.release();
+		limiter.release(RpcConcurrencyLimiter.permitsOf(batch), MILLISECOND);
+		assertEquals(0, limiter.getInFlight());
+
+		// a batch which is larger than the limit is not rejected forever
+		assertTrue(limiter.tryAcquire(new RpcBatch(asList("1", "2", "3", "4", "5"))));
+	}
+
+	@Test
+	public void testLimitAdaptsToResponseTime() {
+		RpcConcurrencyLimiter limiter = RpcConcurrencyLimiter.create()
+				.withInitialLimit(100)
+				.withMinLimit(10)
+				.withMaxLimit(1000);
+
+		// response times are stable, so the limit grows up to the max one
+		simulate(limiter, MILLISECOND, 1000);
+		assertEquals(1000, limiter.getLimit());
+
+		// response times are ten times longer, so the limit goes down to the min one
+		simulate(limiter, 10 * MILLISECOND, 100);
+		assertEquals(10, limiter.getLimit());
+
+		// response times are back to normal, so the limit recovers
+		simulate(limiter, MILLISECOND, 2000);
+		assertEquals(1000, limiter.getLimit());
+	}
+
+	@Test
+	public void testLimitIsNotChangedIfNotReached() {
+		RpcConcurrencyLimiter limiter = RpcConcurrencyLimiter.create()
+				.withInitialLimit(100);
+
+		for (int i = 0; i < 1000; i++) {
+			assertTrue(limiter.tryAcquire("request"));
+			limiter.release(i % 2 == 0 ? MILLISECOND : 100 * MILLISECOND);
+		}
+		assertEquals(100, limiter.getLimit());
+	}
+
+	@Test
+	public void testSharedByEventloops() throws InterruptedException {
+		RpcConcurrencyLimiter limiter = RpcConcurrencyLimiter.create()
+				.withInitialLimit(10)
+				.withMinLimit(10)
+				.withMaxLimit(10);
+		AtomicInteger maxInFlight = new AtomicInteger();
+
+		List<Thread> threads = new ArrayList<>();
+		for (int i = 0; i < 2; i++) {
+			Eventloop eventloop = Eventloop.create();
+			eventloop.post(() -> {
+				for (int j = 0; j < 100_000; j++) {
+					int acquired = 0;
+					for (int k = 0; k < 8; k++) {
+						if (limiter.tryAcquire("request")) {
+							acquired++;
+							maxInFlight.accumulateAndGet(limiter.getInFlight(), Math::max);
+						}
+					}
+					for (int k = 0; k < acquired; k++) {
+						limiter.release(MILLISECOND);
+					}
+				}
+			});
+			Thread thread = new Thread(eventloop);
+			thread.start();
+			threads.add(thread);
+		}
+		for (Thread thread : threads) {
+			thread.join();
+		}
+
+		assertEquals(0, limiter.getInFlight());
+		assertTrue(maxInFlight.get() <= 10);
+	}
+
+	@Test
+	public void testServerRejectsExcessRequests() throws IOException {
+		int port = getFreePort();
+		RpcConcurrencyLimiter limiter = RpcConcurrencyLimiter.create()
+				.withInitialLimit(1)
+				.withMinLimit(1)
+				.withMaxLimit(1);
+		RpcServer server = RpcServer.create(Eventloop.getCurrentEventloop())
+				.withMessageTypes(String.class)
+				.withHandler(String.class, String.class, request -> Promises.delay(10L, "Hello, " + request))
+				.withConcurrencyLimiter(limiter)
+				.withListenPort(port);
+		server.listen();
+
+		RpcClient client = RpcClient.create(Eventloop.getCurrentEventloop())
+				.withMessageTypes(String.class)
+				.withStrategy(server(new InetSocketAddress("localhost", port)));
+
+		List<String> results = await(client.start()
+				.then($ -> Promises.toList(
+						client.<String, String>sendRequest("first"),
+						client.<String, String>sendRequest("second")
+								.thenEx((result, e) -> {
+									assertSame(RPC_SERVER_OVERLOAD_EXCEPTION, e);
+									return Promise.of("rejected");
+								})))
+				.then(list -> client.<String, String>sendRequest("third")
+						.map(result -> {
+							List<String> all = new ArrayList<>(list);
+							all.add(result);
+							return all;
+						}))
+				.whenComplete(() -> {
+					client.stop();
+					server.close();
+				}));
+
+		assertEquals(asList("Hello, first", "rejected", "Hello, third"), results);
+		limiter.getRejectedRequests().refresh(System.currentTimeMillis());
+		assertEquals(1, limiter.getRejectedRequests().getTotalCount());
+		assertEquals(0, limiter.getInFlight());
+	}
+
+	private static void simulate(RpcConcurrencyLimiter limiter, long responseTime, int requests) {
+		for (int i = 0; i < requests; i++) {
+			// the load is higher than the limit, so there are as many requests in flight as it allows
+			while (limiter.tryAcquire("request")) {
+			}
+			limiter.release(responseTime);
+		}
+	}
+}
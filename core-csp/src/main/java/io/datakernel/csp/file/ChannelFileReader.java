@@ -111,6 +111,18 @@ public final class ChannelFileReader extends AbstractChannelSupplier<ByteBuf> {
 		return position;
 	}
 
+	/**
+	 * Returns the number of bytes which are left to read,
+	 * or {@code Long.MAX_VALUE} if the file is read up to its end
+	 */
+	public long getLength() {
+		return limit;
+	}
+
+	public FileChannel getChannel() {
+		return channel;
+	}
+
 	@Override
 	protected Promise<ByteBuf> doGet() {
 		if (limit == 0) {
@@ -17,24 +17,37 @@
 package io.datakernel.datastream.processor;
 
 import io.datakernel.async.process.AsyncCollector;
+import io.datakernel.common.MemSize;
 import io.datakernel.datastream.*;
 import io.datakernel.promise.Promise;
+import io.datakernel.promise.Promises;
 import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
 
 import java.util.ArrayList;
 import java.util.Comparator;
 import java.util.Iterator;
 import java.util.List;
+import java.util.concurrent.Executor;
 import java.util.function.Function;
+import java.util.function.ToIntFunction;
+
+import static io.datakernel.common.Preconditions.checkArgument;
 
 /**
  * Represent {@link StreamTransformer} which receives data and saves it in collection, when it
  * receive end of stream it sorts it and streams to destination.
+ * <p>
+ * Input which does not fit into memory is split into sorted runs, which are written to the {@link StreamSorterStorage}
+ * and merged on end of stream. Runs may be sorted in parallel on an executor, see {@link #withParallelRuns},
+ * and merged in several passes of limited fan-in, see {@link #withMergeFanIn}.
  *
  * @param <K> type of keys
  * @param <T> type of objects
  */
 public final class StreamSorter<K, T> implements StreamTransformer<T, T> {
+	public static final int DEFAULT_MAX_ACTIVE_RUNS = 2;
+
 	private final AsyncCollector<? extends List<Integer>> temporaryStreamsCollector;
 	private final StreamSorterStorage<T> storage;
 	private final Function<T, K> keyFunction;
@@ -43,6 +56,14 @@ public final class StreamSorter<K, T> implements StreamTransformer<T, T> {
 	private final boolean distinct;
 	private final int itemsInMemory;
 
+	@Nullable
+	private Executor sortExecutor;
+	private int maxActiveRuns = DEFAULT_MAX_ACTIVE_RUNS;
+	private long memoryLimit = Long.MAX_VALUE;
+	@Nullable
+	private ToIntFunction<T> itemSizeEstimator;
+	private int mergeFanIn = Integer.MAX_VALUE;
+
 	private final Input input;
 	private final StreamSupplier<T> output;
 	private StreamConsumer<T> outputConsumer;
@@ -69,25 +90,23 @@ public final class StreamSorter<K, T> implements StreamTransformer<T, T> {
 						(this.temporaryStreamsCollector = AsyncCollector.create(new ArrayList<>()))
 								.run(input.getEndOfStream())
 								.get()
-								.map(streamIds -> {
-									input.list.sort(itemComparator);
-									Iterator<T> iterator = !distinct ?
-											input.list.iterator() :
-											new DistinctIterator<>(input.list, keyFunction, keyComparator);
-									StreamSupplier<T> listSupplier = StreamSupplier.ofIterator(iterator);
-									if (streamIds.isEmpty()) {
-										return listSupplier;
-									} else {
-										StreamMerger<K, T> streamMerger = StreamMerger.create(keyFunction, keyComparator, distinct);
-										listSupplier.streamTo(streamMerger.newInput());
-										streamIds.forEach(streamId ->
-												StreamSupplier.ofPromise(storage.read(streamId))
-														.streamTo(streamMerger.newInput()));
-										return streamMerger
-												.getOutput()
-												.withLateBinding();
-									}
-								})
+								.then(streamIds -> mergeRuns(streamIds, mergeFanIn - 1))
+								.then(streamIds -> sortRun(input.list)
+										.map(iterator -> {
+											StreamSupplier<T> listSupplier = StreamSupplier.ofIterator(iterator);
+											if (streamIds.isEmpty()) {
+												return listSupplier;
+											} else {
+												StreamMerger<K, T> streamMerger = StreamMerger.create(keyFunction, keyComparator, distinct);
+												listSupplier.streamTo(streamMerger.newInput());
+												streamIds.forEach(streamId ->
+														StreamSupplier.ofPromise(storage.read(streamId))
+																.streamTo(streamMerger.newInput()));
+												return streamMerger
+														.getOutput()
+														.withLateBinding();
+											}
+										}))
 				)) {
 					@Override
 					public void setConsumer(@NotNull StreamConsumer<T> consumer) {
@@ -143,10 +162,91 @@ public final class StreamSorter<K, T> implements StreamTransformer<T, T> {
 			int itemsInMemorySize) {
 		return new StreamSorter<>(storage, keyFunction, keyComparator, distinct, itemsInMemorySize);
 	}
+
+	/**
+	 * Sorts runs on the given executor, so that up to {@code maxActiveRuns} runs are sorted and written concurrently.
+	 * Key function and comparator should be thread-safe.
+	 */
+	public StreamSorter<K, T> withParallelRuns(@NotNull Executor sortExecutor, int maxActiveRuns) {
+		checkArgument(maxActiveRuns > 0, "Max active runs should be positive");
+		this.sortExecutor = sortExecutor;
+		this.maxActiveRuns = maxActiveRuns;
+		return this;
+	}
+
+	/**
+	 * Limits estimated size of items kept in memory for a single run.
+	 * Run is spilled to storage once either this limit or the number of items in memory is reached.
+	 */
+	public StreamSorter<K, T> withMemoryLimit(@NotNull MemSize memoryLimit, @NotNull ToIntFunction<T> itemSizeEstimator) {
+		this.memoryLimit = memoryLimit.toLong();
+		this.itemSizeEstimator = itemSizeEstimator;
+		return this;
+	}
+
+	/**
+	 * Limits the number of runs which are merged at once.
+	 * Larger number of runs is merged in several passes, through intermediate runs in storage.
+	 */
+	public StreamSorter<K, T> withMergeFanIn(int mergeFanIn) {
+		checkArgument(mergeFanIn >= 2, "Merge fan-in should be at least 2");
+		this.mergeFanIn = mergeFanIn;
+		return this;
+	}
 	// endregion
 
+	private Promise<Iterator<T>> sortRun(ArrayList<T> run) {
+		if (sortExecutor == null || run.size() < 2) {
+			run.sort(itemComparator);
+			return Promise.of(iterator(run));
+		}
+		return Promise.ofBlockingCallable(sortExecutor, () -> {
+			run.sort(itemComparator);
+			return iterator(run);
+		});
+	}
+
+	private Iterator<T> iterator(ArrayList<T> sortedList) {
+		return !distinct ?
+				sortedList.iterator() :
+				new DistinctIterator<>(sortedList, keyFunction, keyComparator);
+	}
+
+	private Promise<List<Integer>> mergeRuns(List<Integer> runs, int maxRuns) {
+		if (runs.size() <= maxRuns) {
+			return Promise.of(runs);
+		}
+		List<Integer> mergedRuns = new ArrayList<>();
+		List<List<Integer>> groups = new ArrayList<>();
+		for (int i = 0; i < runs.size(); i += mergeFanIn) {
+			groups.add(runs.subList(i, Math.min(i + mergeFanIn, runs.size())));
+		}
+		return Promises.sequence(groups.stream()
+				.map(group -> () -> (group.size() == 1 ?
+						Promise.of(group.get(0)) :
+						mergeToRun(group))
+						.whenResult(mergedRuns::add)
+						.toVoid()))
+				.then($ -> mergeRuns(mergedRuns, maxRuns));
+	}
+
+	private Promise<Integer> mergeToRun(List<Integer> runs) {
+		return storage.newPartitionId()
+				.then(partitionId -> storage.write(partitionId)
+						.then(consumer -> {
+							StreamMerger<K, T> streamMerger = StreamMerger.create(keyFunction, keyComparator, distinct);
+							runs.forEach(streamId ->
+									StreamSupplier.ofPromise(storage.read(streamId))
+											.streamTo(streamMerger.newInput()));
+							return streamMerger.getOutput().streamTo(consumer);
+						})
+						.then($ -> storage.cleanup(new ArrayList<>(runs)))
+						.map($ -> partitionId));
+	}
+
 	private final class Input extends AbstractStreamConsumer<T> implements StreamDataAcceptor<T> {
 		private ArrayList<T> list = new ArrayList<>();
+		private long listMemory;
 
 		@Override
 		protected void onStarted() {
@@ -156,29 +256,30 @@ public final class StreamSorter<K, T> implements StreamTransformer<T, T> {
 		@Override
 		public void accept(T item) {
 			list.add(item);
-			if (list.size() >= itemsInMemory) {
-				list.sort(itemComparator);
-				Iterator<T> iterator = !distinct ?
-						input.list.iterator() :
-						new DistinctIterator<>(input.list, keyFunction, keyComparator);
-				writeToTemporaryStorage(iterator)
+			if (itemSizeEstimator != null) {
+				listMemory += itemSizeEstimator.applyAsInt(item);
+			}
+			if (list.size() >= itemsInMemory || listMemory >= memoryLimit) {
+				writeToTemporaryStorage(sortRun(list))
 						.whenResult($ -> suspendOrResume());
 				suspendOrResume();
-				list = new ArrayList<>(itemsInMemory);
+				list = new ArrayList<>();
+				listMemory = 0;
 			}
 		}
 
-		private Promise<Integer> writeToTemporaryStorage(Iterator<T> sortedList) {
+		private Promise<Integer> writeToTemporaryStorage(Promise<Iterator<T>> sortedList) {
 			return temporaryStreamsCollector.addPromise(
-					storage.newPartitionId()
-							.then(partitionId -> storage.write(partitionId)
-									.then(consumer -> StreamSupplier.ofIterator(sortedList).streamTo(consumer)
-											.map($ -> partitionId))),
+					sortedList
+							.then(iterator -> storage.newPartitionId()
+									.then(partitionId -> storage.write(partitionId)
+											.then(consumer -> StreamSupplier.ofIterator(iterator).streamTo(consumer)
+													.map($ -> partitionId)))),
 					List::add);
 		}
 
 		private void suspendOrResume() {
-			if (temporaryStreamsCollector.getActivePromises() > 2) {
+			if (temporaryStreamsCollector.getActivePromises() > maxActiveRuns) {
 				getSupplier().suspend();
 			} else {
 				getSupplier().resume(this);
@@ -16,31 +16,49 @@
 
 package io.datakernel.datastream.processor;
 
+import io.datakernel.bytebuf.ByteBuf;
 import io.datakernel.common.MemSize;
+import io.datakernel.csp.ChannelSupplier;
 import io.datakernel.csp.file.ChannelFileReader;
 import io.datakernel.csp.file.ChannelFileWriter;
 import io.datakernel.csp.process.ChannelByteChunker;
 import io.datakernel.csp.process.ChannelLZ4Compressor;
 import io.datakernel.csp.process.ChannelLZ4Decompressor;
+import io.datakernel.datastream.AbstractStreamSupplier;
 import io.datakernel.datastream.StreamConsumer;
 import io.datakernel.datastream.StreamSupplier;
 import io.datakernel.datastream.csp.ChannelDeserializer;
 import io.datakernel.datastream.csp.ChannelSerializer;
+import io.datakernel.eventloop.jmx.EventStats;
+import io.datakernel.jmx.api.JmxAttribute;
 import io.datakernel.promise.Promise;
 import io.datakernel.serializer.BinarySerializer;
+import org.jetbrains.annotations.Nullable;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import java.io.IOException;
 import java.io.UncheckedIOException;
+import java.lang.reflect.Field;
+import java.lang.reflect.Method;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
 import java.nio.file.Files;
 import java.nio.file.Path;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Iterator;
 import java.util.List;
 import java.util.concurrent.Executor;
 import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Consumer;
 
 import static io.datakernel.common.Preconditions.checkArgument;
 import static java.lang.String.format;
+import static java.util.Collections.emptyIterator;
+import static java.nio.channels.FileChannel.MapMode.READ_ONLY;
+import static java.nio.file.StandardOpenOption.READ;
 
 /**
  * This class uses for  splitting a single input stream into smaller partitions during merge sort,
@@ -54,9 +72,13 @@ public final class StreamSorterStorageImpl<T> implements StreamSorterStorage<T>
 
 	public static final String DEFAULT_FILE_PATTERN = "%d";
 	public static final MemSize DEFAULT_SORTER_BLOCK_SIZE = MemSize.kilobytes(256);
+	public static final Duration DEFAULT_SMOOTHING_WINDOW = Duration.ofMinutes(1);
 
 	private static final AtomicInteger PARTITION = new AtomicInteger();
 
+	@Nullable
+	private static final Consumer<ByteBuffer> UNMAPPER = createUnmapper();
+
 	private final Executor executor;
 	private final BinarySerializer<T> serializer;
 	private final Path path;
@@ -65,6 +87,42 @@ public final class StreamSorterStorageImpl<T> implements StreamSorterStorage<T>
 	private MemSize readBlockSize = ChannelSerializer.DEFAULT_INITIAL_BUFFER_SIZE;
 	private MemSize writeBlockSize = DEFAULT_SORTER_BLOCK_SIZE;
 	private int compressionLevel = 0;
+	private boolean compression = true;
+	private boolean memoryMappedReads = false;
+
+	// region JMX
+	private Stats stats = new Stats();
+	// endregion
+
+	/**
+	 * Throughput of a storage, which may be shared by storages of several sorts
+	 */
+	public static final class Stats {
+		private final EventStats bytesWritten = EventStats.create(DEFAULT_SMOOTHING_WINDOW);
+		private final EventStats bytesRead = EventStats.create(DEFAULT_SMOOTHING_WINDOW);
+		private final EventStats partitionsWritten = EventStats.create(DEFAULT_SMOOTHING_WINDOW);
+		private final EventStats partitionsRead = EventStats.create(DEFAULT_SMOOTHING_WINDOW);
+
+		@JmxAttribute
+		public EventStats getBytesWritten() {
+			return bytesWritten;
+		}
+
+		@JmxAttribute
+		public EventStats getBytesRead() {
+			return bytesRead;
+		}
+
+		@JmxAttribute
+		public EventStats getPartitionsWritten() {
+			return partitionsWritten;
+		}
+
+		@JmxAttribute
+		public EventStats getPartitionsRead() {
+			return partitionsRead;
+		}
+	}
 
 	// region creators
 	private StreamSorterStorageImpl(Executor executor, BinarySerializer<T> serializer,
@@ -113,6 +171,36 @@ public final class StreamSorterStorageImpl<T> implements StreamSorterStorage<T>
 		return this;
 	}
 
+	/**
+	 * Enables or disables LZ4 compression of partitions.
+	 * Uncompressed partitions take more disk space, but are cheaper to write and read on fast local disks.
+	 */
+	public StreamSorterStorageImpl<T> withCompression(boolean compression) {
+		this.compression = compression;
+		return this;
+	}
+
+	/**
+	 * Makes partitions to be read from memory-mapped files, deserializing items straight
+	 * from the mapped region instead of streaming file contents through byte buffers.
+	 * Items are deserialized by the executor in batches, so page faults do not block the eventloop,
+	 * and a file is unmapped once its partition is read.
+	 * Has effect only for uncompressed partitions, see {@link #withCompression(boolean)}.
+	 */
+	public StreamSorterStorageImpl<T> withMemoryMappedReads(boolean memoryMappedReads) {
+		this.memoryMappedReads = memoryMappedReads;
+		return this;
+	}
+
+	/**
+	 * Records stats of this storage to the given ones, e.g. to sum up stats of short-lived storages.
+	 * Stats are not thread-safe, so they should be shared only by storages of the same eventloop.
+	 */
+	public StreamSorterStorageImpl<T> withStats(Stats stats) {
+		this.stats = stats;
+		return this;
+	}
+
 	// endregion
 
 	private Path partitionPath(int i) {
@@ -127,14 +215,22 @@ public final class StreamSorterStorageImpl<T> implements StreamSorterStorage<T>
 	@Override
 	public Promise<StreamConsumer<T>> write(int partition) {
 		Path path = partitionPath(partition);
+		stats.partitionsWritten.recordEvent();
 		return Promise.of(StreamConsumer.<T>ofSupplier(
-				supplier -> supplier
-						.transformWith(ChannelSerializer.create(serializer)
-								.withInitialBufferSize(readBlockSize))
-						.transformWith(ChannelByteChunker.create(writeBlockSize.map(bytes -> bytes / 2), writeBlockSize))
-						.transformWith(ChannelLZ4Compressor.create(compressionLevel))
-						.transformWith(ChannelByteChunker.create(writeBlockSize.map(bytes -> bytes / 2), writeBlockSize))
-						.streamTo(ChannelFileWriter.open(executor, path)))
+				supplier -> {
+					ChannelSupplier<ByteBuf> chunks = supplier
+							.transformWith(ChannelSerializer.create(serializer)
+									.withInitialBufferSize(readBlockSize))
+							.transformWith(ChannelByteChunker.create(writeBlockSize.map(bytes -> bytes / 2), writeBlockSize));
+					if (compression) {
+						chunks = chunks
+								.transformWith(ChannelLZ4Compressor.create(compressionLevel))
+								.transformWith(ChannelByteChunker.create(writeBlockSize.map(bytes -> bytes / 2), writeBlockSize));
+					}
+					return chunks
+							.peek(buf -> stats.bytesWritten.recordEvents(buf.readRemaining()))
+							.streamTo(ChannelFileWriter.open(executor, path));
+				})
 				.withLateBinding());
 	}
 
@@ -147,12 +243,32 @@ public final class StreamSorterStorageImpl<T> implements StreamSorterStorage<T>
 	@Override
 	public Promise<StreamSupplier<T>> read(int partition) {
 		Path path = partitionPath(partition);
+		stats.partitionsRead.recordEvent();
+
+		if (memoryMappedReads && !compression) {
+			return Promise.ofBlockingCallable(executor,
+					() -> {
+						try (FileChannel channel = FileChannel.open(path, READ)) {
+							if (channel.size() > Integer.MAX_VALUE) {
+								throw new IOException("Partition is too large to be memory-mapped: " + path);
+							}
+							return channel.map(READ_ONLY, 0, channel.size());
+						}
+					})
+					.map(buffer -> new MappedPartitionSupplier(buffer).withLateBinding());
+		}
 
 		return ChannelFileReader.open(executor, path)
-				.map(file -> file
-						.transformWith(ChannelLZ4Decompressor.create())
-						.transformWith(ChannelDeserializer.create(serializer))
-						.withLateBinding());
+				.map(file -> {
+					ChannelSupplier<ByteBuf> chunks = file
+							.peek(buf -> stats.bytesRead.recordEvents(buf.readRemaining()));
+					if (compression) {
+						chunks = chunks.transformWith(ChannelLZ4Decompressor.create());
+					}
+					return chunks
+							.transformWith(ChannelDeserializer.create(serializer))
+							.withLateBinding();
+				});
 	}
 
 	/**
@@ -172,4 +288,173 @@ public final class StreamSorterStorageImpl<T> implements StreamSorterStorage<T>
 			return null;
 		});
 	}
+
+	/**
+	 * Supplies items of a memory-mapped partition, which are deserialized by the executor in batches of
+	 * about {@link #readBlockSize} bytes. Items are of the same format as {@link ChannelSerializer} writes,
+	 * each item is prefixed with its size as a varint of up to 3 bytes.
+	 */
+	private final class MappedPartitionSupplier extends AbstractStreamSupplier<T> {
+		private final MappedByteBuffer buffer;
+		private byte[] array = new byte[readBlockSize.toInt()];
+		private Iterator<T> batch = emptyIterator();
+		private boolean reading;
+		private boolean unmapped;
+
+		MappedPartitionSupplier(MappedByteBuffer buffer) {
+			this.buffer = buffer;
+		}
+
+		@Override
+		protected void produce(AsyncProduceController async) {
+			while (isReceiverReady() && batch.hasNext()) {
+				send(batch.next());
+			}
+			if (batch.hasNext() || reading) return;
+			if (!buffer.hasRemaining()) {
+				sendEndOfStream();
+				return;
+			}
+			reading = true;
+			int position = buffer.position();
+			Promise.ofBlockingCallable(executor, this::readBatch)
+					.whenComplete((items, e) -> {
+						reading = false;
+						if (isClosed()) {
+							// the buffer is not unmapped while it is being read
+							unmap();
+							return;
+						}
+						if (e != null) {
+							close(e);
+							return;
+						}
+						stats.bytesRead.recordEvents(buffer.position() - position);
+						batch = items.iterator();
+						postProduce();
+					});
+		}
+
+		private List<T> readBatch() throws IOException {
+			List<T> items = new ArrayList<>();
+			int limit = buffer.position() + readBlockSize.toInt();
+			try {
+				while (buffer.hasRemaining() && buffer.position() < limit) {
+					int position = buffer.position();
+					int size = readSize();
+					if (size > buffer.remaining()) {
+						throw new IOException("Truncated serialized data in partition, position: " + position);
+					}
+					if (array.length < size) {
+						array = new byte[Math.max(size, array.length * 2)];
+					}
+					buffer.get(array, 0, size);
+					items.add(serializer.decode(array, 0));
+				}
+			} catch (RuntimeException e) {
+				throw new IOException("Could not deserialize partition", e);
+			}
+			return items;
+		}
+
+		private int readSize() throws IOException {
+			byte b = buffer.get();
+			if (b >= 0) return b;
+			int size = b & 0x7f;
+			b = buffer.get();
+			if (b >= 0) return size + (b << 7);
+			size += (b & 0x7f) << 7;
+			b = buffer.get();
+			if (b >= 0) return size + (b << 14);
+			throw new IOException("Invalid header size");
+		}
+
+		@Override
+		protected void onError(Throwable e) {
+		}
+
+		@Override
+		protected void cleanup() {
+			if (!reading) {
+				unmap();
+			}
+		}
+
+		private void unmap() {
+			if (unmapped) return;
+			unmapped = true;
+			if (UNMAPPER != null) {
+				UNMAPPER.accept(buffer);
+			}
+		}
+	}
+
+	/**
+	 * Returns a function which frees a mapped buffer without waiting for it to be garbage collected,
+	 * it is {@code sun.misc.Unsafe.invokeCleaner} since JDK 9 or a cleaner of the buffer in JDK 8
+	 */
+	@Nullable
+	private static Consumer<ByteBuffer> createUnmapper() {
+		try {
+			Class<?> unsafeClass = Class.forName("sun.misc.Unsafe");
+			Method invokeCleaner = unsafeClass.getMethod("invokeCleaner", ByteBuffer.class);
+			Field theUnsafe = unsafeClass.getDeclaredField("theUnsafe");
+			theUnsafe.setAccessible(true);
+			Object unsafe = theUnsafe.get(null);
+			return buffer -> invokeUnmapper(() -> invokeCleaner.invoke(unsafe, buffer));
+		} catch (ReflectiveOperationException | RuntimeException ignored) {
+		}
+		try {
+			Method cleaner = Class.forName("sun.nio.ch.DirectBuffer").getMethod("cleaner");
+			Method clean = Class.forName("sun.misc.Cleaner").getMethod("clean");
+			return buffer -> invokeUnmapper(() -> clean.invoke(cleaner.invoke(buffer)));
+		} catch (ReflectiveOperationException | RuntimeException e) {
+			logger.warn("Memory-mapped partitions can not be unmapped explicitly: {}", e.toString());
+			return null;
+		}
+	}
+
+	private interface ReflectiveCall {
+		void call() throws ReflectiveOperationException;
+	}
+
+	private static void invokeUnmapper(ReflectiveCall call) {
+		try {
+			call.call();
+		} catch (ReflectiveOperationException | RuntimeException e) {
+			logger.warn("Could not unmap partition: {}", e.toString());
+		}
+	}
+
+	// region JMX
+	@JmxAttribute
+	public EventStats getBytesWritten() {
+		return stats.bytesWritten;
+	}
+
+	@JmxAttribute
+	public EventStats getBytesRead() {
+		return stats.bytesRead;
+	}
+
+	@JmxAttribute
+	public EventStats getPartitionsWritten() {
+		return stats.partitionsWritten;
+	}
+
+	@JmxAttribute
+	public EventStats getPartitionsRead() {
+		return stats.partitionsRead;
+	}
+
+	@JmxAttribute
+	public boolean isCompression() {
+		return compression;
+	}
+
+	@JmxAttribute
+	public boolean isMemoryMappedReads() {
+		return memoryMappedReads;
+	}
+	// endregion
 }
@@ -29,13 +29,14 @@ import org.junit.Rule;
 import org.junit.Test;
 import org.junit.rules.TemporaryFolder;
 
+import java.io.File;
 import java.io.IOException;
-import java.util.ArrayList;
-import java.util.Arrays;
-import java.util.List;
+import java.util.*;
 import java.util.concurrent.Executor;
 import java.util.concurrent.Executors;
 import java.util.function.Function;
+import java.util.stream.Collectors;
+import java.util.stream.IntStream;
 
 import static io.datakernel.datastream.TestStreamConsumers.*;
 import static io.datakernel.datastream.TestUtils.assertEndOfStream;
@@ -43,8 +44,7 @@ import static io.datakernel.promise.TestUtils.await;
 import static io.datakernel.promise.TestUtils.awaitException;
 import static io.datakernel.serializer.BinarySerializers.INT_SERIALIZER;
 import static java.util.Arrays.asList;
-import static org.junit.Assert.assertEquals;
-import static org.junit.Assert.assertSame;
+import static org.junit.Assert.*;
 
 public final class StreamSorterTest {
 	@Rule
@@ -154,4 +154,72 @@ public final class StreamSorterTest {
 		assertSame(exception, e);
 		assertEquals(0, consumerToList.getList().size());
 	}
+
+	@Test
+	public void testParallelRunsWithMultiLevelMerge() throws Exception {
+		Random random = new Random(1);
+		List<Integer> items = IntStream.range(0, 1000).map($ -> random.nextInt(500)).boxed().collect(Collectors.toList());
+
+		Executor executor = Executors.newFixedThreadPool(4);
+		File sortDir = tempFolder.newFolder();
+		StreamSorterStorage<Integer> storage = StreamSorterStorageImpl.create(executor, INT_SERIALIZER, sortDir.toPath());
+		StreamSorter<Integer, Integer> sorter = StreamSorter.create(storage, Function.identity(), Integer::compareTo, false, 10)
+				.withParallelRuns(executor, 4)
+				.withMergeFanIn(3);
+
+		List<Integer> result = await(StreamSupplier.ofIterable(items)
+				.transformWith(sorter)
+				.toList());
+
+		List<Integer> expected = new ArrayList<>(items);
+		Collections.sort(expected);
+		assertEquals(expected, result);
+		// intermediate runs are removed after being merged, leaving runs of the final merge pass only
+		assertTrue(sortDir.list().length <= 2);
+	}
+
+	@Test
+	public void testMemoryLimit() throws Exception {
+		Executor executor = Executors.newSingleThreadExecutor();
+		File sortDir = tempFolder.newFolder();
+		StreamSorterStorage<Integer> storage = StreamSorterStorageImpl.create(executor, INT_SERIALIZER, sortDir.toPath());
+		StreamSorter<Integer, Integer> sorter = StreamSorter.create(storage, Function.identity(), Integer::compareTo, true, Integer.MAX_VALUE)
+				.withMemoryLimit(MemSize.of(40), $ -> 4);
+
+		List<Integer> result = await(StreamSupplier.ofStream(IntStream.range(0, 100).map(i -> 99 - i / 2).boxed())
+				.transformWith(sorter)
+				.toList());
+
+		assertEquals(IntStream.range(50, 100).boxed().collect(Collectors.toList()), result);
+		assertEquals(10, sortDir.list().length);
+	}
+
+	@Test
+	public void testMemoryMappedReadsWithoutCompression() throws Exception {
+		Random random = new Random(1);
+		List<Integer> items = IntStream.range(0, 10_000).map($ -> random.nextInt()).boxed().collect(Collectors.toList());
+
+		Executor executor = Executors.newSingleThreadExecutor();
+		StreamSorterStorageImpl<Integer> storage = StreamSorterStorageImpl.create(executor, INT_SERIALIZER, tempFolder.newFolder().toPath())
+				.withCompression(false)
+				.withMemoryMappedReads(true);
+		StreamSorter<Integer, Integer> sorter = StreamSorter.create(storage, Function.identity(), Integer::compareTo, false, 1000);
+
+		List<Integer> result = await(StreamSupplier.ofIterable(items)
+				.transformWith(sorter)
+				.toList());
+
+		List<Integer> expected = new ArrayList<>(items);
+		Collections.sort(expected);
+		assertEquals(expected, result);
+		long timestamp = System.currentTimeMillis();
+		storage.getPartitionsWritten().refresh(timestamp);
+		storage.getPartitionsRead().refresh(timestamp);
+		storage.getBytesWritten().refresh(timestamp);
+		storage.getBytesRead().refresh(timestamp);
+		assertEquals(10, storage.getPartitionsWritten().getTotalCount());
+		assertEquals(10, storage.getPartitionsRead().getTotalCount());
+		assertTrue(storage.getBytesWritten().getTotalCount() >= 9000 * 5);
+		assertEquals(storage.getBytesWritten().getTotalCount(), storage.getBytesRead().getTotalCount());
+	}
 }
@@ -28,6 +28,7 @@ import io.datakernel.common.time.CurrentTimeProviderSystem;
 import io.datakernel.eventloop.jmx.EventloopJmxMBeanEx;
 import io.datakernel.eventloop.net.DatagramSocketSettings;
 import io.datakernel.eventloop.net.ServerSocketSettings;
+import io.datakernel.eventloop.util.MpscQueue;
 import io.datakernel.eventloop.util.OptimizedSelectedKeysSet;
 import io.datakernel.jmx.api.JmxAttribute;
 import io.datakernel.jmx.api.JmxOperation;
@@ -48,8 +49,9 @@ import java.util.Iterator;
 import java.util.PriorityQueue;
 import java.util.Set;
 import java.util.concurrent.CompletableFuture;
-import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicBoolean;
 import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
 import java.util.function.Supplier;
 
 import static io.datakernel.common.Preconditions.checkArgument;
@@ -99,7 +101,17 @@ public final class Eventloop implements Runnable, EventloopExecutor, Scheduler,
 	/**
 	 * Collection of concurrent tasks which were added from other threads.
 	 */
-	private final ConcurrentLinkedQueue<Runnable> concurrentTasks = new ConcurrentLinkedQueue<>();
+	private final MpscQueue<Runnable> concurrentTasks = new MpscQueue<>();
+
+	/**
+	 * Is set while eventloop is not blocked in selector,
+	 * or a wakeup of the selector is pending, so that other
+	 * threads may skip waking up the selector.
+	 */
+	private final AtomicBoolean awake = new AtomicBoolean(true);
+
+	private final LongAdder wakeups = new LongAdder();
+	private final LongAdder suppressedWakeups = new LongAdder();
 
 	/**
 	 * Collection of scheduled tasks that are scheduled
@@ -113,6 +125,15 @@ public final class Eventloop implements Runnable, EventloopExecutor, Scheduler,
 	 */
 	private final PriorityQueue<ScheduledRunnable> backgroundTasks = new PriorityQueue<>();
 
+	/**
+	 * Timer wheels of scheduled and background tasks, if enabled.
+	 * Tasks which are already due or too far in the future are kept in priority queues.
+	 */
+	@Nullable
+	private TimerWheel scheduledTasksWheel;
+	@Nullable
+	private TimerWheel backgroundTasksWheel;
+
 	/**
 	 * Amount of concurrent operations in other threads,
 	 * non-zero value prevents eventloop from termination.
@@ -217,6 +238,11 @@ public final class Eventloop implements Runnable, EventloopExecutor, Scheduler,
 		return this;
 	}
 
+	/**
+	 * Sets a provider of the selector of this eventloop, the default provider of the JDK is used otherwise.
+	 * On Linux, the default selector is based on epoll in level-triggered mode.
+	 * No native transport is provided, so edge-triggered mode is not available.
+	 */
 	@NotNull
 	public Eventloop withSelectorProvider(@Nullable SelectorProvider selectorProvider) {
 		this.selectorProvider = selectorProvider;
@@ -229,6 +255,19 @@ public final class Eventloop implements Runnable, EventloopExecutor, Scheduler,
 		return this;
 	}
 
+	/**
+	 * Enables timer wheels for scheduled and background tasks,
+	 * which have constant time of scheduling and cancellation,
+	 * as opposed to logarithmic time of priority queues.
+	 * It suits a large number of frequently rescheduled timeouts, such as socket timeouts.
+	 */
+	@NotNull
+	public Eventloop withTimerWheel(boolean timerWheel) {
+		this.scheduledTasksWheel = timerWheel ? new TimerWheel(timestamp) : null;
+		this.backgroundTasksWheel = timerWheel ? new TimerWheel(timestamp) : null;
+		return this;
+	}
+
 	@NotNull
 	public Eventloop withCurrentThread() {
 		CURRENT_EVENTLOOP.set(this);
@@ -256,6 +295,13 @@ public final class Eventloop implements Runnable, EventloopExecutor, Scheduler,
 		throw new IllegalStateException(NO_CURRENT_EVENTLOOP_ERROR);
 	}
 
+	/**
+	 * Unbinds an eventloop from the current thread, e.g. when a thread of a pool has finished running it
+	 */
+	public static void clearCurrentEventloop() {
+		CURRENT_EVENTLOOP.remove();
+	}
+
 	private void openSelector() {
 		if (selector == null) {
 			try {
@@ -335,6 +381,7 @@ public final class Eventloop implements Runnable, EventloopExecutor, Scheduler,
 			return false;
 		lastExternalTasksCount = externalTasksCount.get();
 		return !localTasks.isEmpty() || !scheduledTasks.isEmpty() || !concurrentTasks.isEmpty()
+				|| (scheduledTasksWheel != null && !scheduledTasksWheel.isEmpty())
 				|| lastExternalTasksCount > 0
 				|| keepAlive || (selector != null && selector.isOpen() && selector.keys().size() - cancelledKeys > 0);
 	}
@@ -364,6 +411,8 @@ public final class Eventloop implements Runnable, EventloopExecutor, Scheduler,
 		long timeAfterBusinessLogic = 0;
 		while (isAlive()) {
 			try {
+				// must be reset before checking for concurrent tasks in getSelectTimeout()
+				awake.set(false);
 				long selectTimeout = getSelectTimeout();
 				if (inspector != null) inspector.onUpdateSelectorSelectTimeout(selectTimeout);
 				if (selectTimeout <= 0) {
@@ -371,7 +420,11 @@ public final class Eventloop implements Runnable, EventloopExecutor, Scheduler,
 				} else {
 					lastSelectedKeys = selector.select(selectTimeout);
 				}
+				awake.lazySet(true);
 				cancelledKeys = 0;
+				if (inspector != null) {
+					inspector.onUpdateWakeups((int) wakeups.sumThenReset(), (int) suppressedWakeups.sumThenReset());
+				}
 			} catch (ClosedChannelException e) {
 				logger.error("Selector is closed, exiting...", e);
 				break;
@@ -416,9 +469,19 @@ public final class Eventloop implements Runnable, EventloopExecutor, Scheduler,
 	private long getSelectTimeout() {
 		if (!concurrentTasks.isEmpty() || !localTasks.isEmpty())
 			return 0L;
-		if (scheduledTasks.isEmpty() && backgroundTasks.isEmpty())
+		long timeout = scheduledTasks.isEmpty() && backgroundTasks.isEmpty() ?
+				idleInterval.toMillis() :
+				Math.min(getTimeBeforeExecution(scheduledTasks), getTimeBeforeExecution(backgroundTasks));
+		if (scheduledTasksWheel != null && backgroundTasksWheel != null) {
+			timeout = Math.min(timeout, Math.min(getTimeBeforeExecution(scheduledTasksWheel), getTimeBeforeExecution(backgroundTasksWheel)));
+		}
+		return timeout;
+	}
+
+	private long getTimeBeforeExecution(TimerWheel timerWheel) {
+		if (timerWheel.isEmpty())
 			return idleInterval.toMillis();
-		return Math.min(getTimeBeforeExecution(scheduledTasks), getTimeBeforeExecution(backgroundTasks));
+		return timerWheel.getNextTimestamp() - currentTimeMillis();
 	}
 
 	private long getTimeBeforeExecution(PriorityQueue<ScheduledRunnable> taskQueue) {
@@ -632,14 +695,14 @@ public final class Eventloop implements Runnable, EventloopExecutor, Scheduler,
 	 * Executes tasks scheduled for execution at particular timestamps
 	 */
 	private int executeScheduledTasks() {
-		return executeScheduledTasks(scheduledTasks);
+		return executeScheduledTasks(scheduledTasks, scheduledTasksWheel);
 	}
 
 	private int executeBackgroundTasks() {
-		return executeScheduledTasks(backgroundTasks);
+		return executeScheduledTasks(backgroundTasks, backgroundTasksWheel);
 	}
 
-	private int executeScheduledTasks(PriorityQueue<ScheduledRunnable> taskQueue) {
+	private int executeScheduledTasks(PriorityQueue<ScheduledRunnable> taskQueue, @Nullable TimerWheel timerWheel) {
 		long startTimestamp = timestamp;
 		boolean background = taskQueue == backgroundTasks;
 
@@ -648,16 +711,15 @@ public final class Eventloop implements Runnable, EventloopExecutor, Scheduler,
 
 		for (; ; ) {
 			ScheduledRunnable peeked = taskQueue.peek();
-			if (peeked == null)
-				break;
-			if (peeked.isCancelled()) {
+			if (peeked != null && peeked.isCancelled()) {
 				taskQueue.poll();
 				continue;
 			}
-			if (peeked.getTimestamp() > currentTimeMillis()) {
+			if (peeked != null && peeked.getTimestamp() <= currentTimeMillis()) {
+				taskQueue.poll();
+			} else if (timerWheel == null || (peeked = timerWheel.poll(currentTimeMillis())) == null) {
 				break;
 			}
-			taskQueue.poll();
 
 			Runnable runnable = peeked.getRunnable();
 			if (sw != null) {
@@ -959,8 +1021,12 @@ public final class Eventloop implements Runnable, EventloopExecutor, Scheduler,
 	@Override
 	public void execute(@NotNull @Async.Schedule Runnable runnable) {
 		concurrentTasks.offer(runnable);
-		if (selector != null) {
+		if (selector == null) return;
+		if (awake.compareAndSet(false, true)) {
 			selector.wakeup();
+			if (inspector != null) wakeups.increment();
+		} else {
+			if (inspector != null) suppressedWakeups.increment();
 		}
 	}
 
@@ -997,6 +1063,10 @@ public final class Eventloop implements Runnable, EventloopExecutor, Scheduler,
 	@NotNull
 	private ScheduledRunnable addScheduledTask(long timestamp, Runnable runnable, boolean background) {
 		ScheduledRunnable scheduledTask = ScheduledRunnable.create(timestamp, runnable);
+		TimerWheel timerWheel = background ? backgroundTasksWheel : scheduledTasksWheel;
+		if (timerWheel != null && timerWheel.add(scheduledTask, currentTimeMillis())) {
+			return scheduledTask;
+		}
 		PriorityQueue<ScheduledRunnable> taskQueue = background ? backgroundTasks : scheduledTasks;
 		taskQueue.offer(scheduledTask);
 		return scheduledTask;
@@ -1183,6 +1253,10 @@ public final class Eventloop implements Runnable, EventloopExecutor, Scheduler,
 		return idleInterval;
 	}
 
+	public boolean isTimerWheel() {
+		return scheduledTasksWheel != null;
+	}
+
 	@JmxAttribute
 	public void setIdleInterval(Duration idleInterval) {
 		this.idleInterval = idleInterval;
@@ -1214,8 +1288,15 @@ public final class Eventloop implements Runnable, EventloopExecutor, Scheduler,
 		if (!backgroundTasks.isEmpty()) {
 			sb.append(", backgroundTasks=").append(backgroundTasks.size());
 		}
-		if (!concurrentTasks.isEmpty()) {
-			sb.append(", concurrentTasks=").append(concurrentTasks.size());
+		if (scheduledTasksWheel != null && !scheduledTasksWheel.isEmpty()) {
+			sb.append(", scheduledTasksWheel=").append(scheduledTasksWheel.size());
+		}
+		if (backgroundTasksWheel != null && !backgroundTasksWheel.isEmpty()) {
+			sb.append(", backgroundTasksWheel=").append(backgroundTasksWheel.size());
+		}
+		int concurrentTasks = this.concurrentTasks.size();
+		if (concurrentTasks != 0) {
+			sb.append(", concurrentTasks=").append(concurrentTasks);
 		}
 		int externalTasks = externalTasksCount.get();
 		if (externalTasks != 0) {
@@ -24,6 +24,8 @@ public interface EventloopInspector extends BaseInspector<EventloopInspector> {
 
 	void onUpdateConcurrentTasksStats(int newConcurrentTasks, long loopTime);
 
+	void onUpdateWakeups(int wakeups, int suppressedWakeups);
+
 	void onUpdateScheduledTaskDuration(@NotNull Runnable runnable, @Nullable Stopwatch sw, boolean background);
 
 	void onUpdateScheduledTasksStats(int newScheduledTasks, long loopTime, boolean background);
@@ -47,6 +47,8 @@ public final class EventloopStats extends ForwardingInspector<EventloopInspector
 	private final EventStats idleLoops;
 	private final EventStats idleLoopsWaitingExternalTask;
 	private final EventStats selectOverdues;
+	private final EventStats wakeups;
+	private final EventStats suppressedWakeups;
 
 	private EventloopStats(@Nullable EventloopInspector next) {
 		super(next);
@@ -63,6 +65,8 @@ public final class EventloopStats extends ForwardingInspector<EventloopInspector
 		idleLoops = EventStats.create(DEFAULT_SMOOTHING_WINDOW);
 		idleLoopsWaitingExternalTask = EventStats.create(DEFAULT_SMOOTHING_WINDOW);
 		selectOverdues = EventStats.create(DEFAULT_SMOOTHING_WINDOW);
+		wakeups = EventStats.create(DEFAULT_SMOOTHING_WINDOW);
+		suppressedWakeups = EventStats.create(DEFAULT_SMOOTHING_WINDOW);
 	}
 
 	public static EventloopStats create() {
@@ -176,6 +180,15 @@ public final class EventloopStats extends ForwardingInspector<EventloopInspector
 		}
 	}
 
+	@Override
+	public void onUpdateWakeups(int wakeups, int suppressedWakeups) {
+		this.wakeups.recordEvents(wakeups);
+		this.suppressedWakeups.recordEvents(suppressedWakeups);
+		if (next != null) {
+			next.onUpdateWakeups(wakeups, suppressedWakeups);
+		}
+	}
+
 	@Override
 	public void onUpdateScheduledTaskDuration(@NotNull Runnable runnable, @Nullable Stopwatch sw, boolean background) {
 		if (background) {
@@ -283,6 +296,16 @@ public final class EventloopStats extends ForwardingInspector<EventloopInspector
 		return selectOverdues;
 	}
 
+	@JmxAttribute
+	public EventStats getWakeups() {
+		return wakeups;
+	}
+
+	@JmxAttribute
+	public EventStats getSuppressedWakeups() {
+		return suppressedWakeups;
+	}
+
 	// endregion
 
 	// region helper classes for stats grouping
@@ -17,6 +17,7 @@
 package io.datakernel.eventloop;
 
 import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
 
 public final class ScheduledRunnable implements Comparable<ScheduledRunnable> {
 	private final long timestamp;
@@ -24,6 +25,15 @@ public final class ScheduledRunnable implements Comparable<ScheduledRunnable> {
 	private boolean cancelled;
 	private boolean complete;
 
+	// links of timer wheel bucket, if this runnable is scheduled in a timer wheel
+	@Nullable
+	TimerWheel wheel;
+	int bucket;
+	@Nullable
+	ScheduledRunnable prev;
+	@Nullable
+	ScheduledRunnable next;
+
 	// region builders
 	private ScheduledRunnable(long timestamp, @NotNull Runnable runnable) {
 		this.timestamp = timestamp;
@@ -37,6 +47,9 @@ public final class ScheduledRunnable implements Comparable<ScheduledRunnable> {
 
 	@SuppressWarnings("AssignmentToNull") // runnable has been cancelled
 	public void cancel() {
+		if (wheel != null) {
+			wheel.remove(this);
+		}
 		cancelled = true;
 		runnable = null;
 	}
@@ -173,6 +173,10 @@ public final class ThrottlingController extends AbstractInspector<EventloopInspe
 		this.concurrentTasksSize = concurrentTasksSize;
 	}
 
+	@Override
+	public void onUpdateWakeups(int wakeups, int suppressedWakeups) {
+	}
+
 	@Override
 	public void onUpdateSelectedKeysStats(int lastSelectedKeys, int invalidKeys, int acceptKeys, int connectKeys, int readKeys, int writeKeys, long loopTime) {
 		this.lastSelectedKeys = lastSelectedKeys;
@@ -0,0 +1,192 @@
+/*
+ * Copyright (C) 2015-2019 SoftIndex LLC.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package io.datakernel.eventloop;
+
+import org.jetbrains.annotations.Nullable;
+
+/**
+ * Hierarchical timing wheel of {@link ScheduledRunnable}s with a resolution of one millisecond.
+ * <p>
+ * Each level consists of 64 slots, a slot of level {@code n} spans {@code 64^n} milliseconds.
+ * A task is placed into the level of the highest bit group in which its timestamp
+ * differs from the current tick, and is cascaded to lower levels once the current tick
+ * reaches its slot, so that scheduling and cancellation take constant time
+ * and cancelled tasks are unlinked immediately.
+ * <p>
+ * Tasks which are already due or are too far in the future are not accepted,
+ * and are expected to be kept in a priority queue by the caller.
+ */
+final class TimerWheel {
+	private static final int BITS = 6;
+	private static final int SLOTS = 1 << BITS;
+	private static final int MASK = SLOTS - 1;
+	private static final int LEVELS = 6;
+
+	private final ScheduledRunnable[] heads = new ScheduledRunnable[LEVELS * SLOTS];
+	private final ScheduledRunnable[] tails = new ScheduledRunnable[LEVELS * SLOTS];
+	private final int[] levelSizes = new int[LEVELS];
+	private int size;
+
+	/**
+	 * Next tick to be processed, all tasks with smaller timestamps have already been polled
+	 */
+	private long currentTick;
+
+	TimerWheel(long currentTick) {
+		this.currentTick = currentTick;
+	}
+
+	public int size() {
+		return size;
+	}
+
+	public boolean isEmpty() {
+		return size == 0;
+	}
+
+	/**
+	 * Adds task to this wheel, unless its timestamp is before the current tick
+	 * or beyond the horizon of the wheel.
+	 *
+	 * @return {@code true} if task has been added
+	 */
+	public boolean add(ScheduledRunnable task, long now) {
+		if (size == 0 && currentTick < now) {
+			currentTick = now;
+		}
+		long timestamp = task.getTimestamp();
+		if (timestamp < currentTick) return false;
+		long diff = timestamp ^ currentTick;
+		if (diff >>> (BITS * LEVELS) != 0) return false;
+		link(task, timestamp, diff);
+		return true;
+	}
+
+	/**
+	 * Removes and returns next task which is due at the given time, advancing the wheel.
+	 */
+	@Nullable
+	public ScheduledRunnable poll(long now) {
+		while (size != 0 && currentTick <= now) {
+			ScheduledRunnable head = heads[(int) (currentTick & MASK)];
+			if (head != null) {
+				unlink(head);
+				return head;
+			}
+			long nextTick = nextTick(currentTick + 1);
+			setTick(nextTick <= now ? nextTick : now + 1);
+		}
+		if (currentTick <= now) {
+			currentTick = now + 1;
+		}
+		return null;
+	}
+
+	/**
+	 * Returns the earliest time at which a task may be due, possibly the time of cascading
+	 * of a higher level slot, or {@link Long#MAX_VALUE} if the wheel is empty.
+	 */
+	public long getNextTimestamp() {
+		return size != 0 ? nextTick(currentTick) : Long.MAX_VALUE;
+	}
+
+	void remove(ScheduledRunnable task) {
+		unlink(task);
+	}
+
+	private long nextTick(long from) {
+		if (levelSizes[0] != 0) {
+			long tick = from;
+			do {
+				if (heads[(int) (tick & MASK)] != null) return tick;
+				tick++;
+			} while ((tick & MASK) != 0);
+			return tick;
+		}
+		long result = Long.MAX_VALUE;
+		for (int level = 1; level < LEVELS; level++) {
+			if (levelSizes[level] == 0) continue;
+			int shift = BITS * level;
+			long tick = ((from + (1L << shift) - 1) >>> shift) << shift;
+			for (int i = 0; i < SLOTS && tick < result; i++, tick += 1L << shift) {
+				if (heads[level * SLOTS + (int) ((tick >>> shift) & MASK)] != null) {
+					result = tick;
+					break;
+				}
+			}
+		}
+		return result;
+	}
+
+	private void setTick(long tick) {
+		currentTick = tick;
+		for (int level = 1; level < LEVELS; level++) {
+			int shift = BITS * level;
+			if ((tick & ((1L << shift) - 1)) != 0) break;
+			int bucket = level * SLOTS + (int) ((tick >>> shift) & MASK);
+			ScheduledRunnable task = heads[bucket];
+			while (task != null) {
+				ScheduledRunnable next = task.next;
+				unlink(task);
+				link(task, task.getTimestamp(), task.getTimestamp() ^ currentTick);
+				task = next;
+			}
+		}
+	}
+
+	private void link(ScheduledRunnable task, long timestamp, long diff) {
+		int level = diff < SLOTS ? 0 : (63 - Long.numberOfLeadingZeros(diff)) / BITS;
+		int bucket = level * SLOTS + (int) ((timestamp >>> (BITS * level)) & MASK);
+		ScheduledRunnable tail = tails[bucket];
+		task.wheel = this;
+		task.bucket = bucket;
+		task.prev = tail;
+		task.next = null;
+		if (tail == null) {
+			heads[bucket] = task;
+		} else {
+			tail.next = task;
+		}
+		tails[bucket] = task;
+		levelSizes[level]++;
+		size++;
+	}
+
+	private void unlink(ScheduledRunnable task) {
+		int bucket = task.bucket;
+		if (task.prev == null) {
+			heads[bucket] = task.next;
+		} else {
+			task.prev.next = task.next;
+		}
+		if (task.next == null) {
+			tails[bucket] = task.prev;
+		} else {
+			task.next.prev = task.prev;
+		}
+		task.wheel = null;
+		task.prev = null;
+		task.next = null;
+		levelSizes[bucket / SLOTS]--;
+		size--;
+	}
+
+	@Override
+	public String toString() {
+		return "TimerWheel{size=" + size + ", currentTick=" + currentTick + '}';
+	}
+}
@@ -0,0 +1,78 @@
+/*
+ * Copyright (C) 2015-2019 SoftIndex LLC.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package io.datakernel.eventloop.net;
+
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.net.SocketOption;
+import java.nio.channels.NetworkChannel;
+
+/**
+ * Socket options which are not available in all supported JDKs or on all platforms,
+ * they are looked up reflectively:
+ * <ul>
+ * <li>{@code SO_REUSEPORT} - {@code java.net.StandardSocketOptions.SO_REUSEPORT}, since JDK 9</li>
+ * </ul>
+ * An option which is not supported is not set, with a warning.
+ * <p>
+ * {@code TCP_CORK} is not supported, as no JDK exposes it. Instead, {@code AsyncTcpSocketImpl} may coalesce
+ * writes of an eventloop tick into a single gathering write, which is {@code writev} on Linux,
+ * see {@link SocketSettings#withImplWriteCoalescing}. {@code TCP_QUICKACK} is not supported either,
+ * as Linux resets it after the next ACK, so it would have to be set again after every read.
+ */
+public final class PlatformSocketOptions {
+	private static final Logger logger = LoggerFactory.getLogger(PlatformSocketOptions.class);
+
+	@Nullable
+	private static final SocketOption<Boolean> SO_REUSEPORT = lookup("java.net.StandardSocketOptions", "SO_REUSEPORT");
+
+	private PlatformSocketOptions() {
+	}
+
+	public static boolean isReusePortSupported() {
+		return SO_REUSEPORT != null;
+	}
+
+	static void setReusePort(@NotNull NetworkChannel channel, boolean reusePort) throws IOException {
+		setOption(channel, SO_REUSEPORT, "SO_REUSEPORT", reusePort);
+	}
+
+	private static void setOption(NetworkChannel channel, @Nullable SocketOption<Boolean> option, String name, boolean value) throws IOException {
+		if (option == null || !channel.supportedOptions().contains(option)) {
+			// an option which is not supported is disabled anyway
+			if (value) {
+				logger.warn("Socket option {} is not supported on this platform, ignoring it", name);
+			}
+			return;
+		}
+		channel.setOption(option, value);
+	}
+
+	@SuppressWarnings("unchecked")
+	@Nullable
+	private static SocketOption<Boolean> lookup(String className, String fieldName) {
+		try {
+			return (SocketOption<Boolean>) Class.forName(className).getField(fieldName).get(null);
+		} catch (ClassNotFoundException | NoSuchFieldException | IllegalAccessException | SecurityException e) {
+			return null;
+		}
+	}
+}
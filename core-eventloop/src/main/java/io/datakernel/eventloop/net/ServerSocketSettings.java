@@ -39,28 +39,41 @@ public final class ServerSocketSettings {
 	private final int backlog;
 	private final int receiveBufferSize;
 	private final byte reuseAddress;
+	private final byte reusePort;
 
 	// region builders
-	private ServerSocketSettings(int backlog, int receiveBufferSize, byte reuseAddress) {
+	private ServerSocketSettings(int backlog, int receiveBufferSize, byte reuseAddress, byte reusePort) {
 		this.backlog = backlog;
 		this.receiveBufferSize = receiveBufferSize;
 		this.reuseAddress = reuseAddress;
+		this.reusePort = reusePort;
 	}
 
 	public static ServerSocketSettings create(int backlog) {
-		return new ServerSocketSettings(backlog, 0, DEF_BOOL);
+		return new ServerSocketSettings(backlog, 0, DEF_BOOL, DEF_BOOL);
 	}
 
 	public ServerSocketSettings withBacklog(int backlog) {
-		return new ServerSocketSettings(backlog, receiveBufferSize, reuseAddress);
+		return new ServerSocketSettings(backlog, receiveBufferSize, reuseAddress, reusePort);
 	}
 
 	public ServerSocketSettings withReceiveBufferSize(@NotNull MemSize receiveBufferSize) {
-		return new ServerSocketSettings(backlog, receiveBufferSize.toInt(), reuseAddress);
+		return new ServerSocketSettings(backlog, receiveBufferSize.toInt(), reuseAddress, reusePort);
 	}
 
 	public ServerSocketSettings withReuseAddress(boolean reuseAddress) {
-		return new ServerSocketSettings(backlog, receiveBufferSize, reuseAddress ? TRUE : FALSE);
+		return new ServerSocketSettings(backlog, receiveBufferSize, reuseAddress ? TRUE : FALSE, reusePort);
+	}
+
+	/**
+	 * Sets SO_REUSEPORT option, which allows several server sockets to be bound to the same address,
+	 * with incoming connections being distributed between them by the kernel.
+	 * Requires JDK 9+ and a platform which supports it, otherwise the option is ignored with a warning.
+	 *
+	 * @see PlatformSocketOptions#isReusePortSupported()
+	 */
+	public ServerSocketSettings withReusePort(boolean reusePort) {
+		return new ServerSocketSettings(backlog, receiveBufferSize, reuseAddress, reusePort ? TRUE : FALSE);
 	}
 	// endregion
 
@@ -71,6 +84,9 @@ public final class ServerSocketSettings {
 		if (reuseAddress != DEF_BOOL) {
 			channel.setOption(SO_REUSEADDR, reuseAddress != FALSE);
 		}
+		if (reusePort != DEF_BOOL) {
+			PlatformSocketOptions.setReusePort(channel, reusePort != FALSE);
+		}
 	}
 
 	public int getBacklog() {
@@ -99,4 +115,13 @@ public final class ServerSocketSettings {
 		checkState(hasReuseAddress(), "No 'reuse address' setting is present");
 		return reuseAddress != FALSE;
 	}
+
+	public boolean hasReusePort() {
+		return reusePort != DEF_BOOL;
+	}
+
+	public boolean getReusePort() {
+		checkState(hasReusePort(), "No 'reuse port' setting is present");
+		return reusePort != FALSE;
+	}
 }
@@ -43,9 +43,10 @@ public final class SocketSettings {
 	private final int implReadTimeout;
 	private final int implWriteTimeout;
 	private final int implReadBufferSize;
+	private final byte implWriteCoalescing;
 
 	// region builders
-	private SocketSettings(int sendBufferSize, int receiveBufferSize, byte keepAlive, byte reuseAddress, byte tcpNoDelay, int implReadTimeout, int implWriteTimeout, int implReadBufferSize) {
+	private SocketSettings(int sendBufferSize, int receiveBufferSize, byte keepAlive, byte reuseAddress, byte tcpNoDelay, int implReadTimeout, int implWriteTimeout, int implReadBufferSize, byte implWriteCoalescing) {
 		this.sendBufferSize = sendBufferSize;
 		this.receiveBufferSize = receiveBufferSize;
 		this.keepAlive = keepAlive;
@@ -54,42 +55,51 @@ public final class SocketSettings {
 		this.implReadTimeout = implReadTimeout;
 		this.implWriteTimeout = implWriteTimeout;
 		this.implReadBufferSize = implReadBufferSize;
+		this.implWriteCoalescing = implWriteCoalescing;
 	}
 
 	public static SocketSettings create() {
-		return new SocketSettings(0, 0, DEF_BOOL, DEF_BOOL, DEF_BOOL, 0, 0, 0);
+		return new SocketSettings(0, 0, DEF_BOOL, DEF_BOOL, DEF_BOOL, 0, 0, 0, DEF_BOOL);
 	}
 
 	public SocketSettings withSendBufferSize(@NotNull MemSize sendBufferSize) {
-		return new SocketSettings(sendBufferSize.toInt(), receiveBufferSize, keepAlive, reuseAddress, tcpNoDelay, implReadTimeout, implWriteTimeout, implReadBufferSize);
+		return new SocketSettings(sendBufferSize.toInt(), receiveBufferSize, keepAlive, reuseAddress, tcpNoDelay, implReadTimeout, implWriteTimeout, implReadBufferSize, implWriteCoalescing);
 	}
 
 	public SocketSettings withReceiveBufferSize(@NotNull MemSize receiveBufferSize) {
-		return new SocketSettings(sendBufferSize, receiveBufferSize.toInt(), keepAlive, reuseAddress, tcpNoDelay, implReadTimeout, implWriteTimeout, implReadBufferSize);
+		return new SocketSettings(sendBufferSize, receiveBufferSize.toInt(), keepAlive, reuseAddress, tcpNoDelay, implReadTimeout, implWriteTimeout, implReadBufferSize, implWriteCoalescing);
 	}
 
 	public SocketSettings withKeepAlive(boolean keepAlive) {
-		return new SocketSettings(sendBufferSize, receiveBufferSize, keepAlive ? TRUE : FALSE, reuseAddress, tcpNoDelay, implReadTimeout, implWriteTimeout, implReadBufferSize);
+		return new SocketSettings(sendBufferSize, receiveBufferSize, keepAlive ? TRUE : FALSE, reuseAddress, tcpNoDelay, implReadTimeout, implWriteTimeout, implReadBufferSize, implWriteCoalescing);
 	}
 
 	public SocketSettings withReuseAddress(boolean reuseAddress) {
-		return new SocketSettings(sendBufferSize, receiveBufferSize, keepAlive, reuseAddress ? TRUE : FALSE, tcpNoDelay, implReadTimeout, implWriteTimeout, implReadBufferSize);
+		return new SocketSettings(sendBufferSize, receiveBufferSize, keepAlive, reuseAddress ? TRUE : FALSE, tcpNoDelay, implReadTimeout, implWriteTimeout, implReadBufferSize, implWriteCoalescing);
 	}
 
 	public SocketSettings withTcpNoDelay(boolean tcpNoDelay) {
-		return new SocketSettings(sendBufferSize, receiveBufferSize, keepAlive, reuseAddress, tcpNoDelay ? TRUE : FALSE, implReadTimeout, implWriteTimeout, implReadBufferSize);
+		return new SocketSettings(sendBufferSize, receiveBufferSize, keepAlive, reuseAddress, tcpNoDelay ? TRUE : FALSE, implReadTimeout, implWriteTimeout, implReadBufferSize, implWriteCoalescing);
 	}
 
 	public SocketSettings withImplReadTimeout(@NotNull Duration implReadTimeout) {
-		return new SocketSettings(sendBufferSize, receiveBufferSize, keepAlive, reuseAddress, tcpNoDelay, (int) implReadTimeout.toMillis(), implWriteTimeout, implReadBufferSize);
+		return new SocketSettings(sendBufferSize, receiveBufferSize, keepAlive, reuseAddress, tcpNoDelay, (int) implReadTimeout.toMillis(), implWriteTimeout, implReadBufferSize, implWriteCoalescing);
 	}
 
 	public SocketSettings withImplWriteTimeout(@NotNull Duration implWriteTimeout) {
-		return new SocketSettings(sendBufferSize, receiveBufferSize, keepAlive, reuseAddress, tcpNoDelay, implReadTimeout, (int) implWriteTimeout.toMillis(), implReadBufferSize);
+		return new SocketSettings(sendBufferSize, receiveBufferSize, keepAlive, reuseAddress, tcpNoDelay, implReadTimeout, (int) implWriteTimeout.toMillis(), implReadBufferSize, implWriteCoalescing);
 	}
 
 	public SocketSettings withImplReadBufferSize(@NotNull MemSize implReadBufferSize) {
-		return new SocketSettings(sendBufferSize, receiveBufferSize, keepAlive, reuseAddress, tcpNoDelay, implReadTimeout, implWriteTimeout, implReadBufferSize.toInt());
+		return new SocketSettings(sendBufferSize, receiveBufferSize, keepAlive, reuseAddress, tcpNoDelay, implReadTimeout, implWriteTimeout, implReadBufferSize.toInt(), implWriteCoalescing);
+	}
+
+	/**
+	 * Enables coalescing of writes of a socket, which are made during a single eventloop tick,
+	 * into a single gathering write at the end of the tick.
+	 */
+	public SocketSettings withImplWriteCoalescing(boolean implWriteCoalescing) {
+		return new SocketSettings(sendBufferSize, receiveBufferSize, keepAlive, reuseAddress, tcpNoDelay, implReadTimeout, implWriteTimeout, implReadBufferSize, implWriteCoalescing ? TRUE : FALSE);
 	}
 
 	// endregion
@@ -209,4 +219,13 @@ public final class SocketSettings {
 		return implReadBufferSize;
 	}
 
+	public boolean hasImplWriteCoalescing() {
+		return implWriteCoalescing != DEF_BOOL;
+	}
+
+	public boolean getImplWriteCoalescing() {
+		checkState(hasImplWriteCoalescing(), "No 'write coalescing' setting is present");
+		return implWriteCoalescing != FALSE;
+	}
+
 }
@@ -0,0 +1,141 @@
+/*
+ * Copyright (C) 2015-2019 SoftIndex LLC.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package io.datakernel.eventloop.util;
+
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+import java.util.concurrent.atomic.AtomicIntegerFieldUpdater;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import java.util.concurrent.atomic.AtomicReferenceFieldUpdater;
+
+/**
+ * Unbounded lock-free queue for multiple producers and a single consumer.
+ * <p>
+ * Elements are stored in linked chunks of fixed-size arrays, so that a chunk
+ * is allocated once per {@code chunkSize} elements, rather than a node per element.
+ * Producers claim slots of the last chunk with a single atomic increment.
+ * <p>
+ * An element which is offered is not visible to the consumer until its producer has stored it,
+ * even if elements offered after it already are. It does not block the consumer,
+ * {@link #poll()} returns {@code null} until the element is stored.
+ */
+public final class MpscQueue<E> {
+	public static final int DEFAULT_CHUNK_SIZE = 1024;
+
+	private final int chunkSize;
+	private final AtomicReference<Chunk> producerChunk;
+
+	// accessed by consumer thread only
+	private Chunk consumerChunk;
+	private int consumerIndex;
+
+	private static final class Chunk {
+		static final AtomicIntegerFieldUpdater<Chunk> CLAIMED = AtomicIntegerFieldUpdater.newUpdater(Chunk.class, "claimed");
+		static final AtomicReferenceFieldUpdater<Chunk, Chunk> NEXT = AtomicReferenceFieldUpdater.newUpdater(Chunk.class, Chunk.class, "next");
+
+		final AtomicReferenceArray<Object> elements;
+		volatile int claimed;
+		volatile Chunk next;
+
+		Chunk(int chunkSize) {
+			this.elements = new AtomicReferenceArray<>(chunkSize);
+		}
+	}
+
+	public MpscQueue(int chunkSize) {
+		this.chunkSize = chunkSize;
+		Chunk chunk = new Chunk(chunkSize);
+		this.producerChunk = new AtomicReference<>(chunk);
+		this.consumerChunk = chunk;
+	}
+
+	public MpscQueue() {
+		this(DEFAULT_CHUNK_SIZE);
+	}
+
+	/**
+	 * Adds an element to the queue, may be called from any thread.
+	 */
+	public void offer(@NotNull E element) {
+		while (true) {
+			Chunk chunk = producerChunk.get();
+			int index = Chunk.CLAIMED.getAndIncrement(chunk);
+			if (index < chunkSize) {
+				chunk.elements.set(index, element);
+				return;
+			}
+			Chunk next = chunk.next;
+			if (next == null) {
+				Chunk newChunk = new Chunk(chunkSize);
+				next = Chunk.NEXT.compareAndSet(chunk, null, newChunk) ? newChunk : chunk.next;
+			}
+			producerChunk.compareAndSet(chunk, next);
+		}
+	}
+
+	/**
+	 * Removes and returns the head of the queue, or {@code null} if there is no stored element.
+	 * Should be called from the consumer thread only.
+	 */
+	@SuppressWarnings("unchecked")
+	@Nullable
+	public E poll() {
+		if (consumerIndex == chunkSize) {
+			Chunk next = consumerChunk.next;
+			if (next == null) return null;
+			consumerChunk = next;
+			consumerIndex = 0;
+		}
+		AtomicReferenceArray<Object> elements = consumerChunk.elements;
+		Object element = elements.get(consumerIndex);
+		if (element == null) return null;
+		elements.lazySet(consumerIndex++, null);
+		return (E) element;
+	}
+
+	/**
+	 * Returns {@code true} if there is no stored element in the queue.
+	 * Should be called from the consumer thread only.
+	 */
+	public boolean isEmpty() {
+		if (consumerIndex == chunkSize) {
+			Chunk next = consumerChunk.next;
+			return next == null || next.elements.get(0) == null;
+		}
+		return consumerChunk.elements.get(consumerIndex) == null;
+	}
+
+	/**
+	 * Returns an estimated number of elements in the queue.
+	 */
+	public int size() {
+		int size = 0;
+		int from = consumerIndex;
+		for (Chunk chunk = consumerChunk; chunk != null; chunk = chunk.next) {
+			size += Math.max(0, Math.min(chunk.claimed, chunkSize) - from);
+			from = 0;
+		}
+		return size;
+	}
+
+	@Override
+	public String toString() {
+		return "MpscQueue{size=" + size() + '}';
+	}
+}
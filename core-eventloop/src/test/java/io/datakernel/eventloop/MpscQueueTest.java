@@ -0,0 +1,108 @@
+package io.datakernel.eventloop;
+
+import io.datakernel.eventloop.util.MpscQueue;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.*;
+
+public class MpscQueueTest {
+	@Test
+	public void testSingleThread() {
+		MpscQueue<Integer> queue = new MpscQueue<>(4);
+		assertTrue(queue.isEmpty());
+		for (int i = 0; i < 10; i++) {
+			queue.offer(i);
+		}
+		assertEquals(10, queue.size());
+		for (int i = 0; i < 10; i++) {
+			assertFalse(queue.isEmpty());
+			assertEquals(i, queue.poll().intValue());
+		}
+		assertTrue(queue.isEmpty());
+		assertNull(queue.poll());
+		assertEquals(0, queue.size());
+	}
+
+	@Test
+	public void testProducersOrderIsPreserved() throws InterruptedException {
+		int producers = 4;
+		int elements = 500_000;
+		MpscQueue<long[]> queue = new MpscQueue<>(64);
+		List<Thread> threads = new ArrayList<>();
+		for (int p = 0; p < producers; p++) {
+			int producer = p;
+			Thread thread = new Thread(() -> {
+				for (int i = 0; i < elements; i++) {
+					queue.offer(new long[]{producer, i});
+				}
+			});
+			threads.add(thread);
+			thread.start();
+		}
+
+		long[] expected = new long[producers];
+		int received = 0;
+		while (received != producers * elements) {
+			long[] element = queue.poll();
+			if (element == null) {
+				Thread.yield();
+				continue;
+			}
+			int producer = (int) element[0];
+			assertEquals(expected[producer]++, element[1]);
+			received++;
+		}
+		for (Thread thread : threads) {
+			thread.join();
+		}
+		assertTrue(queue.isEmpty());
+	}
+
+	@Test
+	public void testEventloopWakeups() throws Exception {
+		EventloopStats stats = EventloopStats.create();
+		Eventloop eventloop = Eventloop.create().withInspector(stats);
+		eventloop.keepAlive(true);
+		Thread eventloopThread = new Thread(eventloop);
+		eventloopThread.start();
+
+		int producers = 4;
+		int tasks = 100_000;
+		CountDownLatch latch = new CountDownLatch(producers * tasks);
+		List<Thread> threads = new ArrayList<>();
+		for (int p = 0; p < producers; p++) {
+			Thread thread = new Thread(() -> {
+				for (int i = 0; i < tasks; i++) {
+					eventloop.execute(latch::countDown);
+				}
+			});
+			threads.add(thread);
+			thread.start();
+		}
+		assertTrue(latch.await(10, TimeUnit.SECONDS));
+		for (Thread thread : threads) {
+			thread.join();
+		}
+
+		long[] counts = new long[2];
+		eventloop.submit(() -> {
+			long now = eventloop.currentTimeMillis();
+			stats.getWakeups().refresh(now);
+			stats.getSuppressedWakeups().refresh(now);
+			counts[0] = stats.getWakeups().getTotalCount();
+			counts[1] = stats.getSuppressedWakeups().getTotalCount();
+		}).get();
+		eventloop.keepAlive(false);
+		eventloopThread.join();
+
+		// wakeups are reported once per loop, so the most recent ones may not be counted yet
+		assertTrue(counts[0] > 0);
+		assertTrue(counts[0] + counts[1] <= producers * tasks + 1);
+		assertTrue(counts[1] > counts[0]);
+	}
+}
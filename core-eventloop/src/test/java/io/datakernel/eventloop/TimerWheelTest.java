@@ -0,0 +1,78 @@
+package io.datakernel.eventloop;
+
+import org.junit.Test;
+
+import java.util.*;
+
+import static org.junit.Assert.*;
+
+public class TimerWheelTest {
+	private static final long START = 1_570_000_000_123L;
+
+	@Test
+	public void testPolledTasksAreDueAndNotLate() {
+		Random random = new Random(1);
+		TimerWheel wheel = new TimerWheel(START);
+		Set<ScheduledRunnable> expected = Collections.newSetFromMap(new IdentityHashMap<>());
+		List<ScheduledRunnable> cancelled = new ArrayList<>();
+		for (int i = 0; i < 100_000; i++) {
+			long delay = random.nextInt(4) == 0 ? random.nextInt(3_600_000) : random.nextInt(30_000);
+			ScheduledRunnable task = ScheduledRunnable.create(START + delay, () -> {});
+			assertTrue(wheel.add(task, START));
+			if (random.nextInt(3) == 0) {
+				task.cancel();
+				cancelled.add(task);
+			} else {
+				expected.add(task);
+			}
+		}
+		assertEquals(expected.size(), wheel.size());
+
+		long previous = START - 1;
+		long now = START;
+		while (now < START + 3_700_000) {
+			ScheduledRunnable task;
+			while ((task = wheel.poll(now)) != null) {
+				assertTrue(task.getTimestamp() <= now);
+				assertTrue(task.getTimestamp() > previous);
+				assertFalse(task.isCancelled());
+				assertTrue(expected.remove(task));
+			}
+			assertTrue(wheel.isEmpty() || wheel.getNextTimestamp() > now);
+			previous = now;
+			now += 1 + random.nextInt(random.nextBoolean() ? 10 : 5000);
+		}
+		assertTrue(expected.isEmpty());
+		assertTrue(wheel.isEmpty());
+		for (ScheduledRunnable task : cancelled) {
+			assertNull(task.wheel);
+		}
+	}
+
+	@Test
+	public void testRejectsDueAndDistantTasks() {
+		TimerWheel wheel = new TimerWheel(START);
+		wheel.add(ScheduledRunnable.create(START + 10, () -> {}), START);
+		assertFalse(wheel.add(ScheduledRunnable.create(START - 1, () -> {}), START));
+		assertFalse(wheel.add(ScheduledRunnable.create(START + 365L * 24 * 60 * 60 * 1000 * 10, () -> {}), START));
+		assertTrue(wheel.add(ScheduledRunnable.create(START, () -> {}), START));
+		assertEquals(2, wheel.size());
+	}
+
+	@Test
+	public void testEventloopWithTimerWheel() {
+		Eventloop eventloop = Eventloop.create().withCurrentThread().withTimerWheel(true);
+		List<Integer> executed = new ArrayList<>();
+		for (int i = 0; i < 10; i++) {
+			int delay = i * 10;
+			ScheduledRunnable task = eventloop.delay(delay, () -> executed.add(delay));
+			if (i % 3 == 0) {
+				task.cancel();
+			}
+		}
+		eventloop.delayBackground(1000, () -> fail("Background task should not keep eventloop alive"));
+		eventloop.delay(0, () -> executed.add(-1));
+		eventloop.run();
+		assertEquals(Arrays.asList(-1, 10, 20, 40, 50, 70, 80), executed);
+	}
+}
@@ -0,0 +1,1090 @@
+/*
+ * Copyright (C) 2015-2019 SoftIndex LLC.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package io.datakernel.http;
+
+import io.datakernel.async.callback.Callback;
+import io.datakernel.bytebuf.ByteBuf;
+import io.datakernel.bytebuf.ByteBufPool;
+import io.datakernel.bytebuf.ByteBufQueue;
+import io.datakernel.common.ApplicationSettings;
+import io.datakernel.common.MemSize;
+import io.datakernel.common.parse.ParseException;
+import io.datakernel.csp.AbstractChannelSupplier;
+import io.datakernel.csp.ChannelSupplier;
+import io.datakernel.eventloop.Eventloop;
+import io.datakernel.http.hpack.HpackDecoder;
+import io.datakernel.http.hpack.HpackDecoder.HeaderListener;
+import io.datakernel.http.hpack.HpackEncoder;
+import io.datakernel.http.stream.BufsConsumerGzipDeflater;
+import io.datakernel.net.AsyncTcpSocket;
+import io.datakernel.promise.Promise;
+import io.datakernel.promise.SettablePromise;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+import javax.net.ssl.SSLEngine;
+import javax.net.ssl.SSLParameters;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+
+import static io.datakernel.bytebuf.ByteBufStrings.encodeAscii;
+import static io.datakernel.common.Recyclable.tryRecycle;
+import static io.datakernel.http.HttpHeaderValue.ofBytes;
+import static io.datakernel.http.HttpHeaderValue.ofDecimal;
+import static io.datakernel.http.HttpHeaders.*;
+import static io.datakernel.http.Http2Exception.*;
+import static java.lang.Math.min;
+
+/**
+ * Common part of HTTP/2 server and client connections, as specified by RFC 7540:
+ * framing, header compression, multiplexing of streams and flow control.
+ * <p>
+ * Frames are accumulated in a write queue and are flushed with a single socket write
+ * after the current eventloop task, so that frames of concurrent streams are coalesced.
+ * Only one socket write is in progress at a time, bodies of streams are pulled
+ * only while the write queue is smaller than {@link #WRITE_BUFFER_SIZE}.
+ * The socket is not read while the write queue is full either, and a peer which keeps sending
+ * control frames without reading responses to them is disconnected once more than
+ * {@link #MAX_PENDING_CONTROL_FRAMES} of these responses are not written.
+ * <p>
+ * Server push is not supported and stream priorities are ignored.
+ */
+@SuppressWarnings({"WeakerAccess", "PointlessBitwiseExpression"})
+abstract class AbstractHttp2Connection extends AbstractHttpConnection {
+	static final byte[] PREFACE = encodeAscii("PRI * HTTP/2.0\r\n\r\nSM\r\n\r\n");
+	static final String H2 = "h2";
+	static final String HTTP_1_1 = "http/1.1";
+
+	static final int FRAME_HEADER_SIZE = 9;
+
+	static final byte DATA = 0x0;
+	static final byte HEADERS = 0x1;
+	static final byte PRIORITY = 0x2;
+	static final byte RST_STREAM = 0x3;
+	static final byte SETTINGS = 0x4;
+	static final byte PUSH_PROMISE = 0x5;
+	static final byte PING = 0x6;
+	static final byte GOAWAY = 0x7;
+	static final byte WINDOW_UPDATE = 0x8;
+	static final byte CONTINUATION = 0x9;
+
+	static final byte FLAG_END_STREAM = 0x1;
+	static final byte FLAG_ACK = 0x1;
+	static final byte FLAG_END_HEADERS = 0x4;
+	static final byte FLAG_PADDED = 0x8;
+	static final byte FLAG_PRIORITY = 0x20;
+
+	static final short SETTINGS_HEADER_TABLE_SIZE = 0x1;
+	static final short SETTINGS_ENABLE_PUSH = 0x2;
+	static final short SETTINGS_MAX_CONCURRENT_STREAMS = 0x3;
+	static final short SETTINGS_INITIAL_WINDOW_SIZE = 0x4;
+	static final short SETTINGS_MAX_FRAME_SIZE = 0x5;
+	static final short SETTINGS_MAX_HEADER_LIST_SIZE = 0x6;
+
+	static final int DEFAULT_WINDOW_SIZE = 65535;
+	static final int DEFAULT_MAX_FRAME_SIZE = 16384;
+	static final int MAX_FRAME_SIZE = (1 << 24) - 1;
+
+	public static final MemSize WRITE_BUFFER_SIZE = ApplicationSettings.getMemSize(AbstractHttp2Connection.class, "writeBufferSize", MemSize.kilobytes(64));
+	public static final MemSize MAX_HEADER_BLOCK_SIZE = ApplicationSettings.getMemSize(AbstractHttp2Connection.class, "maxHeaderBlockSize", MemSize.kilobytes(64));
+	public static final int MAX_PENDING_CONTROL_FRAMES = ApplicationSettings.getInt(AbstractHttp2Connection.class, "maxPendingControlFrames", 1000);
+
+	public static final Http2Exception PROTOCOL_VIOLATION = new Http2Exception(AbstractHttp2Connection.class, PROTOCOL_ERROR, "Protocol error");
+	public static final Http2Exception INVALID_FRAME_SIZE = new Http2Exception(AbstractHttp2Connection.class, FRAME_SIZE_ERROR, "Invalid frame size");
+	public static final Http2Exception FLOW_CONTROL_VIOLATION = new Http2Exception(AbstractHttp2Connection.class, FLOW_CONTROL_ERROR, "Flow control window exceeded");
+	public static final Http2Exception COMPRESSION_FAILURE = new Http2Exception(AbstractHttp2Connection.class, COMPRESSION_ERROR, "Header block cannot be decoded");
+	public static final Http2Exception TOO_LARGE_HEADER_BLOCK = new Http2Exception(AbstractHttp2Connection.class, ENHANCE_YOUR_CALM, "Header block exceeds max size");
+	public static final Http2Exception TOO_MANY_CONTROL_FRAMES = new Http2Exception(AbstractHttp2Connection.class, ENHANCE_YOUR_CALM, "Too many control frames are not acknowledged");
+	public static final Http2Exception MALFORMED_HEADERS = new Http2Exception(AbstractHttp2Connection.class, PROTOCOL_ERROR, "Malformed header block");
+	public static final Http2Exception STREAM_CANCELLED = new Http2Exception(AbstractHttp2Connection.class, CANCEL, "Stream is cancelled");
+	public static final Http2Exception STREAM_REFUSED = new Http2Exception(AbstractHttp2Connection.class, REFUSED_STREAM, "Stream is refused");
+
+	private static final HttpHeader HEADER_KEEP_ALIVE = HttpHeaders.of("Keep-Alive");
+	private static final HttpHeader HEADER_PROXY_CONNECTION = HttpHeaders.of("Proxy-Connection");
+
+	private static final int WRITE_BUFFER_SIZE_BYTES = WRITE_BUFFER_SIZE.toInt();
+	private static final int MAX_HEADER_BLOCK_SIZE_BYTES = MAX_HEADER_BLOCK_SIZE.toInt();
+
+	protected final HashMap<Integer, Http2Stream> streams = new HashMap<>();
+
+	private final HpackEncoder encoder = new HpackEncoder(HpackEncoder.DEFAULT_TABLE_SIZE);
+	private final HpackDecoder decoder = new HpackDecoder(HpackEncoder.DEFAULT_TABLE_SIZE, MAX_HEADER_LINE_SIZE_BYTES);
+	private final List<byte[]> headerFields = new ArrayList<>();
+	private final HeaderListener headerListener = (name, value) -> {
+		headerFields.add(name);
+		headerFields.add(value);
+	};
+
+	private final ByteBufQueue writeQueue = new ByteBufQueue();
+	private final ArrayDeque<Http2Stream> suspendedStreams = new ArrayDeque<>();
+	private boolean writing;
+	private boolean flushPosted;
+	private boolean closing;
+	private boolean readSuspended;
+	private int pendingControlFrames;
+	@Nullable
+	private Throwable closingError;
+
+	protected final int localWindowSize;
+	private int remoteInitialWindowSize = DEFAULT_WINDOW_SIZE;
+	private int remoteMaxFrameSize = DEFAULT_MAX_FRAME_SIZE;
+	protected int remoteMaxConcurrentStreams = Integer.MAX_VALUE;
+
+	private int sendWindow = DEFAULT_WINDOW_SIZE;
+	private int receiveWindow = DEFAULT_WINDOW_SIZE;
+	private int receiveUnacked;
+
+	private boolean settingsReceived;
+	protected int lastRemoteStreamId;
+	protected boolean goAwaySent;
+	protected boolean goAwayReceived;
+
+	@Nullable
+	private ByteBuf headerBlock;
+	private int headerBlockStreamId;
+	private boolean headerBlockEndStream;
+
+	private final Callback<ByteBuf> readCallback = (buf, e) -> {
+		if (isClosed()) {
+			tryRecycle(buf);
+			return;
+		}
+		if (e == null) {
+			if (buf != null) {
+				readQueue.add(buf);
+				onRead();
+				readFrames();
+			} else {
+				close();
+			}
+		} else {
+			closeWithError(e);
+		}
+	};
+
+	/**
+	 * A single request/response exchange, multiplexed within a connection
+	 */
+	static final class Http2Stream {
+		final int id;
+		int sendWindow;
+		int receiveWindow;
+		int receiveUnacked;
+
+		boolean localClosed;
+		boolean remoteClosed;
+		boolean closed;
+
+		@Nullable
+		ByteBuf sendBuf;
+		@Nullable
+		ChannelSupplier<ByteBuf> sendStream;
+		boolean pulling;
+		boolean suspended;
+
+		@Nullable
+		BodySupplier body;
+
+		@Nullable
+		HttpRequest request;
+		@Nullable
+		HttpResponse response;
+		@Nullable
+		SettablePromise<HttpResponse> promise;
+		boolean serving;
+
+		Http2Stream(int id, int sendWindow, int receiveWindow) {
+			this.id = id;
+			this.sendWindow = sendWindow;
+			this.receiveWindow = receiveWindow;
+		}
+
+		@Override
+		public String toString() {
+			return "Http2Stream{id=" + id +
+					", localClosed=" + localClosed +
+					", remoteClosed=" + remoteClosed +
+					", sendWindow=" + sendWindow +
+					", receiveWindow=" + receiveWindow +
+					'}';
+		}
+	}
+
+	/**
+	 * A body of received message, data of a stream is acknowledged to the peer with WINDOW_UPDATE frames
+	 * as it is consumed. If the body is closed before the end of stream, the stream is cancelled.
+	 */
+	final class BodySupplier extends AbstractChannelSupplier<ByteBuf> {
+		private final Http2Stream stream;
+		private final ArrayDeque<ByteBuf> bufs = new ArrayDeque<>();
+		private boolean end;
+		@Nullable
+		private SettablePromise<ByteBuf> pending;
+
+		BodySupplier(Http2Stream stream) {
+			this.stream = stream;
+		}
+
+		void put(ByteBuf buf) {
+			if (pending != null) {
+				SettablePromise<ByteBuf> pending = this.pending;
+				this.pending = null;
+				onBodyConsumed(stream, buf.readRemaining());
+				pending.set(buf);
+				return;
+			}
+			bufs.add(buf);
+		}
+
+		void end() {
+			end = true;
+			if (pending != null) {
+				SettablePromise<ByteBuf> pending = this.pending;
+				this.pending = null;
+				pending.set(null);
+			}
+		}
+
+		@Override
+		protected Promise<ByteBuf> doGet() {
+			ByteBuf buf = bufs.poll();
+			if (buf != null) {
+				onBodyConsumed(stream, buf.readRemaining());
+				return Promise.of(buf);
+			}
+			if (end) {
+				return Promise.of(null);
+			}
+			SettablePromise<ByteBuf> pending = new SettablePromise<>();
+			this.pending = pending;
+			return pending;
+		}
+
+		@Override
+		protected void onClosed(@NotNull Throwable e) {
+			for (ByteBuf buf : bufs) {
+				buf.recycle();
+			}
+			bufs.clear();
+			if (pending != null) {
+				pending.setException(e);
+				pending = null;
+			}
+			if (!end && !stream.closed && !AbstractHttp2Connection.this.isClosed()) {
+				resetStream(stream, STREAM_CANCELLED);
+			}
+		}
+	}
+
+	AbstractHttp2Connection(Eventloop eventloop, AsyncTcpSocket socket, int localWindowSize) {
+		super(eventloop, socket);
+		this.localWindowSize = localWindowSize;
+	}
+
+	/**
+	 * Configures an SSL engine to negotiate HTTP/2 with ALPN, falling back to HTTP/1.1
+	 */
+	static void setApplicationProtocols(SSLEngine engine) {
+		SSLParameters parameters = engine.getSSLParameters();
+		parameters.setApplicationProtocols(new String[]{H2, HTTP_1_1});
+		engine.setSSLParameters(parameters);
+	}
+
+	// region HTTP/1 callbacks, not used by HTTP/2
+	@Override
+	protected final void onStartLine(byte[] line, int limit) {
+		throw new UnsupportedOperationException();
+	}
+
+	@Override
+	protected final void onHeaderBuf(ByteBuf buf) {
+		throw new UnsupportedOperationException();
+	}
+
+	@Override
+	protected final void onHeader(HttpHeader header, byte[] array, int off, int len) {
+		throw new UnsupportedOperationException();
+	}
+
+	@Override
+	protected final void onHeadersReceived(@Nullable ByteBuf body, @Nullable ChannelSupplier<ByteBuf> bodySupplier) {
+		throw new UnsupportedOperationException();
+	}
+
+	@Override
+	protected final void onBodyReceived() {
+		throw new UnsupportedOperationException();
+	}
+
+	@Override
+	protected final void onBodySent() {
+		throw new UnsupportedOperationException();
+	}
+	// endregion
+
+	/**
+	 * Called when a complete header block of a stream is received
+	 *
+	 * @param headers names and values of header fields, in turns
+	 */
+	protected abstract void onHeaders(int streamId, List<byte[]> headers, boolean endStream) throws Http2Exception;
+
+	/**
+	 * Called when a stream is closed, either normally, when both sides have ended it,
+	 * or with an error, when it is reset or the connection is closed
+	 */
+	protected abstract void onStreamClosed(Http2Stream stream, @Nullable Throwable e);
+
+	/**
+	 * Called when a RST_STREAM frame is received, before the stream is closed
+	 *
+	 * @throws Http2Exception to close the connection with a connection error
+	 */
+	protected abstract void onResetReceived(int streamId) throws Http2Exception;
+
+	/**
+	 * Called when a GOAWAY frame is received, streams with ids greater than {@code lastStreamId}
+	 * were not processed by the peer
+	 */
+	protected abstract void onGoAway(int lastStreamId);
+
+	/**
+	 * Called on every read of the socket
+	 */
+	protected abstract void onRead();
+
+	// region reading
+	protected final void readFrames() {
+		while (!isClosed() && !closing) {
+			if (writeQueue.remainingBytes() >= WRITE_BUFFER_SIZE_BYTES) {
+				readSuspended = true;
+				return; // resumed when the write queue is flushed
+			}
+			if (!readQueue.hasRemainingBytes(FRAME_HEADER_SIZE)) break;
+			int length = (readQueue.peekByte(0) & 0xFF) << 16 | (readQueue.peekByte(1) & 0xFF) << 8 | (readQueue.peekByte(2) & 0xFF);
+			if (length > DEFAULT_MAX_FRAME_SIZE) {
+				onConnectionError(INVALID_FRAME_SIZE);
+				return;
+			}
+			if (!readQueue.hasRemainingBytes(FRAME_HEADER_SIZE + length)) break;
+			byte type = readQueue.peekByte(3);
+			byte flags = readQueue.peekByte(4);
+			int streamId = ((readQueue.peekByte(5) & 0x7F) << 24) | ((readQueue.peekByte(6) & 0xFF) << 16) |
+					((readQueue.peekByte(7) & 0xFF) << 8) | (readQueue.peekByte(8) & 0xFF);
+			readQueue.skip(FRAME_HEADER_SIZE);
+			ByteBuf payload = readQueue.takeExactSize(length);
+			try {
+				onFrame(type, flags, streamId, payload);
+			} catch (Http2Exception e) {
+				onConnectionError(e);
+				return;
+			}
+		}
+		if (!isClosed() && !closing) {
+			socket.read().whenComplete(readCallback);
+		}
+	}
+
+	private void onFrame(byte type, byte flags, int streamId, ByteBuf payload) throws Http2Exception {
+		if (type == DATA) {
+			onData(flags, streamId, payload);
+			return;
+		}
+		try {
+			if (!settingsReceived && (type != SETTINGS || (flags & FLAG_ACK) != 0)) {
+				throw PROTOCOL_VIOLATION;
+			}
+			if (headerBlock != null && type != CONTINUATION) {
+				throw PROTOCOL_VIOLATION;
+			}
+			switch (type) {
+				case HEADERS:
+					onHeadersFrame(flags, streamId, payload);
+					break;
+				case CONTINUATION:
+					onContinuation(flags, streamId, payload);
+					break;
+				case PRIORITY:
+					if (streamId == 0) throw PROTOCOL_VIOLATION;
+					break;
+				case RST_STREAM:
+					onRstStream(streamId, payload);
+					break;
+				case SETTINGS:
+					onSettings(flags, streamId, payload);
+					break;
+				case PUSH_PROMISE:
+					throw PROTOCOL_VIOLATION;
+				case PING:
+					if (streamId != 0) throw PROTOCOL_VIOLATION;
+					if (payload.readRemaining() != 8) throw INVALID_FRAME_SIZE;
+					if ((flags & FLAG_ACK) == 0) {
+						writeControlFrame(PING, FLAG_ACK, payload.array(), payload.head(), 8);
+					}
+					break;
+				case GOAWAY:
+					onGoAwayFrame(streamId, payload);
+					break;
+				case WINDOW_UPDATE:
+					onWindowUpdate(streamId, payload);
+					break;
+				default:
+					// unknown frame types must be ignored
+					break;
+			}
+		} finally {
+			payload.recycle();
+		}
+	}
+
+	private void onData(byte flags, int streamId, ByteBuf payload) throws Http2Exception {
+		int length = payload.readRemaining();
+		if (streamId == 0 || isIdleStream(streamId)) {
+			payload.recycle();
+			throw PROTOCOL_VIOLATION;
+		}
+		receiveWindow -= length;
+		if (receiveWindow < 0) {
+			payload.recycle();
+			throw FLOW_CONTROL_VIOLATION;
+		}
+		receiveUnacked += length;
+		if (receiveUnacked >= localWindowSize / 2) {
+			writeWindowUpdate(0, receiveUnacked);
+			receiveWindow += receiveUnacked;
+			receiveUnacked = 0;
+		}
+		if ((flags & FLAG_PADDED) != 0) {
+			int padding = length != 0 ? payload.readByte() & 0xFF : -1;
+			if (padding < 0 || padding > payload.readRemaining()) {
+				payload.recycle();
+				throw PROTOCOL_VIOLATION;
+			}
+			payload.moveTail(-padding);
+		}
+
+		Http2Stream stream = streams.get(streamId);
+		if (stream == null || stream.remoteClosed) {
+			// frames of a stream which is already reset are ignored
+			payload.recycle();
+			return;
+		}
+		stream.receiveWindow -= length;
+		if (stream.receiveWindow < 0) {
+			payload.recycle();
+			resetStream(stream, FLOW_CONTROL_VIOLATION);
+			return;
+		}
+		// padding is acknowledged right away, as it is not consumed by a body
+		onBodyConsumed(stream, length - payload.readRemaining());
+
+		BodySupplier body = stream.body;
+		if (body == null) {
+			// DATA before HEADERS
+			payload.recycle();
+			resetStream(stream, PROTOCOL_VIOLATION);
+			return;
+		}
+		if (payload.canRead()) {
+			body.put(payload);
+		} else {
+			payload.recycle();
+		}
+		if ((flags & FLAG_END_STREAM) != 0 && !stream.closed) {
+			stream.remoteClosed = true;
+			body.end();
+			onRemoteEnd(stream);
+		}
+	}
+
+	private void onHeadersFrame(byte flags, int streamId, ByteBuf payload) throws Http2Exception {
+		if (streamId == 0) throw PROTOCOL_VIOLATION;
+		if ((flags & FLAG_PADDED) != 0) {
+			int padding = payload.canRead() ? payload.readByte() & 0xFF : -1;
+			if (padding < 0 || padding > payload.readRemaining()) throw PROTOCOL_VIOLATION;
+			payload.moveTail(-padding);
+		}
+		if ((flags & FLAG_PRIORITY) != 0) {
+			if (payload.readRemaining() < 5) throw PROTOCOL_VIOLATION;
+			payload.moveHead(5);
+		}
+		headerBlock = ByteBufPool.allocate(payload.readRemaining());
+		headerBlock.put(payload);
+		headerBlockStreamId = streamId;
+		headerBlockEndStream = (flags & FLAG_END_STREAM) != 0;
+		if ((flags & FLAG_END_HEADERS) != 0) {
+			onHeaderBlock();
+		}
+	}
+
+	private void onContinuation(byte flags, int streamId, ByteBuf payload) throws Http2Exception {
+		if (headerBlock == null || streamId != headerBlockStreamId) throw PROTOCOL_VIOLATION;
+		if (headerBlock.readRemaining() + payload.readRemaining() > MAX_HEADER_BLOCK_SIZE_BYTES) {
+			throw TOO_LARGE_HEADER_BLOCK;
+		}
+		headerBlock = ByteBufPool.ensureWriteRemaining(headerBlock, payload.readRemaining());
+		headerBlock.put(payload);
+		if ((flags & FLAG_END_HEADERS) != 0) {
+			onHeaderBlock();
+		}
+	}
+
+	private void onHeaderBlock() throws Http2Exception {
+		ByteBuf block = headerBlock;
+		assert block != null;
+		headerBlock = null;
+		headerFields.clear();
+		try {
+			decoder.decode(block, headerListener);
+		} catch (ParseException e) {
+			throw COMPRESSION_FAILURE;
+		} finally {
+			block.recycle();
+		}
+		onHeaders(headerBlockStreamId, headerFields, headerBlockEndStream);
+	}
+
+	private void onRstStream(int streamId, ByteBuf payload) throws Http2Exception {
+		if (streamId == 0 || isIdleStream(streamId)) throw PROTOCOL_VIOLATION;
+		if (payload.readRemaining() != 4) throw INVALID_FRAME_SIZE;
+		int errorCode = payload.readInt();
+		onResetReceived(streamId);
+		Http2Stream stream = streams.get(streamId);
+		if (stream != null) {
+			closeStream(stream, new Http2Exception(AbstractHttp2Connection.class, errorCode, "Stream is reset by peer, error code: " + errorCode));
+		}
+	}
+
+	private void onSettings(byte flags, int streamId, ByteBuf payload) throws Http2Exception {
+		if (streamId != 0) throw PROTOCOL_VIOLATION;
+		if ((flags & FLAG_ACK) != 0) {
+			if (payload.canRead()) throw INVALID_FRAME_SIZE;
+			return;
+		}
+		if (payload.readRemaining() % 6 != 0) throw INVALID_FRAME_SIZE;
+		settingsReceived = true;
+		boolean windowIncreased = false;
+		while (payload.canRead()) {
+			short id = payload.readShort();
+			int value = payload.readInt();
+			switch (id) {
+				case SETTINGS_HEADER_TABLE_SIZE:
+					encoder.setMaxTableSize(value < 0 ? Integer.MAX_VALUE : value);
+					break;
+				case SETTINGS_ENABLE_PUSH:
+					if (value != 0 && value != 1) throw PROTOCOL_VIOLATION;
+					break;
+				case SETTINGS_MAX_CONCURRENT_STREAMS:
+					remoteMaxConcurrentStreams = value < 0 ? Integer.MAX_VALUE : value;
+					break;
+				case SETTINGS_INITIAL_WINDOW_SIZE:
+					if (value < 0) throw FLOW_CONTROL_VIOLATION;
+					int delta = value - remoteInitialWindowSize;
+					remoteInitialWindowSize = value;
+					for (Http2Stream stream : streams.values()) {
+						if (delta > 0 && stream.sendWindow > Integer.MAX_VALUE - delta) throw FLOW_CONTROL_VIOLATION;
+						stream.sendWindow += delta;
+					}
+					windowIncreased |= delta > 0;
+					break;
+				case SETTINGS_MAX_FRAME_SIZE:
+					if (value < DEFAULT_MAX_FRAME_SIZE || value > MAX_FRAME_SIZE) throw PROTOCOL_VIOLATION;
+					remoteMaxFrameSize = value;
+					break;
+				default:
+					// SETTINGS_MAX_HEADER_LIST_SIZE is advisory, unknown settings must be ignored
+					break;
+			}
+		}
+		writeControlFrame(SETTINGS, FLAG_ACK, null, 0, 0);
+		if (windowIncreased) {
+			resumeStreams();
+		}
+	}
+
+	private void onGoAwayFrame(int streamId, ByteBuf payload) throws Http2Exception {
+		if (streamId != 0) throw PROTOCOL_VIOLATION;
+		if (payload.readRemaining() < 8) throw INVALID_FRAME_SIZE;
+		int lastStreamId = payload.readInt() & 0x7FFFFFFF;
+		goAwayReceived = true;
+		onGoAway(lastStreamId);
+		if (streams.isEmpty()) {
+			closeAfterFlush(null);
+		}
+	}
+
+	private void onWindowUpdate(int streamId, ByteBuf payload) throws Http2Exception {
+		if (payload.readRemaining() != 4) throw INVALID_FRAME_SIZE;
+		int increment = payload.readInt() & 0x7FFFFFFF;
+		if (streamId == 0) {
+			if (increment == 0) throw PROTOCOL_VIOLATION;
+			if (sendWindow > Integer.MAX_VALUE - increment) throw FLOW_CONTROL_VIOLATION;
+			sendWindow += increment;
+			resumeStreams();
+			return;
+		}
+		if (isIdleStream(streamId)) throw PROTOCOL_VIOLATION;
+		Http2Stream stream = streams.get(streamId);
+		if (stream == null) return;
+		if (increment == 0) {
+			resetStream(stream, PROTOCOL_VIOLATION);
+			return;
+		}
+		if (stream.sendWindow > Integer.MAX_VALUE - increment) {
+			resetStream(stream, FLOW_CONTROL_VIOLATION);
+			return;
+		}
+		stream.sendWindow += increment;
+		writeData(stream);
+	}
+
+	/**
+	 * Returns {@code true} if a stream with given id could not have been opened yet
+	 */
+	protected abstract boolean isIdleStream(int streamId);
+
+	private void onBodyConsumed(Http2Stream stream, int size) {
+		if (stream.remoteClosed || stream.closed || isClosed()) return;
+		stream.receiveUnacked += size;
+		if (stream.receiveUnacked >= localWindowSize / 2) {
+			writeWindowUpdate(stream.id, stream.receiveUnacked);
+			stream.receiveWindow += stream.receiveUnacked;
+			stream.receiveUnacked = 0;
+		}
+	}
+	// endregion
+
+	// region streams
+	protected final Http2Stream openStream(int streamId) {
+		Http2Stream stream = new Http2Stream(streamId, remoteInitialWindowSize, localWindowSize);
+		streams.put(streamId, stream);
+		return stream;
+	}
+
+	protected final BodySupplier createBody(Http2Stream stream) {
+		BodySupplier body = new BodySupplier(stream);
+		stream.body = body;
+		return body;
+	}
+
+	/**
+	 * Called when the peer has ended a stream
+	 */
+	protected void onRemoteEnd(Http2Stream stream) {
+		if (stream.localClosed) {
+			closeStream(stream, null);
+		}
+	}
+
+	/**
+	 * Called when a stream is ended locally
+	 */
+	protected void onLocalEnd(Http2Stream stream) {
+		if (stream.remoteClosed) {
+			closeStream(stream, null);
+		}
+	}
+
+	protected final void resetStream(Http2Stream stream, Http2Exception e) {
+		writeRstStream(stream.id, e.getErrorCode());
+		closeStream(stream, e);
+	}
+
+	protected final void closeStream(Http2Stream stream, @Nullable Throwable e) {
+		if (stream.closed) return;
+		stream.closed = true;
+		streams.remove(stream.id);
+		if (stream.sendBuf != null) {
+			stream.sendBuf.recycle();
+			stream.sendBuf = null;
+		}
+		if (stream.sendStream != null) {
+			stream.sendStream.close(e != null ? e : STREAM_CANCELLED);
+			stream.sendStream = null;
+		}
+		if (stream.body != null && e != null) {
+			stream.body.close(e);
+		}
+		onStreamClosed(stream, e);
+		if (!isClosed() && streams.isEmpty() && (goAwaySent || goAwayReceived)) {
+			closeAfterFlush(null);
+		}
+	}
+
+	/**
+	 * Sends GOAWAY frame, streams which are already open are completed before closing the connection
+	 */
+	protected final void goAway(int errorCode) {
+		if (goAwaySent) return;
+		goAwaySent = true;
+		ByteBuf frame = ByteBufPool.allocate(FRAME_HEADER_SIZE + 8);
+		writeFrameHeader(frame, 8, GOAWAY, (byte) 0, 0);
+		frame.writeInt(lastRemoteStreamId);
+		frame.writeInt(errorCode);
+		writeQueue.add(frame);
+		if (streams.isEmpty()) {
+			closeAfterFlush(null);
+		} else {
+			scheduleFlush();
+		}
+	}
+
+	protected final void onConnectionError(Http2Exception e) {
+		goAway(e.getErrorCode());
+		if (e == TOO_MANY_CONTROL_FRAMES && writing) {
+			// the peer does not read, so the queued frames would never be flushed
+			closeWithError(e);
+			return;
+		}
+		closeAfterFlush(e);
+	}
+
+	private void closeAfterFlush(@Nullable Throwable e) {
+		if (closing) return;
+		closing = true;
+		closingError = e;
+		flush();
+	}
+
+	protected final void closeStreams(Throwable e) {
+		if (headerBlock != null) {
+			headerBlock.recycle();
+			headerBlock = null;
+		}
+		writeQueue.recycle();
+		suspendedStreams.clear();
+		for (Http2Stream stream : new ArrayList<>(streams.values())) {
+			closeStream(stream, e);
+		}
+	}
+	// endregion
+
+	// region writing
+	/**
+	 * Writes headers of a message and starts sending its body
+	 *
+	 * @param pseudoHeaders names and values of pseudo-header fields, in turns
+	 */
+	protected final void writeMessage(Http2Stream stream, byte[][] pseudoHeaders, HttpMessage message) {
+		ByteBuf body = null;
+		ChannelSupplier<ByteBuf> bodyStream = null;
+		if (message.body != null) {
+			body = message.body;
+			message.body = null;
+			if ((message.flags & HttpMessage.USE_GZIP) != 0 && body.canRead()) {
+				body = GzipProcessorUtils.toGzip(body);
+				message.addHeader(CONTENT_ENCODING, ofBytes(CONTENT_ENCODING_GZIP));
+			}
+			message.addHeader(CONTENT_LENGTH, ofDecimal(body.readRemaining()));
+			if (!body.canRead()) {
+				body.recycle();
+				body = null;
+			}
+		} else if (message.bodyStream != null) {
+			bodyStream = message.bodyStream;
+			message.bodyStream = null;
+			if ((message.flags & HttpMessage.USE_GZIP) != 0) {
+				message.addHeader(CONTENT_ENCODING, ofBytes(CONTENT_ENCODING_GZIP));
+				BufsConsumerGzipDeflater deflater = BufsConsumerGzipDeflater.create();
+				bodyStream.bindTo(deflater.getInput());
+				bodyStream = deflater.getOutput().getSupplier();
+			}
+		} else {
+			message.addHeader(CONTENT_LENGTH, ofDecimal(0));
+		}
+
+		boolean endStream = body == null && bodyStream == null;
+		writeHeaders(stream.id, encodeHeaders(pseudoHeaders, message), endStream);
+		if (endStream) {
+			stream.localClosed = true;
+			onLocalEnd(stream);
+			return;
+		}
+		stream.sendBuf = body;
+		stream.sendStream = bodyStream;
+		writeData(stream);
+	}
+
+	private ByteBuf encodeHeaders(byte[][] pseudoHeaders, HttpMessage message) {
+		ByteBuf block = ByteBufPool.allocate(HpackEncoder.MAX_BLOCK_PREFIX_SIZE + 256);
+		encoder.startHeaderBlock(block);
+		for (int i = 0; i < pseudoHeaders.length; i += 2) {
+			block = encodeHeader(block, pseudoHeaders[i], pseudoHeaders[i + 1]);
+		}
+		Object[] kvPairs = message.headers.kvPairs;
+		for (int i = 0; i < kvPairs.length - 1; i += 2) {
+			HttpHeader header = (HttpHeader) kvPairs[i];
+			if (header == null || isConnectionSpecific(header)) continue;
+			HttpHeaderValue value = (HttpHeaderValue) kvPairs[i + 1];
+			ByteBuf valueBuf = ByteBuf.wrapForWriting(new byte[value.estimateSize()]);
+			value.writeTo(valueBuf);
+			byte[] valueBytes = valueBuf.array().length == valueBuf.tail() ? valueBuf.array() : valueBuf.getArray();
+			block = encodeHeader(block, lowerCaseName(header), valueBytes);
+		}
+		return block;
+	}
+
+	private ByteBuf encodeHeader(ByteBuf block, byte[] name, byte[] value) {
+		block = ByteBufPool.ensureWriteRemaining(block, HpackEncoder.estimateSize(name, value));
+		encoder.encodeHeader(block, name, value, false);
+		return block;
+	}
+
+	private static boolean isConnectionSpecific(HttpHeader header) {
+		return header.equals(CONNECTION) || header.equals(TRANSFER_ENCODING) || header.equals(UPGRADE) ||
+				header.equals(TE) || header.equals(HOST) || header.equals(HEADER_KEEP_ALIVE) || header.equals(HEADER_PROXY_CONNECTION);
+	}
+
+	private static byte[] lowerCaseName(HttpHeader header) {
+		if (header.lowerCaseBytes != null) return header.lowerCaseBytes;
+		byte[] name = new byte[header.length];
+		for (int i = 0; i < name.length; i++) {
+			byte b = header.bytes[header.offset + i];
+			name[i] = b >= 'A' && b <= 'Z' ? (byte) (b + 'a' - 'A') : b;
+		}
+		return name;
+	}
+
+	private void writeHeaders(int streamId, ByteBuf block, boolean endStream) {
+		byte flags = endStream ? FLAG_END_STREAM : 0;
+		byte type = HEADERS;
+		do {
+			int size = min(block.readRemaining(), remoteMaxFrameSize);
+			boolean last = size == block.readRemaining();
+			writeFrame(type, (byte) (flags | (last ? FLAG_END_HEADERS : 0)), streamId, block.array(), block.head(), size);
+			block.moveHead(size);
+			type = CONTINUATION;
+			flags = 0;
+		} while (block.canRead());
+		block.recycle();
+	}
+
+	private void writeData(Http2Stream stream) {
+		while (!stream.closed && !isClosed()) {
+			ByteBuf buf = stream.sendBuf;
+			if (buf != null) {
+				int size = min(min(buf.readRemaining(), remoteMaxFrameSize), min(sendWindow, stream.sendWindow));
+				if (size <= 0) return; // resumed with WINDOW_UPDATE
+				sendWindow -= size;
+				stream.sendWindow -= size;
+				boolean endStream = stream.sendStream == null && size == buf.readRemaining();
+				writeFrame(DATA, endStream ? FLAG_END_STREAM : 0, stream.id, buf.array(), buf.head(), size);
+				buf.moveHead(size);
+				if (buf.canRead()) continue;
+				buf.recycle();
+				stream.sendBuf = null;
+				if (endStream) {
+					stream.localClosed = true;
+					onLocalEnd(stream);
+					return;
+				}
+			}
+			ChannelSupplier<ByteBuf> sendStream = stream.sendStream;
+			if (sendStream == null || stream.pulling) return;
+			if (writeQueue.remainingBytes() >= WRITE_BUFFER_SIZE_BYTES) {
+				if (!stream.suspended) {
+					stream.suspended = true;
+					suspendedStreams.add(stream);
+				}
+				return; // resumed when the write queue is flushed
+			}
+			stream.pulling = true;
+			Promise<ByteBuf> promise = sendStream.get();
+			if (!promise.isComplete()) {
+				promise.whenComplete((pulled, e) -> {
+					stream.pulling = false;
+					if (stream.closed || isClosed()) {
+						tryRecycle(pulled);
+						return;
+					}
+					if (onDataPulled(stream, pulled, e)) {
+						writeData(stream);
+					}
+				});
+				return;
+			}
+			stream.pulling = false;
+			if (!onDataPulled(stream, promise.getResult(), promise.getException())) return;
+		}
+	}
+
+	private boolean onDataPulled(Http2Stream stream, @Nullable ByteBuf buf, @Nullable Throwable e) {
+		if (e != null) {
+			stream.sendStream = null;
+			resetStream(stream, new Http2Exception(AbstractHttp2Connection.class, INTERNAL_ERROR, "Body stream failed: " + e));
+			return false;
+		}
+		if (buf == null) {
+			stream.sendStream = null;
+			writeFrame(DATA, FLAG_END_STREAM, stream.id, null, 0, 0);
+			stream.localClosed = true;
+			onLocalEnd(stream);
+			return false;
+		}
+		if (!buf.canRead()) {
+			buf.recycle();
+			return true;
+		}
+		stream.sendBuf = buf;
+		return true;
+	}
+
+	private void resumeStreams() {
+		for (Http2Stream stream : new ArrayList<>(streams.values())) {
+			if (stream.sendBuf != null) {
+				writeData(stream);
+			}
+		}
+	}
+
+	protected final void writeSettings(int maxConcurrentStreams, boolean enablePush) {
+		ByteBuf frame = ByteBufPool.allocate(FRAME_HEADER_SIZE + 3 * 6);
+		int size = 0;
+		frame.moveTail(FRAME_HEADER_SIZE);
+		if (maxConcurrentStreams != 0) {
+			frame.writeShort(SETTINGS_MAX_CONCURRENT_STREAMS);
+			frame.writeInt(maxConcurrentStreams);
+			size += 6;
+		}
+		if (!enablePush) {
+			frame.writeShort(SETTINGS_ENABLE_PUSH);
+			frame.writeInt(0);
+			size += 6;
+		}
+		if (localWindowSize != DEFAULT_WINDOW_SIZE) {
+			frame.writeShort(SETTINGS_INITIAL_WINDOW_SIZE);
+			frame.writeInt(localWindowSize);
+			size += 6;
+		}
+		int tail = frame.tail();
+		frame.tail(frame.head());
+		writeFrameHeader(frame, size, SETTINGS, (byte) 0, 0);
+		frame.tail(tail);
+		writeQueue.add(frame);
+		if (localWindowSize > DEFAULT_WINDOW_SIZE) {
+			// the connection window is not affected by SETTINGS, so it is increased separately
+			writeWindowUpdate(0, localWindowSize - DEFAULT_WINDOW_SIZE);
+			receiveWindow = localWindowSize;
+		}
+		scheduleFlush();
+	}
+
+	protected final void writePreface() {
+		writeQueue.add(ByteBuf.wrapForReading(PREFACE));
+	}
+
+	protected final void writeRstStream(int streamId, int errorCode) {
+		ByteBuf frame = ByteBufPool.allocate(FRAME_HEADER_SIZE + 4);
+		writeFrameHeader(frame, 4, RST_STREAM, (byte) 0, streamId);
+		frame.writeInt(errorCode);
+		writeQueue.add(frame);
+		scheduleFlush();
+	}
+
+	private void writeWindowUpdate(int streamId, int increment) {
+		ByteBuf frame = ByteBufPool.allocate(FRAME_HEADER_SIZE + 4);
+		writeFrameHeader(frame, 4, WINDOW_UPDATE, (byte) 0, streamId);
+		frame.writeInt(increment);
+		writeQueue.add(frame);
+		scheduleFlush();
+	}
+
+	private void writeFrame(byte type, byte flags, int streamId, @Nullable byte[] array, int offset, int size) {
+		ByteBuf frame = ByteBufPool.allocate(FRAME_HEADER_SIZE + size);
+		writeFrameHeader(frame, size, type, flags, streamId);
+		if (size != 0) {
+			assert array != null;
+			frame.put(array, offset, size);
+		}
+		writeQueue.add(frame);
+		scheduleFlush();
+	}
+
+	private void writeControlFrame(byte type, byte flags, @Nullable byte[] array, int offset, int size) throws Http2Exception {
+		if (++pendingControlFrames > MAX_PENDING_CONTROL_FRAMES) throw TOO_MANY_CONTROL_FRAMES;
+		writeFrame(type, flags, 0, array, offset, size);
+	}
+
+	private static void writeFrameHeader(ByteBuf buf, int size, byte type, byte flags, int streamId) {
+		buf.writeByte((byte) (size >>> 16));
+		buf.writeByte((byte) (size >>> 8));
+		buf.writeByte((byte) size);
+		buf.writeByte(type);
+		buf.writeByte(flags);
+		buf.writeInt(streamId);
+	}
+
+	protected final void scheduleFlush() {
+		if (flushPosted || writing) return;
+		flushPosted = true;
+		eventloop.postLater(() -> {
+			flushPosted = false;
+			flush();
+		});
+	}
+
+	private void flush() {
+		if (writing || isClosed()) return;
+		if (writeQueue.isEmpty()) {
+			if (closing) {
+				if (closingError != null) {
+					closeWithError(closingError);
+				} else {
+					close();
+				}
+			}
+			return;
+		}
+		writing = true;
+		int controlFrames = pendingControlFrames;
+		socket.write(writeQueue.takeRemaining())
+				.whenComplete(($, e) -> {
+					if (isClosed()) return;
+					writing = false;
+					if (e != null) {
+						closeWithError(e);
+						return;
+					}
+					pendingControlFrames -= controlFrames;
+					while (!closing && !suspendedStreams.isEmpty() && writeQueue.remainingBytes() < WRITE_BUFFER_SIZE_BYTES) {
+						Http2Stream stream = suspendedStreams.poll();
+						stream.suspended = false;
+						writeData(stream);
+					}
+					if (readSuspended && writeQueue.remainingBytes() < WRITE_BUFFER_SIZE_BYTES) {
+						readSuspended = false;
+						readFrames();
+					}
+					flush();
+				});
+	}
+	// endregion
+
+	@Override
+	public String toString() {
+		return "streams=" + streams.size() +
+				", writeQueue=" + writeQueue +
+				", sendWindow=" + sendWindow +
+				", receiveWindow=" + receiveWindow +
+				", goAwaySent=" + goAwaySent +
+				", goAwayReceived=" + goAwayReceived +
+				super.toString();
+	}
+}
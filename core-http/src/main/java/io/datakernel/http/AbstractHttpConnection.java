@@ -31,14 +31,17 @@ import io.datakernel.csp.ChannelOutput;
 import io.datakernel.csp.ChannelSupplier;
 import io.datakernel.csp.ChannelSuppliers;
 import io.datakernel.csp.binary.BinaryChannelSupplier;
+import io.datakernel.csp.file.ChannelFileReader;
 import io.datakernel.eventloop.Eventloop;
 import io.datakernel.http.stream.*;
 import io.datakernel.net.AsyncTcpSocket;
+import io.datakernel.net.AsyncTcpSocketImpl;
 import io.datakernel.promise.Promise;
 import org.intellij.lang.annotations.MagicConstant;
 import org.jetbrains.annotations.NotNull;
 import org.jetbrains.annotations.Nullable;
 
+import java.io.IOException;
 import java.util.function.Consumer;
 
 import static io.datakernel.async.process.AsyncExecutors.ofMaxRecursiveCalls;
@@ -377,6 +380,15 @@ public abstract class AbstractHttpConnection {
 				});
 	}
 
+	/**
+	 * Renders a message which switches the connection to another protocol, such message has no body
+	 */
+	static ByteBuf renderUpgradeMessage(HttpMessage httpMessage) {
+		ByteBuf buf = ByteBufPool.allocate(httpMessage.estimateSize());
+		httpMessage.writeTo(buf);
+		return buf;
+	}
+
 	static ByteBuf renderHttpMessage(HttpMessage httpMessage) {
 		if (httpMessage.body != null) {
 			ByteBuf body = httpMessage.body;
@@ -414,6 +426,12 @@ public abstract class AbstractHttpConnection {
 		ChannelSupplier<ByteBuf> bodyStream = httpMessage.bodyStream;
 		httpMessage.bodyStream = null;
 
+		if (bodyStream instanceof ChannelFileReader && socket instanceof AsyncTcpSocketImpl &&
+				(httpMessage.flags & HttpMessage.USE_GZIP) == 0 && !((ChannelFileReader) bodyStream).isClosed()) {
+			writeFile(httpMessage, (ChannelFileReader) bodyStream, (AsyncTcpSocketImpl) socket);
+			return;
+		}
+
 		if ((httpMessage.flags & HttpMessage.USE_GZIP) != 0) {
 			httpMessage.addHeader(CONTENT_ENCODING, ofBytes(CONTENT_ENCODING_GZIP));
 			BufsConsumerGzipDeflater deflater = BufsConsumerGzipDeflater.create();
@@ -436,6 +454,46 @@ public abstract class AbstractHttpConnection {
 		writeStream(ChannelSuppliers.concat(ChannelSupplier.of(buf), bodyStream));
 	}
 
+	/**
+	 * Sends a body which is a file with {@link AsyncTcpSocketImpl#writeFile}, bypassing the heap.
+	 * The file is closed once it is sent
+	 */
+	private void writeFile(HttpMessage httpMessage, ChannelFileReader fileReader, AsyncTcpSocketImpl socket) {
+		long length = fileReader.getLength();
+		if (length == Long.MAX_VALUE) {
+			try {
+				length = max(0, fileReader.getChannel().size() - fileReader.getPosition());
+			} catch (IOException e) {
+				fileReader.close(e);
+				closeWithError(e);
+				return;
+			}
+		}
+		if (httpMessage.headers.get(CONTENT_LENGTH) == null) {
+			httpMessage.addHeader(CONTENT_LENGTH, Long.toString(length));
+		}
+
+		ByteBuf buf = ByteBufPool.allocate(httpMessage.estimateSize());
+		httpMessage.writeTo(buf);
+
+		socket.write(buf);
+		socket.writeFile(fileReader.getChannel(), fileReader.getPosition(), length)
+				.whenComplete(($, e) -> {
+					if (e == null) {
+						fileReader.close();
+					} else {
+						fileReader.close(e);
+					}
+					if (isClosed()) return;
+					if (e == null) {
+						flags |= BODY_SENT;
+						onBodySent();
+					} else {
+						closeWithError(e);
+					}
+				});
+	}
+
 	protected void writeBuf(ByteBuf buf) {
 		socket.write(buf)
 				.whenComplete(($, e) -> {
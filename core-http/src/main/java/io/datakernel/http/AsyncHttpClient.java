@@ -17,6 +17,7 @@
 package io.datakernel.http;
 
 import io.datakernel.async.service.EventloopService;
+import io.datakernel.bytebuf.ByteBufQueue;
 import io.datakernel.common.ApplicationSettings;
 import io.datakernel.common.MemSize;
 import io.datakernel.common.inspector.AbstractInspector;
@@ -34,6 +35,7 @@ import io.datakernel.eventloop.net.SocketSettings;
 import io.datakernel.jmx.api.JmxAttribute;
 import io.datakernel.jmx.api.JmxOperation;
 import io.datakernel.jmx.api.JmxReducers.JmxReducerSum;
+import io.datakernel.net.AsyncSslSocket;
 import io.datakernel.net.AsyncTcpSocket;
 import io.datakernel.net.AsyncTcpSocketImpl;
 import io.datakernel.promise.Promise;
@@ -43,6 +45,7 @@ import org.jetbrains.annotations.Nullable;
 import org.slf4j.Logger;
 
 import javax.net.ssl.SSLContext;
+import javax.net.ssl.SSLEngine;
 import javax.net.ssl.SSLException;
 import java.net.InetAddress;
 import java.net.InetSocketAddress;
@@ -78,6 +81,8 @@ public final class AsyncHttpClient implements IAsyncHttpClient, EventloopService
 	public static final Duration KEEP_ALIVE_TIMEOUT = ApplicationSettings.getDuration(AsyncHttpClient.class, "keepAliveTimeout", Duration.ZERO);
 	public static final MemSize MAX_BODY_SIZE = ApplicationSettings.getMemSize(AsyncHttpClient.class, "maxBodySize", MemSize.ZERO);
 	public static final int MAX_KEEP_ALIVE_REQUESTS = ApplicationSettings.getInt(AsyncHttpClient.class, "maxKeepAliveRequests", 0);
+	public static final MemSize HTTP2_INITIAL_WINDOW_SIZE = ApplicationSettings.getMemSize(AsyncHttpClient.class, "http2InitialWindowSize", MemSize.kilobytes(64));
+	public static final MemSize WEB_SOCKET_MAX_MESSAGE_SIZE = ApplicationSettings.getMemSize(AsyncHttpClient.class, "webSocketMaxMessageSize", MemSize.megabytes(1));
 
 	@NotNull
 	private final Eventloop eventloop;
@@ -89,6 +94,7 @@ public final class AsyncHttpClient implements IAsyncHttpClient, EventloopService
 	final HashMap<InetSocketAddress, AddressLinkedList> addresses = new HashMap<>();
 	final ConnectionsLinkedList poolKeepAlive = new ConnectionsLinkedList();
 	final ConnectionsLinkedList poolReadWrite = new ConnectionsLinkedList();
+	final HashMap<InetSocketAddress, Http2ClientConnection> http2Connections = new HashMap<>();
 	private int poolKeepAliveExpired;
 	private int poolReadWriteExpired;
 
@@ -103,6 +109,14 @@ public final class AsyncHttpClient implements IAsyncHttpClient, EventloopService
 	int maxBodySize = MAX_BODY_SIZE.toInt();
 	int maxKeepAliveRequests = MAX_KEEP_ALIVE_REQUESTS;
 
+	// HTTP/2
+	boolean http2;
+	int http2InitialWindowSize = HTTP2_INITIAL_WINDOW_SIZE.toInt();
+
+	// WebSocket
+	private int webSocketMaxMessageSize = WEB_SOCKET_MAX_MESSAGE_SIZE.toInt();
+	private boolean webSocketPerMessageDeflate;
+
 	// SSL
 	private SSLContext sslContext;
 	private Executor sslExecutor;
@@ -121,13 +135,13 @@ public final class AsyncHttpClient implements IAsyncHttpClient, EventloopService
 
 		void onResolveError(HttpRequest request, Throwable e);
 
-		void onConnect(HttpRequest request, HttpClientConnection connection);
+		void onConnect(HttpRequest request, AbstractHttpConnection connection);
 
 		void onConnectError(HttpRequest request, InetSocketAddress address, Throwable e);
 
-		void onHttpResponse(HttpClientConnection connection, HttpResponse response);
+		void onHttpResponse(AbstractHttpConnection connection, HttpResponse response);
 
-		void onHttpError(HttpClientConnection connection, boolean keepAliveConnection, Throwable e);
+		void onHttpError(AbstractHttpConnection connection, boolean keepAliveConnection, Throwable e);
 	}
 
 	@SuppressWarnings("WeakerAccess")
@@ -159,7 +173,7 @@ public final class AsyncHttpClient implements IAsyncHttpClient, EventloopService
 		}
 
 		@Override
-		public void onConnect(HttpRequest request, HttpClientConnection connection) {
+		public void onConnect(HttpRequest request, AbstractHttpConnection connection) {
 			connected.recordEvent();
 		}
 
@@ -169,12 +183,12 @@ public final class AsyncHttpClient implements IAsyncHttpClient, EventloopService
 		}
 
 		@Override
-		public void onHttpResponse(HttpClientConnection connection, HttpResponse response) {
+		public void onHttpResponse(AbstractHttpConnection connection, HttpResponse response) {
 			responses++;
 		}
 
 		@Override
-		public void onHttpError(HttpClientConnection connection, boolean keepAliveConnection, Throwable e) {
+		public void onHttpError(AbstractHttpConnection connection, boolean keepAliveConnection, Throwable e) {
 			if (e == AbstractHttpConnection.READ_TIMEOUT_ERROR || e == AbstractHttpConnection.WRITE_TIMEOUT_ERROR) {
 				httpTimeouts.recordEvent();
 				return;
@@ -300,6 +314,40 @@ public final class AsyncHttpClient implements IAsyncHttpClient, EventloopService
 		return this;
 	}
 
+	/**
+	 * Enables HTTP/2: requests to the same address are sent as concurrent streams of a single connection.
+	 * Over TLS, HTTP/2 is negotiated with ALPN, falling back to HTTP/1.1.
+	 * Cleartext connections use HTTP/2 with prior knowledge, so servers are expected to support it.
+	 */
+	public AsyncHttpClient withHttp2(boolean http2) {
+		this.http2 = http2;
+		return this;
+	}
+
+	/**
+	 * Sets the flow control window of HTTP/2 streams and connections,
+	 * which limits the amount of response body data that is buffered per stream
+	 */
+	public AsyncHttpClient withHttp2InitialWindowSize(@NotNull MemSize http2InitialWindowSize) {
+		checkArgument(http2InitialWindowSize.toInt() >= AbstractHttp2Connection.DEFAULT_WINDOW_SIZE,
+				"HTTP/2 window size should not be less than default window size");
+		this.http2InitialWindowSize = http2InitialWindowSize.toInt();
+		return this;
+	}
+
+	public AsyncHttpClient withWebSocketMaxMessageSize(@NotNull MemSize webSocketMaxMessageSize) {
+		this.webSocketMaxMessageSize = webSocketMaxMessageSize.toInt();
+		return this;
+	}
+
+	/**
+	 * Offers permessage-deflate extension to servers in WebSocket handshakes
+	 */
+	public AsyncHttpClient withWebSocketPerMessageDeflate(boolean webSocketPerMessageDeflate) {
+		this.webSocketPerMessageDeflate = webSocketPerMessageDeflate;
+		return this;
+	}
+
 	public AsyncHttpClient withInspector(Inspector inspector) {
 		this.inspector = inspector;
 		return this;
@@ -368,6 +416,10 @@ public final class AsyncHttpClient implements IAsyncHttpClient, EventloopService
 		}
 	}
 
+	void removeHttp2Connection(Http2ClientConnection connection) {
+		http2Connections.remove(connection.remoteAddress, connection);
+	}
+
 	@Override
 	public Promise<HttpResponse> request(HttpRequest request) {
 		assert eventloop.inEventloopThread();
@@ -394,10 +446,73 @@ public final class AsyncHttpClient implements IAsyncHttpClient, EventloopService
 				});
 	}
 
+	/**
+	 * Opens a WebSocket connection with a handshake request, which is sent over HTTP/1.1.
+	 * The request should be a GET request to a http or https URL of a WebSocket endpoint.
+	 *
+	 * @param request handshake request, may contain additional headers, e.g. for authentication
+	 * @return promise of WebSocket, or of {@link HttpException} if server has declined the handshake
+	 */
+	public Promise<WebSocket> webSocketRequest(HttpRequest request) {
+		String key = WebSocketImpl.generateKey();
+		request.addHeader(HttpHeaders.UPGRADE, WebSocketImpl.WEBSOCKET);
+		request.addHeader(HttpHeaders.CONNECTION, "Upgrade");
+		request.addHeader(HttpHeaders.SEC_WEBSOCKET_KEY, key);
+		request.addHeader(HttpHeaders.SEC_WEBSOCKET_VERSION, WebSocketImpl.VERSION);
+		if (webSocketPerMessageDeflate) {
+			request.addHeader(HttpHeaders.SEC_WEBSOCKET_EXTENSIONS, WebSocketImpl.PERMESSAGE_DEFLATE + "; client_max_window_bits");
+		}
+		WebSocketUpgrade upgrade = new WebSocketUpgrade();
+		request.upgradeHandler = upgrade;
+		return request(request)
+				.then(response -> {
+					AsyncTcpSocket socket = upgrade.socket;
+					if (socket == null) {
+						int code = response.getCode();
+						return response.loadBody()
+								.then($ -> Promise.ofException(HttpException.ofCode(code, "WebSocket handshake has been declined")));
+					}
+					assert upgrade.readQueue != null;
+					String accept = response.getHeader(HttpHeaders.SEC_WEBSOCKET_ACCEPT);
+					String extensions = response.getHeader(HttpHeaders.SEC_WEBSOCKET_EXTENSIONS);
+					boolean valid = WebSocketImpl.hasToken(response.getHeader(HttpHeaders.UPGRADE), WebSocketImpl.WEBSOCKET) &&
+							WebSocketImpl.getAcceptKey(key).equals(accept);
+					int deflateFlags = webSocketPerMessageDeflate ? WebSocketImpl.parseDeflateExtension(extensions, false) : -1;
+					response.recycle();
+					if (!valid || (extensions != null && deflateFlags == -1)) {
+						upgrade.readQueue.recycle();
+						socket.close();
+						return Promise.ofException(WebSocketImpl.PROTOCOL_VIOLATION);
+					}
+					return Promise.of(new WebSocketImpl(socket, upgrade.readQueue, true, webSocketMaxMessageSize, deflateFlags));
+				});
+	}
+
+	private static final class WebSocketUpgrade implements UpgradeHandler {
+		@Nullable
+		AsyncTcpSocket socket;
+		@Nullable
+		ByteBufQueue readQueue;
+
+		@Override
+		public void onUpgrade(AsyncTcpSocket socket, ByteBufQueue readQueue) {
+			this.socket = socket;
+			this.readQueue = readQueue;
+		}
+	}
+
 	private Promise<HttpResponse> doSend(HttpRequest request, InetAddress[] inetAddresses) {
 		InetAddress inetAddress = inetAddresses[(inetAddressIdx++ & Integer.MAX_VALUE) % inetAddresses.length];
 		InetSocketAddress address = new InetSocketAddress(inetAddress, request.getUrl().getPort());
 
+		// connections which are upgraded to other protocols are HTTP/1.1 only
+		boolean http2 = this.http2 && request.upgradeHandler == null;
+
+		Http2ClientConnection http2Connection = http2 ? http2Connections.get(address) : null;
+		if (http2Connection != null && http2Connection.isAvailable()) {
+			return http2Connection.send(request);
+		}
+
 		HttpClientConnection keepAliveConnection = takeKeepAliveConnection(address);
 		if (keepAliveConnection != null) {
 			return keepAliveConnection.send(request);
@@ -417,20 +532,34 @@ public final class AsyncHttpClient implements IAsyncHttpClient, EventloopService
 						String host = request.getUrl().getHost();
 						assert host != null;
 
+						if (https && http2) {
+							SSLEngine sslEngine = sslContext.createSSLEngine(host, request.getUrl().getPort());
+							sslEngine.setUseClientMode(true);
+							AbstractHttp2Connection.setApplicationProtocols(sslEngine);
+							AsyncSslSocket sslSocket = AsyncSslSocket.create(asyncTcpSocketImpl, sslEngine, sslExecutor);
+							return sslSocket.getHandshake()
+									.thenEx(($, e2) -> {
+										if (e2 == null) {
+											return AbstractHttp2Connection.H2.equals(sslSocket.getApplicationProtocol()) ?
+													sendHttp2(request, sslSocket, address) :
+													sendHttp1(request, sslSocket, address);
+										} else {
+											if (inspector != null) inspector.onConnectError(request, address, e2);
+											request.recycle();
+											return Promise.ofException(e2);
+										}
+									});
+						}
+
 						AsyncTcpSocket asyncTcpSocket = https ?
 								wrapClientSocket(asyncTcpSocketImpl,
 										host, request.getUrl().getPort(),
 										sslContext, sslExecutor) :
 								asyncTcpSocketImpl;
 
-						HttpClientConnection connection = new HttpClientConnection(eventloop, this, asyncTcpSocket, address);
-
-						if (inspector != null) inspector.onConnect(request, connection);
-
-						if (expiredConnectionsCheck == null)
-							scheduleExpiredConnectionsCheck();
-
-						return connection.send(request);
+						return http2 && !https ?
+								sendHttp2(request, asyncTcpSocket, address) :
+								sendHttp1(request, asyncTcpSocket, address);
 					} else {
 						if (inspector != null) inspector.onConnectError(request, address, e);
 						request.recycle();
@@ -439,6 +568,33 @@ public final class AsyncHttpClient implements IAsyncHttpClient, EventloopService
 				});
 	}
 
+	private Promise<HttpResponse> sendHttp1(HttpRequest request, AsyncTcpSocket asyncTcpSocket, InetSocketAddress address) {
+		HttpClientConnection connection = new HttpClientConnection(eventloop, this, asyncTcpSocket, address);
+
+		if (inspector != null) inspector.onConnect(request, connection);
+
+		if (expiredConnectionsCheck == null)
+			scheduleExpiredConnectionsCheck();
+
+		return connection.send(request);
+	}
+
+	private Promise<HttpResponse> sendHttp2(HttpRequest request, AsyncTcpSocket asyncTcpSocket, InetSocketAddress address) {
+		Http2ClientConnection connection = new Http2ClientConnection(eventloop, this, asyncTcpSocket, address);
+
+		if (inspector != null) inspector.onConnect(request, connection);
+
+		if (expiredConnectionsCheck == null)
+			scheduleExpiredConnectionsCheck();
+
+		connection.start();
+		Promise<HttpResponse> response = connection.send(request);
+		if (connection.isAvailable()) {
+			http2Connections.putIfAbsent(address, connection);
+		}
+		return response;
+	}
+
 	@NotNull
 	@Override
 	public Eventloop getEventloop() {
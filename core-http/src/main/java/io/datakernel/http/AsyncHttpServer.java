@@ -33,12 +33,15 @@ import io.datakernel.promise.SettablePromise;
 import org.jetbrains.annotations.NotNull;
 import org.jetbrains.annotations.Nullable;
 
+import javax.net.ssl.SSLContext;
+import javax.net.ssl.SSLEngine;
 import java.net.InetAddress;
 import java.net.InetSocketAddress;
 import java.time.Duration;
 import java.util.List;
 import java.util.stream.Stream;
 
+import static io.datakernel.common.Preconditions.checkArgument;
 import static io.datakernel.http.AbstractHttpConnection.READ_TIMEOUT_ERROR;
 import static java.util.stream.Collectors.toList;
 
@@ -53,6 +56,11 @@ public final class AsyncHttpServer extends AbstractServer<AsyncHttpServer> {
 	public static final Duration KEEP_ALIVE_TIMEOUT = ApplicationSettings.getDuration(AsyncHttpServer.class, "keepAliveTimeout", Duration.ofSeconds(30));
 	public static final MemSize MAX_BODY_SIZE = ApplicationSettings.getMemSize(AsyncHttpServer.class, "maxBodySize", MemSize.ZERO);
 	public static final int MAX_KEEP_ALIVE_REQUESTS = ApplicationSettings.getInt(AsyncHttpServer.class, "maxKeepAliveRequests", 0);
+	public static final int MAX_PIPELINED_REQUESTS = ApplicationSettings.getInt(AsyncHttpServer.class, "maxPipelinedRequests", 0);
+	public static final int HTTP2_MAX_CONCURRENT_STREAMS = ApplicationSettings.getInt(AsyncHttpServer.class, "http2MaxConcurrentStreams", 100);
+	public static final int HTTP2_MAX_RESETS = ApplicationSettings.getInt(AsyncHttpServer.class, "http2MaxResets", 200);
+	public static final Duration HTTP2_RESETS_INTERVAL = ApplicationSettings.getDuration(AsyncHttpServer.class, "http2ResetsInterval", Duration.ofSeconds(30));
+	public static final MemSize HTTP2_INITIAL_WINDOW_SIZE = ApplicationSettings.getMemSize(AsyncHttpServer.class, "http2InitialWindowSize", MemSize.kilobytes(64));
 
 	@NotNull
 	private final AsyncServlet servlet;
@@ -65,6 +73,12 @@ public final class AsyncHttpServer extends AbstractServer<AsyncHttpServer> {
 	int keepAliveTimeoutMillis = (int) KEEP_ALIVE_TIMEOUT.toMillis();
 	int maxBodySize = MAX_BODY_SIZE.toInt();
 	int maxKeepAliveRequests = MAX_KEEP_ALIVE_REQUESTS;
+	int maxPipelinedRequests = MAX_PIPELINED_REQUESTS;
+	boolean http2;
+	int http2MaxConcurrentStreams = HTTP2_MAX_CONCURRENT_STREAMS;
+	int http2MaxResets = HTTP2_MAX_RESETS;
+	int http2ResetsIntervalMillis = (int) HTTP2_RESETS_INTERVAL.toMillis();
+	int http2InitialWindowSize = HTTP2_INITIAL_WINDOW_SIZE.toInt();
 
 	final ConnectionsLinkedList poolNew = new ConnectionsLinkedList();
 	final ConnectionsLinkedList poolReadWrite = new ConnectionsLinkedList();
@@ -171,6 +185,64 @@ public final class AsyncHttpServer extends AbstractServer<AsyncHttpServer> {
 		return this;
 	}
 
+	/**
+	 * Enables HTTP/1.1 pipelining: requests which are sent by a client without waiting
+	 * for responses to previous requests are read and served concurrently,
+	 * up to the given number of requests per connection.
+	 * Responses are sent in order of requests, ready responses are sent together with a single write.
+	 * <p>
+	 * With the default value of 0, as well as with 1, a connection serves one request at a time.
+	 */
+	public AsyncHttpServer withMaxPipelinedRequests(int maxPipelinedRequests) {
+		this.maxPipelinedRequests = maxPipelinedRequests;
+		return this;
+	}
+
+	/**
+	 * Enables HTTP/2: a connection which starts with HTTP/2 connection preface is served
+	 * as HTTP/2 connection, each of its streams is handled by the servlet as a separate request.
+	 * Over TLS, HTTP/2 is negotiated with ALPN, cleartext connections require prior knowledge
+	 * of HTTP/2 support by clients, upgrade from HTTP/1.1 is not supported.
+	 */
+	public AsyncHttpServer withHttp2(boolean http2) {
+		this.http2 = http2;
+		return this;
+	}
+
+	/**
+	 * Limits the number of concurrent streams of an HTTP/2 connection. Streams which are reset by a client
+	 * are counted until their servlets complete, so that resetting streams does not let a client
+	 * run more servlets at once.
+	 */
+	public AsyncHttpServer withHttp2MaxConcurrentStreams(int http2MaxConcurrentStreams) {
+		checkArgument(http2MaxConcurrentStreams > 0, "Max concurrent streams should be positive");
+		this.http2MaxConcurrentStreams = http2MaxConcurrentStreams;
+		return this;
+	}
+
+	/**
+	 * Limits the number of streams a client may reset within an interval, an HTTP/2 connection
+	 * which exceeds the limit is closed with GOAWAY frame with ENHANCE_YOUR_CALM error code
+	 */
+	public AsyncHttpServer withHttp2MaxResets(int http2MaxResets, @NotNull Duration http2ResetsInterval) {
+		checkArgument(http2MaxResets > 0, "Max resets should be positive");
+		checkArgument(!http2ResetsInterval.isNegative() && !http2ResetsInterval.isZero(), "Resets interval should be positive");
+		this.http2MaxResets = http2MaxResets;
+		this.http2ResetsIntervalMillis = (int) http2ResetsInterval.toMillis();
+		return this;
+	}
+
+	/**
+	 * Sets the flow control window of HTTP/2 streams and connections,
+	 * which limits the amount of request body data that is buffered per stream
+	 */
+	public AsyncHttpServer withHttp2InitialWindowSize(@NotNull MemSize http2InitialWindowSize) {
+		checkArgument(http2InitialWindowSize.toInt() >= AbstractHttp2Connection.DEFAULT_WINDOW_SIZE,
+				"HTTP/2 window size should not be less than default window size");
+		this.http2InitialWindowSize = http2InitialWindowSize.toInt();
+		return this;
+	}
+
 	public AsyncHttpServer withNoKeepAlive() {
 		return withKeepAliveTimeout(Duration.ZERO);
 	}
@@ -215,6 +287,30 @@ public final class AsyncHttpServer extends AbstractServer<AsyncHttpServer> {
 		return Duration.ofMillis(readWriteTimeoutMillis);
 	}
 
+	public int getMaxPipelinedRequests() {
+		return maxPipelinedRequests;
+	}
+
+	public boolean isHttp2() {
+		return http2;
+	}
+
+	public int getHttp2MaxConcurrentStreams() {
+		return http2MaxConcurrentStreams;
+	}
+
+	public int getHttp2MaxResets() {
+		return http2MaxResets;
+	}
+
+	public Duration getHttp2ResetsInterval() {
+		return Duration.ofMillis(http2ResetsIntervalMillis);
+	}
+
+	public MemSize getHttp2InitialWindowSize() {
+		return MemSize.of(http2InitialWindowSize);
+	}
+
 	public Promise<Void> getCloseNotification() {
 		return closeNotification;
 	}
@@ -250,6 +346,15 @@ public final class AsyncHttpServer extends AbstractServer<AsyncHttpServer> {
 		connection.serve();
 	}
 
+	@Override
+	protected SSLEngine createSslEngine(SSLContext sslContext) {
+		SSLEngine engine = super.createSslEngine(sslContext);
+		if (http2) {
+			AbstractHttp2Connection.setApplicationProtocols(engine);
+		}
+		return engine;
+	}
+
 	private final SettablePromise<@Nullable Void> closeNotification = new SettablePromise<>();
 
 	@Nullable
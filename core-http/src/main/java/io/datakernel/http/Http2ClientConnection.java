@@ -0,0 +1,264 @@
+/*
+ * Copyright (C) 2015-2019 SoftIndex LLC.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package io.datakernel.http;
+
+import io.datakernel.bytebuf.ByteBuf;
+import io.datakernel.common.parse.ParseException;
+import io.datakernel.eventloop.Eventloop;
+import io.datakernel.http.AsyncHttpClient.Inspector;
+import io.datakernel.net.AsyncTcpSocket;
+import io.datakernel.promise.Promise;
+import io.datakernel.promise.SettablePromise;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+import java.net.InetSocketAddress;
+import java.util.Arrays;
+import java.util.List;
+
+import static io.datakernel.bytebuf.ByteBufStrings.*;
+import static io.datakernel.http.Http2Exception.NO_ERROR;
+import static io.datakernel.http.HttpClientConnection.CONNECTION_CLOSED;
+import static io.datakernel.http.HttpHeaderValue.ofBytes;
+import static io.datakernel.http.HttpHeaders.HOST;
+import static io.datakernel.http.HttpMessage.MUST_LOAD_BODY;
+
+/**
+ * HTTP/2 client connection, which sends concurrent requests to the same address as streams of a single connection.
+ * <p>
+ * A connection is in the read/write pool of its client while it has open streams,
+ * and in the keep-alive pool otherwise.
+ */
+final class Http2ClientConnection extends AbstractHttp2Connection {
+	public static final Http2Exception GOAWAY_RECEIVED = new Http2Exception(Http2ClientConnection.class, Http2Exception.REFUSED_STREAM, "Stream is not processed by server due to GOAWAY");
+
+	private static final byte[] METHOD = encodeAscii(":method");
+	private static final byte[] SCHEME = encodeAscii(":scheme");
+	private static final byte[] AUTHORITY = encodeAscii(":authority");
+	private static final byte[] PATH = encodeAscii(":path");
+	private static final byte[] STATUS = encodeAscii(":status");
+	private static final byte[] HTTP = encodeAscii("http");
+	private static final byte[] HTTPS = encodeAscii("https");
+
+	private final AsyncHttpClient client;
+	@Nullable
+	private final Inspector inspector;
+
+	final InetSocketAddress remoteAddress;
+	private final int maxBodySize;
+
+	private int nextStreamId = 1;
+
+	Http2ClientConnection(Eventloop eventloop, AsyncHttpClient client,
+			AsyncTcpSocket socket, InetSocketAddress remoteAddress) {
+		super(eventloop, socket, client.http2InitialWindowSize);
+		this.client = client;
+		this.inspector = client.inspector;
+		this.remoteAddress = remoteAddress;
+		this.maxBodySize = client.maxBodySize;
+	}
+
+	/**
+	 * Sends the connection preface and starts reading frames of the server
+	 */
+	void start() {
+		(pool = client.poolKeepAlive).addLastNode(this);
+		poolTimestamp = eventloop.currentTimeMillis();
+		writePreface();
+		writeSettings(0, false);
+		readFrames();
+	}
+
+	/**
+	 * Returns {@code true} if a new stream can be opened within this connection
+	 */
+	boolean isAvailable() {
+		return !isClosed() && !goAwaySent && !goAwayReceived &&
+				streams.size() < remoteMaxConcurrentStreams && nextStreamId > 0;
+	}
+
+	/**
+	 * Sends the request as a new stream and recycles it
+	 *
+	 * @param request request for sending
+	 */
+	public Promise<HttpResponse> send(HttpRequest request) {
+		assert isAvailable();
+		Http2Stream stream = openStream(nextStreamId);
+		nextStreamId += 2;
+		SettablePromise<HttpResponse> promise = new SettablePromise<>();
+		stream.promise = promise;
+		updatePool();
+
+		UrlParser url = request.getUrl();
+		HttpHeaderValue host = request.headers.get(HOST);
+		String path = request.getPathAndQuery();
+		byte[][] pseudoHeaders = {
+				METHOD, request.getMethod().bytes,
+				SCHEME, url.isHttps() ? HTTPS : HTTP,
+				AUTHORITY, host != null ? host.getBuf().asArray() : encodeAscii(url.getHostAndPort()),
+				PATH, encodeAscii(path.isEmpty() ? "/" : path)};
+		writeMessage(stream, pseudoHeaders, request);
+		request.recycle();
+		return promise;
+	}
+
+	@Override
+	protected boolean isIdleStream(int streamId) {
+		return (streamId & 1) == 0 || streamId >= nextStreamId;
+	}
+
+	@Override
+	protected void onHeaders(int streamId, List<byte[]> headers, boolean endStream) throws Http2Exception {
+		if (isIdleStream(streamId)) throw PROTOCOL_VIOLATION;
+		Http2Stream stream = streams.get(streamId);
+		if (stream == null) return; // the stream is already reset
+		if (stream.remoteClosed) throw PROTOCOL_VIOLATION;
+
+		if (stream.response != null) {
+			// trailers are not exposed by HttpResponse, so they are skipped
+			if (!endStream) throw PROTOCOL_VIOLATION;
+			stream.remoteClosed = true;
+			assert stream.body != null;
+			stream.body.end();
+			onRemoteEnd(stream);
+			return;
+		}
+
+		HttpResponse response;
+		try {
+			response = createResponse(headers);
+		} catch (ParseException e) {
+			resetStream(stream, MALFORMED_HEADERS);
+			return;
+		}
+		if (response.getCode() < 200) {
+			// informational responses are skipped
+			if (endStream) throw PROTOCOL_VIOLATION;
+			return;
+		}
+
+		stream.response = response;
+		response.flags |= MUST_LOAD_BODY;
+		response.maxBodySize = maxBodySize;
+		if (endStream) {
+			stream.remoteClosed = true;
+			response.body = ByteBuf.empty();
+		} else {
+			response.bodyStream = createBody(stream);
+		}
+		if (inspector != null) inspector.onHttpResponse(this, response);
+
+		SettablePromise<HttpResponse> promise = stream.promise;
+		stream.promise = null;
+		assert promise != null;
+		promise.set(response);
+
+		if (endStream && !stream.closed && !isClosed()) {
+			onRemoteEnd(stream);
+		}
+	}
+
+	private static HttpResponse createResponse(List<byte[]> headers) throws ParseException {
+		if (headers.size() < 2 || !Arrays.equals(headers.get(0), STATUS)) throw MALFORMED_HEADERS;
+		byte[] status = headers.get(1);
+		int code = decodePositiveInt(status, 0, status.length);
+		if (code < 100 || code >= 600) throw MALFORMED_HEADERS;
+		HttpResponse response = new HttpResponse(code);
+		for (int i = 2; i < headers.size(); i += 2) {
+			byte[] name = headers.get(i);
+			if (response.headers.size() >= MAX_HEADERS) throw TOO_MANY_HEADERS;
+			if (name.length == 0 || name[0] == ':') throw MALFORMED_HEADERS;
+			response.addHeader(HttpHeaders.of(name, 0, name.length, hashCodeLowerCaseAscii(name, 0, name.length)), ofBytes(headers.get(i + 1)));
+		}
+		return response;
+	}
+
+	@Override
+	protected void onStreamClosed(Http2Stream stream, @Nullable Throwable e) {
+		if (stream.promise != null) {
+			SettablePromise<HttpResponse> promise = stream.promise;
+			stream.promise = null;
+			Throwable error = e != null ? e : CONNECTION_CLOSED;
+			if (inspector != null) inspector.onHttpError(this, false, error);
+			promise.setException(error);
+		}
+		if (stream.response != null) {
+			stream.response.recycle();
+			stream.response = null;
+		}
+		if (isClosed()) return;
+		updatePool();
+		if (streams.isEmpty() && client.keepAliveTimeoutMillis == 0) {
+			goAway(NO_ERROR);
+		}
+	}
+
+	@Override
+	protected void onResetReceived(int streamId) {
+	}
+
+	@Override
+	protected void onGoAway(int lastStreamId) {
+		client.removeHttp2Connection(this);
+		for (Http2Stream stream : streams.values().toArray(new Http2Stream[0])) {
+			if (stream.id > lastStreamId) {
+				closeStream(stream, GOAWAY_RECEIVED);
+			}
+		}
+	}
+
+	@Override
+	protected void onRead() {
+		if (pool == client.poolReadWrite) {
+			switchPool(client.poolReadWrite);
+		}
+	}
+
+	private void updatePool() {
+		ConnectionsLinkedList newPool = streams.isEmpty() ? client.poolKeepAlive : client.poolReadWrite;
+		if (pool != newPool) {
+			switchPool(newPool);
+		}
+	}
+
+	@Override
+	protected void onClosedWithError(@NotNull Throwable e) {
+		if (inspector != null) inspector.onHttpError(this, streams.isEmpty(), e);
+	}
+
+	@Override
+	protected void onClosed() {
+		client.removeHttp2Connection(this);
+		closeStreams(CONNECTION_CLOSED);
+		//noinspection ConstantConditions
+		pool.removeNode(this);
+		//noinspection AssertWithSideEffects,ConstantConditions
+		assert (pool = null) == null;
+		client.onConnectionClosed();
+	}
+
+	@Override
+	public String toString() {
+		return "Http2ClientConnection{" +
+				"remoteAddress=" + remoteAddress +
+				", nextStreamId=" + nextStreamId +
+				", " + super.toString() +
+				'}';
+	}
+}
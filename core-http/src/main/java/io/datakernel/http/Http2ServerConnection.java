@@ -0,0 +1,321 @@
+/*
+ * Copyright (C) 2015-2019 SoftIndex LLC.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package io.datakernel.http;
+
+import io.datakernel.bytebuf.ByteBuf;
+import io.datakernel.common.exception.UncheckedException;
+import io.datakernel.common.parse.ParseException;
+import io.datakernel.eventloop.Eventloop;
+import io.datakernel.http.AsyncHttpServer.Inspector;
+import io.datakernel.net.AsyncTcpSocket;
+import io.datakernel.promise.Promise;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+import java.net.InetAddress;
+import java.util.Arrays;
+import java.util.List;
+
+import static io.datakernel.bytebuf.ByteBufStrings.*;
+import static io.datakernel.http.Http2Exception.ENHANCE_YOUR_CALM;
+import static io.datakernel.http.Http2Exception.NO_ERROR;
+import static io.datakernel.http.HttpHeaderValue.ofBytes;
+import static io.datakernel.http.HttpClientConnection.CONNECTION_CLOSED;
+import static io.datakernel.http.HttpHeaders.HOST;
+import static io.datakernel.http.HttpMessage.MUST_LOAD_BODY;
+
+/**
+ * HTTP/2 server connection, each stream of which is served as a separate {@link HttpRequest}.
+ * <p>
+ * A connection is in the serving pool of its server while any request is handled by a servlet,
+ * in the read/write pool while responses are sent or request bodies are received,
+ * and in the keep-alive pool when it has no open streams.
+ */
+final class Http2ServerConnection extends AbstractHttp2Connection {
+	private static final byte[] METHOD = encodeAscii(":method");
+	private static final byte[] SCHEME = encodeAscii(":scheme");
+	private static final byte[] AUTHORITY = encodeAscii(":authority");
+	private static final byte[] PATH = encodeAscii(":path");
+	private static final byte[] STATUS = encodeAscii(":status");
+
+	public static final Http2Exception TOO_MANY_RESETS = new Http2Exception(Http2ServerConnection.class, ENHANCE_YOUR_CALM, "Too many streams are reset by client");
+
+	private final InetAddress remoteAddress;
+	private final AsyncHttpServer server;
+	@Nullable
+	private final Inspector inspector;
+	private final AsyncServlet servlet;
+	private final int maxBodySize;
+
+	private int servingStreams;
+	// streams which are closed, but are still served, they count towards max concurrent streams
+	private int closedServingStreams;
+
+	private int resets;
+	private long resetsIntervalStart;
+
+	Http2ServerConnection(Eventloop eventloop, InetAddress remoteAddress, AsyncTcpSocket socket,
+			AsyncHttpServer server, AsyncServlet servlet) {
+		super(eventloop, socket, server.http2InitialWindowSize);
+		this.remoteAddress = remoteAddress;
+		this.server = server;
+		this.servlet = servlet;
+		this.inspector = server.inspector;
+		this.maxBodySize = server.maxBodySize;
+	}
+
+	/**
+	 * Starts serving, the connection preface of a client is expected to be in the read queue already
+	 */
+	void serve() {
+		(pool = server.poolKeepAlive).addLastNode(this);
+		poolTimestamp = eventloop.currentTimeMillis();
+		readQueue.skip(PREFACE.length);
+		writeSettings(server.http2MaxConcurrentStreams, true);
+		readFrames();
+	}
+
+	@Override
+	protected boolean isIdleStream(int streamId) {
+		return (streamId & 1) == 0 || streamId > lastRemoteStreamId;
+	}
+
+	@Override
+	protected void onHeaders(int streamId, List<byte[]> headers, boolean endStream) throws Http2Exception {
+		Http2Stream stream = streams.get(streamId);
+		if (stream != null) {
+			// trailers are not exposed by HttpRequest, so they are skipped
+			if (stream.remoteClosed || !endStream) throw PROTOCOL_VIOLATION;
+			stream.remoteClosed = true;
+			if (stream.body != null) {
+				stream.body.end();
+			}
+			onRemoteEnd(stream);
+			return;
+		}
+		if ((streamId & 1) == 0 || streamId <= lastRemoteStreamId) throw PROTOCOL_VIOLATION;
+		lastRemoteStreamId = streamId;
+
+		if (goAwaySent || streams.size() + closedServingStreams >= server.http2MaxConcurrentStreams) {
+			writeRstStream(streamId, STREAM_REFUSED.getErrorCode());
+			return;
+		}
+
+		HttpRequest request;
+		try {
+			request = createRequest(headers);
+		} catch (ParseException e) {
+			writeRstStream(streamId, MALFORMED_HEADERS.getErrorCode());
+			if (inspector != null) inspector.onHttpError(remoteAddress, e);
+			return;
+		}
+
+		stream = openStream(streamId);
+		stream.request = request;
+		request.flags |= MUST_LOAD_BODY;
+		request.maxBodySize = maxBodySize;
+		request.setRemoteAddress(remoteAddress);
+		if (endStream) {
+			stream.remoteClosed = true;
+			request.body = ByteBuf.empty();
+		} else {
+			request.bodyStream = createBody(stream);
+		}
+
+		if (server.maxKeepAliveRequests != 0 && ++numberOfKeepAliveRequests >= server.maxKeepAliveRequests) {
+			goAway(NO_ERROR);
+		}
+
+		if (inspector != null) inspector.onHttpRequest(request);
+
+		stream.serving = true;
+		servingStreams++;
+		updatePool();
+
+		Promise<HttpResponse> servletResult;
+		try {
+			servletResult = servlet.serveAsync(request);
+		} catch (UncheckedException u) {
+			servletResult = Promise.ofException(u.getCause());
+		}
+		Http2Stream servedStream = stream;
+		servletResult.whenComplete((response, e) -> onServletResult(servedStream, response, e));
+	}
+
+	private static HttpRequest createRequest(List<byte[]> headers) throws ParseException {
+		HttpMethod method = null;
+		String path = null;
+		byte[] authority = null;
+		int i = 0;
+		for (; i < headers.size(); i += 2) {
+			byte[] name = headers.get(i);
+			if (name.length == 0 || name[0] != ':') break;
+			byte[] value = headers.get(i + 1);
+			if (Arrays.equals(name, METHOD)) {
+				method = toMethod(value);
+			} else if (Arrays.equals(name, PATH)) {
+				path = decodeAscii(value);
+			} else if (Arrays.equals(name, AUTHORITY)) {
+				authority = value;
+			} else if (!Arrays.equals(name, SCHEME)) {
+				throw MALFORMED_HEADERS;
+			}
+		}
+		if (method == null || path == null || path.isEmpty()) throw MALFORMED_HEADERS;
+
+		HttpRequest request = new HttpRequest(method, UrlParser.parse(path));
+		if (authority != null) {
+			request.addHeader(HOST, ofBytes(authority));
+		}
+		for (; i < headers.size(); i += 2) {
+			byte[] name = headers.get(i);
+			if (request.headers.size() >= MAX_HEADERS) throw TOO_MANY_HEADERS;
+			if (name.length == 0 || name[0] == ':') throw MALFORMED_HEADERS;
+			request.addHeader(HttpHeaders.of(name, 0, name.length, hashCodeLowerCaseAscii(name, 0, name.length)), ofBytes(headers.get(i + 1)));
+		}
+		return request;
+	}
+
+	private static HttpMethod toMethod(byte[] value) throws ParseException {
+		for (HttpMethod method : HttpMethod.values()) {
+			if (method.compareTo(value, 0, value.length)) {
+				return method;
+			}
+		}
+		throw MALFORMED_HEADERS;
+	}
+
+	private void onServletResult(Http2Stream stream, @Nullable HttpResponse response, @Nullable Throwable e) {
+		assert eventloop.inEventloopThread();
+		HttpRequest request = stream.request;
+		assert request != null;
+		stream.serving = false;
+		servingStreams--;
+		if (stream.closed) {
+			closedServingStreams--;
+		}
+		if (isClosed() || stream.closed) {
+			request.recycle();
+			if (response != null) {
+				response.recycle();
+			}
+			return;
+		}
+		if (e == null) {
+			if (inspector != null) inspector.onHttpResponse(request, response);
+		} else {
+			if (inspector != null) inspector.onServletException(request, e);
+			response = server.formatHttpError(e);
+		}
+
+		if (request.bodyStream != null) {
+			request.bodyStream.streamTo(BUF_RECYCLER);
+			request.bodyStream = null;
+		}
+
+		updatePool();
+		writeMessage(stream, new byte[][]{STATUS, encodeAscii(Integer.toString(response.getCode()))}, response);
+		response.recycle();
+	}
+
+	@Override
+	protected void onLocalEnd(Http2Stream stream) {
+		if (!stream.remoteClosed) {
+			// the rest of a request body is not needed after the response is sent
+			writeRstStream(stream.id, NO_ERROR);
+			stream.remoteClosed = true;
+			if (stream.body != null) {
+				stream.body.end();
+			}
+		}
+		closeStream(stream, null);
+	}
+
+	@Override
+	protected void onStreamClosed(Http2Stream stream, @Nullable Throwable e) {
+		if (stream.serving) {
+			closedServingStreams++;
+		} else {
+			assert stream.request != null;
+			stream.request.recycle();
+		}
+		if (isClosed()) return;
+		if (e != null && inspector != null) {
+			inspector.onHttpError(remoteAddress, e);
+		}
+		updatePool();
+		if (streams.isEmpty() && server.keepAliveTimeoutMillis == 0) {
+			goAway(NO_ERROR);
+		}
+	}
+
+	@Override
+	protected void onResetReceived(int streamId) throws Http2Exception {
+		long now = eventloop.currentTimeMillis();
+		if (now - resetsIntervalStart >= server.http2ResetsIntervalMillis) {
+			resetsIntervalStart = now;
+			resets = 0;
+		}
+		if (++resets > server.http2MaxResets) throw TOO_MANY_RESETS;
+	}
+
+	@Override
+	protected void onGoAway(int lastStreamId) {
+	}
+
+	@Override
+	protected void onRead() {
+		if (pool == server.poolReadWrite) {
+			switchPool(server.poolReadWrite);
+		}
+	}
+
+	private void updatePool() {
+		ConnectionsLinkedList newPool = servingStreams != 0 ? server.poolServing :
+				!streams.isEmpty() ? server.poolReadWrite :
+						server.poolKeepAlive;
+		if (pool != newPool) {
+			switchPool(newPool);
+		}
+	}
+
+	@Override
+	protected void onClosedWithError(@NotNull Throwable e) {
+		if (inspector != null) {
+			inspector.onHttpError(remoteAddress, e);
+		}
+	}
+
+	@Override
+	protected void onClosed() {
+		closeStreams(CONNECTION_CLOSED);
+		//noinspection ConstantConditions
+		pool.removeNode(this);
+		//noinspection AssertWithSideEffects,ConstantConditions
+		assert (pool = null) == null;
+		server.onConnectionClosed();
+	}
+
+	@Override
+	public String toString() {
+		return "Http2ServerConnection{" +
+				"remoteAddress=" + remoteAddress +
+				", " + super.toString() +
+				'}';
+	}
+}
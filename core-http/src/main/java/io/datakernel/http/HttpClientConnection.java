@@ -17,6 +17,7 @@
 package io.datakernel.http;
 
 import io.datakernel.bytebuf.ByteBuf;
+import io.datakernel.bytebuf.ByteBufQueue;
 import io.datakernel.common.parse.ParseException;
 import io.datakernel.common.parse.UnknownFormatException;
 import io.datakernel.csp.ChannelSupplier;
@@ -95,6 +96,8 @@ final class HttpClientConnection extends AbstractHttpConnection {
 	@Nullable HttpClientConnection addressPrev;
 	HttpClientConnection addressNext;
 	final int maxBodySize;
+	@Nullable
+	private UpgradeHandler upgradeHandler;
 
 	HttpClientConnection(Eventloop eventloop, AsyncHttpClient client,
 			AsyncTcpSocket asyncTcpSocket, InetSocketAddress remoteAddress) {
@@ -185,10 +188,28 @@ final class HttpClientConnection extends AbstractHttpConnection {
 
 		SettablePromise<HttpResponse> promise = this.promise;
 		this.promise = null;
+		if (upgradeHandler != null && response.getCode() == 101) {
+			this.response = null;
+			switchProtocols(upgradeHandler);
+		}
 		//noinspection ConstantConditions
 		promise.set(response);
 	}
 
+	/**
+	 * Hands the socket over to the handler of the request, this connection is detached from the client
+	 */
+	private void switchProtocols(UpgradeHandler upgradeHandler) {
+		ByteBufQueue queue = new ByteBufQueue();
+		readQueue.drainTo(queue);
+		//noinspection ConstantConditions
+		pool.removeNode(this);
+		pool = null;
+		flags = CLOSED;
+		client.onConnectionClosed();
+		upgradeHandler.onUpgrade(socket, queue);
+	}
+
 	@Override
 	protected void onBodyReceived() {
 		if (response != null && (flags & (BODY_SENT | BODY_RECEIVED)) == (BODY_SENT | BODY_RECEIVED)) {
@@ -239,16 +260,22 @@ final class HttpClientConnection extends AbstractHttpConnection {
 		assert pool == null;
 		(pool = client.poolReadWrite).addLastNode(this);
 		poolTimestamp = eventloop.currentTimeMillis();
-		HttpHeaderValue connectionHeader = CONNECTION_KEEP_ALIVE_HEADER;
-		if (client.keepAliveTimeoutMillis == 0) {
-			connectionHeader = CONNECTION_CLOSE_HEADER;
-		} else if (client.maxKeepAliveRequests != 0) {
-			if (++numberOfKeepAliveRequests >= client.maxKeepAliveRequests) {
+		ByteBuf buf;
+		if (request.upgradeHandler == null) {
+			HttpHeaderValue connectionHeader = CONNECTION_KEEP_ALIVE_HEADER;
+			if (client.keepAliveTimeoutMillis == 0) {
 				connectionHeader = CONNECTION_CLOSE_HEADER;
+			} else if (client.maxKeepAliveRequests != 0) {
+				if (++numberOfKeepAliveRequests >= client.maxKeepAliveRequests) {
+					connectionHeader = CONNECTION_CLOSE_HEADER;
+				}
 			}
+			request.addHeader(CONNECTION, connectionHeader);
+			buf = renderHttpMessage(request);
+		} else {
+			upgradeHandler = request.upgradeHandler;
+			buf = renderUpgradeMessage(request);
 		}
-		request.addHeader(CONNECTION, connectionHeader);
-		ByteBuf buf = renderHttpMessage(request);
 		if (buf != null) {
 			writeBuf(buf);
 		} else {
@@ -69,6 +69,11 @@ public abstract class HttpMessage {
 	@Nullable ByteBuf body;
 	@Nullable ChannelSupplier<ByteBuf> bodyStream;
 	Recyclable bufs;
+	/**
+	 * Handler which takes over the connection after the message with
+	 * {@code Upgrade} header has been exchanged, e.g. for WebSocket protocol
+	 */
+	@Nullable UpgradeHandler upgradeHandler;
 
 	protected int maxBodySize;
 	protected Map<Object, Object> attachments;
@@ -17,6 +17,7 @@
 package io.datakernel.http;
 
 import io.datakernel.bytebuf.ByteBuf;
+import io.datakernel.bytebuf.ByteBufQueue;
 import io.datakernel.common.concurrent.ThreadLocalCharArray;
 import io.datakernel.common.exception.UncheckedException;
 import io.datakernel.common.parse.ParseException;
@@ -30,9 +31,11 @@ import org.jetbrains.annotations.NotNull;
 import org.jetbrains.annotations.Nullable;
 
 import java.net.InetAddress;
+import java.util.ArrayDeque;
 import java.util.Arrays;
 
 import static io.datakernel.bytebuf.ByteBufStrings.*;
+import static io.datakernel.http.AbstractHttp2Connection.PREFACE;
 import static io.datakernel.http.HttpHeaders.CONNECTION;
 import static io.datakernel.http.HttpMessage.MUST_LOAD_BODY;
 import static io.datakernel.http.HttpMethod.*;
@@ -74,9 +77,31 @@ final class HttpServerConnection extends AbstractHttpConnection {
 	private final char[] charBuffer;
 	private final int maxBodySize;
 
+	@Nullable
+	private final ArrayDeque<PipelinedRequest> pipeline;
+	private int pipelineServing;
+	private int pipelineWriting;
+	private boolean pipelineReadSuspended;
+
 	private static final byte[] EXPECT_100_CONTINUE = encodeAscii("100-continue");
 	private static final byte[] EXPECT_RESPONSE_CONTINUE = encodeAscii("HTTP/1.1 100 Continue\r\n\r\n");
 
+	/**
+	 * A request which is received while responses to previous requests of the connection may not be sent yet
+	 */
+	private static final class PipelinedRequest {
+		final HttpRequest request;
+		boolean keepAlive;
+		boolean served;
+		@Nullable
+		HttpResponse response;
+
+		PipelinedRequest(HttpRequest request, boolean keepAlive) {
+			this.request = request;
+			this.keepAlive = keepAlive;
+		}
+	}
+
 	/**
 	 * Creates a new instance of HttpServerConnection
 	 *
@@ -94,12 +119,86 @@ final class HttpServerConnection extends AbstractHttpConnection {
 		this.inspector = server.inspector;
 		this.charBuffer = charBuffer;
 		this.maxBodySize = server.maxBodySize;
+		this.pipeline = server.maxPipelinedRequests > 1 ? new ArrayDeque<>() : null;
 	}
 
 	public void serve() {
 		(pool = server.poolNew).addLastNode(this);
 		poolTimestamp = eventloop.currentTimeMillis();
-		socket.read().whenComplete(startLineConsumer);
+		if (server.http2) {
+			readPreface();
+		} else {
+			socket.read().whenComplete(startLineConsumer);
+		}
+	}
+
+	/**
+	 * Reads the first bytes of a connection until they either match HTTP/2 connection preface,
+	 * or are known to be an HTTP/1 request
+	 */
+	private void readPreface() {
+		socket.read()
+				.whenComplete((buf, e) -> {
+					if (e == null) {
+						if (buf != null) {
+							readQueue.add(buf);
+							int size = Math.min(readQueue.remainingBytes(), PREFACE.length);
+							for (int i = 0; i < size; i++) {
+								if (readQueue.peekByte(i) != PREFACE[i]) {
+									try {
+										readHttpMessage();
+									} catch (ParseException e1) {
+										closeWithError(e1);
+									}
+									return;
+								}
+							}
+							if (size == PREFACE.length) {
+								switchToHttp2();
+							} else {
+								readPreface();
+							}
+						} else {
+							close();
+						}
+					} else {
+						closeWithError(e);
+					}
+				});
+	}
+
+	/**
+	 * Hands the socket over to an HTTP/2 connection, this connection is detached from the server
+	 */
+	private void switchToHttp2() {
+		Http2ServerConnection connection = new Http2ServerConnection(eventloop, remoteAddress, socket, server, servlet);
+		readQueue.drainTo(connection.readQueue);
+		//noinspection ConstantConditions
+		pool.removeNode(this);
+		pool = null;
+		flags = CLOSED;
+		connection.serve();
+	}
+
+	/**
+	 * Sends a response which switches protocols and hands the socket over to the handler of the response,
+	 * this connection is detached from the server
+	 */
+	private void switchProtocols(HttpRequest request, HttpResponse response) {
+		UpgradeHandler upgradeHandler = response.upgradeHandler;
+		assert upgradeHandler != null;
+		ByteBuf buf = renderUpgradeMessage(response);
+		response.recycle();
+		request.recycle();
+		ByteBufQueue queue = new ByteBufQueue();
+		readQueue.drainTo(queue);
+		//noinspection ConstantConditions
+		pool.removeNode(this);
+		pool = null;
+		flags = CLOSED;
+		server.onConnectionClosed();
+		socket.write(buf);
+		upgradeHandler.onUpgrade(socket, queue);
 	}
 
 	@Override
@@ -117,7 +216,9 @@ final class HttpServerConnection extends AbstractHttpConnection {
 	@SuppressWarnings("PointlessArithmeticExpression")
 	@Override
 	protected void onStartLine(byte[] line, int limit) throws ParseException {
-		switchPool(server.poolReadWrite);
+		if (pipeline == null || pipeline.isEmpty()) {
+			switchPool(server.poolReadWrite);
+		}
 
 		HttpMethod method = getHttpMethod(line);
 		if (method == null) {
@@ -205,7 +306,7 @@ final class HttpServerConnection extends AbstractHttpConnection {
 	 */
 	@Override
 	protected void onHeader(HttpHeader header, byte[] array, int off, int len) throws ParseException {
-		if (header == HttpHeaders.EXPECT) {
+		if (header == HttpHeaders.EXPECT && (pipeline == null || pipeline.isEmpty())) {
 			if (equalsLowerCaseAscii(EXPECT_100_CONTINUE, array, off, len)) {
 				socket.write(ByteBuf.wrapForReading(EXPECT_RESPONSE_CONTINUE));
 			}
@@ -217,14 +318,18 @@ final class HttpServerConnection extends AbstractHttpConnection {
 		request.addHeader(header, array, off, len);
 	}
 
-	private void writeHttpResponse(HttpResponse httpResponse) {
-		HttpHeaderValue connectionHeader = (flags & KEEP_ALIVE) != 0 ? CONNECTION_KEEP_ALIVE_HEADER : CONNECTION_CLOSE_HEADER;
+	private boolean addConnectionHeader(HttpResponse httpResponse, boolean keepAlive) {
 		if (server.maxKeepAliveRequests != 0) {
 			if (++numberOfKeepAliveRequests >= server.maxKeepAliveRequests) {
-				connectionHeader = CONNECTION_CLOSE_HEADER;
+				keepAlive = false;
 			}
 		}
-		httpResponse.addHeader(CONNECTION, connectionHeader);
+		httpResponse.addHeader(CONNECTION, keepAlive ? CONNECTION_KEEP_ALIVE_HEADER : CONNECTION_CLOSE_HEADER);
+		return keepAlive;
+	}
+
+	private void writeHttpResponse(HttpResponse httpResponse) {
+		addConnectionHeader(httpResponse, (flags & KEEP_ALIVE) != 0);
 		ByteBuf buf = renderHttpMessage(httpResponse);
 		if (buf != null) {
 			if ((flags & KEEP_ALIVE) != 0) {
@@ -259,6 +364,14 @@ final class HttpServerConnection extends AbstractHttpConnection {
 		} catch (UncheckedException u) {
 			servletResult = Promise.ofException(u.getCause());
 		}
+		if (pipeline != null) {
+			this.request = null;
+			PipelinedRequest pipelined = new PipelinedRequest(request, (flags & KEEP_ALIVE) != 0);
+			pipeline.add(pipelined);
+			pipelineServing++;
+			servletResult.whenComplete((response, e) -> onPipelinedResponse(pipelined, response, e));
+			return;
+		}
 		servletResult.whenComplete((response, e) -> {
 			assert eventloop.inEventloopThread();
 			if (isClosed()) {
@@ -272,6 +385,11 @@ final class HttpServerConnection extends AbstractHttpConnection {
 				if (inspector != null) {
 					inspector.onHttpResponse(request, response);
 				}
+				if (response.upgradeHandler != null) {
+					this.request = null;
+					switchProtocols(request, response);
+					return;
+				}
 				switchPool(server.poolReadWrite);
 				writeHttpResponse(response);
 			} else {
@@ -289,8 +407,132 @@ final class HttpServerConnection extends AbstractHttpConnection {
 		});
 	}
 
+	private void onPipelinedResponse(PipelinedRequest pipelined, @Nullable HttpResponse response, @Nullable Throwable e) {
+		assert eventloop.inEventloopThread();
+		HttpRequest request = pipelined.request;
+		if (isClosed()) {
+			request.recycle();
+			if (response != null) {
+				response.recycle();
+			}
+			return;
+		}
+		if (e == null) {
+			if (inspector != null) {
+				inspector.onHttpResponse(request, response);
+			}
+		} else {
+			if (inspector != null) {
+				inspector.onServletException(request, e);
+			}
+			response = server.formatHttpError(e);
+		}
+		pipelined.served = true;
+		pipelined.response = response;
+		pipelineServing--;
+
+		if (request.bodyStream != null) {
+			request.bodyStream.streamTo(BUF_RECYCLER);
+			request.bodyStream = null;
+		}
+
+		updatePipelinePool();
+		eventloop.post(this::flushPipeline);
+	}
+
+	/**
+	 * Sends ready responses from the head of the pipeline, several responses are rendered into a single buffer.
+	 * A response with a streamed body is sent alone.
+	 */
+	private void flushPipeline() {
+		assert pipeline != null;
+		if (isClosed() || pipelineWriting != 0) return;
+		ByteBufQueue bufs = new ByteBufQueue();
+		for (PipelinedRequest pipelined : pipeline) {
+			HttpResponse response = pipelined.response;
+			if (response == null) break;
+			boolean streamed = response.body == null && response.bodyStream != null;
+			if ((streamed || response.upgradeHandler != null) && pipelineWriting != 0) break;
+			if (response.upgradeHandler != null) {
+				pipeline.remove();
+				switchProtocols(pipelined.request, response);
+				return;
+			}
+			pipelined.response = null;
+			pipelined.keepAlive = addConnectionHeader(response, pipelined.keepAlive) && server.keepAliveTimeoutMillis != 0;
+			pipelineWriting++;
+			if (streamed) {
+				writeHttpMessageAsStream(response);
+				response.recycle();
+				return;
+			}
+			ByteBuf buf = renderHttpMessage(response);
+			assert buf != null;
+			bufs.add(buf);
+			response.recycle();
+			if (!pipelined.keepAlive) break;
+		}
+		if (pipelineWriting != 0) {
+			writeBuf(bufs.takeRemaining());
+		}
+	}
+
+	private void onPipelinedResponsesSent() {
+		assert pipeline != null;
+		flags &= ~BODY_SENT;
+		boolean keepAlive = true;
+		for (; pipelineWriting != 0; pipelineWriting--) {
+			PipelinedRequest pipelined = pipeline.remove();
+			pipelined.request.recycle();
+			keepAlive = pipelined.keepAlive;
+		}
+		if (!keepAlive) {
+			close();
+			return;
+		}
+		if (pipelineReadSuspended) {
+			pipelineReadSuspended = false;
+			readPipelinedRequest();
+			if (isClosed()) return;
+		}
+		updatePipelinePool();
+		flushPipeline();
+	}
+
+	private void readPipelinedRequest() {
+		assert pipeline != null;
+		PipelinedRequest last = pipeline.peekLast();
+		if (last != null && (!last.keepAlive || server.keepAliveTimeoutMillis == 0)) {
+			return; // connection is closed after a response to the last request
+		}
+		if (pipeline.size() >= server.maxPipelinedRequests) {
+			pipelineReadSuspended = true;
+			return;
+		}
+		flags = 0;
+		try {
+			readHttpMessage();
+		} catch (ParseException e) {
+			closeWithError(e);
+		}
+	}
+
+	private void updatePipelinePool() {
+		assert pipeline != null;
+		ConnectionsLinkedList newPool = pipelineServing != 0 ? server.poolServing :
+				!pipeline.isEmpty() || request != null ? server.poolReadWrite :
+						server.poolKeepAlive;
+		if (pool != newPool) {
+			switchPool(newPool);
+		}
+	}
+
 	@Override
 	protected void onBodyReceived() {
+		if (pipeline != null) {
+			readPipelinedRequest();
+			return;
+		}
 		if ((flags & (BODY_SENT | BODY_RECEIVED)) == (BODY_SENT | BODY_RECEIVED) && pool != server.poolServing) {
 			onHttpMessageComplete();
 		}
@@ -298,6 +540,10 @@ final class HttpServerConnection extends AbstractHttpConnection {
 
 	@Override
 	protected void onBodySent() {
+		if (pipeline != null) {
+			onPipelinedResponsesSent();
+			return;
+		}
 		if ((flags & (BODY_SENT | BODY_RECEIVED)) == (BODY_SENT | BODY_RECEIVED) && pool != server.poolServing) {
 			onHttpMessageComplete();
 		}
@@ -330,7 +576,21 @@ final class HttpServerConnection extends AbstractHttpConnection {
 
 	@Override
 	protected void onClosed() {
-		if (request != null && pool != server.poolServing) {
+		if (pipeline != null) {
+			if (request != null) {
+				request.recycle();
+				request = null;
+			}
+			for (PipelinedRequest pipelined : pipeline) {
+				if (pipelined.served) {
+					pipelined.request.recycle();
+					if (pipelined.response != null) {
+						pipelined.response.recycle();
+					}
+				}
+			}
+			pipeline.clear();
+		} else if (request != null && pool != server.poolServing) {
 			request.recycle();
 			request = null;
 		}
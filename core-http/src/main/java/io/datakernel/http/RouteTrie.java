@@ -0,0 +1,298 @@
+/*
+ * Copyright (C) 2015-2019 SoftIndex LLC.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package io.datakernel.http;
+
+import io.datakernel.promise.Promise;
+import org.jetbrains.annotations.Nullable;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Map.Entry;
+
+/**
+ * Immutable compiled form of a tree of {@link RoutingServlet}s.
+ * <p>
+ * Static routes of a node are kept in a compressed radix tree over characters of the raw path,
+ * and chains of nodes, which have nothing mapped except of a single static route, are collapsed into a single edge.
+ * Requests are routed without allocations: path parameters are captured as positions in the raw URL
+ * and are decoded only when a servlet is found.
+ */
+final class RouteTrie {
+	private static final HttpMethod[] METHODS = HttpMethod.values();
+	private static final ThreadLocal<Captures> CAPTURES = ThreadLocal.withInitial(Captures::new);
+
+	final int modifications;
+	private final Node root;
+	private final int maxDepth;
+
+	private static final class Node {
+		@Nullable
+		AsyncServlet[] servlets;
+		@Nullable
+		AsyncServlet[] fallbackServlets;
+		@Nullable
+		RadixNode staticRoutes;
+		String[] parameterNames;
+		Node[] parameterRoutes;
+	}
+
+	private static final class RadixNode {
+		char[] label;
+		char[] firstChars = new char[0];
+		RadixNode[] children = new RadixNode[0];
+		@Nullable
+		Node target;
+
+		RadixNode(char[] label) {
+			this.label = label;
+		}
+	}
+
+	/**
+	 * Path parameters of a route which is being matched, as names and positions of their values in the raw URL
+	 */
+	private static final class Captures {
+		String[] names = new String[8];
+		int[] positions = new int[16];
+
+		void ensureCapacity(int depth) {
+			if (names.length < depth) {
+				names = Arrays.copyOf(names, depth);
+				positions = Arrays.copyOf(positions, depth * 2);
+			}
+		}
+	}
+
+	private RouteTrie(int modifications, Node root, int maxDepth) {
+		this.modifications = modifications;
+		this.root = root;
+		this.maxDepth = maxDepth;
+	}
+
+	static RouteTrie compile(RoutingServlet servlet, int modifications) {
+		Map<RoutingServlet, Node> compiled = new IdentityHashMap<>();
+		Node root = compile(servlet, compiled);
+		return new RouteTrie(modifications, root, maxDepth(root, new IdentityHashMap<>()));
+	}
+
+	// region compilation
+	private static Node compile(RoutingServlet servlet, Map<RoutingServlet, Node> compiled) {
+		Node node = compiled.get(servlet);
+		if (node != null) return node;
+		node = new Node();
+		compiled.put(servlet, node);
+
+		node.servlets = resolveMethods(servlet.rootServlets);
+		node.fallbackServlets = resolveMethods(servlet.fallbackServlets);
+
+		for (Entry<String, RoutingServlet> entry : servlet.routes.entrySet()) {
+			StringBuilder label = new StringBuilder(entry.getKey());
+			RoutingServlet target = entry.getValue();
+			while (isTransit(target)) {
+				Entry<String, RoutingServlet> next = target.routes.entrySet().iterator().next();
+				label.append('/').append(next.getKey());
+				target = next.getValue();
+			}
+			if (isEmpty(target)) continue;
+			if (node.staticRoutes == null) {
+				node.staticRoutes = new RadixNode(new char[0]);
+			}
+			insert(node.staticRoutes, label.toString(), 0, compile(target, compiled));
+		}
+
+		List<String> names = new ArrayList<>();
+		List<Node> routes = new ArrayList<>();
+		for (Entry<String, RoutingServlet> entry : servlet.parameters.entrySet()) {
+			if (isEmpty(entry.getValue())) continue;
+			names.add(entry.getKey());
+			routes.add(compile(entry.getValue(), compiled));
+		}
+		node.parameterNames = names.toArray(new String[0]);
+		node.parameterRoutes = routes.toArray(new Node[0]);
+		return node;
+	}
+
+	@Nullable
+	private static AsyncServlet[] resolveMethods(Map<@Nullable HttpMethod, AsyncServlet> servlets) {
+		if (servlets.isEmpty()) return null;
+		AsyncServlet[] result = new AsyncServlet[METHODS.length];
+		for (HttpMethod method : METHODS) {
+			result[method.ordinal()] = servlets.getOrDefault(method, servlets.get(null));
+		}
+		return result;
+	}
+
+	private static boolean isTransit(RoutingServlet servlet) {
+		return servlet.rootServlets.isEmpty() && servlet.fallbackServlets.isEmpty() &&
+				servlet.parameters.isEmpty() && servlet.routes.size() == 1;
+	}
+
+	private static boolean isEmpty(RoutingServlet servlet) {
+		return servlet.rootServlets.isEmpty() && servlet.fallbackServlets.isEmpty() &&
+				servlet.parameters.isEmpty() && servlet.routes.isEmpty();
+	}
+
+	private static void insert(RadixNode radixNode, String key, int from, Node target) {
+		if (from == key.length()) {
+			radixNode.target = target;
+			return;
+		}
+		char first = key.charAt(from);
+		int index = Arrays.binarySearch(radixNode.firstChars, first);
+		if (index < 0) {
+			index = -index - 1;
+			RadixNode child = new RadixNode(key.substring(from).toCharArray());
+			child.target = target;
+			radixNode.firstChars = insertAt(radixNode.firstChars, index, first);
+			radixNode.children = insertAt(radixNode.children, index, child);
+			return;
+		}
+		RadixNode child = radixNode.children[index];
+		char[] label = child.label;
+		int common = 0;
+		while (common < label.length && from + common < key.length() && label[common] == key.charAt(from + common)) {
+			common++;
+		}
+		if (common != label.length) {
+			RadixNode split = new RadixNode(Arrays.copyOf(label, common));
+			child.label = Arrays.copyOfRange(label, common, label.length);
+			split.firstChars = new char[]{child.label[0]};
+			split.children = new RadixNode[]{child};
+			radixNode.children[index] = split;
+			child = split;
+		}
+		insert(child, key, from + common, target);
+	}
+
+	private static char[] insertAt(char[] array, int index, char value) {
+		char[] result = new char[array.length + 1];
+		System.arraycopy(array, 0, result, 0, index);
+		result[index] = value;
+		System.arraycopy(array, index, result, index + 1, array.length - index);
+		return result;
+	}
+
+	private static RadixNode[] insertAt(RadixNode[] array, int index, RadixNode value) {
+		RadixNode[] result = new RadixNode[array.length + 1];
+		System.arraycopy(array, 0, result, 0, index);
+		result[index] = value;
+		System.arraycopy(array, index, result, index + 1, array.length - index);
+		return result;
+	}
+
+	private static int maxDepth(Node node, Map<Node, Integer> depths) {
+		Integer cached = depths.get(node);
+		if (cached != null) return cached;
+		int depth = 0;
+		if (node.staticRoutes != null) {
+			depth = maxDepth(node.staticRoutes, depths);
+		}
+		for (Node parameterRoute : node.parameterRoutes) {
+			depth = Math.max(depth, 1 + maxDepth(parameterRoute, depths));
+		}
+		depths.put(node, depth);
+		return depth;
+	}
+
+	private static int maxDepth(RadixNode radixNode, Map<Node, Integer> depths) {
+		int depth = radixNode.target != null ? maxDepth(radixNode.target, depths) : 0;
+		for (RadixNode child : radixNode.children) {
+			depth = Math.max(depth, maxDepth(child, depths));
+		}
+		return depth;
+	}
+	// endregion
+
+	/**
+	 * Routes the request from its current position in the path
+	 *
+	 * @return result of a servlet which serves the request, or {@code null} if there is no route for it
+	 */
+	@Nullable
+	Promise<HttpResponse> route(HttpRequest request) {
+		UrlParser url = request.getUrl();
+		Captures captures = CAPTURES.get();
+		captures.ensureCapacity(maxDepth);
+		return route(root, request, url.getRaw(), request.getPos(), url.getPathEnd(), request.getMethod().ordinal(), captures, 0);
+	}
+
+	@Nullable
+	private static Promise<HttpResponse> route(Node node, HttpRequest request, String raw, int pos, int pathEnd,
+			int method, Captures captures, int depth) {
+		int start = pos + 1;
+		int segmentEnd = start;
+		while (segmentEnd < pathEnd && raw.charAt(segmentEnd) != '/') {
+			segmentEnd++;
+		}
+
+		if (pos >= pathEnd || segmentEnd == start) {
+			if (node.servlets != null && node.servlets[method] != null) {
+				return serve(node.servlets[method], request, raw, pos < pathEnd ? segmentEnd : pos, captures, depth);
+			}
+		} else {
+			RadixNode radixNode = node.staticRoutes;
+			int p = start;
+			matching:
+			while (radixNode != null) {
+				if (radixNode.target != null && (p == pathEnd || raw.charAt(p) == '/')) {
+					Promise<HttpResponse> result = route(radixNode.target, request, raw, p, pathEnd, method, captures, depth);
+					if (result != null) {
+						return result;
+					}
+					break;
+				}
+				if (p == pathEnd) break;
+				int index = Arrays.binarySearch(radixNode.firstChars, raw.charAt(p));
+				if (index < 0) break;
+				radixNode = radixNode.children[index];
+				char[] label = radixNode.label;
+				if (pathEnd - p < label.length) break;
+				for (int i = 0; i < label.length; i++) {
+					if (raw.charAt(p + i) != label[i]) break matching;
+				}
+				p += label.length;
+			}
+
+			for (int i = 0; i < node.parameterRoutes.length; i++) {
+				captures.names[depth] = node.parameterNames[i];
+				captures.positions[depth * 2] = start;
+				captures.positions[depth * 2 + 1] = segmentEnd;
+				Promise<HttpResponse> result = route(node.parameterRoutes[i], request, raw, segmentEnd, pathEnd, method, captures, depth + 1);
+				if (result != null) {
+					return result;
+				}
+			}
+		}
+
+		if (node.fallbackServlets != null && node.fallbackServlets[method] != null) {
+			return serve(node.fallbackServlets[method], request, raw, pos, captures, depth);
+		}
+		return null;
+	}
+
+	private static Promise<HttpResponse> serve(AsyncServlet servlet, HttpRequest request, String raw, int pos,
+			Captures captures, int depth) {
+		for (int i = 0; i < depth; i++) {
+			request.putPathParameter(captures.names[i], raw.substring(captures.positions[i * 2], captures.positions[i * 2 + 1]));
+		}
+		request.setPos(pos);
+		return servlet.serveAsync(request);
+	}
+}
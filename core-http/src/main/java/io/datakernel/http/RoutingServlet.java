@@ -23,8 +23,9 @@ import org.jetbrains.annotations.NotNull;
 import org.jetbrains.annotations.Nullable;
 
 import java.util.HashMap;
+import java.util.HashSet;
 import java.util.Map;
-import java.util.Map.Entry;
+import java.util.Set;
 import java.util.function.BiFunction;
 import java.util.function.BinaryOperator;
 
@@ -32,6 +33,9 @@ import static io.datakernel.common.Preconditions.checkArgument;
 
 /**
  * This servlet allows to build complex servlet trees, routing requests between them by the HTTP paths.
+ * <p>
+ * Requests are routed with a {@link RouteTrie} which is compiled from the tree on the first request,
+ * and is recompiled after the tree or any of its subtrees is modified.
  */
 public final class RoutingServlet implements AsyncServlet, Initializable<RoutingServlet> {
 	private static final String ROOT = "/";
@@ -49,6 +53,14 @@ public final class RoutingServlet implements AsyncServlet, Initializable<Routing
 
 	protected final Map<@Nullable HttpMethod, AsyncServlet> fallbackServlets = new HashMap<>();
 
+	// servlets whose routes or parameters contain this servlet, a subtree may be shared by merged trees
+	private final Set<RoutingServlet> parents = new HashSet<>();
+	// number of modifications of this servlet and its subtrees
+	private volatile int modifications;
+
+	@Nullable
+	private volatile RouteTrie routeTrie;
+
 	private RoutingServlet() {
 	}
 
@@ -139,66 +151,53 @@ public final class RoutingServlet implements AsyncServlet, Initializable<Routing
 	@NotNull
 	@Override
 	public Promise<HttpResponse> serve(@NotNull HttpRequest request) {
-		Promise<HttpResponse> processed = tryServe(request);
+		Promise<HttpResponse> processed = getRouteTrie().route(request);
 		return processed != null ?
 				processed :
 				Promise.ofException(HttpException.notFound404());
 	}
 
+	private RouteTrie getRouteTrie() {
+		RouteTrie routeTrie = this.routeTrie;
+		int modifications = this.modifications;
+		if (routeTrie == null || routeTrie.modifications != modifications) {
+			routeTrie = RouteTrie.compile(this, modifications);
+			this.routeTrie = routeTrie;
+		}
+		return routeTrie;
+	}
+
 	private void map(@Nullable HttpMethod method, @NotNull AsyncServlet servlet, @NotNull BinaryOperator<AsyncServlet> merger) {
 		rootServlets.merge(method, servlet, merger);
+		onModified();
 	}
 
 	private void mapFallback(@Nullable HttpMethod method, @NotNull AsyncServlet servlet, @NotNull BinaryOperator<AsyncServlet> merger) {
 		fallbackServlets.merge(method, servlet, merger);
-	}
-
-	@Nullable
-	private Promise<HttpResponse> tryServe(HttpRequest request) {
-		int introPosition = request.getPos();
-		String urlPart = request.pollUrlPart();
-		HttpMethod method = request.getMethod();
-
-		if (urlPart.isEmpty()) {
-			AsyncServlet servlet = rootServlets.getOrDefault(method, rootServlets.get(null));
-			if (servlet != null) {
-				return servlet.serveAsync(request);
-			}
-		} else {
-			int position = request.getPos();
-			RoutingServlet transit = routes.get(urlPart);
-			if (transit != null) {
-				Promise<HttpResponse> result = transit.tryServe(request);
-				if (result != null) {
-					return result;
-				}
-				request.setPos(position);
-			}
-			for (Entry<String, RoutingServlet> entry : parameters.entrySet()) {
-				String key = entry.getKey();
-				request.putPathParameter(key, urlPart);
-				Promise<HttpResponse> result = entry.getValue().tryServe(request);
-				if (result != null) {
-					return result;
-				}
-				request.removePathParameter(key);
-				request.setPos(position);
-			}
-		}
-
-		AsyncServlet servlet = fallbackServlets.getOrDefault(method, fallbackServlets.get(null));
-		if (servlet != null) {
-			request.setPos(introPosition);
-			return servlet.serveAsync(request);
-		}
-		return null;
+		onModified();
 	}
 
 	private RoutingServlet makeSubtree(String path) {
 		return getOrCreateSubtree(path, (servlet, name) ->
 				name.startsWith(":") ?
-						servlet.parameters.computeIfAbsent(name.substring(1), $ -> new RoutingServlet()) :
-						servlet.routes.computeIfAbsent(name, $ -> new RoutingServlet()));
+						servlet.parameters.computeIfAbsent(name.substring(1), $ -> servlet.newSubtree()) :
+						servlet.routes.computeIfAbsent(name, $ -> servlet.newSubtree()));
+	}
+
+	private RoutingServlet newSubtree() {
+		RoutingServlet subtree = new RoutingServlet();
+		subtree.parents.add(this);
+		return subtree;
+	}
+
+	/**
+	 * Makes route tries of this servlet and of all the trees it is a part of to be recompiled on the next request
+	 */
+	private void onModified() {
+		modifications++;
+		for (RoutingServlet parent : parents) {
+			parent.onModified();
+		}
 	}
 
 	private RoutingServlet getOrCreateSubtree(@NotNull String path, BiFunction<RoutingServlet, String, @Nullable RoutingServlet> childGetter) {
@@ -250,16 +249,20 @@ public final class RoutingServlet implements AsyncServlet, Initializable<Routing
 	private static void mergeInto(RoutingServlet into, RoutingServlet from, BinaryOperator<AsyncServlet> merger) {
 		from.rootServlets.forEach((method, servlet) -> into.map(method, servlet, merger));
 		from.fallbackServlets.forEach((method, servlet) -> into.mapFallback(method, servlet, merger));
-		from.routes.forEach((key, value) ->
-				into.routes.merge(key, value, (s1, s2) -> {
-					mergeInto(s1, s2, merger);
-					return s1;
-				}));
-		from.parameters.forEach((key, value) ->
-				into.parameters.merge(key, value, (s1, s2) -> {
-					mergeInto(s1, s2, merger);
-					return s1;
-				}));
+		from.routes.forEach((key, value) -> mergeSubtree(into, into.routes, key, value, merger));
+		from.parameters.forEach((key, value) -> mergeSubtree(into, into.parameters, key, value, merger));
+	}
+
+	private static void mergeSubtree(RoutingServlet into, Map<String, RoutingServlet> subtrees, String key,
+			RoutingServlet from, BinaryOperator<AsyncServlet> merger) {
+		RoutingServlet subtree = subtrees.get(key);
+		if (subtree != null) {
+			mergeInto(subtree, from, merger);
+		} else {
+			subtrees.put(key, from);
+			from.parents.add(into);
+			into.onModified();
+		}
 	}
 
 	@FunctionalInterface
@@ -18,6 +18,7 @@ package io.datakernel.http;
 
 import io.datakernel.bytebuf.ByteBuf;
 import io.datakernel.http.loader.StaticLoader;
+import io.datakernel.http.loader.StaticResource;
 import io.datakernel.promise.Promise;
 import io.datakernel.promise.Promises;
 import org.jetbrains.annotations.NotNull;
@@ -34,10 +35,14 @@ import java.util.function.Function;
 import java.util.function.Supplier;
 
 import static io.datakernel.http.HttpHeaderValue.ofContentType;
-import static io.datakernel.http.HttpHeaders.CONTENT_TYPE;
+import static io.datakernel.http.HttpHeaders.*;
 
 /**
  * This servlet allows return HTTP responses by HTTP paths from some predefined storage, mainly the filesystem.
+ * <p>
+ * If a loaded resource has an entity tag, it is sent in the {@code ETag} header
+ * and a request with a matching {@code If-None-Match} header gets a {@code 304 Not Modified} response.
+ * A precomputed gzipped variant of a resource is sent to the clients which accept it.
  */
 public final class StaticServlet implements AsyncServlet {
 	public static final Charset DEFAULT_TXT_ENCODING = StandardCharsets.UTF_8;
@@ -136,10 +141,63 @@ public final class StaticServlet implements AsyncServlet {
 		return type;
 	}
 
-	private HttpResponse createHttpResponse(ByteBuf buf, ContentType contentType) {
-		return responseSupplier.get()
-				.withBody(buf)
-				.withHeader(CONTENT_TYPE, ofContentType(contentType));
+	private HttpResponse createHttpResponse(HttpRequest request, StaticResource resource, ContentType contentType) {
+		HttpResponse response = responseSupplier.get();
+		String etag = resource.getETag();
+		if (etag != null && response.getCode() == 200) {
+			if (matchesETag(request.getHeader(IF_NONE_MATCH), etag)) {
+				resource.recycle();
+				return HttpResponse.ofCode(304)
+						.withHeader(ETAG, etag);
+			}
+			response.addHeader(ETAG, etag);
+		}
+		response.addHeader(CONTENT_TYPE, ofContentType(contentType));
+
+		ByteBuf body = resource.getBody();
+		ByteBuf gzippedBody = resource.getGzippedBody();
+		if (gzippedBody != null) {
+			response.addHeader(VARY, "Accept-Encoding");
+			if ((response.flags & HttpMessage.USE_GZIP) == 0 && acceptsGzip(request.getHeader(ACCEPT_ENCODING))) {
+				//noinspection ConstantConditions - a resource with a gzipped variant always has a body
+				body.recycle();
+				return response
+						.withHeader(CONTENT_ENCODING, "gzip")
+						.withBody(gzippedBody);
+			}
+			gzippedBody.recycle();
+		}
+		if (body != null) {
+			return response.withBody(body);
+		}
+		//noinspection ConstantConditions - a resource without a body has a body stream
+		return response
+				.withHeader(CONTENT_LENGTH, Long.toString(resource.getSize()))
+				.withBodyStream(resource.getBodyStream());
+	}
+
+	private static boolean matchesETag(@Nullable String ifNoneMatch, String etag) {
+		if (ifNoneMatch == null) return false;
+		for (String tag : ifNoneMatch.split(",")) {
+			tag = tag.trim();
+			if (tag.startsWith("W/")) {
+				tag = tag.substring(2);
+			}
+			if (tag.equals("*") || tag.equals(etag)) return true;
+		}
+		return false;
+	}
+
+	private static boolean acceptsGzip(@Nullable String acceptEncoding) {
+		if (acceptEncoding == null) return false;
+		for (String coding : acceptEncoding.split(",")) {
+			int semicolon = coding.indexOf(';');
+			String name = (semicolon == -1 ? coding : coding.substring(0, semicolon)).trim();
+			if (name.equalsIgnoreCase("gzip")) {
+				return semicolon == -1 || !coding.substring(semicolon + 1).trim().matches("q=0(\\.0*)?");
+			}
+		}
+		return false;
 	}
 
 	@NotNull
@@ -150,12 +208,12 @@ public final class StaticServlet implements AsyncServlet {
 		ContentType contentType = contentTypeResolver.apply(mappedPath);
 		return Promise.complete()
 				.then($ -> (mappedPath.endsWith("/") || mappedPath.isEmpty()) ?
-						tryLoadIndexResource(mappedPath) :
-						resourceLoader.load(mappedPath)
-								.map(byteBuf -> createHttpResponse(byteBuf, contentType))
+						tryLoadIndexResource(request, mappedPath) :
+						resourceLoader.loadResource(mappedPath)
+								.map(resource -> createHttpResponse(request, resource, contentType))
 								.thenEx((value, e) -> {
 									if (e == StaticLoader.IS_A_DIRECTORY) {
-										return tryLoadIndexResource(mappedPath);
+										return tryLoadIndexResource(request, mappedPath);
 									} else {
 										return Promise.of(value, e);
 									}
@@ -164,7 +222,7 @@ public final class StaticServlet implements AsyncServlet {
 					if (e == null) {
 						return Promise.of(response);
 					} else if (e == StaticLoader.NOT_FOUND_EXCEPTION) {
-						return tryLoadDefaultResource();
+						return tryLoadDefaultResource(request);
 					} else {
 						return Promise.ofException(HttpException.ofCode(400, e));
 					}
@@ -172,19 +230,19 @@ public final class StaticServlet implements AsyncServlet {
 	}
 
 	@NotNull
-	private Promise<HttpResponse> tryLoadIndexResource(String mappedPath) {
+	private Promise<HttpResponse> tryLoadIndexResource(HttpRequest request, String mappedPath) {
 		String dirPath = mappedPath.endsWith("/") || mappedPath.isEmpty() ? mappedPath : (mappedPath + '/');
 		return Promises.<HttpResponse>firstSuccessful(indexResources.stream()
-				.map(indexResource -> () -> resourceLoader.load(dirPath + indexResource)
-						.map(byteBuf -> createHttpResponse(byteBuf, contentTypeResolver.apply(indexResource)))))
+				.map(indexResource -> () -> resourceLoader.loadResource(dirPath + indexResource)
+						.map(resource -> createHttpResponse(request, resource, contentTypeResolver.apply(indexResource)))))
 				.thenEx(((response, e) -> e == null ? Promise.of(response) : Promise.ofException(StaticLoader.NOT_FOUND_EXCEPTION)));
 	}
 
 	@NotNull
-	private Promise<? extends HttpResponse> tryLoadDefaultResource() {
+	private Promise<? extends HttpResponse> tryLoadDefaultResource(HttpRequest request) {
 		return defaultResource != null ?
-				resourceLoader.load(defaultResource)
-						.map(buf -> createHttpResponse(buf, contentTypeResolver.apply(defaultResource))) :
+				resourceLoader.loadResource(defaultResource)
+						.map(resource -> createHttpResponse(request, resource, contentTypeResolver.apply(defaultResource))) :
 				Promise.ofException(HttpException.notFound404());
 	}
 }
@@ -0,0 +1,32 @@
+/*
+ * Copyright (C) 2015-2019 SoftIndex LLC.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package io.datakernel.http;
+
+import io.datakernel.bytebuf.ByteBufQueue;
+import io.datakernel.net.AsyncTcpSocket;
+
+/**
+ * Takes over the socket of an HTTP/1.1 connection after a 101 (Switching Protocols) response
+ */
+@FunctionalInterface
+interface UpgradeHandler {
+	/**
+	 * @param socket    socket which is detached from the HTTP connection
+	 * @param readQueue data which has been read from the socket after the HTTP message
+	 */
+	void onUpgrade(AsyncTcpSocket socket, ByteBufQueue readQueue);
+}
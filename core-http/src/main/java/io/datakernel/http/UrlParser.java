@@ -458,6 +458,14 @@ public final class UrlParser {
 	}
 
 	// work with path
+	String getRaw() {
+		return raw;
+	}
+
+	int getPathEnd() {
+		return pathEnd;
+	}
+
 	@NotNull
 	String getPartialPath() {
 		if (pos == -1 || pos > pathEnd) {
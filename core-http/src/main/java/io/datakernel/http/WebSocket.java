@@ -0,0 +1,89 @@
+/*
+ * Copyright (C) 2015-2019 SoftIndex LLC.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package io.datakernel.http;
+
+import io.datakernel.async.process.Cancellable;
+import io.datakernel.bytebuf.ByteBuf;
+import io.datakernel.csp.AbstractChannelConsumer;
+import io.datakernel.csp.ChannelConsumer;
+import io.datakernel.csp.ChannelSupplier;
+import io.datakernel.promise.Promise;
+import org.jetbrains.annotations.Nullable;
+
+/**
+ * A WebSocket connection, as defined in RFC 6455.
+ * Messages are exchanged as their payloads, text messages are encoded in UTF-8.
+ * <p>
+ * Messages should be read one at a time. Fragmented messages are reassembled
+ * and pings are answered while messages are being read.
+ * <p>
+ * Messages are written as single frames. A client masks payloads
+ * of written messages in place, so their bufs should not be shared.
+ * <p>
+ * A close handshake which is started by writing {@code null} message is complete
+ * when the close frame of the peer is read, {@link #close()} closes the connection
+ * without waiting for the peer.
+ *
+ * @see WebSocketServlet
+ * @see AsyncHttpClient#webSocketRequest(HttpRequest)
+ */
+public interface WebSocket extends Cancellable {
+	/**
+	 * Reads the next text or binary message
+	 *
+	 * @return promise of message payload, or of {@code null} if the peer has closed the connection normally
+	 */
+	Promise<ByteBuf> readMessage();
+
+	/**
+	 * Sends a binary message
+	 *
+	 * @param message message payload, or {@code null} to close the connection normally
+	 */
+	Promise<Void> writeMessage(@Nullable ByteBuf message);
+
+	/**
+	 * Sends a text message
+	 *
+	 * @param message message payload in UTF-8, or {@code null} to close the connection normally
+	 */
+	Promise<Void> writeTextMessage(@Nullable ByteBuf message);
+
+	boolean isClosed();
+
+	default ChannelSupplier<ByteBuf> messageReadChannel() {
+		return ChannelSupplier.of(this::readMessage, this);
+	}
+
+	default ChannelConsumer<ByteBuf> messageWriteChannel() {
+		return new AbstractChannelConsumer<ByteBuf>(this) {
+			@Override
+			protected Promise<Void> doAccept(@Nullable ByteBuf message) {
+				return writeMessage(message);
+			}
+		};
+	}
+
+	default ChannelConsumer<ByteBuf> textMessageWriteChannel() {
+		return new AbstractChannelConsumer<ByteBuf>(this) {
+			@Override
+			protected Promise<Void> doAccept(@Nullable ByteBuf message) {
+				return writeTextMessage(message);
+			}
+		};
+	}
+}
@@ -0,0 +1,48 @@
+/*
+ * Copyright (C) 2015-2019 SoftIndex LLC.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package io.datakernel.http;
+
+import io.datakernel.common.parse.ParseException;
+
+/**
+ * A failure of WebSocket connection, which carries a status code
+ * to be sent to the peer with a close frame.
+ */
+public final class WebSocketException extends ParseException {
+	public static final int NORMAL_CLOSURE = 1000;
+	public static final int GOING_AWAY = 1001;
+	public static final int PROTOCOL_ERROR = 1002;
+	public static final int UNSUPPORTED_DATA = 1003;
+	public static final int NO_STATUS_RECEIVED = 1005;
+	public static final int ABNORMAL_CLOSURE = 1006;
+	public static final int INVALID_PAYLOAD_DATA = 1007;
+	public static final int POLICY_VIOLATION = 1008;
+	public static final int MESSAGE_TOO_BIG = 1009;
+	public static final int MANDATORY_EXTENSION = 1010;
+	public static final int INTERNAL_ERROR = 1011;
+
+	private final int code;
+
+	public WebSocketException(Class<?> component, int code, String message) {
+		super(component, message);
+		this.code = code;
+	}
+
+	public int getCode() {
+		return code;
+	}
+}
@@ -0,0 +1,541 @@
+/*
+ * Copyright (C) 2015-2019 SoftIndex LLC.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package io.datakernel.http;
+
+import io.datakernel.bytebuf.ByteBuf;
+import io.datakernel.bytebuf.ByteBufPool;
+import io.datakernel.bytebuf.ByteBufQueue;
+import io.datakernel.net.AsyncTcpSocket;
+import io.datakernel.promise.Promise;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Base64;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.zip.DataFormatException;
+import java.util.zip.Deflater;
+import java.util.zip.Inflater;
+
+import static io.datakernel.http.WebSocketException.*;
+import static java.nio.charset.StandardCharsets.ISO_8859_1;
+import static java.nio.charset.StandardCharsets.UTF_8;
+
+/**
+ * WebSocket connection over the socket of an upgraded HTTP/1.1 connection,
+ * with optional permessage-deflate extension (RFC 7692)
+ */
+final class WebSocketImpl implements WebSocket {
+	public static final WebSocketException PROTOCOL_VIOLATION = new WebSocketException(WebSocketImpl.class, PROTOCOL_ERROR, "WebSocket protocol violation");
+	public static final WebSocketException TOO_BIG_MESSAGE = new WebSocketException(WebSocketImpl.class, MESSAGE_TOO_BIG, "Message exceeds max message size");
+	public static final WebSocketException INVALID_COMPRESSED_DATA = new WebSocketException(WebSocketImpl.class, INVALID_PAYLOAD_DATA, "Invalid compressed message");
+	public static final WebSocketException CONNECTION_LOST = new WebSocketException(WebSocketImpl.class, ABNORMAL_CLOSURE, "Connection closed without close frame");
+
+	static final String WEBSOCKET = "websocket";
+	static final String VERSION = "13";
+	static final String PERMESSAGE_DEFLATE = "permessage-deflate";
+
+	// flags of negotiated permessage-deflate parameters, relative to the side of the connection
+	static final int OWN_NO_CONTEXT_TAKEOVER = 1;
+	static final int PEER_NO_CONTEXT_TAKEOVER = 1 << 1;
+	static final int OWN_MAX_WINDOW_BITS = 1 << 2;
+	static final int PEER_MAX_WINDOW_BITS = 1 << 3;
+
+	private static final byte[] ACCEPT_GUID = "258EAFA5-E914-47DA-95CA-C5AB0DC85B11".getBytes(ISO_8859_1);
+	private static final byte[] DEFLATE_TAIL = {0x00, 0x00, (byte) 0xFF, (byte) 0xFF};
+
+	private static final int OP_CONTINUATION = 0x0;
+	private static final int OP_TEXT = 0x1;
+	private static final int OP_BINARY = 0x2;
+	private static final int OP_CLOSE = 0x8;
+	private static final int OP_PING = 0x9;
+	private static final int OP_PONG = 0xA;
+
+	private static final int FIN = 0x80;
+	private static final int RSV1 = 0x40;
+	private static final int RSV2_RSV3 = 0x30;
+	private static final int MASK = 0x80;
+	private static final int MAX_CONTROL_PAYLOAD = 125;
+	private static final int MAX_HEADER_SIZE = 14;
+	private static final int COPY_PAYLOAD_SIZE = 512;
+
+	private final AsyncTcpSocket socket;
+	private final ByteBufQueue readQueue;
+	private final boolean client;
+	private final int maxMessageSize;
+
+	@Nullable
+	private final Deflater deflater;
+	@Nullable
+	private final Inflater inflater;
+	private final boolean resetDeflater;
+	private final boolean resetInflater;
+
+	private final ByteBufQueue messageQueue = new ByteBufQueue();
+	private boolean messageStarted;
+	private boolean messageCompressed;
+
+	private boolean closeSent;
+	private boolean closeReceived;
+	@Nullable
+	private WebSocketException peerCloseError;
+	@Nullable
+	private Throwable closeError;
+
+	/**
+	 * @param readQueue      data which has been read from the socket after the handshake
+	 * @param client         whether this is a client side of the connection, which masks written frames
+	 * @param maxMessageSize max size of a received message, after decompression
+	 * @param deflateFlags   negotiated permessage-deflate parameters, or -1 if the extension is not used
+	 */
+	WebSocketImpl(AsyncTcpSocket socket, ByteBufQueue readQueue, boolean client, int maxMessageSize, int deflateFlags) {
+		this.socket = socket;
+		this.readQueue = readQueue;
+		this.client = client;
+		this.maxMessageSize = maxMessageSize;
+		if (deflateFlags != -1) {
+			this.deflater = new Deflater(Deflater.DEFAULT_COMPRESSION, true);
+			this.inflater = new Inflater(true);
+			this.resetDeflater = (deflateFlags & OWN_NO_CONTEXT_TAKEOVER) != 0;
+			this.resetInflater = (deflateFlags & PEER_NO_CONTEXT_TAKEOVER) != 0;
+		} else {
+			this.deflater = null;
+			this.inflater = null;
+			this.resetDeflater = false;
+			this.resetInflater = false;
+		}
+	}
+
+	// region handshake
+	static String generateKey() {
+		byte[] key = new byte[16];
+		ThreadLocalRandom.current().nextBytes(key);
+		return Base64.getEncoder().encodeToString(key);
+	}
+
+	static String getAcceptKey(String key) {
+		try {
+			MessageDigest sha1 = MessageDigest.getInstance("SHA-1");
+			sha1.update(key.getBytes(ISO_8859_1));
+			return Base64.getEncoder().encodeToString(sha1.digest(ACCEPT_GUID));
+		} catch (NoSuchAlgorithmException e) {
+			throw new AssertionError(e);
+		}
+	}
+
+	/**
+	 * Checks whether a comma-separated header value contains the token, ignoring case
+	 */
+	static boolean hasToken(@Nullable String headerValue, String token) {
+		if (headerValue == null) return false;
+		for (String value : headerValue.split(",")) {
+			if (value.trim().equalsIgnoreCase(token)) return true;
+		}
+		return false;
+	}
+
+	/**
+	 * Finds the first acceptable permessage-deflate offer (on a server) or response (on a client)
+	 * in a value of Sec-WebSocket-Extensions header.
+	 * Window size of the own compressor can not be limited, so offers with such limits are declined.
+	 *
+	 * @return flags of parameters, or -1 if there is no acceptable permessage-deflate extension
+	 */
+	static int parseDeflateExtension(@Nullable String extensions, boolean server) {
+		if (extensions == null) return -1;
+		String own = server ? "server_" : "client_";
+		String peer = server ? "client_" : "server_";
+		nextOffer:
+		for (String offer : extensions.split(",")) {
+			String[] params = offer.split(";");
+			if (!params[0].trim().equalsIgnoreCase(PERMESSAGE_DEFLATE)) continue;
+			int flags = 0;
+			for (int i = 1; i < params.length; i++) {
+				String param = params[i].trim();
+				int eq = param.indexOf('=');
+				String name = (eq == -1 ? param : param.substring(0, eq)).trim().toLowerCase();
+				String value = eq == -1 ? null : unquote(param.substring(eq + 1).trim());
+				int flag;
+				if (name.equals(own + "no_context_takeover") && value == null) {
+					flag = OWN_NO_CONTEXT_TAKEOVER;
+				} else if (name.equals(peer + "no_context_takeover") && value == null) {
+					flag = PEER_NO_CONTEXT_TAKEOVER;
+				} else if (name.equals(own + "max_window_bits") && "15".equals(value)) {
+					flag = OWN_MAX_WINDOW_BITS;
+				} else if (name.equals(peer + "max_window_bits") && (value == null ? server : isWindowBits(value))) {
+					flag = PEER_MAX_WINDOW_BITS;
+				} else {
+					continue nextOffer;
+				}
+				if ((flags & flag) != 0) continue nextOffer;
+				flags |= flag;
+			}
+			return flags;
+		}
+		return -1;
+	}
+
+	/**
+	 * Renders a response of a server to an accepted permessage-deflate offer
+	 */
+	static String renderDeflateExtension(int flags) {
+		StringBuilder sb = new StringBuilder(PERMESSAGE_DEFLATE);
+		if ((flags & OWN_NO_CONTEXT_TAKEOVER) != 0) sb.append("; server_no_context_takeover");
+		if ((flags & PEER_NO_CONTEXT_TAKEOVER) != 0) sb.append("; client_no_context_takeover");
+		if ((flags & OWN_MAX_WINDOW_BITS) != 0) sb.append("; server_max_window_bits=15");
+		return sb.toString();
+	}
+
+	private static String unquote(String value) {
+		return value.length() >= 2 && value.charAt(0) == '"' && value.charAt(value.length() - 1) == '"' ?
+				value.substring(1, value.length() - 1) :
+				value;
+	}
+
+	private static boolean isWindowBits(String value) {
+		return value.length() <= 2 && value.chars().allMatch(Character::isDigit) &&
+				Integer.parseInt(value) >= 8 && Integer.parseInt(value) <= 15;
+	}
+	// endregion
+
+	// region reading
+	@Override
+	public Promise<ByteBuf> readMessage() {
+		if (closeReceived) return peerCloseError == null ? Promise.of(null) : Promise.ofException(peerCloseError);
+		if (closeError != null) return Promise.ofException(closeError);
+		ByteBuf message;
+		try {
+			message = readFrames();
+		} catch (WebSocketException e) {
+			close(e);
+			return Promise.ofException(e);
+		}
+		if (message != null) return Promise.of(message);
+		if (closeReceived) return peerCloseError == null ? Promise.of(null) : Promise.ofException(peerCloseError);
+		return socket.read()
+				.thenEx((buf, e) -> {
+					if (e == null) {
+						if (buf != null) {
+							if (closeError != null) {
+								buf.recycle();
+								return Promise.ofException(closeError);
+							}
+							readQueue.add(buf);
+							return readMessage();
+						}
+						close(CONNECTION_LOST);
+						return Promise.ofException(CONNECTION_LOST);
+					}
+					close(e);
+					return Promise.ofException(e);
+				});
+	}
+
+	/**
+	 * Parses frames which are already read, until a message is complete
+	 */
+	@Nullable
+	private ByteBuf readFrames() throws WebSocketException {
+		while (!closeReceived && readQueue.hasRemainingBytes(2)) {
+			int b0 = readQueue.peekByte(0) & 0xFF;
+			int b1 = readQueue.peekByte(1) & 0xFF;
+			boolean masked = (b1 & MASK) != 0;
+			if (masked == client) throw PROTOCOL_VIOLATION;
+			int lengthSize = (b1 & 0x7F) == 126 ? 2 : (b1 & 0x7F) == 127 ? 8 : 0;
+			int headerSize = 2 + lengthSize + (masked ? 4 : 0);
+			if (!readQueue.hasRemainingBytes(headerSize)) return null;
+
+			long length = lengthSize == 0 ? b1 & 0x7F : 0;
+			for (int i = 0; i < lengthSize; i++) {
+				length = length << 8 | (readQueue.peekByte(2 + i) & 0xFF);
+			}
+			int opcode = b0 & 0x0F;
+			boolean fin = (b0 & FIN) != 0;
+			boolean compressed = (b0 & RSV1) != 0;
+			if ((b0 & RSV2_RSV3) != 0) throw PROTOCOL_VIOLATION;
+			if (opcode >= OP_CLOSE) {
+				if (opcode > OP_PONG || !fin || compressed || length > MAX_CONTROL_PAYLOAD) throw PROTOCOL_VIOLATION;
+			} else {
+				if (opcode > OP_BINARY || (opcode == OP_CONTINUATION) != messageStarted) throw PROTOCOL_VIOLATION;
+				if (compressed && (inflater == null || opcode == OP_CONTINUATION)) throw PROTOCOL_VIOLATION;
+				if (length < 0 || length + messageQueue.remainingBytes() > maxMessageSize) throw TOO_BIG_MESSAGE;
+			}
+			if (!readQueue.hasRemainingBytes(headerSize + (int) length)) return null;
+
+			int maskKey = 0;
+			for (int i = headerSize - 4; masked && i < headerSize; i++) {
+				maskKey = maskKey << 8 | (readQueue.peekByte(i) & 0xFF);
+			}
+			readQueue.skip(headerSize);
+			ByteBuf payload = readQueue.takeExactSize((int) length);
+			if (masked) {
+				mask(payload.array(), payload.head(), payload.tail(), maskKey);
+			}
+
+			if (opcode >= OP_CLOSE) {
+				onControlFrame(opcode, payload);
+				continue;
+			}
+			if (opcode != OP_CONTINUATION) {
+				messageStarted = true;
+				messageCompressed = compressed;
+			}
+			messageQueue.add(payload);
+			if (fin) {
+				messageStarted = false;
+				ByteBuf message = messageQueue.takeRemaining();
+				return messageCompressed ? inflate(message) : message;
+			}
+		}
+		return null;
+	}
+
+	private void onControlFrame(int opcode, ByteBuf payload) throws WebSocketException {
+		if (opcode == OP_PING) {
+			if (!closeSent) {
+				writeFrame(OP_PONG, payload);
+			} else {
+				payload.recycle();
+			}
+		} else if (opcode == OP_PONG) {
+			payload.recycle();
+		} else {
+			int code = NO_STATUS_RECEIVED;
+			if (payload.readRemaining() == 1) {
+				payload.recycle();
+				throw PROTOCOL_VIOLATION;
+			}
+			if (payload.canRead()) {
+				code = payload.readShort() & 0xFFFF;
+				String reason = payload.asString(UTF_8);
+				if (code < NORMAL_CLOSURE || code >= 5000) throw PROTOCOL_VIOLATION;
+				if (code != NORMAL_CLOSURE && code != GOING_AWAY) {
+					peerCloseError = new WebSocketException(WebSocketImpl.class, code,
+							"Connection closed by peer with code " + code + (reason.isEmpty() ? "" : ": " + reason));
+				}
+			} else {
+				payload.recycle();
+			}
+			closeReceived = true;
+			if (closeSent) {
+				release(CLOSE_EXCEPTION);
+				socket.close();
+			} else {
+				Promise<Void> closeWrite = writeCloseFrame(code == NO_STATUS_RECEIVED ? NORMAL_CLOSURE : code);
+				release(CLOSE_EXCEPTION);
+				closeWrite.whenComplete(socket::close);
+			}
+		}
+	}
+
+	private ByteBuf inflate(ByteBuf message) throws WebSocketException {
+		assert inflater != null;
+		ByteBuf output = ByteBufPool.allocate(Math.min(maxMessageSize, Math.max(message.readRemaining() * 4, 256)));
+		try {
+			inflater.setInput(message.array(), message.head(), message.readRemaining());
+			boolean tailSet = false;
+			while (!inflater.finished()) {
+				if (!output.canWrite()) {
+					if (output.readRemaining() >= maxMessageSize) throw TOO_BIG_MESSAGE;
+					output = ByteBufPool.ensureWriteRemaining(output, Math.min(output.readRemaining(), maxMessageSize - output.readRemaining()));
+				}
+				int size = inflater.inflate(output.array(), output.tail(), output.writeRemaining());
+				output.moveTail(size);
+				if (size == 0) {
+					if (inflater.needsDictionary()) throw INVALID_COMPRESSED_DATA;
+					if (inflater.needsInput()) {
+						if (tailSet) break;
+						// the empty stored block which has been stripped by the peer
+						inflater.setInput(DEFLATE_TAIL);
+						tailSet = true;
+					}
+				}
+			}
+		} catch (DataFormatException e) {
+			output.recycle();
+			throw INVALID_COMPRESSED_DATA;
+		} catch (WebSocketException e) {
+			output.recycle();
+			throw e;
+		} finally {
+			message.recycle();
+		}
+		if (resetInflater || inflater.finished()) {
+			inflater.reset();
+		}
+		return output;
+	}
+	// endregion
+
+	// region writing
+	@Override
+	public Promise<Void> writeMessage(@Nullable ByteBuf message) {
+		return message != null ? writeDataMessage(OP_BINARY, message) : writeClose();
+	}
+
+	@Override
+	public Promise<Void> writeTextMessage(@Nullable ByteBuf message) {
+		return message != null ? writeDataMessage(OP_TEXT, message) : writeClose();
+	}
+
+	private Promise<Void> writeDataMessage(int opcode, ByteBuf message) {
+		if (closeSent || closeError != null) {
+			message.recycle();
+			return Promise.ofException(closeError != null ? closeError : CLOSE_EXCEPTION);
+		}
+		if (deflater != null && message.canRead()) {
+			return writeFrame(opcode | RSV1, deflate(message));
+		}
+		return writeFrame(opcode, message);
+	}
+
+	private Promise<Void> writeClose() {
+		if (closeSent) return Promise.complete();
+		if (closeError != null) return Promise.ofException(closeError);
+		return writeCloseFrame(NORMAL_CLOSURE);
+	}
+
+	private Promise<Void> writeCloseFrame(int code) {
+		closeSent = true;
+		ByteBuf payload = ByteBufPool.allocate(2);
+		payload.writeShort((short) code);
+		return writeFrame(OP_CLOSE, payload);
+	}
+
+	private ByteBuf deflate(ByteBuf message) {
+		assert deflater != null;
+		deflater.setInput(message.array(), message.head(), message.readRemaining());
+		ByteBuf output = ByteBufPool.allocate(message.readRemaining() + 64);
+		while (true) {
+			int size = deflater.deflate(output.array(), output.tail(), output.writeRemaining(), Deflater.SYNC_FLUSH);
+			output.moveTail(size);
+			if (output.canWrite()) break;
+			output = ByteBufPool.ensureWriteRemaining(output, output.readRemaining());
+		}
+		message.recycle();
+		if (resetDeflater) {
+			deflater.reset();
+		}
+		// a sync flush ends with an empty stored block, which is not sent
+		output.tail(output.tail() - DEFLATE_TAIL.length);
+		return output;
+	}
+
+	/**
+	 * Writes a final frame, small payloads are copied after the header,
+	 * larger ones are written as is, after being masked in place
+	 */
+	private Promise<Void> writeFrame(int opcode, ByteBuf payload) {
+		int length = payload.readRemaining();
+		boolean copy = length <= COPY_PAYLOAD_SIZE;
+		ByteBuf frame = ByteBufPool.allocate(MAX_HEADER_SIZE + (copy ? length : 0));
+		frame.writeByte((byte) (FIN | opcode));
+		int maskBit = client ? MASK : 0;
+		if (length <= MAX_CONTROL_PAYLOAD) {
+			frame.writeByte((byte) (maskBit | length));
+		} else if (length <= 0xFFFF) {
+			frame.writeByte((byte) (maskBit | 126));
+			frame.writeShort((short) length);
+		} else {
+			frame.writeByte((byte) (maskBit | 127));
+			frame.writeLong(length);
+		}
+		if (client) {
+			int maskKey = ThreadLocalRandom.current().nextInt();
+			frame.writeInt(maskKey);
+			mask(payload.array(), payload.head(), payload.tail(), maskKey);
+		}
+		if (copy) {
+			frame.put(payload);
+			payload.recycle();
+			return socket.write(frame);
+		}
+		socket.write(frame);
+		return socket.write(payload);
+	}
+
+	/**
+	 * Masks or unmasks data in place
+	 */
+	static void mask(byte[] array, int from, int to, int maskKey) {
+		byte m0 = (byte) (maskKey >>> 24);
+		byte m1 = (byte) (maskKey >>> 16);
+		byte m2 = (byte) (maskKey >>> 8);
+		byte m3 = (byte) maskKey;
+		int i = from;
+		for (; i + 3 < to; i += 4) {
+			array[i] ^= m0;
+			array[i + 1] ^= m1;
+			array[i + 2] ^= m2;
+			array[i + 3] ^= m3;
+		}
+		for (int shift = 24; i < to; i++, shift -= 8) {
+			array[i] ^= (byte) (maskKey >>> shift);
+		}
+	}
+	// endregion
+
+	boolean isPerMessageDeflate() {
+		return deflater != null;
+	}
+
+	@Override
+	public boolean isClosed() {
+		return closeError != null;
+	}
+
+	@Override
+	public void close(@NotNull Throwable e) {
+		if (closeError != null) return;
+		if (!closeSent && !closeReceived && e != CONNECTION_LOST) {
+			int code = e instanceof WebSocketException ? ((WebSocketException) e).getCode() :
+					e == CLOSE_EXCEPTION ? NORMAL_CLOSURE :
+							e == CANCEL_EXCEPTION ? GOING_AWAY :
+									INTERNAL_ERROR;
+			Promise<Void> closeWrite = writeCloseFrame(code);
+			release(e);
+			closeWrite.whenComplete(socket::close);
+		} else {
+			release(e);
+			socket.close();
+		}
+	}
+
+	private void release(Throwable e) {
+		closeError = e;
+		readQueue.recycle();
+		messageQueue.recycle();
+		if (deflater != null) {
+			deflater.end();
+		}
+		if (inflater != null) {
+			inflater.end();
+		}
+	}
+
+	@Override
+	public String toString() {
+		return "WebSocketImpl{" +
+				"client=" + client +
+				", deflate=" + (deflater != null) +
+				", closeSent=" + closeSent +
+				", closeReceived=" + closeReceived +
+				", socket=" + socket +
+				'}';
+	}
+}
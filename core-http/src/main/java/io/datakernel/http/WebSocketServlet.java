@@ -0,0 +1,90 @@
+/*
+ * Copyright (C) 2015-2019 SoftIndex LLC.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package io.datakernel.http;
+
+import io.datakernel.common.ApplicationSettings;
+import io.datakernel.common.MemSize;
+import io.datakernel.promise.Promise;
+import org.jetbrains.annotations.NotNull;
+
+import java.util.function.Consumer;
+
+import static io.datakernel.http.HttpHeaders.*;
+import static io.datakernel.http.WebSocketImpl.*;
+
+/**
+ * This servlet accepts WebSocket handshakes (RFC 6455) and passes established connections to a handler.
+ * <p>
+ * A connection is detached from the server after the handshake,
+ * so it is up to the handler to close it.
+ */
+public final class WebSocketServlet implements AsyncServlet {
+	public static final MemSize MAX_MESSAGE_SIZE = ApplicationSettings.getMemSize(WebSocketServlet.class, "maxMessageSize", MemSize.megabytes(1));
+
+	private final Consumer<WebSocket> webSocketHandler;
+	private int maxMessageSize = MAX_MESSAGE_SIZE.toInt();
+	private boolean perMessageDeflate;
+
+	private WebSocketServlet(Consumer<WebSocket> webSocketHandler) {
+		this.webSocketHandler = webSocketHandler;
+	}
+
+	public static WebSocketServlet create(Consumer<WebSocket> webSocketHandler) {
+		return new WebSocketServlet(webSocketHandler);
+	}
+
+	public WebSocketServlet withMaxMessageSize(MemSize maxMessageSize) {
+		this.maxMessageSize = maxMessageSize.toInt();
+		return this;
+	}
+
+	/**
+	 * Accepts permessage-deflate extension, if it is offered by a client
+	 */
+	public WebSocketServlet withPerMessageDeflate(boolean perMessageDeflate) {
+		this.perMessageDeflate = perMessageDeflate;
+		return this;
+	}
+
+	@NotNull
+	@Override
+	public Promise<HttpResponse> serve(@NotNull HttpRequest request) {
+		String key = request.getHeader(SEC_WEBSOCKET_KEY);
+		if (request.getMethod() != HttpMethod.GET ||
+				!hasToken(request.getHeader(UPGRADE), WEBSOCKET) ||
+				!hasToken(request.getHeader(CONNECTION), "upgrade") ||
+				key == null) {
+			return Promise.ofException(HttpException.ofCode(400, "Not a WebSocket handshake request"));
+		}
+		if (!VERSION.equals(request.getHeader(SEC_WEBSOCKET_VERSION))) {
+			return Promise.of(HttpResponse.ofCode(426)
+					.withHeader(SEC_WEBSOCKET_VERSION, VERSION));
+		}
+		int deflateFlags = perMessageDeflate ? parseDeflateExtension(request.getHeader(SEC_WEBSOCKET_EXTENSIONS), true) : -1;
+
+		HttpResponse response = HttpResponse.ofCode(101)
+				.withHeader(UPGRADE, WEBSOCKET)
+				.withHeader(CONNECTION, "Upgrade")
+				.withHeader(SEC_WEBSOCKET_ACCEPT, getAcceptKey(key));
+		if (deflateFlags != -1) {
+			response.addHeader(SEC_WEBSOCKET_EXTENSIONS, renderDeflateExtension(deflateFlags));
+		}
+		response.upgradeHandler = (socket, readQueue) ->
+				webSocketHandler.accept(new WebSocketImpl(socket, readQueue, false, maxMessageSize, deflateFlags));
+		return Promise.of(response);
+	}
+}
@@ -0,0 +1,136 @@
+/*
+ * Copyright (C) 2015-2019 SoftIndex LLC.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package io.datakernel.http.hpack;
+
+import io.datakernel.bytebuf.ByteBuf;
+import io.datakernel.common.parse.ParseException;
+
+import java.util.Arrays;
+
+/**
+ * Decoder of HPACK header blocks, as defined in RFC 7541.
+ * <p>
+ * One instance should be used for all header blocks received over a connection,
+ * as they share the dynamic table.
+ */
+public final class HpackDecoder {
+	public static final ParseException INVALID_INDEX = new ParseException(HpackDecoder.class, "Invalid header table index");
+	public static final ParseException INTEGER_OVERFLOW = new ParseException(HpackDecoder.class, "Integer overflow");
+	public static final ParseException TRUNCATED_BLOCK = new ParseException(HpackDecoder.class, "Truncated header block");
+	public static final ParseException TOO_LONG_STRING = new ParseException(HpackDecoder.class, "String literal exceeds max length");
+	public static final ParseException INVALID_TABLE_SIZE_UPDATE = new ParseException(HpackDecoder.class, "Invalid dynamic table size update");
+
+	@FunctionalInterface
+	public interface HeaderListener {
+		void onHeader(byte[] name, byte[] value) throws ParseException;
+	}
+
+	private final HpackDynamicTable table;
+	private final int maxTableSize;
+	private final int maxStringLength;
+
+	/**
+	 * @param maxTableSize    max size of the dynamic table, which is advertised to the encoder
+	 * @param maxStringLength max length of a header name or value
+	 */
+	public HpackDecoder(int maxTableSize, int maxStringLength) {
+		this.table = new HpackDynamicTable(maxTableSize);
+		this.maxTableSize = maxTableSize;
+		this.maxStringLength = maxStringLength;
+	}
+
+	/**
+	 * Decodes a complete header block, reading the given buffer till its end
+	 */
+	public void decode(ByteBuf buf, HeaderListener listener) throws ParseException {
+		boolean headerDecoded = false;
+		while (buf.canRead()) {
+			int b = buf.peek(0) & 0xFF;
+			if ((b & 0x80) != 0) {
+				int index = readInt(buf, 7);
+				listener.onHeader(getName(index), getValue(index));
+				headerDecoded = true;
+			} else if ((b & 0x40) != 0) {
+				readLiteral(buf, 6, true, listener);
+				headerDecoded = true;
+			} else if ((b & 0x20) != 0) {
+				int maxSize = readInt(buf, 5);
+				if (headerDecoded || maxSize > maxTableSize) throw INVALID_TABLE_SIZE_UPDATE;
+				table.setMaxSize(maxSize);
+			} else {
+				readLiteral(buf, 4, false, listener);
+				headerDecoded = true;
+			}
+		}
+	}
+
+	public int getTableSize() {
+		return table.size();
+	}
+
+	private void readLiteral(ByteBuf buf, int prefix, boolean indexing, HeaderListener listener) throws ParseException {
+		int nameIndex = readInt(buf, prefix);
+		byte[] name = nameIndex != 0 ? getName(nameIndex) : readString(buf);
+		byte[] value = readString(buf);
+		if (indexing) {
+			table.add(name, value);
+		}
+		listener.onHeader(name, value);
+	}
+
+	private byte[] getName(int index) throws ParseException {
+		if (index == 0) throw INVALID_INDEX;
+		if (index <= HpackStaticTable.SIZE) return HpackStaticTable.NAMES[index];
+		if (index - HpackStaticTable.SIZE > table.length()) throw INVALID_INDEX;
+		return table.getName(index - HpackStaticTable.SIZE);
+	}
+
+	private byte[] getValue(int index) {
+		if (index <= HpackStaticTable.SIZE) return HpackStaticTable.VALUES[index];
+		return table.getValue(index - HpackStaticTable.SIZE);
+	}
+
+	private byte[] readString(ByteBuf buf) throws ParseException {
+		if (!buf.canRead()) throw TRUNCATED_BLOCK;
+		boolean huffman = (buf.peek(0) & 0x80) != 0;
+		int length = readInt(buf, 7);
+		if (length > buf.readRemaining()) throw TRUNCATED_BLOCK;
+		byte[] result;
+		if (huffman) {
+			result = Huffman.decode(buf.array(), buf.head(), length);
+		} else {
+			result = Arrays.copyOfRange(buf.array(), buf.head(), buf.head() + length);
+		}
+		if (result.length > maxStringLength) throw TOO_LONG_STRING;
+		buf.moveHead(length);
+		return result;
+	}
+
+	static int readInt(ByteBuf buf, int prefix) throws ParseException {
+		int mask = (1 << prefix) - 1;
+		int value = buf.readByte() & mask;
+		if (value < mask) return value;
+		for (int shift = 0; ; shift += 7) {
+			if (shift > 21) throw INTEGER_OVERFLOW;
+			if (!buf.canRead()) throw TRUNCATED_BLOCK;
+			int b = buf.readByte();
+			value += (b & 0x7F) << shift;
+			if ((b & 0x80) == 0) return value;
+		}
+	}
+}
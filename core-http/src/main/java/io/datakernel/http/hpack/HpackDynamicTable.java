@@ -0,0 +1,130 @@
+/*
+ * Copyright (C) 2015-2019 SoftIndex LLC.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package io.datakernel.http.hpack;
+
+/**
+ * Dynamic table of HPACK, a FIFO of header fields limited by the sum of their sizes,
+ * as defined in RFC 7541, section 4. The most recently added entry has the index of 1.
+ */
+final class HpackDynamicTable {
+	static final int ENTRY_OVERHEAD = 32;
+
+	private byte[][] names = new byte[16][];
+	private byte[][] values = new byte[16][];
+	private int tail;
+	private int count;
+
+	private int size;
+	private int maxSize;
+
+	HpackDynamicTable(int maxSize) {
+		this.maxSize = maxSize;
+	}
+
+	int length() {
+		return count;
+	}
+
+	int size() {
+		return size;
+	}
+
+	int maxSize() {
+		return maxSize;
+	}
+
+	byte[] getName(int index) {
+		assert index >= 1 && index <= count;
+		return names[(tail - index) & (names.length - 1)];
+	}
+
+	byte[] getValue(int index) {
+		assert index >= 1 && index <= count;
+		return values[(tail - index) & (values.length - 1)];
+	}
+
+	void add(byte[] name, byte[] value) {
+		int entrySize = entrySize(name, value);
+		evict(maxSize - entrySize);
+		if (entrySize > maxSize) return;
+		if (count == names.length) {
+			grow();
+		}
+		names[tail] = name;
+		values[tail] = value;
+		tail = (tail + 1) & (names.length - 1);
+		count++;
+		size += entrySize;
+	}
+
+	void setMaxSize(int maxSize) {
+		this.maxSize = maxSize;
+		evict(maxSize);
+	}
+
+	/**
+	 * Returns an index of the most recent entry with the given name and value,
+	 * or a negated index of the most recent entry with the given name if there is no exact match,
+	 * or 0 if there is no entry with the given name
+	 */
+	int find(byte[] name, byte[] value) {
+		int nameIndex = 0;
+		for (int index = 1; index <= count; index++) {
+			int slot = (tail - index) & (names.length - 1);
+			if (equals(names[slot], name)) {
+				if (equals(values[slot], value)) return index;
+				if (nameIndex == 0) nameIndex = -index;
+			}
+		}
+		return nameIndex;
+	}
+
+	private void evict(int targetSize) {
+		while (size > targetSize && count != 0) {
+			int slot = (tail - count) & (names.length - 1);
+			size -= entrySize(names[slot], values[slot]);
+			names[slot] = null;
+			values[slot] = null;
+			count--;
+		}
+	}
+
+	private void grow() {
+		byte[][] newNames = new byte[names.length * 2][];
+		byte[][] newValues = new byte[values.length * 2][];
+		for (int index = count; index >= 1; index--) {
+			newNames[count - index] = getName(index);
+			newValues[count - index] = getValue(index);
+		}
+		names = newNames;
+		values = newValues;
+		tail = count;
+	}
+
+	static int entrySize(byte[] name, byte[] value) {
+		return name.length + value.length + ENTRY_OVERHEAD;
+	}
+
+	static boolean equals(byte[] array1, byte[] array2) {
+		if (array1.length != array2.length) return false;
+		for (int i = array1.length - 1; i >= 0; i--) {
+			if (array1[i] != array2[i]) return false;
+		}
+		return true;
+	}
+}
@@ -0,0 +1,150 @@
+/*
+ * Copyright (C) 2015-2019 SoftIndex LLC.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package io.datakernel.http.hpack;
+
+import io.datakernel.bytebuf.ByteBuf;
+
+/**
+ * Encoder of HPACK header blocks, as defined in RFC 7541.
+ * <p>
+ * Header fields are encoded as indices of the static or dynamic table where possible,
+ * other header fields are added to the dynamic table, unless they are marked as sensitive.
+ * String literals are Huffman encoded if it makes them shorter.
+ * <p>
+ * One instance should be used for all header blocks sent over a connection,
+ * as they share the dynamic table.
+ */
+public final class HpackEncoder {
+	public static final int DEFAULT_TABLE_SIZE = 4096;
+	public static final int MAX_BLOCK_PREFIX_SIZE = 12;
+
+	private final HpackDynamicTable table;
+	private final int maxTableSizeLimit;
+
+	private int pendingMaxSize = -1;
+	private int pendingMinMaxSize = -1;
+
+	/**
+	 * @param maxTableSizeLimit an upper bound for the size of the dynamic table,
+	 *                          regardless of the size which is allowed by the decoder
+	 */
+	public HpackEncoder(int maxTableSizeLimit) {
+		this.table = new HpackDynamicTable(DEFAULT_TABLE_SIZE);
+		this.maxTableSizeLimit = maxTableSizeLimit;
+		if (maxTableSizeLimit < DEFAULT_TABLE_SIZE) {
+			setMaxTableSize(maxTableSizeLimit);
+		}
+	}
+
+	/**
+	 * Changes the max size of the dynamic table, as allowed by the decoder.
+	 * The change takes effect from the next header block
+	 */
+	public void setMaxTableSize(int maxTableSize) {
+		int maxSize = Math.min(maxTableSize, maxTableSizeLimit);
+		pendingMinMaxSize = pendingMinMaxSize == -1 ? maxSize : Math.min(pendingMinMaxSize, maxSize);
+		pendingMaxSize = maxSize;
+	}
+
+	/**
+	 * Returns the max size of a header field after encoding, excluding {@link #MAX_BLOCK_PREFIX_SIZE}
+	 */
+	public static int estimateSize(byte[] name, byte[] value) {
+		return 1 + 5 + name.length + 5 + value.length;
+	}
+
+	/**
+	 * Should be called before encoding header fields of each header block
+	 */
+	public void startHeaderBlock(ByteBuf buf) {
+		if (pendingMaxSize == -1) return;
+		if (pendingMinMaxSize < pendingMaxSize) {
+			writeInt(buf, 0x20, 5, pendingMinMaxSize);
+		}
+		writeInt(buf, 0x20, 5, pendingMaxSize);
+		table.setMaxSize(pendingMaxSize);
+		pendingMaxSize = pendingMinMaxSize = -1;
+	}
+
+	/**
+	 * Encodes a header field, the name should be in lower case
+	 *
+	 * @param sensitive whether the header field should never be indexed, e.g. for credentials
+	 */
+	public void encodeHeader(ByteBuf buf, byte[] name, byte[] value, boolean sensitive) {
+		int staticNameIndex = HpackStaticTable.indexOfName(name);
+		if (staticNameIndex != 0 && !sensitive) {
+			int index = HpackStaticTable.indexOf(staticNameIndex, name, value);
+			if (index != 0) {
+				writeInt(buf, 0x80, 7, index);
+				return;
+			}
+		}
+		int dynamicIndex = table.find(name, value);
+		if (dynamicIndex > 0 && !sensitive) {
+			writeInt(buf, 0x80, 7, HpackStaticTable.SIZE + dynamicIndex);
+			return;
+		}
+
+		int nameIndex = staticNameIndex != 0 ? staticNameIndex :
+				dynamicIndex != 0 ? HpackStaticTable.SIZE + Math.abs(dynamicIndex) :
+						0;
+		if (sensitive) {
+			writeInt(buf, 0x10, 4, nameIndex);
+		} else if (HpackDynamicTable.entrySize(name, value) <= table.maxSize()) {
+			writeInt(buf, 0x40, 6, nameIndex);
+			table.add(name, value);
+		} else {
+			writeInt(buf, 0x00, 4, nameIndex);
+		}
+		if (nameIndex == 0) {
+			writeString(buf, name);
+		}
+		writeString(buf, value);
+	}
+
+	public int getTableSize() {
+		return table.size();
+	}
+
+	private static void writeString(ByteBuf buf, byte[] string) {
+		int huffmanLength = Huffman.encodedLength(string, 0, string.length);
+		if (huffmanLength < string.length) {
+			writeInt(buf, 0x80, 7, huffmanLength);
+			Huffman.encode(buf, string, 0, string.length);
+		} else {
+			writeInt(buf, 0x00, 7, string.length);
+			buf.put(string);
+		}
+	}
+
+	static void writeInt(ByteBuf buf, int flags, int prefix, int value) {
+		int mask = (1 << prefix) - 1;
+		if (value < mask) {
+			buf.writeByte((byte) (flags | value));
+			return;
+		}
+		buf.writeByte((byte) (flags | mask));
+		value -= mask;
+		while (value >= 0x80) {
+			buf.writeByte((byte) (value | 0x80));
+			value >>>= 7;
+		}
+		buf.writeByte((byte) value);
+	}
+}
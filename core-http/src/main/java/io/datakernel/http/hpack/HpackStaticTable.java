@@ -0,0 +1,146 @@
+/*
+ * Copyright (C) 2015-2019 SoftIndex LLC.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package io.datakernel.http.hpack;
+
+import static io.datakernel.bytebuf.ByteBufStrings.encodeAscii;
+
+/**
+ * Static table of HPACK, as defined in RFC 7541, Appendix A.
+ * Entries are indexed from 1, entries with the same name are adjacent.
+ */
+final class HpackStaticTable {
+	static final int SIZE = 61;
+
+	static final byte[][] NAMES = new byte[SIZE + 1][];
+	static final byte[][] VALUES = new byte[SIZE + 1][];
+
+	private static final int[] NAME_SLOTS = new int[256];
+
+	static {
+		String[] entries = {
+				":authority", "",
+				":method", "GET",
+				":method", "POST",
+				":path", "/",
+				":path", "/index.html",
+				":scheme", "http",
+				":scheme", "https",
+				":status", "200",
+				":status", "204",
+				":status", "206",
+				":status", "304",
+				":status", "400",
+				":status", "404",
+				":status", "500",
+				"accept-charset", "",
+				"accept-encoding", "gzip, deflate",
+				"accept-language", "",
+				"accept-ranges", "",
+				"accept", "",
+				"access-control-allow-origin", "",
+				"age", "",
+				"allow", "",
+				"authorization", "",
+				"cache-control", "",
+				"content-disposition", "",
+				"content-encoding", "",
+				"content-language", "",
+				"content-length", "",
+				"content-location", "",
+				"content-range", "",
+				"content-type", "",
+				"cookie", "",
+				"date", "",
+				"etag", "",
+				"expect", "",
+				"expires", "",
+				"from", "",
+				"host", "",
+				"if-match", "",
+				"if-modified-since", "",
+				"if-none-match", "",
+				"if-range", "",
+				"if-unmodified-since", "",
+				"last-modified", "",
+				"link", "",
+				"location", "",
+				"max-forwards", "",
+				"proxy-authenticate", "",
+				"proxy-authorization", "",
+				"range", "",
+				"referer", "",
+				"refresh", "",
+				"retry-after", "",
+				"server", "",
+				"set-cookie", "",
+				"strict-transport-security", "",
+				"transfer-encoding", "",
+				"user-agent", "",
+				"vary", "",
+				"via", "",
+				"www-authenticate", ""
+		};
+		for (int index = 1; index <= SIZE; index++) {
+			NAMES[index] = encodeAscii(entries[2 * index - 2]);
+			VALUES[index] = encodeAscii(entries[2 * index - 1]);
+			if (index == 1 || !HpackDynamicTable.equals(NAMES[index], NAMES[index - 1])) {
+				for (int slot = hash(NAMES[index]); ; slot = (slot + 1) & (NAME_SLOTS.length - 1)) {
+					if (NAME_SLOTS[slot] == 0) {
+						NAME_SLOTS[slot] = index;
+						break;
+					}
+				}
+			}
+		}
+	}
+
+	private HpackStaticTable() {
+	}
+
+	/**
+	 * Returns an index of the first entry with the given name, or 0 if there is none
+	 */
+	static int indexOfName(byte[] name) {
+		for (int slot = hash(name); ; slot = (slot + 1) & (NAME_SLOTS.length - 1)) {
+			int index = NAME_SLOTS[slot];
+			if (index == 0 || HpackDynamicTable.equals(NAMES[index], name)) {
+				return index;
+			}
+		}
+	}
+
+	/**
+	 * Returns an index of the entry with the given name and value, or 0 if there is none
+	 */
+	static int indexOf(int nameIndex, byte[] name, byte[] value) {
+		for (int index = nameIndex; index <= SIZE && HpackDynamicTable.equals(NAMES[index], name); index++) {
+			if (HpackDynamicTable.equals(VALUES[index], value)) {
+				return index;
+			}
+		}
+		return 0;
+	}
+
+	private static int hash(byte[] name) {
+		int hash = 0;
+		for (byte b : name) {
+			hash = 31 * hash + b;
+		}
+		return (hash ^ (hash >>> 8)) & (NAME_SLOTS.length - 1);
+	}
+}
@@ -0,0 +1,151 @@
+/*
+ * Copyright (C) 2015-2019 SoftIndex LLC.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package io.datakernel.http.hpack;
+
+import io.datakernel.bytebuf.ByteBuf;
+import io.datakernel.common.parse.ParseException;
+
+import java.util.Arrays;
+
+/**
+ * Huffman code for string literals of HPACK, as defined in RFC 7541, Appendix B.
+ * <p>
+ * The code is canonical, so only the code lengths are listed, the codes themselves
+ * are assigned in order of their lengths and symbols.
+ */
+final class Huffman {
+	public static final ParseException EOS_DECODED = new ParseException(Huffman.class, "EOS symbol in Huffman encoded string");
+	public static final ParseException INVALID_PADDING = new ParseException(Huffman.class, "Invalid padding of Huffman encoded string");
+
+	private static final int EOS = 256;
+
+	private static final byte[] LENGTHS = {
+			13, 23, 28, 28, 28, 28, 28, 28, 28, 24, 30, 28, 28, 30, 28, 28,
+			28, 28, 28, 28, 28, 28, 30, 28, 28, 28, 28, 28, 28, 28, 28, 28,
+			6, 10, 10, 12, 13, 6, 8, 11, 10, 10, 8, 11, 8, 6, 6, 6,
+			5, 5, 5, 6, 6, 6, 6, 6, 6, 6, 7, 8, 15, 6, 12, 10,
+			13, 6, 7, 7, 7, 7, 7, 7, 7, 7, 7, 7, 7, 7, 7, 7,
+			7, 7, 7, 7, 7, 7, 7, 7, 8, 7, 8, 13, 19, 13, 14, 6,
+			15, 5, 6, 5, 6, 5, 6, 6, 6, 5, 7, 7, 6, 6, 6, 5,
+			6, 7, 6, 5, 5, 6, 7, 7, 7, 7, 7, 15, 11, 14, 13, 28,
+			20, 22, 20, 20, 22, 22, 22, 23, 22, 23, 23, 23, 23, 23, 24, 23,
+			24, 24, 22, 23, 24, 23, 23, 23, 23, 21, 22, 23, 22, 23, 23, 24,
+			22, 21, 20, 22, 22, 23, 23, 21, 23, 22, 22, 24, 21, 22, 23, 23,
+			21, 21, 22, 21, 23, 22, 23, 23, 20, 22, 22, 22, 23, 22, 22, 23,
+			26, 26, 20, 19, 22, 23, 22, 25, 26, 26, 26, 27, 27, 26, 24, 25,
+			19, 21, 26, 27, 27, 26, 27, 24, 21, 21, 26, 26, 28, 27, 27, 27,
+			20, 24, 20, 21, 22, 21, 21, 23, 22, 22, 25, 25, 24, 24, 26, 23,
+			26, 27, 26, 26, 27, 27, 27, 27, 27, 28, 27, 27, 27, 27, 27, 26,
+			30 // EOS
+	};
+
+	private static final int[] CODES = new int[LENGTHS.length];
+
+	/**
+	 * Decoding tree, children of a node {@code n} are at {@code 2 * n} and {@code 2 * n + 1},
+	 * leaves are stored as {@code ~symbol}
+	 */
+	private static final int[] TREE = new int[2 * (LENGTHS.length - 1)];
+
+	static {
+		Integer[] symbols = new Integer[LENGTHS.length];
+		for (int i = 0; i < symbols.length; i++) {
+			symbols[i] = i;
+		}
+		Arrays.sort(symbols, (s1, s2) -> LENGTHS[s1] != LENGTHS[s2] ? LENGTHS[s1] - LENGTHS[s2] : s1 - s2);
+		int code = 0;
+		for (int i = 0; i < symbols.length; i++) {
+			int symbol = symbols[i];
+			if (i != 0) {
+				code = (code + 1) << (LENGTHS[symbol] - LENGTHS[symbols[i - 1]]);
+			}
+			CODES[symbol] = code;
+		}
+
+		int nodes = 1;
+		for (int symbol = 0; symbol < LENGTHS.length; symbol++) {
+			int node = 0;
+			for (int bit = LENGTHS[symbol] - 1; bit > 0; bit--) {
+				int slot = 2 * node + ((CODES[symbol] >>> bit) & 1);
+				if (TREE[slot] == 0) {
+					TREE[slot] = nodes++;
+				}
+				node = TREE[slot];
+			}
+			TREE[2 * node + (CODES[symbol] & 1)] = ~symbol;
+		}
+	}
+
+	private Huffman() {
+	}
+
+	static int encodedLength(byte[] array, int offset, int length) {
+		long bits = 0;
+		for (int i = offset; i < offset + length; i++) {
+			bits += LENGTHS[array[i] & 0xFF];
+		}
+		return (int) ((bits + 7) >>> 3);
+	}
+
+	static void encode(ByteBuf buf, byte[] array, int offset, int length) {
+		long current = 0;
+		int bits = 0;
+		for (int i = offset; i < offset + length; i++) {
+			int symbol = array[i] & 0xFF;
+			current = (current << LENGTHS[symbol]) | CODES[symbol];
+			bits += LENGTHS[symbol];
+			while (bits >= 8) {
+				bits -= 8;
+				buf.writeByte((byte) (current >>> bits));
+			}
+		}
+		if (bits != 0) {
+			// padded with the most significant bits of EOS
+			buf.writeByte((byte) ((current << (8 - bits)) | (0xFF >>> bits)));
+		}
+	}
+
+	static byte[] decode(byte[] array, int offset, int length) throws ParseException {
+		byte[] result = new byte[length * 8 / 5];
+		int size = 0;
+		int node = 0;
+		int pending = 0;
+		boolean pendingOnes = true;
+		for (int i = offset; i < offset + length; i++) {
+			int b = array[i];
+			for (int shift = 7; shift >= 0; shift--) {
+				int bit = (b >>> shift) & 1;
+				int next = TREE[2 * node + bit];
+				pending++;
+				pendingOnes &= bit == 1;
+				if (next < 0) {
+					int symbol = ~next;
+					if (symbol == EOS) throw EOS_DECODED;
+					result[size++] = (byte) symbol;
+					node = 0;
+					pending = 0;
+					pendingOnes = true;
+				} else {
+					node = next;
+				}
+			}
+		}
+		if (pending > 7 || !pendingOnes) throw INVALID_PADDING;
+		return Arrays.copyOf(result, size);
+	}
+}
@@ -1,6 +1,7 @@
 package io.datakernel.http.loader;
 
 import io.datakernel.bytebuf.ByteBuf;
+import io.datakernel.common.MemSize;
 import io.datakernel.common.exception.StacklessException;
 import io.datakernel.promise.Promise;
 import org.jetbrains.annotations.NotNull;
@@ -22,14 +23,46 @@ public interface StaticLoader {
 
 	Promise<ByteBuf> load(String path);
 
+	/**
+	 * Loads a resource along with its entity tag and precomputed encodings, if this loader provides them.
+	 * By default, the resource is just the buffer which is returned by {@link #load(String)}.
+	 */
+	default Promise<StaticResource> loadResource(String path) {
+		return load(path).map(StaticResource::of);
+	}
+
 	default StaticLoader filter(Predicate<String> predicate) {
-		return path -> predicate.test(path) ?
-				load(path) :
-				Promise.ofException(NOT_FOUND_EXCEPTION);
+		StaticLoader self = this;
+		return new StaticLoader() {
+			@Override
+			public Promise<ByteBuf> load(String path) {
+				return predicate.test(path) ?
+						self.load(path) :
+						Promise.ofException(NOT_FOUND_EXCEPTION);
+			}
+
+			@Override
+			public Promise<StaticResource> loadResource(String path) {
+				return predicate.test(path) ?
+						self.loadResource(path) :
+						Promise.ofException(NOT_FOUND_EXCEPTION);
+			}
+		};
 	}
 
 	default StaticLoader map(Function<String, String> fn) {
-		return path -> this.load(fn.apply(path));
+		StaticLoader self = this;
+		return new StaticLoader() {
+			@Override
+			public Promise<ByteBuf> load(String path) {
+				return self.load(fn.apply(path));
+			}
+
+			@Override
+			public Promise<StaticResource> loadResource(String path) {
+				return self.loadResource(fn.apply(path));
+			}
+		};
 	}
 
 	default StaticLoader subfolder(String subfolder) {
@@ -45,6 +78,16 @@ public interface StaticLoader {
 		return cacheOf(this, map);
 	}
 
+	/**
+	 * Caches loaded resources up to the given total size, least recently used resources are evicted first.
+	 * Cached resources have entity tags and gzipped variants, if gzip makes them smaller,
+	 * which are computed on the given executor. Cached resources are not revalidated,
+	 * so this cache is only suitable for resources which do not change.
+	 */
+	default StaticLoader cached(@NotNull Executor executor, MemSize maxSize) {
+		return cacheOf(this, executor, maxSize);
+	}
+
 	static StaticLoader cacheOf(StaticLoader loader) {
 		return cacheOf(loader, new HashMap<>());
 	}
@@ -57,6 +100,10 @@ public interface StaticLoader {
 		return new StaticLoaderCache(loader, get, put);
 	}
 
+	static StaticLoader cacheOf(StaticLoader loader, @NotNull Executor executor, MemSize maxSize) {
+		return StaticLoaderLruCache.create(loader, executor, maxSize);
+	}
+
 	static StaticLoader ofClassPath(@NotNull Executor executor, String root) {
 		return StaticLoaderClassPath.create(executor, root);
 	}
@@ -2,14 +2,24 @@ package io.datakernel.http.loader;
 
 import io.datakernel.bytebuf.ByteBuf;
 import io.datakernel.bytebuf.ByteBufQueue;
+import io.datakernel.common.ApplicationSettings;
+import io.datakernel.common.MemSize;
 import io.datakernel.csp.file.ChannelFileReader;
 import io.datakernel.promise.Promise;
 
+import java.io.IOException;
 import java.nio.file.Files;
 import java.nio.file.Path;
+import java.nio.file.attribute.BasicFileAttributes;
 import java.util.concurrent.Executor;
 
 class StaticLoaderFileReader implements StaticLoader {
+	/**
+	 * Resources which are larger than this are not read into memory,
+	 * they are streamed from their files, directly to the socket when possible
+	 */
+	public static final long STREAM_THRESHOLD = ApplicationSettings.getMemSize(StaticLoaderFileReader.class, "streamThreshold", MemSize.kilobytes(256)).toLong();
+
 	private final Executor executor;
 	private final Path root;
 
@@ -44,4 +54,39 @@ class StaticLoaderFileReader implements StaticLoader {
 				.then($ -> ChannelFileReader.open(executor, file))
 				.then(cfr -> cfr.toCollector(ByteBufQueue.collector()));
 	}
+
+	@Override
+	public Promise<StaticResource> loadResource(String path) {
+		Path file = root.resolve(path).normalize();
+
+		if (!file.startsWith(root)) {
+			return Promise.ofException(NOT_FOUND_EXCEPTION);
+		}
+
+		return Promise.ofBlockingCallable(executor,
+				() -> {
+					BasicFileAttributes attributes;
+					try {
+						attributes = Files.readAttributes(file, BasicFileAttributes.class);
+					} catch (IOException e) {
+						throw NOT_FOUND_EXCEPTION;
+					}
+					if (attributes.isDirectory()) {
+						throw IS_A_DIRECTORY;
+					}
+					if (!attributes.isRegularFile()) {
+						throw NOT_FOUND_EXCEPTION;
+					}
+					return attributes;
+				})
+				.then(attributes -> {
+					long size = attributes.size();
+					String etag = '"' + Long.toHexString(attributes.lastModifiedTime().toMillis()) + '-' + Long.toHexString(size) + '"';
+					return ChannelFileReader.open(executor, file)
+							.then(cfr -> size > STREAM_THRESHOLD ?
+									Promise.of(StaticResource.ofStream(cfr.withLength(size), size, etag)) :
+									cfr.toCollector(ByteBufQueue.collector())
+											.map(buf -> StaticResource.of(buf, null, etag)));
+				});
+	}
 }
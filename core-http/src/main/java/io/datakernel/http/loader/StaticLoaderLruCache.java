@@ -0,0 +1,219 @@
+package io.datakernel.http.loader;
+
+import io.datakernel.bytebuf.ByteBuf;
+import io.datakernel.common.ApplicationSettings;
+import io.datakernel.common.MemSize;
+import io.datakernel.common.time.CurrentTimeProvider;
+import io.datakernel.http.GzipProcessorUtils;
+import io.datakernel.promise.Promise;
+import io.datakernel.promise.SettablePromise;
+import org.jetbrains.annotations.Nullable;
+
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.time.Duration;
+import java.util.*;
+import java.util.concurrent.Executor;
+
+import static io.datakernel.bytebuf.ByteBuf.wrapForReading;
+import static io.datakernel.common.Preconditions.checkArgument;
+
+/**
+ * A cache of resources which is bounded by the total size of its entries.
+ * <p>
+ * Entries are kept in access order and the least recently used ones are evicted once the size is exceeded.
+ * Each entry has an entity tag, which is provided by the underlying loader or is a hash of its content,
+ * and a gzipped variant of its body, unless gzip does not make it smaller. Both are computed on the given executor.
+ * Streamed resources, such as large files, are not cached.
+ * Concurrent loads of the same path share a single load from the underlying loader.
+ * <p>
+ * Cached entries are never revalidated against the underlying loader, so the cache is meant for resources
+ * which do not change while it is in use, such as bundled or versioned assets. A resource which has changed
+ * is served from the cache until it is evicted.
+ * <p>
+ * Paths which are not found are remembered separately, in a small cache of {@link #MAX_NOT_FOUND_ENTRIES}
+ * paths which expire after {@link #NOT_FOUND_TTL}, so that neither requests of arbitrary missing paths
+ * evict cached resources, nor a resource which appears later stays not found.
+ */
+final class StaticLoaderLruCache implements StaticLoader {
+	public static final int MIN_GZIP_SIZE = ApplicationSettings.getMemSize(StaticLoaderLruCache.class, "minGzipSize", MemSize.bytes(256)).toInt();
+	public static final int MAX_NOT_FOUND_ENTRIES = ApplicationSettings.getInt(StaticLoaderLruCache.class, "maxNotFoundEntries", 1000);
+	public static final Duration NOT_FOUND_TTL = ApplicationSettings.getDuration(StaticLoaderLruCache.class, "notFoundTtl", Duration.ofSeconds(10));
+
+	// approximate size of a map entry, its path and arrays, in addition to bytes of bodies
+	private static final int ENTRY_OVERHEAD = 128;
+
+	private final StaticLoader resourceLoader;
+	private final Executor executor;
+	private final long maxSize;
+
+	private final LinkedHashMap<String, Entry> entries = new LinkedHashMap<>(16, 0.75f, true);
+	private final Map<String, Promise<@Nullable Entry>> loading = new HashMap<>();
+	private long size;
+
+	// paths of not found resources to the time they expire at, in the order they were added
+	private final LinkedHashMap<String, Long> notFound = new LinkedHashMap<>();
+	private CurrentTimeProvider now = CurrentTimeProvider.ofSystem();
+
+	private static final class Entry {
+		final byte[] body;
+		@Nullable
+		final byte[] gzippedBody;
+		@Nullable
+		final String etag;
+		final long size;
+
+		Entry(byte[] body, @Nullable byte[] gzippedBody, @Nullable String etag, long size) {
+			this.body = body;
+			this.gzippedBody = gzippedBody;
+			this.etag = etag;
+			this.size = size;
+		}
+	}
+
+	private StaticLoaderLruCache(StaticLoader resourceLoader, Executor executor, long maxSize) {
+		this.resourceLoader = resourceLoader;
+		this.executor = executor;
+		this.maxSize = maxSize;
+	}
+
+	public static StaticLoaderLruCache create(StaticLoader resourceLoader, Executor executor, MemSize maxSize) {
+		checkArgument(maxSize.toLong() > 0, "Cache size must be positive");
+		return new StaticLoaderLruCache(resourceLoader, executor, maxSize.toLong());
+	}
+
+	StaticLoaderLruCache withCurrentTimeProvider(CurrentTimeProvider now) {
+		this.now = now;
+		return this;
+	}
+
+	@Override
+	public Promise<ByteBuf> load(String path) {
+		return loadResource(path).then(StaticResource::toByteBuf);
+	}
+
+	@Override
+	public Promise<StaticResource> loadResource(String path) {
+		Entry entry = entries.get(path);
+		if (entry != null) {
+			return toResource(entry);
+		}
+		if (isNotFound(path)) {
+			return Promise.ofException(NOT_FOUND_EXCEPTION);
+		}
+		Promise<@Nullable Entry> pending = loading.get(path);
+		if (pending != null) {
+			return pending.then(loaded -> loaded != null ? toResource(loaded) : resourceLoader.loadResource(path));
+		}
+		SettablePromise<@Nullable Entry> loaded = new SettablePromise<>();
+		loading.put(path, loaded);
+		return resourceLoader.loadResource(path)
+				.thenEx((resource, e) -> {
+					if (e != null) {
+						loading.remove(path);
+						if (e == NOT_FOUND_EXCEPTION) {
+							putNotFound(path);
+						}
+						loaded.setException(e);
+						return Promise.ofException(e);
+					}
+					ByteBuf body = resource.getBody();
+					if (body == null) {
+						loading.remove(path);
+						loaded.set(null);
+						return Promise.of(resource);
+					}
+					byte[] bytes = body.getArray();
+					String etag = resource.getETag();
+					resource.recycle();
+					return Promise.ofBlockingCallable(executor, () -> createEntry(path, bytes, etag))
+							.whenComplete((newEntry, e2) -> {
+								loading.remove(path);
+								if (e2 != null) {
+									loaded.setException(e2);
+									return;
+								}
+								put(path, newEntry);
+								loaded.set(newEntry);
+							})
+							.then(StaticLoaderLruCache::toResource);
+				});
+	}
+
+	private static Entry createEntry(String path, byte[] body, @Nullable String etag) {
+		byte[] gzippedBody = null;
+		if (body.length >= MIN_GZIP_SIZE) {
+			byte[] gzipped = GzipProcessorUtils.toGzip(wrapForReading(body)).asArray();
+			// a variant which saves less than 1/8 of the body is not worth the extra memory
+			if (gzipped.length < body.length - body.length / 8) {
+				gzippedBody = gzipped;
+			}
+		}
+		long size = entrySize(path, body.length + (gzippedBody != null ? gzippedBody.length : 0));
+		return new Entry(body, gzippedBody, etag != null ? etag : computeETag(body), size);
+	}
+
+	private static long entrySize(String path, int bodiesSize) {
+		return ENTRY_OVERHEAD + path.length() * 2L + bodiesSize;
+	}
+
+	private static String computeETag(byte[] body) {
+		MessageDigest digest;
+		try {
+			digest = MessageDigest.getInstance("SHA-256");
+		} catch (NoSuchAlgorithmException e) {
+			throw new AssertionError(e);
+		}
+		byte[] hash = Arrays.copyOf(digest.digest(body), 16);
+		return '"' + Base64.getUrlEncoder().withoutPadding().encodeToString(hash) + '"';
+	}
+
+	private void put(String path, Entry entry) {
+		if (entry.size > maxSize) return;
+		Entry previous = entries.put(path, entry);
+		if (previous != null) {
+			size -= previous.size;
+		}
+		size += entry.size;
+		Iterator<Entry> iterator = entries.values().iterator();
+		while (size > maxSize) {
+			size -= iterator.next().size;
+			iterator.remove();
+		}
+	}
+
+	private boolean isNotFound(String path) {
+		Long expiresAt = notFound.get(path);
+		if (expiresAt == null) return false;
+		if (expiresAt > now.currentTimeMillis()) return true;
+		notFound.remove(path);
+		return false;
+	}
+
+	private void putNotFound(String path) {
+		if (MAX_NOT_FOUND_ENTRIES <= 0) return;
+		notFound.remove(path);
+		notFound.put(path, now.currentTimeMillis() + NOT_FOUND_TTL.toMillis());
+		Iterator<String> iterator = notFound.keySet().iterator();
+		while (notFound.size() > MAX_NOT_FOUND_ENTRIES) {
+			iterator.next();
+			iterator.remove();
+		}
+	}
+
+	private static Promise<StaticResource> toResource(Entry entry) {
+		return Promise.of(StaticResource.of(wrapForReading(entry.body),
+				entry.gzippedBody != null ? wrapForReading(entry.gzippedBody) : null,
+				entry.etag));
+	}
+
+	@Override
+	public String toString() {
+		return "StaticLoaderLruCache{" +
+				"entries=" + entries.size() +
+				", size=" + size +
+				", maxSize=" + maxSize +
+				", notFound=" + notFound.size() +
+				'}';
+	}
+}
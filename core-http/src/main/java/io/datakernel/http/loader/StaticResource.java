@@ -0,0 +1,98 @@
+package io.datakernel.http.loader;
+
+import io.datakernel.bytebuf.ByteBuf;
+import io.datakernel.bytebuf.ByteBufQueue;
+import io.datakernel.csp.ChannelSupplier;
+import io.datakernel.promise.Promise;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+/**
+ * A resource which is loaded by {@link StaticLoader}.
+ * <p>
+ * Its body is either a buffer, optionally with a precomputed gzipped variant,
+ * or a stream of known size, such as a file which is sent to the socket directly.
+ * A resource may also have an entity tag, which is used to validate cached copies of it.
+ */
+public final class StaticResource {
+	@Nullable
+	private final ByteBuf body;
+	@Nullable
+	private final ByteBuf gzippedBody;
+	@Nullable
+	private final ChannelSupplier<ByteBuf> bodyStream;
+	private final long size;
+	@Nullable
+	private final String etag;
+
+	private StaticResource(@Nullable ByteBuf body, @Nullable ByteBuf gzippedBody, @Nullable ChannelSupplier<ByteBuf> bodyStream,
+			long size, @Nullable String etag) {
+		this.body = body;
+		this.gzippedBody = gzippedBody;
+		this.bodyStream = bodyStream;
+		this.size = size;
+		this.etag = etag;
+	}
+
+	public static StaticResource of(@NotNull ByteBuf body) {
+		return new StaticResource(body, null, null, body.readRemaining(), null);
+	}
+
+	public static StaticResource of(@NotNull ByteBuf body, @Nullable ByteBuf gzippedBody, @Nullable String etag) {
+		return new StaticResource(body, gzippedBody, null, body.readRemaining(), etag);
+	}
+
+	public static StaticResource ofStream(@NotNull ChannelSupplier<ByteBuf> bodyStream, long size, @Nullable String etag) {
+		return new StaticResource(null, null, bodyStream, size, etag);
+	}
+
+	@Nullable
+	public ByteBuf getBody() {
+		return body;
+	}
+
+	@Nullable
+	public ByteBuf getGzippedBody() {
+		return gzippedBody;
+	}
+
+	@Nullable
+	public ChannelSupplier<ByteBuf> getBodyStream() {
+		return bodyStream;
+	}
+
+	public long getSize() {
+		return size;
+	}
+
+	@Nullable
+	public String getETag() {
+		return etag;
+	}
+
+	/**
+	 * Returns the body as a single buffer, a stream is collected into it
+	 */
+	public Promise<ByteBuf> toByteBuf() {
+		if (gzippedBody != null) gzippedBody.recycle();
+		if (body != null) return Promise.of(body);
+		assert bodyStream != null;
+		return bodyStream.toCollector(ByteBufQueue.collector());
+	}
+
+	public void recycle() {
+		if (body != null) body.recycle();
+		if (gzippedBody != null) gzippedBody.recycle();
+		if (bodyStream != null) bodyStream.close();
+	}
+
+	@Override
+	public String toString() {
+		return "StaticResource{" +
+				"size=" + size +
+				(gzippedBody != null ? ", gzipped=" + gzippedBody.readRemaining() : "") +
+				(bodyStream != null ? ", stream" : "") +
+				(etag != null ? ", etag=" + etag : "") +
+				'}';
+	}
+}
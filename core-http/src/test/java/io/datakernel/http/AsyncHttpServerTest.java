@@ -273,6 +273,56 @@ public final class AsyncHttpServerTest {
 		thread.join();
 	}
 
+	@Test
+	public void testPipeliningWithMaxPipelinedRequests() throws Exception {
+		Eventloop eventloop = Eventloop.create().withFatalErrorHandler(rethrowOnAnyError()).withCurrentThread();
+		int port = getFreePort();
+		doTestPipelining(eventloop, delayedHttpServer(eventloop, port).withMaxPipelinedRequests(8), port);
+	}
+
+	@Test
+	public void testPipelinedRequestsAreServedConcurrently() throws Exception {
+		Eventloop eventloop = Eventloop.create().withFatalErrorHandler(rethrowOnAnyError()).withCurrentThread();
+		int port = getFreePort();
+		int maxPipelinedRequests = 4;
+		int[] serving = new int[2];
+		AsyncHttpServer server = AsyncHttpServer.create(eventloop,
+				request -> {
+					serving[1] = Math.max(serving[1], ++serving[0]);
+					return Promises.delay(RANDOM.nextInt(10),
+							HttpResponse.ok200().withBody(encodeAscii(request.getUrl().getPath())))
+							.whenComplete(($, e) -> serving[0]--);
+				})
+				.withListenPort(port)
+				.withMaxPipelinedRequests(maxPipelinedRequests);
+		server.listen();
+		Thread thread = new Thread(eventloop);
+		thread.start();
+
+		Socket socket = new Socket();
+		socket.connect(new InetSocketAddress("localhost", port));
+
+		StringBuilder requests = new StringBuilder();
+		for (int i = 0; i < 100; i++) {
+			requests.append("GET /").append(i).append(" HTTP/1.1\r\nHost: localhost\r\n\r\n");
+		}
+		requests.append("GET /last HTTP/1.1\r\nHost: localhost\r\nConnection: close\r\n\r\n");
+		socket.getOutputStream().write(encodeAscii(requests.toString()));
+
+		for (int i = 0; i < 100; i++) {
+			String body = "/" + i;
+			readAndAssert(socket.getInputStream(), "HTTP/1.1 200 OK\r\nConnection: keep-alive\r\nContent-Length: " + body.length() + "\r\n\r\n" + body);
+		}
+		readAndAssert(socket.getInputStream(), "HTTP/1.1 200 OK\r\nConnection: close\r\nContent-Length: 5\r\n\r\n/last");
+		assertEquals(0, toByteArray(socket.getInputStream()).length);
+		socket.close();
+
+		server.closeFuture().get();
+		thread.join();
+
+		assertEquals(maxPipelinedRequests, serving[1]);
+	}
+
 	@Test
 	@Ignore("does not work")
 	public void testPipelining2() throws Exception {
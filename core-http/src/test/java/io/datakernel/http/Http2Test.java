@@ -0,0 +1,316 @@
+/*
+ * Copyright (C) 2015-2019 SoftIndex LLC.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package io.datakernel.http;
+
+import io.datakernel.bytebuf.ByteBuf;
+import io.datakernel.bytebuf.ByteBufQueue;
+import io.datakernel.bytebuf.ByteBufStrings;
+import io.datakernel.common.MemSize;
+import io.datakernel.csp.ChannelSupplier;
+import io.datakernel.eventloop.Eventloop;
+import io.datakernel.eventloop.net.SocketSettings;
+import io.datakernel.promise.Promise;
+import io.datakernel.promise.Promises;
+import io.datakernel.promise.SettablePromise;
+import io.datakernel.test.rules.ByteBufRule;
+import io.datakernel.test.rules.EventloopRule;
+import org.junit.AfterClass;
+import org.junit.ClassRule;
+import org.junit.Test;
+
+import javax.net.ssl.SSLContext;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.net.Socket;
+import java.nio.ByteBuffer;
+import java.nio.channels.SocketChannel;
+import java.security.SecureRandom;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.ExecutorService;
+import java.util.stream.Collectors;
+import java.util.stream.IntStream;
+
+import static io.datakernel.bytebuf.ByteBufStrings.wrapAscii;
+import static io.datakernel.https.SslUtils.*;
+import static io.datakernel.promise.TestUtils.await;
+import static io.datakernel.test.TestUtils.getFreePort;
+import static java.nio.charset.StandardCharsets.UTF_8;
+import static java.util.concurrent.Executors.newCachedThreadPool;
+import static org.junit.Assert.*;
+
+public final class Http2Test {
+	private static final int PORT = getFreePort();
+	private static final ExecutorService executor = newCachedThreadPool();
+
+	@ClassRule
+	public static final EventloopRule eventloopRule = new EventloopRule();
+
+	@ClassRule
+	public static final ByteBufRule byteBufRule = new ByteBufRule();
+
+	@AfterClass
+	public static void tearDown() {
+		executor.shutdown();
+	}
+
+	@Test
+	public void testGet() throws Exception {
+		startServer(request -> HttpResponse.ok200()
+				.withBody(wrapAscii("Hello, " + request.getQueryParameter("name") + "!")));
+
+		AsyncHttpClient client = AsyncHttpClient.create(Eventloop.getCurrentEventloop())
+				.withHttp2(true)
+				.withKeepAliveTimeout(Duration.ofSeconds(10));
+		String body = await(client.request(HttpRequest.get("http://127.0.0.1:" + PORT + "/hello?name=World"))
+				.then(response -> response.loadBody()
+						.map(buf -> {
+							assertEquals(200, response.getCode());
+							return buf.getString(UTF_8);
+						}))
+				.whenResult($ -> assertEquals(1, client.http2Connections.size()))
+				.then(result -> client.stop().map($ -> result)));
+		assertEquals("Hello, World!", body);
+	}
+
+	@Test
+	public void testPostLargeBodies() throws Exception {
+		startServer(request -> request.loadBody()
+				.map(body -> HttpResponse.ok200().withBody(body.slice())));
+
+		byte[] data = new byte[1024 * 1024];
+		new Random(0).nextBytes(data);
+
+		AsyncHttpClient client = AsyncHttpClient.create(Eventloop.getCurrentEventloop())
+				.withHttp2(true);
+		byte[] result = await(client.request(HttpRequest.post("http://127.0.0.1:" + PORT)
+				.withBody(ByteBuf.wrapForReading(data)))
+				.then(response -> response.loadBody()
+						.map(ByteBuf::getArray)));
+		assertArrayEquals(data, result);
+	}
+
+	@Test
+	public void testStreamingBodies() throws Exception {
+		startServer(request -> HttpResponse.ok200()
+				.withBodyStream(request.getBodyStream()));
+
+		List<String> chunks = IntStream.range(0, 1000)
+				.mapToObj(i -> "chunk " + i + ";")
+				.collect(Collectors.toList());
+
+		AsyncHttpClient client = AsyncHttpClient.create(Eventloop.getCurrentEventloop())
+				.withHttp2(true);
+		String result = await(client.request(HttpRequest.post("http://127.0.0.1:" + PORT)
+				.withBodyStream(ChannelSupplier.ofStream(chunks.stream().map(ByteBufStrings::wrapAscii))))
+				.then(response -> response.getBodyStream().toCollector(ByteBufQueue.collector()))
+				.map(buf -> buf.asString(UTF_8)));
+		assertEquals(String.join("", chunks), result);
+	}
+
+	@Test
+	public void testMultiplexing() throws Exception {
+		startServer(request -> Promise.complete()
+				.async()
+				.map($ -> HttpResponse.ok200().withBody(wrapAscii(request.getPath()))));
+
+		AsyncHttpClient client = AsyncHttpClient.create(Eventloop.getCurrentEventloop())
+				.withHttp2(true)
+				.withKeepAliveTimeout(Duration.ofSeconds(10));
+		List<String> result = await(client.request(HttpRequest.get("http://127.0.0.1:" + PORT + "/first"))
+				.then(response -> response.loadBody())
+				.then($ -> Promises.toList(IntStream.range(0, 50)
+						.mapToObj(i -> client.request(HttpRequest.get("http://127.0.0.1:" + PORT + "/" + i))
+								.then(response -> response.loadBody()
+										.map(buf -> buf.getString(UTF_8))))))
+				.whenResult($ -> assertEquals(1, client.getConnectionsCount()))
+				.then(list -> client.stop().map($ -> list)));
+		assertEquals(IntStream.range(0, 50).mapToObj(i -> "/" + i).collect(Collectors.toList()), result);
+	}
+
+	@Test
+	public void testHttp1ClientIsServed() throws Exception {
+		startServer(request -> HttpResponse.ok200().withBody(wrapAscii("Hello")));
+
+		AsyncHttpClient client = AsyncHttpClient.create(Eventloop.getCurrentEventloop());
+		String body = await(client.request(HttpRequest.get("http://127.0.0.1:" + PORT))
+				.then(response -> response.loadBody()
+						.map(buf -> buf.getString(UTF_8))));
+		assertEquals("Hello", body);
+	}
+
+	@Test
+	public void testAlpn() throws Exception {
+		SSLContext sslContext = createSslContext("TLSv1.2",
+				createKeyManagers(new File("./src/test/resources/keystore.jks"), "testtest", "testtest"),
+				createTrustManagers(new File("./src/test/resources/truststore.jks"), "testtest"),
+				new SecureRandom());
+		AsyncHttpServer.create(Eventloop.getCurrentEventloop(),
+				request -> HttpResponse.ok200().withBody(wrapAscii("Hello, TLS!")))
+				.withHttp2(true)
+				.withSslListenPort(sslContext, executor, PORT)
+				.withAcceptOnce()
+				.listen();
+
+		AsyncHttpClient client = AsyncHttpClient.create(Eventloop.getCurrentEventloop())
+				.withHttp2(true)
+				.withSslEnabled(sslContext, executor)
+				.withKeepAliveTimeout(Duration.ofSeconds(10));
+		String body = await(client.request(HttpRequest.get("https://127.0.0.1:" + PORT))
+				.then(response -> response.loadBody()
+						.map(buf -> buf.getString(UTF_8)))
+				.whenResult($ -> assertEquals(1, client.http2Connections.size()))
+				.then(result -> client.stop().map($ -> result)));
+		assertEquals("Hello, TLS!", body);
+	}
+
+	@Test
+	public void testRapidReset() throws Exception {
+		int maxConcurrentStreams = 10;
+		int maxResets = 50;
+		List<SettablePromise<HttpResponse>> runningServlets = new ArrayList<>();
+		AsyncHttpServer.create(Eventloop.getCurrentEventloop(),
+				request -> {
+					SettablePromise<HttpResponse> response = new SettablePromise<>();
+					runningServlets.add(response);
+					return response;
+				})
+				.withHttp2(true)
+				.withHttp2MaxConcurrentStreams(maxConcurrentStreams)
+				.withHttp2MaxResets(maxResets, Duration.ofMinutes(1))
+				.withListenPort(PORT)
+				.withAcceptOnce()
+				.listen();
+
+		ByteArrayOutputStream frames = new ByteArrayOutputStream();
+		frames.write(AbstractHttp2Connection.PREFACE);
+		writeFrame(frames, AbstractHttp2Connection.SETTINGS, 0, 0);
+		for (int i = 0; i <= maxResets; i++) {
+			int streamId = i * 2 + 1;
+			// :method GET, :scheme http, :path / from the static table
+			writeFrame(frames, AbstractHttp2Connection.HEADERS,
+					AbstractHttp2Connection.FLAG_END_STREAM | AbstractHttp2Connection.FLAG_END_HEADERS, streamId,
+					0x82, 0x86, 0x84);
+			writeFrame(frames, AbstractHttp2Connection.RST_STREAM, 0, streamId, 0, 0, 0, Http2Exception.CANCEL);
+		}
+
+		byte[] received = await(Promise.ofBlockingCallable(executor, () -> {
+			try (Socket socket = new Socket("127.0.0.1", PORT)) {
+				socket.setSoTimeout(10_000);
+				socket.getOutputStream().write(frames.toByteArray());
+				ByteArrayOutputStream result = new ByteArrayOutputStream();
+				byte[] buffer = new byte[4096];
+				int read;
+				while ((read = socket.getInputStream().read(buffer)) != -1) {
+					result.write(buffer, 0, read);
+				}
+				return result.toByteArray();
+			}
+		})
+				.whenComplete(() -> runningServlets.forEach(response -> response.set(HttpResponse.ok200()))));
+
+		assertEquals(maxConcurrentStreams, runningServlets.size());
+		assertEquals(Http2Exception.ENHANCE_YOUR_CALM, readGoAwayErrorCode(received));
+	}
+
+	@Test
+	public void testControlFramesFlood() throws Exception {
+		AsyncHttpServer.create(Eventloop.getCurrentEventloop(), request -> HttpResponse.ok200())
+				.withHttp2(true)
+				// small socket buffers are filled with responses to pings quickly
+				.withSocketSettings(SocketSettings.create().withSendBufferSize(MemSize.kilobytes(4)))
+				.withListenPort(PORT)
+				.withAcceptOnce()
+				.listen();
+
+		ByteArrayOutputStream preface = new ByteArrayOutputStream();
+		preface.write(AbstractHttp2Connection.PREFACE);
+		writeFrame(preface, AbstractHttp2Connection.SETTINGS, 0, 0);
+		ByteArrayOutputStream pings = new ByteArrayOutputStream();
+		for (int i = 0; i < AbstractHttp2Connection.MAX_PENDING_CONTROL_FRAMES; i++) {
+			writeFrame(pings, AbstractHttp2Connection.PING, 0, 0, 0, 0, 0, 0, 0, 0, 0, 0);
+		}
+
+		boolean closed = await(Promise.ofBlockingCallable(executor, () -> {
+			try (SocketChannel channel = SocketChannel.open()) {
+				channel.socket().setReceiveBufferSize(4096);
+				channel.connect(new InetSocketAddress("127.0.0.1", PORT));
+				channel.configureBlocking(false);
+				// the client keeps sending pings, but never reads responses to them
+				ByteBuffer buf = ByteBuffer.wrap(preface.toByteArray());
+				long deadline = System.currentTimeMillis() + 10_000;
+				while (System.currentTimeMillis() < deadline) {
+					if (!buf.hasRemaining()) {
+						buf = ByteBuffer.wrap(pings.toByteArray());
+					}
+					try {
+						if (channel.write(buf) == 0) {
+							Thread.sleep(10);
+						}
+					} catch (IOException e) {
+						return true;
+					}
+				}
+				return false;
+			}
+		}));
+
+		assertTrue(closed);
+	}
+
+	private static void writeFrame(ByteArrayOutputStream out, int type, int flags, int streamId, int... payload) {
+		out.write(payload.length >>> 16);
+		out.write(payload.length >>> 8);
+		out.write(payload.length);
+		out.write(type);
+		out.write(flags);
+		out.write(streamId >>> 24);
+		out.write(streamId >>> 16);
+		out.write(streamId >>> 8);
+		out.write(streamId);
+		for (int b : payload) {
+			out.write(b);
+		}
+	}
+
+	private static int readGoAwayErrorCode(byte[] frames) {
+		ByteBuf buf = ByteBuf.wrapForReading(frames);
+		while (buf.readRemaining() >= 9) {
+			int length = (buf.readByte() & 0xFF) << 16 | (buf.readByte() & 0xFF) << 8 | (buf.readByte() & 0xFF);
+			byte type = buf.readByte();
+			buf.moveHead(5);
+			if (type == AbstractHttp2Connection.GOAWAY) {
+				buf.readInt();
+				return buf.readInt();
+			}
+			buf.moveHead(length);
+		}
+		throw new AssertionError("No GOAWAY frame is received");
+	}
+
+	private static void startServer(AsyncServlet servlet) throws Exception {
+		AsyncHttpServer.create(Eventloop.getCurrentEventloop(), servlet)
+				.withHttp2(true)
+				.withListenPort(PORT)
+				.withAcceptOnce()
+				.listen();
+	}
+}
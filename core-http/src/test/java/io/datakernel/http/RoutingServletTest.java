@@ -29,6 +29,7 @@ import static io.datakernel.http.HttpMethod.*;
 import static io.datakernel.test.TestUtils.assertComplete;
 import static java.nio.charset.StandardCharsets.UTF_8;
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
 import static org.junit.Assert.assertTrue;
 
 public final class RoutingServletTest {
@@ -359,4 +360,70 @@ public final class RoutingServletTest {
 		check(main.serve(HttpRequest.get(TEMPLATE + "/method/yumgn?query=string")), "Success: ", 200);
 		check(main.serve(HttpRequest.get(TEMPLATE + "/method/yumgn/first?query=string")), "Success: first", 200);
 	}
+
+	@Test
+	public void testCommonPrefixes() {
+		RoutingServlet main = RoutingServlet.create()
+				.map(GET, "/user", request -> HttpResponse.ofCode(200).withBody(wrapUtf8("user")))
+				.map(GET, "/users", request -> HttpResponse.ofCode(200).withBody(wrapUtf8("users")))
+				.map(GET, "/user-groups/:id", request -> HttpResponse.ofCode(200).withBody(wrapUtf8("group " + request.getPathParameter("id"))))
+				.map(GET, "/u", request -> HttpResponse.ofCode(200).withBody(wrapUtf8("u")));
+
+		check(main.serve(HttpRequest.get(TEMPLATE + "/user")), "user", 200);
+		check(main.serve(HttpRequest.get(TEMPLATE + "/users/")), "users", 200);
+		check(main.serve(HttpRequest.get(TEMPLATE + "/user-groups/42?x=/y")), "group 42", 200);
+		check(main.serve(HttpRequest.get(TEMPLATE + "/u")), "u", 200);
+		check(main.serve(HttpRequest.get(TEMPLATE + "/us")), "", 404);
+		check(main.serve(HttpRequest.get(TEMPLATE + "/userss")), "", 404);
+		check(main.serve(HttpRequest.get(TEMPLATE + "/user-groups")), "", 404);
+	}
+
+	@Test
+	public void testCollapsedRoutesBacktracking() {
+		RoutingServlet main = RoutingServlet.create()
+				.map(GET, "/api/v1/users/list", request -> HttpResponse.ofCode(200).withBody(wrapUtf8("list")))
+				.map(GET, "/:service/v1/*", request -> HttpResponse.ofCode(200)
+						.withBody(wrapUtf8(request.getPathParameter("service") + " " + request.getRelativePath())));
+
+		check(main.serve(HttpRequest.get(TEMPLATE + "/api/v1/users/list")), "list", 200);
+		check(main.serve(HttpRequest.get(TEMPLATE + "/api/v1/users/other")), "api users/other", 200);
+		check(main.serve(HttpRequest.get(TEMPLATE + "/api/v1/users")), "api users", 200);
+		check(main.serve(HttpRequest.get(TEMPLATE + "/api/v2")), "", 404);
+		check(main.serve(HttpRequest.get(TEMPLATE + "/api//v1/users/list")), "", 404);
+		check(main.serve(HttpRequest.get(TEMPLATE + "/api%20/v1/x")), "api  x", 200);
+	}
+
+	@Test
+	public void testModificationAfterServing() {
+		RoutingServlet main = RoutingServlet.create()
+				.map(GET, "/a/b", request -> HttpResponse.ofCode(200).withBody(wrapUtf8("b")));
+		check(main.serve(HttpRequest.get(TEMPLATE + "/a/c")), "", 404);
+
+		RoutingServlet subtree = main.getSubtree("/a");
+		assertNotNull(subtree);
+		subtree.map(GET, "/c", request -> HttpResponse.ofCode(200).withBody(wrapUtf8("c")));
+
+		check(main.serve(HttpRequest.get(TEMPLATE + "/a/b")), "b", 200);
+		check(main.serve(HttpRequest.get(TEMPLATE + "/a/c")), "c", 200);
+	}
+
+	@Test
+	public void testModificationOfMergedSubtreeAfterServing() {
+		RoutingServlet first = RoutingServlet.create()
+				.map(GET, "/a/b", request -> HttpResponse.ofCode(200).withBody(wrapUtf8("b")));
+		RoutingServlet second = RoutingServlet.create()
+				.map(GET, "/x", request -> HttpResponse.ofCode(200).withBody(wrapUtf8("x")));
+		RoutingServlet merged = RoutingServlet.merge(first, second);
+		check(merged.serve(HttpRequest.get(TEMPLATE + "/a/c")), "", 404);
+		check(second.serve(HttpRequest.get(TEMPLATE + "/x")), "x", 200);
+
+		RoutingServlet subtree = first.getSubtree("/a");
+		assertNotNull(subtree);
+		subtree.map(GET, "/c", request -> HttpResponse.ofCode(200).withBody(wrapUtf8("c")));
+
+		check(first.serve(HttpRequest.get(TEMPLATE + "/a/c")), "c", 200);
+		check(merged.serve(HttpRequest.get(TEMPLATE + "/a/c")), "c", 200);
+		check(merged.serve(HttpRequest.get(TEMPLATE + "/x")), "x", 200);
+		check(second.serve(HttpRequest.get(TEMPLATE + "/a/c")), "", 404);
+	}
 }
@@ -17,7 +17,13 @@
 package io.datakernel.http;
 
 import io.datakernel.bytebuf.ByteBuf;
+import io.datakernel.bytebuf.ByteBufQueue;
+import io.datakernel.common.MemSize;
+import io.datakernel.common.parse.ParseException;
+import io.datakernel.csp.file.ChannelFileReader;
+import io.datakernel.eventloop.Eventloop;
 import io.datakernel.http.loader.StaticLoader;
+import io.datakernel.promise.Promise;
 import io.datakernel.test.rules.ByteBufRule;
 import io.datakernel.test.rules.EventloopRule;
 import org.junit.BeforeClass;
@@ -31,18 +37,28 @@ import java.io.File;
 import java.io.IOException;
 import java.nio.file.Files;
 import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.Executor;
 
+import static io.datakernel.bytebuf.ByteBuf.wrapForReading;
 import static io.datakernel.bytebuf.ByteBufStrings.encodeAscii;
+import static io.datakernel.http.HttpHeaders.*;
 import static io.datakernel.http.loader.StaticLoader.ofClassPath;
 import static io.datakernel.http.loader.StaticLoader.ofPath;
 import static io.datakernel.promise.TestUtils.await;
 import static io.datakernel.promise.TestUtils.awaitException;
 import static java.nio.charset.StandardCharsets.UTF_8;
+import static io.datakernel.test.TestUtils.getFreePort;
+import static java.util.Arrays.asList;
 import static java.util.concurrent.Executors.newCachedThreadPool;
-import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.*;
 
 public final class StaticServletsTest {
 	public static final String EXPECTED_CONTENT = "Test";
+	private static final String TEXT_CONTENT = largeText();
+	private static final byte[] LARGE_CONTENT = new byte[1024 * 1024];
 
 	@Rule
 	public ExpectedException exception = ExpectedException.none();
@@ -65,6 +81,9 @@ public final class StaticServletsTest {
 		resourcesFile = resourcesPath.toFile();
 
 		Files.write(resourcesPath.resolve("index.html"), encodeAscii(EXPECTED_CONTENT));
+		Files.write(resourcesPath.resolve("text.txt"), encodeAscii(TEXT_CONTENT));
+		new Random(0).nextBytes(LARGE_CONTENT);
+		Files.write(resourcesPath.resolve("large.bin"), LARGE_CONTENT);
 	}
 
 	@Test
@@ -132,4 +151,96 @@ public final class StaticServletsTest {
 
 		assertEquals(404, e.getCode());
 	}
+
+	@Test
+	public void testLruCacheEviction() {
+		List<String> loads = new ArrayList<>();
+		StaticLoader loader = ((StaticLoader) path -> {
+			loads.add(path);
+			return path.startsWith("missing") ?
+					Promise.ofException(StaticLoader.NOT_FOUND_EXCEPTION) :
+					Promise.of(wrapForReading(new byte[1000]));
+		})
+				.cached(newCachedThreadPool(), MemSize.bytes(2500));
+
+		await(loader.load("a"));
+		await(loader.load("b"));
+		await(loader.load("a"));
+		await(loader.load("c"));
+		await(loader.load("a"));
+		await(loader.load("b"));
+		awaitException(loader.load("missing"));
+		awaitException(loader.load("missing"));
+
+		assertEquals(asList("a", "b", "c", "b", "missing"), loads);
+	}
+
+	@Test
+	public void testETagAndNotModified() {
+		Executor executor = newCachedThreadPool();
+		StaticServlet staticServlet = StaticServlet.create(ofPath(executor, resourcesPath).cached(executor, MemSize.megabytes(1)));
+		HttpResponse response = await(staticServlet.serve(HttpRequest.get("http://test.com:8080/index.html")));
+		String etag = response.getHeader(ETAG);
+		assertNotNull(etag);
+		assertEquals(EXPECTED_CONTENT, response.getBody().asString(UTF_8));
+
+		HttpResponse notModified = await(staticServlet.serve(HttpRequest.get("http://test.com:8080/index.html")
+				.withHeader(IF_NONE_MATCH, "\"other\", W/" + etag)));
+		assertEquals(304, notModified.getCode());
+		assertEquals(etag, notModified.getHeader(ETAG));
+
+		HttpResponse modified = await(staticServlet.serve(HttpRequest.get("http://test.com:8080/index.html")
+				.withHeader(IF_NONE_MATCH, "\"other\"")));
+		assertEquals(200, modified.getCode());
+		assertEquals(EXPECTED_CONTENT, modified.getBody().asString(UTF_8));
+	}
+
+	@Test
+	public void testGzippedVariant() throws ParseException {
+		Executor executor = newCachedThreadPool();
+		StaticServlet staticServlet = StaticServlet.create(ofPath(executor, resourcesPath).cached(executor, MemSize.megabytes(1)));
+
+		HttpResponse gzipped = await(staticServlet.serve(HttpRequest.get("http://test.com:8080/text.txt")
+				.withHeader(ACCEPT_ENCODING, "deflate, gzip;q=0.8")));
+		assertEquals("gzip", gzipped.getHeader(CONTENT_ENCODING));
+		assertEquals("Accept-Encoding", gzipped.getHeader(VARY));
+		ByteBuf body = gzipped.getBody();
+		assertTrue(body.readRemaining() < TEXT_CONTENT.length());
+		assertEquals(TEXT_CONTENT, GzipProcessorUtils.fromGzip(body, TEXT_CONTENT.length() * 2).asString(UTF_8));
+
+		HttpResponse plain = await(staticServlet.serve(HttpRequest.get("http://test.com:8080/text.txt")
+				.withHeader(ACCEPT_ENCODING, "gzip;q=0")));
+		assertNull(plain.getHeader(CONTENT_ENCODING));
+		assertEquals(TEXT_CONTENT, plain.getBody().asString(UTF_8));
+	}
+
+	@Test
+	public void testLargeFileIsStreamed() throws IOException {
+		Executor executor = newCachedThreadPool();
+		StaticServlet staticServlet = StaticServlet.create(ofPath(executor, resourcesPath).cached(executor, MemSize.megabytes(16)));
+		HttpResponse response = await(staticServlet.serve(HttpRequest.get("http://test.com:8080/large.bin")));
+		assertTrue(response.bodyStream instanceof ChannelFileReader);
+		assertEquals(Integer.toString(LARGE_CONTENT.length), response.getHeader(CONTENT_LENGTH));
+		assertNotNull(response.getHeader(ETAG));
+		response.recycle();
+
+		int port = getFreePort();
+		AsyncHttpServer.create(Eventloop.getCurrentEventloop(), staticServlet)
+				.withListenPort(port)
+				.withAcceptOnce()
+				.listen();
+
+		ByteBuf body = await(AsyncHttpClient.create(Eventloop.getCurrentEventloop())
+				.request(HttpRequest.get("http://127.0.0.1:" + port + "/large.bin"))
+				.then(r -> r.getBodyStream().toCollector(ByteBufQueue.collector())));
+		assertArrayEquals(LARGE_CONTENT, body.asArray());
+	}
+
+	private static String largeText() {
+		StringBuilder sb = new StringBuilder();
+		for (int i = 0; i < 1000; i++) {
+			sb.append("line #").append(i).append('\n');
+		}
+		return sb.toString();
+	}
 }
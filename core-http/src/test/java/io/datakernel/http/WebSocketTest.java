@@ -0,0 +1,238 @@
+/*
+ * Copyright (C) 2015-2019 SoftIndex LLC.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package io.datakernel.http;
+
+import io.datakernel.bytebuf.ByteBuf;
+import io.datakernel.bytebuf.ByteBufPool;
+import io.datakernel.bytebuf.ByteBufQueue;
+import io.datakernel.bytebuf.ByteBufStrings;
+import io.datakernel.csp.ChannelSupplier;
+import io.datakernel.eventloop.Eventloop;
+import io.datakernel.net.AsyncTcpSocketImpl;
+import io.datakernel.promise.Promise;
+import io.datakernel.test.rules.ByteBufRule;
+import io.datakernel.test.rules.EventloopRule;
+import org.junit.ClassRule;
+import org.junit.Test;
+
+import java.net.InetSocketAddress;
+import java.util.List;
+import java.util.Random;
+import java.util.stream.Collectors;
+import java.util.stream.IntStream;
+
+import static io.datakernel.bytebuf.ByteBufStrings.wrapAscii;
+import static io.datakernel.promise.TestUtils.await;
+import static io.datakernel.promise.TestUtils.awaitException;
+import static io.datakernel.test.TestUtils.getFreePort;
+import static java.nio.charset.StandardCharsets.ISO_8859_1;
+import static java.nio.charset.StandardCharsets.UTF_8;
+import static java.util.Collections.nCopies;
+import static org.junit.Assert.*;
+
+public final class WebSocketTest {
+	private static final int PORT = getFreePort();
+	private static final String URL = "http://127.0.0.1:" + PORT + "/ws";
+
+	@ClassRule
+	public static final EventloopRule eventloopRule = new EventloopRule();
+
+	@ClassRule
+	public static final ByteBufRule byteBufRule = new ByteBufRule();
+
+	@Test
+	public void testEcho() throws Exception {
+		startServer(WebSocketServlet.create(WebSocketTest::echo));
+
+		List<String> messages = IntStream.range(0, 100)
+				.mapToObj(i -> "message " + i)
+				.collect(Collectors.toList());
+
+		AsyncHttpClient client = AsyncHttpClient.create(Eventloop.getCurrentEventloop());
+		List<String> result = await(client.webSocketRequest(HttpRequest.get(URL))
+				.then(webSocket -> {
+					ChannelSupplier.ofStream(messages.stream().map(ByteBufStrings::wrapUtf8))
+							.streamTo(webSocket.textMessageWriteChannel());
+					return webSocket.messageReadChannel()
+							.map(buf -> buf.asString(UTF_8))
+							.toList();
+				}));
+		assertEquals(messages, result);
+	}
+
+	@Test
+	public void testLargeMessages() throws Exception {
+		startServer(WebSocketServlet.create(WebSocketTest::echo));
+
+		byte[] data = new byte[200 * 1024];
+		new Random(0).nextBytes(data);
+
+		AsyncHttpClient client = AsyncHttpClient.create(Eventloop.getCurrentEventloop());
+		List<byte[]> result = await(client.webSocketRequest(HttpRequest.get(URL))
+				.then(webSocket -> {
+					ChannelSupplier.of(ByteBuf.wrapForReading(data.clone()), ByteBuf.wrapForReading(new byte[0]), ByteBuf.wrapForReading(data.clone()))
+							.streamTo(webSocket.messageWriteChannel());
+					return webSocket.messageReadChannel()
+							.map(ByteBuf::asArray)
+							.toList();
+				}));
+		assertEquals(3, result.size());
+		assertArrayEquals(data, result.get(0));
+		assertEquals(0, result.get(1).length);
+		assertArrayEquals(data, result.get(2));
+	}
+
+	@Test
+	public void testPerMessageDeflate() throws Exception {
+		startServer(WebSocketServlet.create(WebSocketTest::echo)
+				.withPerMessageDeflate(true));
+
+		List<String> messages = IntStream.range(0, 100)
+				.mapToObj(i -> String.join("", nCopies(i * 10, "compressible " + i % 3)))
+				.collect(Collectors.toList());
+
+		AsyncHttpClient client = AsyncHttpClient.create(Eventloop.getCurrentEventloop())
+				.withWebSocketPerMessageDeflate(true);
+		List<String> result = await(client.webSocketRequest(HttpRequest.get(URL))
+				.then(webSocket -> {
+					assertTrue(((WebSocketImpl) webSocket).isPerMessageDeflate());
+					ChannelSupplier.ofStream(messages.stream().map(ByteBufStrings::wrapUtf8))
+							.streamTo(webSocket.textMessageWriteChannel());
+					return webSocket.messageReadChannel()
+							.map(buf -> buf.asString(UTF_8))
+							.toList();
+				}));
+		assertEquals(messages, result);
+	}
+
+	@Test
+	public void testFragmentedMessage() throws Exception {
+		startServer(WebSocketServlet.create(WebSocketTest::echo));
+
+		String key = WebSocketImpl.generateKey();
+		ByteBuf request = wrapAscii("GET /ws HTTP/1.1\r\n" +
+				"Host: 127.0.0.1\r\n" +
+				"Upgrade: websocket\r\n" +
+				"Connection: Upgrade\r\n" +
+				"Sec-WebSocket-Key: " + key + "\r\n" +
+				"Sec-WebSocket-Version: 13\r\n\r\n");
+		ByteBuf frames = ByteBufPool.allocate(64);
+		writeMaskedFrame(frames, 0x01, "Hello, "); // text, not final
+		writeMaskedFrame(frames, 0x89, "ping"); // ping between fragments
+		writeMaskedFrame(frames, 0x80, "World!"); // final continuation
+		writeMaskedFrame(frames, 0x88, "\u0003\u00e8"); // close with code 1000
+
+		ByteBufQueue queue = new ByteBufQueue();
+		String response = await(AsyncTcpSocketImpl.connect(new InetSocketAddress("127.0.0.1", PORT))
+				.then(socket -> socket.write(ByteBufPool.append(request, frames))
+						.then($ -> readFully(socket, queue))
+						.whenComplete(socket::close))
+				.map($ -> queue.takeRemaining().asString(ISO_8859_1)));
+
+		String headers = response.substring(0, response.indexOf("\r\n\r\n") + 4);
+		assertTrue(headers.startsWith("HTTP/1.1 101 Switching Protocols\r\n"));
+		assertTrue(headers.contains("Sec-WebSocket-Accept: " + WebSocketImpl.getAcceptKey(key) + "\r\n"));
+		assertEquals("\u008a\u0004ping" + "\u0082\rHello, World!" + "\u0088\u0002\u0003\u00e8",
+				response.substring(headers.length()));
+	}
+
+	@Test
+	public void testNotUpgradeRequest() throws Exception {
+		startServer(WebSocketServlet.create(WebSocketTest::echo));
+
+		AsyncHttpClient client = AsyncHttpClient.create(Eventloop.getCurrentEventloop());
+		int code = await(client.request(HttpRequest.get(URL))
+				.then(response -> response.loadBody()
+						.map($ -> response.getCode())));
+		assertEquals(400, code);
+	}
+
+	@Test
+	public void testCloseWithCode() throws Exception {
+		startServer(WebSocketServlet.create(webSocket -> webSocket.writeTextMessage(wrapAscii("bye"))
+				.whenResult($ -> webSocket.close(new WebSocketException(WebSocketTest.class, WebSocketException.POLICY_VIOLATION, "Policy violation")))));
+
+		AsyncHttpClient client = AsyncHttpClient.create(Eventloop.getCurrentEventloop());
+		Throwable e = awaitException(client.webSocketRequest(HttpRequest.get(URL))
+				.then(webSocket -> webSocket.readMessage()
+						.then(message -> {
+							assertEquals("bye", message.asString(UTF_8));
+							return webSocket.readMessage();
+						})
+						.whenException($ -> assertTrue(webSocket.isClosed()))));
+		assertTrue(e instanceof WebSocketException);
+		assertEquals(WebSocketException.POLICY_VIOLATION, ((WebSocketException) e).getCode());
+	}
+
+	@Test
+	public void testMask() {
+		byte[] data = new byte[103];
+		new Random(0).nextBytes(data);
+		byte[] masked = data.clone();
+		int maskKey = 0x12345678;
+		WebSocketImpl.mask(masked, 1, masked.length, maskKey);
+		assertEquals(data[0], masked[0]);
+		byte[] maskBytes = {0x12, 0x34, 0x56, 0x78};
+		for (int i = 1; i < data.length; i++) {
+			assertEquals((byte) (data[i] ^ maskBytes[(i - 1) % 4]), masked[i]);
+		}
+		WebSocketImpl.mask(masked, 1, masked.length, maskKey);
+		assertArrayEquals(data, masked);
+	}
+
+	@Test
+	public void testParseDeflateExtension() {
+		assertEquals(0, WebSocketImpl.parseDeflateExtension("permessage-deflate", true));
+		assertEquals(WebSocketImpl.PEER_MAX_WINDOW_BITS,
+				WebSocketImpl.parseDeflateExtension("permessage-deflate; client_max_window_bits", true));
+		assertEquals(WebSocketImpl.OWN_NO_CONTEXT_TAKEOVER | WebSocketImpl.PEER_NO_CONTEXT_TAKEOVER,
+				WebSocketImpl.parseDeflateExtension("x-webkit-deflate-frame, permessage-deflate; server_no_context_takeover; client_no_context_takeover", true));
+		assertEquals(WebSocketImpl.PEER_MAX_WINDOW_BITS,
+				WebSocketImpl.parseDeflateExtension("permessage-deflate; server_max_window_bits=10, permessage-deflate; client_max_window_bits=\"12\"", true));
+		assertEquals(-1, WebSocketImpl.parseDeflateExtension("permessage-deflate; server_max_window_bits=10", true));
+		assertEquals(-1, WebSocketImpl.parseDeflateExtension("permessage-deflate; client_no_context_takeover; client_no_context_takeover", true));
+		assertEquals(-1, WebSocketImpl.parseDeflateExtension("permessage-deflate; client_max_window_bits", false));
+	}
+
+	private static void echo(WebSocket webSocket) {
+		webSocket.messageReadChannel().streamTo(webSocket.messageWriteChannel());
+	}
+
+	private static Promise<Void> readFully(AsyncTcpSocketImpl socket, ByteBufQueue queue) {
+		return socket.read()
+				.then(buf -> {
+					if (buf == null) return Promise.complete();
+					queue.add(buf);
+					return readFully(socket, queue);
+				});
+	}
+
+	private static void writeMaskedFrame(ByteBuf buf, int b0, String payload) {
+		byte[] bytes = payload.getBytes(ISO_8859_1);
+		buf.writeByte((byte) b0);
+		buf.writeByte((byte) (0x80 | bytes.length));
+		buf.writeInt(0); // zero mask key leaves payload as is
+		buf.put(bytes);
+	}
+
+	private static void startServer(AsyncServlet servlet) throws Exception {
+		AsyncHttpServer.create(Eventloop.getCurrentEventloop(), servlet)
+				.withListenPort(PORT)
+				.withAcceptOnce()
+				.listen();
+	}
+}
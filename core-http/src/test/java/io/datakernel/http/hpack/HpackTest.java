@@ -0,0 +1,156 @@
+/*
+ * Copyright (C) 2015-2019 SoftIndex LLC.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package io.datakernel.http.hpack;
+
+import io.datakernel.bytebuf.ByteBuf;
+import io.datakernel.bytebuf.ByteBufPool;
+import io.datakernel.common.parse.ParseException;
+import io.datakernel.test.rules.ByteBufRule;
+import org.junit.ClassRule;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import static io.datakernel.bytebuf.ByteBufStrings.decodeAscii;
+import static io.datakernel.bytebuf.ByteBufStrings.encodeAscii;
+import static java.util.Arrays.asList;
+import static org.junit.Assert.*;
+
+public final class HpackTest {
+	@ClassRule
+	public static final ByteBufRule byteBufRule = new ByteBufRule();
+
+	// RFC 7541, C.3.1
+	private static final String REQUEST_WITHOUT_HUFFMAN = "828684410f7777772e6578616d706c652e636f6d";
+	// RFC 7541, C.4.1
+	private static final String FIRST_REQUEST = "828684418cf1e3c2e5f23a6ba0ab90f4ff";
+	// RFC 7541, C.4.2
+	private static final String SECOND_REQUEST = "828684be5886a8eb10649cbf";
+
+	@Test
+	public void testDecodeWithoutHuffman() throws ParseException {
+		HpackDecoder decoder = new HpackDecoder(4096, 1024);
+		assertEquals(asList(":method", "GET", ":scheme", "http", ":path", "/", ":authority", "www.example.com"),
+				decode(decoder, REQUEST_WITHOUT_HUFFMAN));
+		assertEquals(57, decoder.getTableSize());
+	}
+
+	@Test
+	public void testDecodeWithHuffman() throws ParseException {
+		HpackDecoder decoder = new HpackDecoder(4096, 1024);
+		assertEquals(asList(":method", "GET", ":scheme", "http", ":path", "/", ":authority", "www.example.com"),
+				decode(decoder, FIRST_REQUEST));
+		assertEquals(asList(":method", "GET", ":scheme", "http", ":path", "/", ":authority", "www.example.com",
+				"cache-control", "no-cache"),
+				decode(decoder, SECOND_REQUEST));
+		assertEquals(110, decoder.getTableSize());
+	}
+
+	@Test
+	public void testEncode() {
+		HpackEncoder encoder = new HpackEncoder(4096);
+		assertEquals(FIRST_REQUEST, encode(encoder, ":method", "GET", ":scheme", "http", ":path", "/", ":authority", "www.example.com"));
+		assertEquals(SECOND_REQUEST, encode(encoder, ":method", "GET", ":scheme", "http", ":path", "/", ":authority", "www.example.com",
+				"cache-control", "no-cache"));
+		assertEquals(110, encoder.getTableSize());
+	}
+
+	@Test
+	public void testRoundTripWithEviction() throws ParseException {
+		HpackEncoder encoder = new HpackEncoder(4096);
+		HpackDecoder decoder = new HpackDecoder(4096, 1024);
+		encoder.setMaxTableSize(100);
+		for (int i = 0; i < 100; i++) {
+			String[] headers = {":status", "200", "x-request-id", "request-" + i, "x-sensitive", "secret", "x-long", repeat('a', 200)};
+			ByteBuf buf = ByteBufPool.allocate(1024);
+			encoder.startHeaderBlock(buf);
+			for (int j = 0; j < headers.length; j += 2) {
+				encoder.encodeHeader(buf, encodeAscii(headers[j]), encodeAscii(headers[j + 1]), headers[j].equals("x-sensitive"));
+			}
+			List<String> decoded = new ArrayList<>();
+			decoder.decode(buf, (name, value) -> {
+				decoded.add(decodeAscii(name));
+				decoded.add(decodeAscii(value));
+			});
+			buf.recycle();
+			assertEquals(asList(headers), decoded);
+			assertTrue(encoder.getTableSize() <= 100);
+			assertEquals(encoder.getTableSize(), decoder.getTableSize());
+		}
+	}
+
+	@Test
+	public void testInvalidIndex() {
+		HpackDecoder decoder = new HpackDecoder(4096, 1024);
+		try {
+			decode(decoder, "be");
+			fail();
+		} catch (ParseException e) {
+			assertSame(HpackDecoder.INVALID_INDEX, e);
+		}
+	}
+
+	@Test
+	public void testTruncatedBlock() {
+		HpackDecoder decoder = new HpackDecoder(4096, 1024);
+		try {
+			decode(decoder, "418cf1e3c2e5f2");
+			fail();
+		} catch (ParseException e) {
+			assertSame(HpackDecoder.TRUNCATED_BLOCK, e);
+		}
+	}
+
+	private static List<String> decode(HpackDecoder decoder, String hex) throws ParseException {
+		List<String> headers = new ArrayList<>();
+		decoder.decode(ByteBuf.wrapForReading(fromHex(hex)), (name, value) -> {
+			headers.add(decodeAscii(name));
+			headers.add(decodeAscii(value));
+		});
+		return headers;
+	}
+
+	private static String encode(HpackEncoder encoder, String... headers) {
+		ByteBuf buf = ByteBufPool.allocate(256);
+		encoder.startHeaderBlock(buf);
+		for (int i = 0; i < headers.length; i += 2) {
+			encoder.encodeHeader(buf, encodeAscii(headers[i]), encodeAscii(headers[i + 1]), false);
+		}
+		StringBuilder sb = new StringBuilder();
+		for (byte b : buf.getArray()) {
+			sb.append(String.format("%02x", b));
+		}
+		buf.recycle();
+		return sb.toString();
+	}
+
+	private static byte[] fromHex(String hex) {
+		byte[] bytes = new byte[hex.length() / 2];
+		for (int i = 0; i < bytes.length; i++) {
+			bytes[i] = (byte) Integer.parseInt(hex.substring(2 * i, 2 * i + 2), 16);
+		}
+		return bytes;
+	}
+
+	private static String repeat(char c, int count) {
+		char[] chars = new char[count];
+		Arrays.fill(chars, c);
+		return new String(chars);
+	}
+}
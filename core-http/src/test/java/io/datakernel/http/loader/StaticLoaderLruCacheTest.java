@@ -0,0 +1,112 @@
+/*
+ * Copyright (C) 2015-2019 SoftIndex LLC.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package io.datakernel.http.loader;
+
+import io.datakernel.common.MemSize;
+import io.datakernel.promise.Promise;
+import io.datakernel.test.rules.ByteBufRule;
+import io.datakernel.test.rules.EventloopRule;
+import org.junit.ClassRule;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+import static io.datakernel.bytebuf.ByteBuf.wrapForReading;
+import static io.datakernel.http.loader.StaticLoader.NOT_FOUND_EXCEPTION;
+import static io.datakernel.http.loader.StaticLoaderLruCache.MAX_NOT_FOUND_ENTRIES;
+import static io.datakernel.http.loader.StaticLoaderLruCache.NOT_FOUND_TTL;
+import static io.datakernel.promise.TestUtils.await;
+import static io.datakernel.promise.TestUtils.awaitException;
+import static java.util.Arrays.asList;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertSame;
+
+public final class StaticLoaderLruCacheTest {
+	@ClassRule
+	public static final EventloopRule eventloopRule = new EventloopRule();
+
+	@ClassRule
+	public static final ByteBufRule byteBufRule = new ByteBufRule();
+
+	private final List<String> loads = new ArrayList<>();
+	private final Set<String> existing = new HashSet<>();
+	private long currentTime;
+	private int executions;
+
+	private final StaticLoaderLruCache cache = StaticLoaderLruCache.create(
+			path -> {
+				loads.add(path);
+				return existing.contains(path) ?
+						Promise.of(wrapForReading(new byte[1000])) :
+						Promise.ofException(NOT_FOUND_EXCEPTION);
+			},
+			runnable -> {
+				executions++;
+				new Thread(runnable).start();
+			},
+			MemSize.bytes(2500))
+			.withCurrentTimeProvider(() -> currentTime);
+
+	@Test
+	public void testEntryIsCreatedOnExecutor() {
+		existing.add("a");
+		StaticResource resource = await(cache.loadResource("a"));
+		assertNotNull(resource.getETag());
+		assertEquals(1, executions);
+		resource.recycle();
+
+		StaticResource cached = await(cache.loadResource("a"));
+		assertEquals(resource.getETag(), cached.getETag());
+		assertEquals(1, executions);
+		assertEquals(asList("a"), loads);
+		cached.recycle();
+	}
+
+	@Test
+	public void testNotFoundExpires() {
+		assertSame(NOT_FOUND_EXCEPTION, awaitException(cache.load("a")));
+		assertSame(NOT_FOUND_EXCEPTION, awaitException(cache.load("a")));
+		assertEquals(asList("a"), loads);
+
+		existing.add("a");
+		currentTime += NOT_FOUND_TTL.toMillis();
+		await(cache.load("a"));
+		await(cache.load("a"));
+		assertEquals(asList("a", "a"), loads);
+	}
+
+	@Test
+	public void testNotFoundDoesNotEvictResources() {
+		existing.add("a");
+		await(cache.load("a"));
+		for (int i = 0; i <= MAX_NOT_FOUND_ENTRIES; i++) {
+			awaitException(cache.load("missing" + i));
+		}
+		await(cache.load("a"));
+		assertEquals(1, loads.stream().filter("a"::equals).count());
+
+		// the oldest not found path is evicted first
+		awaitException(cache.load("missing0"));
+		awaitException(cache.load("missing2"));
+		assertEquals(MAX_NOT_FOUND_ENTRIES + 3, loads.size());
+	}
+}
@@ -25,8 +25,8 @@ import java.security.KeyStore;
 import java.security.NoSuchAlgorithmException;
 import java.security.SecureRandom;
 
-class SslUtils {
-	static TrustManager[] createTrustManagers(File path, String pass) throws Exception {
+public final class SslUtils {
+	public static TrustManager[] createTrustManagers(File path, String pass) throws Exception {
 		KeyStore trustStore = KeyStore.getInstance("JKS");
 
 		try (InputStream trustStoreIS = new FileInputStream(path)) {
@@ -37,7 +37,7 @@ class SslUtils {
 		return trustFactory.getTrustManagers();
 	}
 
-	static KeyManager[] createKeyManagers(File path, String storePass, String keyPass) throws Exception {
+	public static KeyManager[] createKeyManagers(File path, String storePass, String keyPass) throws Exception {
 		KeyStore store = KeyStore.getInstance("JKS");
 		try (InputStream is = new FileInputStream(path)) {
 			store.load(is, storePass.toCharArray());
@@ -47,7 +47,7 @@ class SslUtils {
 		return kmf.getKeyManagers();
 	}
 
-	static SSLContext createSslContext(String algorithm, KeyManager[] keyManagers, TrustManager[] trustManagers,
+	public static SSLContext createSslContext(String algorithm, KeyManager[] keyManagers, TrustManager[] trustManagers,
 			SecureRandom secureRandom) throws NoSuchAlgorithmException, KeyManagementException {
 		SSLContext instance = SSLContext.getInstance(algorithm);
 		instance.init(keyManagers, trustManagers, secureRandom);
@@ -32,6 +32,7 @@ import org.jetbrains.annotations.Nullable;
 import org.slf4j.Logger;
 
 import javax.net.ssl.SSLContext;
+import javax.net.ssl.SSLEngine;
 import java.io.IOException;
 import java.net.InetAddress;
 import java.net.InetSocketAddress;
@@ -46,7 +47,6 @@ import java.util.concurrent.Future;
 
 import static io.datakernel.common.Preconditions.checkState;
 import static io.datakernel.eventloop.net.ServerSocketSettings.DEFAULT_BACKLOG;
-import static io.datakernel.net.AsyncSslSocket.wrapServerSocket;
 import static io.datakernel.net.AsyncTcpSocketImpl.wrapChannel;
 import static java.util.Arrays.asList;
 import static java.util.Collections.singletonList;
@@ -209,6 +209,16 @@ public abstract class AbstractServer<Self extends AbstractServer<Self>> implemen
 	protected void onFilteredAccept(SocketChannel socketChannel, InetSocketAddress localAddress, InetAddress remoteAddress, boolean ssl) {
 	}
 
+	/**
+	 * Creates an SSL engine for an accepted connection,
+	 * may be overridden to configure the engine, e.g. to negotiate an application protocol
+	 */
+	protected SSLEngine createSslEngine(SSLContext sslContext) {
+		SSLEngine engine = sslContext.createSSLEngine();
+		engine.setUseClientMode(false);
+		return engine;
+	}
+
 	/**
 	 * Begins listening asynchronously for incoming connections.
 	 * Creates an {@link ServerSocketChannel} for each listening address and registers them in
@@ -224,17 +234,28 @@ public abstract class AbstractServer<Self extends AbstractServer<Self>> implemen
 		running = true;
 		onListen();
 		serverSocketChannels = new ArrayList<>();
+		if (isReusePort()) {
+			logger.info("Worker servers are listening with SO_REUSEPORT: {}", this);
+			return;
+		}
+		// worker servers of a primary server in SO_REUSEPORT mode listen on addresses of the primary server themselves
+		AbstractServer<?> listenServer = acceptServer.isReusePort() ? acceptServer : this;
+		ServerSocketSettings serverSocketSettings = listenServer == this ?
+				this.serverSocketSettings :
+				listenServer.serverSocketSettings.withReusePort(true);
+		List<InetSocketAddress> listenAddresses = listenServer.listenAddresses;
+		List<InetSocketAddress> sslListenAddresses = listenServer.sslListenAddresses;
 		if (listenAddresses != null && !listenAddresses.isEmpty()) {
-			listenAddresses(listenAddresses, false);
+			listenAddresses(listenAddresses, serverSocketSettings, false);
 			logger.info("Listening on {}: {}", listenAddresses, this);
 		}
 		if (sslListenAddresses != null && !sslListenAddresses.isEmpty()) {
-			listenAddresses(sslListenAddresses, true);
+			listenAddresses(sslListenAddresses, serverSocketSettings, true);
 			logger.info("Listening with SSL on {}: {}", sslListenAddresses, this);
 		}
 	}
 
-	private void listenAddresses(List<InetSocketAddress> addresses, boolean ssl) throws IOException {
+	private void listenAddresses(List<InetSocketAddress> addresses, ServerSocketSettings serverSocketSettings, boolean ssl) throws IOException {
 		for (InetSocketAddress address : addresses) {
 			try {
 				serverSocketChannels.add(eventloop.listen(address, serverSocketSettings, channel -> doAccept(channel, address, ssl)));
@@ -288,6 +309,14 @@ public abstract class AbstractServer<Self extends AbstractServer<Self>> implemen
 		return this;
 	}
 
+	/**
+	 * Returns {@code true} if connections are accepted by worker servers
+	 * of this server rather than this server itself
+	 */
+	boolean isReusePort() {
+		return false;
+	}
+
 	protected Inspector getSocketInspector(InetAddress remoteAddress, InetSocketAddress localAddress, boolean ssl) {
 		return ssl ? socketSslInspector : socketInspector;
 	}
@@ -313,7 +342,7 @@ public abstract class AbstractServer<Self extends AbstractServer<Self>> implemen
 		Eventloop workerServerEventloop = workerServer.getEventloop();
 
 		if (workerServerEventloop == eventloop) {
-			workerServer.doAccept(channel, localAddress, remoteAddress, ssl, socketSettings);
+			workerServer.doAccept(channel, localAddress, remoteAddress, ssl, acceptServer.socketSettings);
 		} else {
 			if (logger.isTraceEnabled()) {
 				logger.trace("received connection from [{}]{}: {}", remoteAddress, ssl ? " over SSL" : "", this);
@@ -337,8 +366,9 @@ public abstract class AbstractServer<Self extends AbstractServer<Self>> implemen
 		accepts.recordEvent();
 		if (ssl) acceptsSsl.recordEvent();
 		onAccept(socketChannel, localAddress, remoteAddress, ssl);
-		AsyncTcpSocketImpl asyncTcpSocketImpl = wrapChannel(eventloop, socketChannel, socketSettings);
-		AsyncTcpSocket asyncTcpSocket = ssl ? wrapServerSocket(asyncTcpSocketImpl, sslContext, sslExecutor) : asyncTcpSocketImpl;
+		AsyncTcpSocketImpl asyncTcpSocketImpl = wrapChannel(eventloop, socketChannel, socketSettings)
+				.withInspector(getSocketInspector(remoteAddress, localAddress, ssl));
+		AsyncTcpSocket asyncTcpSocket = ssl ? AsyncSslSocket.create(asyncTcpSocketImpl, createSslEngine(sslContext), sslExecutor) : asyncTcpSocketImpl;
 		serve(asyncTcpSocket, remoteAddress);
 	}
 
@@ -371,13 +401,13 @@ public abstract class AbstractServer<Self extends AbstractServer<Self>> implemen
 	@JmxAttribute(extraSubAttributes = "totalCount")
 	@Nullable
 	public final EventStats getAccepts() {
-		return acceptServer.listenAddresses.isEmpty() ? null : accepts;
+		return acceptServer.listenAddresses.isEmpty() || isReusePort() ? null : accepts;
 	}
 
 	@JmxAttribute
 	@Nullable
 	public final EventStats getAcceptsSsl() {
-		return acceptServer.sslListenAddresses.isEmpty() ? null : acceptsSsl;
+		return acceptServer.sslListenAddresses.isEmpty() || isReusePort() ? null : acceptsSsl;
 	}
 
 	@JmxAttribute
@@ -55,6 +55,7 @@ public final class AsyncSslSocket implements AsyncTcpSocket {
 	private SettablePromise<ByteBuf> read;
 	@Nullable
 	private SettablePromise<Void> write;
+	private final SettablePromise<Void> handshake = new SettablePromise<>();
 
 	public static AsyncSslSocket wrapClientSocket(AsyncTcpSocket asyncTcpSocket,
 			String host, int port,
@@ -90,6 +91,24 @@ public final class AsyncSslSocket implements AsyncTcpSocket {
 		return new AsyncSslSocket(asyncTcpSocket, engine, executor);
 	}
 
+	/**
+	 * Returns a promise which is completed when the initial handshake is finished
+	 */
+	public Promise<Void> getHandshake() {
+		return handshake;
+	}
+
+	/**
+	 * Returns an application protocol negotiated with ALPN during the handshake
+	 *
+	 * @return the protocol, an empty string if it has not been negotiated
+	 * or {@code null} if the handshake is not finished yet
+	 */
+	@Nullable
+	public String getApplicationProtocol() {
+		return engine.getApplicationProtocol();
+	}
+
 	@NotNull
 	private <T> Promise<T> sanitize(T value, @Nullable Throwable e) {
 		if (e == null) {
@@ -159,7 +178,7 @@ public final class AsyncSslSocket implements AsyncTcpSocket {
 		upstream.write(dstBuf)
 				.thenEx(this::sanitize)
 				.whenResult($ -> {
-					assert isOpen();
+					if (!isOpen()) return;
 					if (engine.isOutboundDone()) {
 						close();
 						return;
@@ -295,6 +314,10 @@ public final class AsyncSslSocket implements AsyncTcpSocket {
 			return;
 		}
 
+		if (!handshake.isComplete()) {
+			handshake.set(null);
+		}
+
 		// write data to net
 		if (app2engine.canRead()) {
 			do {
@@ -368,6 +391,9 @@ public final class AsyncSslSocket implements AsyncTcpSocket {
 		}
 		recycleByteBufs();
 		upstream.close(e);
+		if (!handshake.isComplete()) {
+			handshake.setException(e);
+		}
 		if (write != null) {
 			write.setException(e);
 			write = null;
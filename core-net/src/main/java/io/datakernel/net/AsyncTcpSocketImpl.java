@@ -18,6 +18,7 @@ package io.datakernel.net;
 
 import io.datakernel.bytebuf.ByteBuf;
 import io.datakernel.bytebuf.ByteBufPool;
+import io.datakernel.bytebuf.ByteBufQueue;
 import io.datakernel.common.ApplicationSettings;
 import io.datakernel.common.exception.AsyncTimeoutException;
 import io.datakernel.common.inspector.AbstractInspector;
@@ -39,11 +40,14 @@ import java.io.IOException;
 import java.net.InetSocketAddress;
 import java.nio.ByteBuffer;
 import java.nio.channels.ClosedChannelException;
+import java.nio.channels.FileChannel;
 import java.nio.channels.SelectionKey;
 import java.nio.channels.SocketChannel;
 import java.time.Duration;
+import java.util.Arrays;
 import java.util.concurrent.atomic.AtomicInteger;
 
+import static io.datakernel.common.MemSize.bytes;
 import static io.datakernel.common.MemSize.kilobytes;
 import static io.datakernel.common.Preconditions.checkState;
 import static io.datakernel.common.Utils.nullify;
@@ -52,6 +56,9 @@ import static io.datakernel.eventloop.Eventloop.getCurrentEventloop;
 @SuppressWarnings("WeakerAccess")
 public final class AsyncTcpSocketImpl implements AsyncTcpSocket, NioChannelEventHandler {
 	public static final int DEFAULT_READ_BUFFER_SIZE = ApplicationSettings.getMemSize(AsyncTcpSocketImpl.class, "readBufferSize", kilobytes(16)).toInt();
+	public static final int WRITE_COPY_THRESHOLD = ApplicationSettings.getMemSize(AsyncTcpSocketImpl.class, "writeCopyThreshold", bytes(256)).toInt();
+	public static final int WRITE_COPY_BUFFER_SIZE = ApplicationSettings.getMemSize(AsyncTcpSocketImpl.class, "writeCopyBufferSize", kilobytes(4)).toInt();
+	public static final int MAX_GATHERED_BUFS = ApplicationSettings.getInt(AsyncTcpSocketImpl.class, "maxGatheredBufs", 64);
 
 	public static final AsyncTimeoutException TIMEOUT_EXCEPTION = new AsyncTimeoutException(AsyncTcpSocketImpl.class, "timed out");
 	public static final int NO_TIMEOUT = 0;
@@ -64,9 +71,17 @@ public final class AsyncTcpSocketImpl implements AsyncTcpSocket, NioChannelEvent
 	@Nullable
 	private ByteBuf readBuf;
 	private boolean readEndOfStream;
+	private final ByteBufQueue writeQueue = new ByteBufQueue();
 	@Nullable
-	private ByteBuf writeBuf;
+	private ByteBuf writeCopyBuf;
 	private boolean writeEndOfStream;
+	private boolean writeCoalescing;
+	@Nullable
+	private ByteBuffer[] writeBuffers;
+	@Nullable
+	private FileChannel writeFile;
+	private long writeFilePosition;
+	private long writeFileRemaining;
 
 	@Nullable
 	private SettablePromise<ByteBuf> read;
@@ -99,7 +114,9 @@ public final class AsyncTcpSocketImpl implements AsyncTcpSocket, NioChannelEvent
 
 		void onWriteTimeout();
 
-		void onWrite(ByteBuf buf, int bytes);
+		void onWriteQueued(ByteBuf buf, boolean copied);
+
+		void onWrite(int remaining, int bytes);
 
 		void onWriteError(IOException e);
 	}
@@ -115,6 +132,8 @@ public final class AsyncTcpSocketImpl implements AsyncTcpSocket, NioChannelEvent
 		private final EventStats writeErrors = EventStats.create(SMOOTHING_WINDOW);
 		private final EventStats writeTimeouts = EventStats.create(SMOOTHING_WINDOW);
 		private final EventStats writeOverloaded = EventStats.create(SMOOTHING_WINDOW);
+		private final ValueStats writesCopied = ValueStats.create(SMOOTHING_WINDOW).withUnit("bytes").withRate();
+		private final ValueStats writesZeroCopy = ValueStats.create(SMOOTHING_WINDOW).withUnit("bytes").withRate();
 
 		@Override
 		public void onReadTimeout() {
@@ -142,9 +161,14 @@ public final class AsyncTcpSocketImpl implements AsyncTcpSocket, NioChannelEvent
 		}
 
 		@Override
-		public void onWrite(ByteBuf buf, int bytes) {
+		public void onWriteQueued(ByteBuf buf, boolean copied) {
+			(copied ? writesCopied : writesZeroCopy).recordValue(buf.readRemaining());
+		}
+
+		@Override
+		public void onWrite(int remaining, int bytes) {
 			writes.recordValue(bytes);
-			if (buf.readRemaining() != bytes)
+			if (remaining != bytes)
 				writeOverloaded.recordEvent();
 		}
 
@@ -192,6 +216,16 @@ public final class AsyncTcpSocketImpl implements AsyncTcpSocket, NioChannelEvent
 		public EventStats getWriteOverloaded() {
 			return writeOverloaded;
 		}
+
+		@JmxAttribute(description = "bytes of small buffers which are copied into a shared write buffer")
+		public ValueStats getWritesCopied() {
+			return writesCopied;
+		}
+
+		@JmxAttribute(description = "bytes of buffers which are queued and written to the channel as is")
+		public ValueStats getWritesZeroCopy() {
+			return writesZeroCopy;
+		}
 	}
 
 	public static AsyncTcpSocketImpl wrapChannel(Eventloop eventloop, SocketChannel socketChannel, @Nullable SocketSettings socketSettings) {
@@ -210,6 +244,9 @@ public final class AsyncTcpSocketImpl implements AsyncTcpSocket, NioChannelEvent
 		if (socketSettings.hasReadBufferSize()) {
 			asyncTcpSocket.readBufferSize = socketSettings.getImplReadBufferSizeBytes();
 		}
+		if (socketSettings.hasImplWriteCoalescing()) {
+			asyncTcpSocket.writeCoalescing = socketSettings.getImplWriteCoalescing();
+		}
 		return asyncTcpSocket;
 	}
 
@@ -243,6 +280,18 @@ public final class AsyncTcpSocketImpl implements AsyncTcpSocket, NioChannelEvent
 		return this;
 	}
 
+	/**
+	 * With write coalescing enabled, buffers written during a single eventloop tick
+	 * are not written to the channel immediately, they are queued and flushed
+	 * with a single gathering write at the end of the tick.
+	 * Returned promises of such writes are completed after the flush,
+	 * pending writes are also flushed by {@link #close()}.
+	 */
+	public AsyncTcpSocketImpl withWriteCoalescing(boolean writeCoalescing) {
+		this.writeCoalescing = writeCoalescing;
+		return this;
+	}
+
 	public AsyncTcpSocketImpl(Eventloop eventloop, @NotNull SocketChannel socketChannel) {
 		this.eventloop = eventloop;
 		this.channel = socketChannel;
@@ -276,7 +325,7 @@ public final class AsyncTcpSocketImpl implements AsyncTcpSocket, NioChannelEvent
 
 	private void updateInterests() {
 		if (ops < 0 || channel == null) return;
-		byte newOps = (byte) (((readBuf == null && !readEndOfStream) ? SelectionKey.OP_READ : 0) | (writeBuf == null || writeEndOfStream ? 0 : SelectionKey.OP_WRITE));
+		byte newOps = (byte) (((readBuf == null && !readEndOfStream) ? SelectionKey.OP_READ : 0) | (isWriteComplete() ? 0 : SelectionKey.OP_WRITE));
 		if (key == null) {
 			ops = newOps;
 			try {
@@ -358,7 +407,7 @@ public final class AsyncTcpSocketImpl implements AsyncTcpSocket, NioChannelEvent
 			buf.recycle();
 			if (inspector != null) inspector.onReadEndOfStream();
 			readEndOfStream = true;
-			if (writeEndOfStream && writeBuf == null) {
+			if (writeEndOfStream && isWriteComplete()) {
 				doClose();
 			}
 			return;
@@ -381,21 +430,48 @@ public final class AsyncTcpSocketImpl implements AsyncTcpSocket, NioChannelEvent
 	public Promise<Void> write(@Nullable ByteBuf buf) {
 		assert eventloop.inEventloopThread();
 		checkState(!writeEndOfStream, "End of stream has already been sent");
+		checkState(writeFile == null, "File is being written");
 		if (channel == null) {
 			if (buf != null) buf.recycle();
 			return Promise.ofException(CLOSE_EXCEPTION);
 		}
 		writeEndOfStream |= buf == null;
+		if (buf != null) {
+			enqueue(buf);
+		}
+		return startWrite();
+	}
+
+	/**
+	 * Writes a region of the file after the bufs which are already queued,
+	 * bytes are transferred from the file to the socket directly with {@link FileChannel#transferTo},
+	 * without copying them into the heap. Nothing else may be written until the returned promise completes.
+	 * <p>
+	 * The file channel is not closed by the socket.
+	 */
+	public Promise<Void> writeFile(@NotNull FileChannel file, long position, long count) {
+		assert eventloop.inEventloopThread();
+		checkState(!writeEndOfStream, "End of stream has already been sent");
+		checkState(writeFile == null, "File is being written");
+		if (channel == null) {
+			return Promise.ofException(CLOSE_EXCEPTION);
+		}
+		if (count != 0) {
+			writeFile = file;
+			writeFilePosition = position;
+			writeFileRemaining = count;
+			writeCopyBuf = null;
+		}
+		return startWrite();
+	}
+
+	private Promise<Void> startWrite() {
 		if (write != null) return write;
 
-		if (writeBuf == null) {
-			writeBuf = buf;
-		} else {
-			if (buf != null) {
-				writeBuf = ByteBufPool.ensureWriteRemaining(this.writeBuf, buf.readRemaining());
-				writeBuf.put(buf.array(), buf.head(), buf.readRemaining());
-				buf.recycle();
-			}
+		if (writeCoalescing) {
+			write = new SettablePromise<>();
+			eventloop.postLater(this::flush);
+			return write;
 		}
 
 		try {
@@ -405,7 +481,7 @@ public final class AsyncTcpSocketImpl implements AsyncTcpSocket, NioChannelEvent
 			return Promise.ofException(e);
 		}
 
-		if (this.writeBuf == null) {
+		if (isWriteComplete()) {
 			return Promise.complete();
 		}
 		write = new SettablePromise<>();
@@ -416,6 +492,48 @@ public final class AsyncTcpSocketImpl implements AsyncTcpSocket, NioChannelEvent
 		return write;
 	}
 
+	private void enqueue(ByteBuf buf) {
+		if (!buf.canRead()) {
+			buf.recycle();
+			return;
+		}
+		int size = buf.readRemaining();
+		// a small buf is copied only to be coalesced with bufs which are already queued
+		if (size > WRITE_COPY_THRESHOLD || writeQueue.isEmpty()) {
+			if (inspector != null) inspector.onWriteQueued(buf, false);
+			writeQueue.add(buf);
+			writeCopyBuf = null;
+			return;
+		}
+		if (inspector != null) inspector.onWriteQueued(buf, true);
+		if (writeCopyBuf != null && writeCopyBuf.writeRemaining() >= size) {
+			writeCopyBuf.put(buf.array(), buf.head(), size);
+		} else {
+			writeCopyBuf = ByteBufPool.allocate(Math.max(size, WRITE_COPY_BUFFER_SIZE));
+			writeCopyBuf.put(buf.array(), buf.head(), size);
+			writeQueue.add(writeCopyBuf);
+		}
+		buf.recycle();
+	}
+
+	private void flush() {
+		if (channel == null || write == null) return;
+		try {
+			doWrite();
+		} catch (IOException e) {
+			close(e);
+			return;
+		}
+		if (isWriteComplete()) {
+			SettablePromise<Void> write = this.write;
+			this.write = null;
+			write.set(null);
+		} else if (writeTimeout != NO_TIMEOUT) {
+			scheduleWriteTimeout();
+		}
+		updateInterests();
+	}
+
 	@Override
 	public void onWriteReady() {
 		assert write != null;
@@ -426,7 +544,7 @@ public final class AsyncTcpSocketImpl implements AsyncTcpSocket, NioChannelEvent
 			close(e);
 			return;
 		}
-		if (writeBuf == null) {
+		if (isWriteComplete()) {
 			SettablePromise<Void> write = this.write;
 			this.write = null;
 			write.set(null);
@@ -437,28 +555,12 @@ public final class AsyncTcpSocketImpl implements AsyncTcpSocket, NioChannelEvent
 
 	private void doWrite() throws IOException {
 		assert channel != null;
-		if (writeBuf != null) {
-			ByteBuf buf = this.writeBuf;
-			ByteBuffer buffer = buf.toReadByteBuffer();
-
-			try {
-				channel.write(buffer);
-			} catch (IOException e) {
-				if (inspector != null) inspector.onWriteError(e);
-				throw e;
-			}
-
-			if (inspector != null) inspector.onWrite(buf, buffer.position() - buf.head());
-
-			buf.ofReadByteBuffer(buffer);
-
-			if (buf.canRead()) {
-				return;
-			} else {
-				buf.recycle();
-				writeBuf = null;
-			}
+		while (!writeQueue.isEmpty()) {
+			int n = Math.min(writeQueue.remainingBufs(), MAX_GATHERED_BUFS);
+			boolean complete = n == 1 ? doWrite(writeQueue.peekBuf()) : doWrite(n);
+			if (!complete) return;
 		}
+		if (writeFile != null && !doWriteFile()) return;
 
 		scheduledWriteTimeout = nullify(scheduledWriteTimeout, ScheduledRunnable::cancel);
 
@@ -471,13 +573,120 @@ public final class AsyncTcpSocketImpl implements AsyncTcpSocket, NioChannelEvent
 		}
 	}
 
+	private boolean doWrite(ByteBuf buf) throws IOException {
+		assert channel != null;
+		ByteBuffer buffer = buf.toReadByteBuffer();
+
+		try {
+			channel.write(buffer);
+		} catch (IOException e) {
+			if (inspector != null) inspector.onWriteError(e);
+			throw e;
+		}
+
+		if (inspector != null) inspector.onWrite(buf.readRemaining(), buffer.position() - buf.head());
+
+		buf.ofReadByteBuffer(buffer);
+
+		if (buf.canRead()) {
+			return false;
+		}
+		recycleWritten();
+		return true;
+	}
+
+	private boolean doWrite(int n) throws IOException {
+		assert channel != null;
+		if (writeBuffers == null) {
+			writeBuffers = new ByteBuffer[MAX_GATHERED_BUFS];
+		}
+		ByteBuffer[] buffers = writeBuffers;
+		int remaining = 0;
+		for (int i = 0; i < n; i++) {
+			ByteBuf buf = writeQueue.peekBuf(i);
+			buffers[i] = buf.toReadByteBuffer();
+			remaining += buf.readRemaining();
+		}
+
+		long bytes;
+		try {
+			bytes = channel.write(buffers, 0, n);
+		} catch (IOException e) {
+			Arrays.fill(buffers, 0, n, null);
+			if (inspector != null) inspector.onWriteError(e);
+			throw e;
+		}
+
+		if (inspector != null) inspector.onWrite(remaining, (int) bytes);
+
+		for (int i = 0; i < n; i++) {
+			ByteBuf buf = writeQueue.peekBuf();
+			assert buf != null;
+			buf.ofReadByteBuffer(buffers[i]);
+			buffers[i] = null;
+			if (buf.canRead()) {
+				Arrays.fill(buffers, i + 1, n, null);
+				return false;
+			}
+			recycleWritten();
+		}
+		return true;
+	}
+
+	private boolean doWriteFile() throws IOException {
+		assert channel != null && writeFile != null;
+		long bytes;
+		try {
+			bytes = writeFile.transferTo(writeFilePosition, writeFileRemaining, channel);
+			if (bytes == 0 && writeFilePosition >= writeFile.size()) {
+				throw new IOException("Unexpected end of file");
+			}
+		} catch (IOException e) {
+			if (inspector != null) inspector.onWriteError(e);
+			throw e;
+		}
+
+		if (inspector != null) inspector.onWrite((int) Math.min(writeFileRemaining, Integer.MAX_VALUE), (int) bytes);
+
+		writeFilePosition += bytes;
+		writeFileRemaining -= bytes;
+		if (writeFileRemaining != 0) {
+			return false;
+		}
+		writeFile = null;
+		return true;
+	}
+
+	private boolean isWriteComplete() {
+		return writeQueue.isEmpty() && writeFile == null;
+	}
+
+	private void recycleWritten() {
+		ByteBuf buf = writeQueue.take();
+		if (buf == writeCopyBuf) {
+			writeCopyBuf = null;
+		}
+		buf.recycle();
+	}
+
 	@Override
 	public void close(@NotNull Throwable e) {
 		assert eventloop.inEventloopThread();
 		if (channel == null) return;
-		doClose();
+		if (writeCoalescing && e == CLOSE_EXCEPTION && !writeQueue.isEmpty()) {
+			// writes of the current tick are flushed before the socket is closed gracefully
+			try {
+				doWrite();
+			} catch (IOException ignored) {
+			}
+		}
+		if (channel != null) {
+			doClose();
+		}
 		readBuf = nullify(readBuf, ByteBuf::recycle);
-		writeBuf = nullify(writeBuf, ByteBuf::recycle);
+		writeQueue.recycle();
+		writeCopyBuf = null;
+		writeFile = null;
 		scheduledReadTimeout = nullify(scheduledReadTimeout, ScheduledRunnable::cancel);
 		scheduledWriteTimeout = nullify(scheduledWriteTimeout, ScheduledRunnable::cancel);
 		read = nullify(read, SettablePromise::setException, e);
@@ -503,7 +712,7 @@ public final class AsyncTcpSocketImpl implements AsyncTcpSocket, NioChannelEvent
 		return "AsyncTcpSocketImpl{" +
 				"channel=" + (channel != null ? channel : "") +
 				", readBuf=" + readBuf +
-				", writeBuf=" + writeBuf +
+				", writeQueue=" + writeQueue +
 				", readEndOfStream=" + readEndOfStream +
 				", writeEndOfStream=" + writeEndOfStream +
 				", read=" + read +
@@ -23,10 +23,16 @@ import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.List;
 
+import static io.datakernel.eventloop.net.PlatformSocketOptions.isReusePortSupported;
+
 /**
  * It is a simple balancer server, which dispatches its connections to its {@link WorkerServer WorkerServers}.
  * <p>
  * When an incoming connection takes place, it forwards the request to one of them with a round-robin algorithm.
+ * <p>
+ * Alternatively, in SO_REUSEPORT mode, each of its worker servers listens on addresses of this server
+ * with its own server sockets, and incoming connections are distributed between them by the kernel.
+ * Worker servers should be {@link AbstractServer AbstractServers}, which are started on their own.
  */
 public final class PrimaryServer extends AbstractServer<PrimaryServer> {
 
@@ -34,6 +40,8 @@ public final class PrimaryServer extends AbstractServer<PrimaryServer> {
 
 	private int currentAcceptor = -1; // first server index is currentAcceptor + 1
 
+	private boolean reusePort;
+
 	// region builders
 	private PrimaryServer(Eventloop primaryEventloop, WorkerServer[] workerServers) {
 		super(primaryEventloop);
@@ -58,6 +66,22 @@ public final class PrimaryServer extends AbstractServer<PrimaryServer> {
 	public static PrimaryServer create(Eventloop primaryEventloop, WorkerServer... workerServer) {
 		return new PrimaryServer(primaryEventloop, workerServer);
 	}
+
+	/**
+	 * Enables SO_REUSEPORT mode, in which worker servers accept connections themselves.
+	 * Requires JDK 9+ and a platform which supports SO_REUSEPORT,
+	 * otherwise connections are accepted by this server and distributed between worker servers as usual.
+	 *
+	 * @see io.datakernel.eventloop.net.PlatformSocketOptions#isReusePortSupported()
+	 */
+	public PrimaryServer withReusePort(boolean reusePort) {
+		if (reusePort && !isReusePortSupported()) {
+			logger.warn("SO_REUSEPORT is not supported on this platform, connections are accepted by primary server");
+			reusePort = false;
+		}
+		this.reusePort = reusePort;
+		return this;
+	}
 	// endregion
 
 	@Override
@@ -71,6 +95,11 @@ public final class PrimaryServer extends AbstractServer<PrimaryServer> {
 		return workerServers[currentAcceptor];
 	}
 
+	@Override
+	boolean isReusePort() {
+		return reusePort;
+	}
+
 	@Override
 	public String toString() {
 		return "PrimaryServer{" +
@@ -78,6 +107,7 @@ public final class PrimaryServer extends AbstractServer<PrimaryServer> {
 				(listenAddresses.isEmpty() ? "" : ", listenAddresses=" + listenAddresses) +
 				(sslListenAddresses.isEmpty() ? "" : ", sslListenAddresses=" + sslListenAddresses) +
 				(acceptOnce ? ", acceptOnce" : "") +
+				(reusePort ? ", reusePort" : "") +
 				", workerServers=" + Arrays.toString(workerServers) +
 				'}';
 	}
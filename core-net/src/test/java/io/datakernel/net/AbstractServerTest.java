@@ -19,6 +19,7 @@ package io.datakernel.net;
 import io.datakernel.bytebuf.ByteBuf;
 import io.datakernel.bytebuf.ByteBufStrings;
 import io.datakernel.eventloop.net.SocketSettings;
+import io.datakernel.net.AsyncTcpSocketImpl.JmxInspector;
 import io.datakernel.test.rules.ByteBufRule;
 import io.datakernel.test.rules.EventloopRule;
 import org.junit.ClassRule;
@@ -33,6 +34,7 @@ import static io.datakernel.promise.Promises.repeat;
 import static io.datakernel.promise.TestUtils.await;
 import static java.nio.charset.StandardCharsets.UTF_8;
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
 
 public final class AbstractServerTest {
 	@ClassRule
@@ -73,4 +75,29 @@ public final class AbstractServerTest {
 
 		assertEquals(message, response.asString(UTF_8));
 	}
+
+	@Test
+	public void testSocketInspector() throws IOException {
+		String message = "Hello!";
+		InetSocketAddress address = new InetSocketAddress("localhost", 5588);
+		JmxInspector inspector = new JmxInspector();
+
+		SimpleServer server = SimpleServer.create(socket ->
+				socket.write(ByteBufStrings.wrapAscii(message))
+						.whenComplete(socket::close))
+				.withSocketInspector(inspector)
+				.withListenAddress(address)
+				.withAcceptOnce();
+		server.listen();
+
+		ByteBuf response = await(AsyncTcpSocketImpl.connect(address)
+				.then(socket -> socket.read()
+						.whenComplete(socket::close)));
+
+		assertEquals(message, response.asString(UTF_8));
+		assertSame(inspector, server.getSocketStats());
+		inspector.getWritesZeroCopy().refresh(System.currentTimeMillis());
+		assertEquals(1, inspector.getWritesZeroCopy().getCount());
+		assertEquals(message.length(), inspector.getWritesZeroCopy().getAverage(), 0.0);
+	}
 }
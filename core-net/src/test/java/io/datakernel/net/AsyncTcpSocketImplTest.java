@@ -0,0 +1,154 @@
+/*
+ * Copyright (C) 2015-2018 SoftIndex LLC.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package io.datakernel.net;
+
+import io.datakernel.bytebuf.ByteBuf;
+import io.datakernel.bytebuf.ByteBufQueue;
+import io.datakernel.eventloop.net.SocketSettings;
+import io.datakernel.net.AsyncTcpSocketImpl.JmxInspector;
+import io.datakernel.promise.Promise;
+import io.datakernel.promise.Promises;
+import io.datakernel.test.rules.ByteBufRule;
+import io.datakernel.test.rules.EventloopRule;
+import org.junit.ClassRule;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+
+import static io.datakernel.bytebuf.ByteBufStrings.wrapAscii;
+import static io.datakernel.promise.TestUtils.await;
+import static java.nio.charset.StandardCharsets.UTF_8;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public final class AsyncTcpSocketImplTest {
+	@ClassRule
+	public static final EventloopRule eventloopRule = new EventloopRule();
+
+	@ClassRule
+	public static final ByteBufRule byteBufRule = new ByteBufRule();
+
+	@Rule
+	public final TemporaryFolder tmpFolder = new TemporaryFolder();
+
+	private static final int SMALL_WRITES = 1000;
+	private static final int LARGE_WRITES = 100;
+	private static final int LARGE_WRITE_SIZE = 100_000;
+
+	@Test
+	public void testWriteCoalescing() throws IOException {
+		InetSocketAddress address = new InetSocketAddress("localhost", 5589);
+		JmxInspector inspector = new JmxInspector();
+		StringBuilder expected = new StringBuilder();
+		List<String> messages = new ArrayList<>();
+		for (int i = 0; i < SMALL_WRITES; i++) {
+			String message = "message #" + i + "\n";
+			messages.add(message);
+			expected.append(message);
+			if (i % (SMALL_WRITES / LARGE_WRITES) == 0) {
+				String large = largeMessage(i);
+				messages.add(large);
+				expected.append(large);
+			}
+		}
+
+		SimpleServer.create(socket -> {
+			((AsyncTcpSocketImpl) socket).withInspector(inspector);
+			List<Promise<Void>> writes = new ArrayList<>();
+			for (String message : messages) {
+				writes.add(socket.write(wrapAscii(message)));
+			}
+			writes.add(socket.write(null));
+			Promises.all(writes)
+					.whenComplete(($, e) -> assertTrue(writes.stream().allMatch(write -> write == writes.get(0))));
+		})
+				.withSocketSettings(SocketSettings.create().withImplWriteCoalescing(true))
+				.withListenAddress(address)
+				.withAcceptOnce()
+				.listen();
+
+		ByteBuf response = await(AsyncTcpSocketImpl.connect(address)
+				.then(socket -> readAll(socket, new ByteBufQueue())
+						.whenComplete(socket::close)));
+
+		assertEquals(expected.toString(), response.asString(UTF_8));
+
+		long now = System.currentTimeMillis();
+		inspector.getWritesCopied().refresh(now);
+		inspector.getWritesZeroCopy().refresh(now);
+		// the first message is queued as is, since nothing is queued before it
+		assertEquals(SMALL_WRITES - 1, inspector.getWritesCopied().getCount());
+		assertEquals(LARGE_WRITES + 1, inspector.getWritesZeroCopy().getCount());
+		assertEquals(LARGE_WRITES * LARGE_WRITE_SIZE + messages.get(0).length(),
+				inspector.getWritesZeroCopy().getAverage() * inspector.getWritesZeroCopy().getCount(), 1e-6);
+	}
+
+	@Test
+	public void testWriteFile() throws IOException {
+		InetSocketAddress address = new InetSocketAddress("localhost", 5590);
+		String content = largeMessage(0) + largeMessage(1) + largeMessage(2) + largeMessage(3);
+		Path path = tmpFolder.newFile("file.txt").toPath();
+		Files.write(path, content.getBytes(UTF_8));
+		int offset = 10;
+		int count = content.length() - 20;
+		FileChannel file = FileChannel.open(path);
+
+		SimpleServer.create(socket -> {
+			AsyncTcpSocketImpl socketImpl = (AsyncTcpSocketImpl) socket;
+			socketImpl.write(wrapAscii("header\n"));
+			socketImpl.writeFile(file, offset, count)
+					.then($ -> socketImpl.write(wrapAscii("\ntrailer")))
+					.then($ -> socketImpl.write(null));
+		})
+				.withListenAddress(address)
+				.withAcceptOnce()
+				.listen();
+
+		ByteBuf response = await(AsyncTcpSocketImpl.connect(address)
+				.then(socket -> readAll(socket, new ByteBufQueue())
+						.whenComplete(socket::close)));
+		file.close();
+
+		assertEquals("header\n" + content.substring(offset, offset + count) + "\ntrailer", response.asString(UTF_8));
+	}
+
+	private static Promise<ByteBuf> readAll(AsyncTcpSocket socket, ByteBufQueue queue) {
+		return socket.read()
+				.then(buf -> {
+					if (buf == null) return Promise.of(queue.takeRemaining());
+					queue.add(buf);
+					return readAll(socket, queue);
+				});
+	}
+
+	private static String largeMessage(int n) {
+		StringBuilder sb = new StringBuilder();
+		while (sb.length() < LARGE_WRITE_SIZE) {
+			sb.append((char) ('a' + n % 26));
+			n++;
+		}
+		return sb.toString();
+	}
+}
@@ -0,0 +1,143 @@
+/*
+ * Copyright (C) 2015-2019 SoftIndex LLC.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package io.datakernel.net;
+
+import io.datakernel.bytebuf.ByteBuf;
+import io.datakernel.eventloop.Eventloop;
+import io.datakernel.test.rules.ByteBufRule;
+import io.datakernel.test.rules.EventloopRule;
+import org.junit.ClassRule;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.net.InetSocketAddress;
+import java.util.ArrayList;
+import java.util.List;
+
+import static io.datakernel.bytebuf.ByteBufStrings.wrapAscii;
+import static io.datakernel.eventloop.net.PlatformSocketOptions.isReusePortSupported;
+import static io.datakernel.promise.TestUtils.await;
+import static java.nio.charset.StandardCharsets.UTF_8;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assume.assumeFalse;
+import static org.junit.Assume.assumeTrue;
+
+public final class PrimaryServerTest {
+	@ClassRule
+	public static final EventloopRule eventloopRule = new EventloopRule();
+
+	@ClassRule
+	public static final ByteBufRule byteBufRule = new ByteBufRule();
+
+	private static final int WORKERS = 2;
+	private static final int CONNECTIONS = 20;
+
+	@Test
+	public void testRoundRobin() throws Exception {
+		long[] accepts = serve(5591, false);
+		for (long workerAccepts : accepts) {
+			assertEquals(CONNECTIONS / WORKERS, workerAccepts);
+		}
+	}
+
+	@Test
+	public void testReusePort() throws Exception {
+		assumeTrue("SO_REUSEPORT is not supported", isReusePortSupported());
+		long[] accepts = serve(5592, true);
+		long total = 0;
+		for (long workerAccepts : accepts) {
+			assertTrue(workerAccepts > 0);
+			total += workerAccepts;
+		}
+		assertEquals(CONNECTIONS, total);
+	}
+
+	@Test
+	public void testReusePortNotSupported() throws Exception {
+		assumeFalse("SO_REUSEPORT is supported", isReusePortSupported());
+		// connections are accepted by primary server
+		long[] accepts = serve(5593, true);
+		for (long workerAccepts : accepts) {
+			assertEquals(CONNECTIONS / WORKERS, workerAccepts);
+		}
+	}
+
+	private static long[] serve(int port, boolean reusePort) throws Exception {
+		InetSocketAddress address = new InetSocketAddress("localhost", port);
+		Eventloop clientEventloop = Eventloop.getCurrentEventloop();
+
+		List<SimpleServer> workerServers = new ArrayList<>();
+		for (int i = 0; i < WORKERS; i++) {
+			Eventloop.create().withCurrentThread();
+			workerServers.add(SimpleServer.create(socket -> socket.write(wrapAscii("ok")).whenComplete(socket::close)));
+		}
+		Eventloop primaryEventloop = Eventloop.create().withCurrentThread();
+		PrimaryServer primaryServer = PrimaryServer.create(primaryEventloop, workerServers)
+				.withListenAddress(address)
+				.withReusePort(reusePort);
+		clientEventloop.withCurrentThread();
+
+		List<Thread> threads = new ArrayList<>();
+		for (SimpleServer workerServer : workerServers) {
+			threads.add(start(workerServer));
+		}
+		threads.add(start(primaryServer));
+
+		for (int i = 0; i < CONNECTIONS; i++) {
+			ByteBuf response = await(AsyncTcpSocketImpl.connect(address)
+					.then(socket -> socket.read()
+							.whenComplete(socket::close)));
+			assertEquals("ok", response.asString(UTF_8));
+		}
+
+		stop(primaryServer);
+		long[] accepts = new long[WORKERS];
+		for (int i = 0; i < WORKERS; i++) {
+			SimpleServer workerServer = workerServers.get(i);
+			stop(workerServer);
+			workerServer.getAccepts().refresh(System.currentTimeMillis());
+			accepts[i] = workerServer.getAccepts().getTotalCount();
+		}
+		for (Thread thread : threads) {
+			thread.join();
+		}
+		return accepts;
+	}
+
+	private static Thread start(AbstractServer<?> server) throws Exception {
+		Eventloop eventloop = server.getEventloop();
+		eventloop.keepAlive(true);
+		Thread thread = new Thread(eventloop);
+		thread.start();
+		eventloop.submit(() -> {
+			try {
+				server.listen();
+			} catch (IOException e) {
+				throw new UncheckedIOException(e);
+			}
+		}).get();
+		return thread;
+	}
+
+	private static void stop(AbstractServer<?> server) throws Exception {
+		Eventloop eventloop = server.getEventloop();
+		eventloop.submit(server::close).get();
+		eventloop.keepAlive(false);
+	}
+}
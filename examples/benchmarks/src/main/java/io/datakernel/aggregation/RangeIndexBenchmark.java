@@ -0,0 +1,100 @@
+package io.datakernel.aggregation;
+
+import org.openjdk.jmh.annotations.*;
+import org.openjdk.jmh.infra.Blackhole;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.Options;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+import org.openjdk.jmh.runner.options.TimeValue;
+
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Compares {@link RangeTree} with {@link IntervalTree} on chunk-like ranges of single-long primary keys
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+public class RangeIndexBenchmark {
+	private static final int KEY_STEP = 10;
+	private static final int MAX_RANGE = 50;
+	private static final int QUERY_RANGE = 100;
+
+	@Param({"100000", "1000000"})
+	public int chunks;
+
+	@Param({"RangeTree", "IntervalTree", "IntervalTreeLongKeys"})
+	public String index;
+
+	private PrimaryKey[] lowers;
+	private PrimaryKey[] uppers;
+	private RangeIndex<PrimaryKey, Integer> rangeIndex;
+	private final Random random = new Random(0);
+
+	@Setup
+	public void setup() {
+		lowers = new PrimaryKey[chunks];
+		uppers = new PrimaryKey[chunks];
+		for (int i = 0; i < chunks; i++) {
+			long lower = (long) i * KEY_STEP + random.nextInt(KEY_STEP);
+			lowers[i] = PrimaryKey.ofArray(lower);
+			uppers[i] = PrimaryKey.ofArray(lower + random.nextInt(MAX_RANGE));
+		}
+		rangeIndex = createIndex();
+		for (int i = 0; i < chunks; i++) {
+			rangeIndex.put(lowers[i], uppers[i], i);
+		}
+	}
+
+	private RangeIndex<PrimaryKey, Integer> createIndex() {
+		switch (index) {
+			case "RangeTree":
+				return RangeTree.create();
+			case "IntervalTree":
+				return IntervalTree.create();
+			case "IntervalTreeLongKeys":
+				return IntervalTree.createWithLongKeys(key -> (long) key.get(0));
+			default:
+				throw new IllegalArgumentException(index);
+		}
+	}
+
+	@Benchmark
+	@BenchmarkMode(Mode.SingleShotTime)
+	@OutputTimeUnit(TimeUnit.MILLISECONDS)
+	public void putAll(Blackhole blackhole) {
+		RangeIndex<PrimaryKey, Integer> rangeIndex = createIndex();
+		for (int i = 0; i < chunks; i++) {
+			rangeIndex.put(lowers[i], uppers[i], i);
+		}
+		blackhole.consume(rangeIndex);
+	}
+
+	@Benchmark
+	public void removeAndPut(Blackhole blackhole) {
+		int i = random.nextInt(chunks);
+		blackhole.consume(rangeIndex.remove(lowers[i], uppers[i], i));
+		rangeIndex.put(lowers[i], uppers[i], i);
+	}
+
+	@Benchmark
+	public void getRange(Blackhole blackhole) {
+		long lower = (long) random.nextInt(chunks) * KEY_STEP;
+		blackhole.consume(rangeIndex.getRange(PrimaryKey.ofArray(lower), PrimaryKey.ofArray(lower + QUERY_RANGE)));
+	}
+
+	public static void main(String[] args) throws RunnerException {
+		Options opt = new OptionsBuilder()
+				.include(RangeIndexBenchmark.class.getSimpleName())
+				.forks(1)
+				.warmupIterations(3)
+				.warmupTime(TimeValue.seconds(1L))
+				.measurementIterations(5)
+				.measurementTime(TimeValue.seconds(2L))
+				.build();
+
+		new Runner(opt).run();
+	}
+}
@@ -0,0 +1,73 @@
+package io.datakernel.eventloop;
+
+import org.openjdk.jmh.annotations.*;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.Options;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+import org.openjdk.jmh.runner.options.TimeValue;
+
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Compares priority queues of {@link Eventloop} with timer wheels under a workload of socket timeouts,
+ * where each read or write of a connection cancels its timeout and schedules a new one.
+ * <p>
+ * Each invocation advances the clock by one millisecond, reschedules timeouts of random connections
+ * and runs a single iteration of the eventloop, which executes expired timeouts.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@OperationsPerInvocation(TimeoutChurnBenchmark.RESCHEDULES_PER_TICK)
+public class TimeoutChurnBenchmark {
+	static final int RESCHEDULES_PER_TICK = 1000;
+	private static final long TIMEOUT = 1000;
+
+	@Param({"200000"})
+	public int connections;
+
+	@Param({"false", "true"})
+	public boolean timerWheel;
+
+	private final Random random = new Random(0);
+	private final Runnable noop = () -> {};
+	private long currentTime = 1_570_000_000_000L;
+	private Eventloop eventloop;
+	private ScheduledRunnable[] timeouts;
+
+	@Setup
+	public void setup() {
+		eventloop = Eventloop.create(() -> currentTime).withCurrentThread().withTimerWheel(timerWheel);
+		timeouts = new ScheduledRunnable[connections];
+		for (int i = 0; i < connections; i++) {
+			timeouts[i] = eventloop.delayBackground(random.nextInt((int) TIMEOUT), noop);
+		}
+	}
+
+	@Benchmark
+	public void rescheduleTimeouts() {
+		currentTime++;
+		for (int i = 0; i < RESCHEDULES_PER_TICK; i++) {
+			int connection = random.nextInt(connections);
+			timeouts[connection].cancel();
+			timeouts[connection] = eventloop.delayBackground(TIMEOUT, noop);
+		}
+		eventloop.post(noop);
+		eventloop.run();
+	}
+
+	public static void main(String[] args) throws RunnerException {
+		Options opt = new OptionsBuilder()
+				.include(TimeoutChurnBenchmark.class.getSimpleName())
+				.forks(2)
+				.warmupIterations(3)
+				.warmupTime(TimeValue.seconds(1L))
+				.measurementIterations(5)
+				.measurementTime(TimeValue.seconds(2L))
+				.build();
+
+		new Runner(opt).run();
+	}
+}
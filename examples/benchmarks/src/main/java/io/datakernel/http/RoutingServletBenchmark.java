@@ -0,0 +1,92 @@
+package io.datakernel.http;
+
+import io.datakernel.promise.Promise;
+import org.openjdk.jmh.annotations.*;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.Options;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+import org.openjdk.jmh.runner.options.TimeValue;
+
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures routing of requests by {@link RoutingServlet} with a REST-like API of many routes,
+ * where each resource has a collection route, an item route with a path parameter, and a few nested routes.
+ * <p>
+ * Requests are created in advance, so that only routing itself is measured,
+ * including decoding of path parameters of a matched route.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@OperationsPerInvocation(RoutingServletBenchmark.REQUESTS_PER_INVOCATION)
+public class RoutingServletBenchmark {
+	static final int REQUESTS_PER_INVOCATION = 1000;
+	private static final String[] NESTED = {"comments", "history", "permissions", "tags"};
+
+	@Param({"20", "2000"})
+	public int routes;
+
+	@Param({"false", "true"})
+	public boolean parameters;
+
+	private final Random random = new Random(0);
+	private RoutingServlet servlet;
+	private HttpRequest[] requests;
+	private int[] positions;
+
+	@Setup
+	public void setup() {
+		Promise<HttpResponse> response = Promise.of(HttpResponse.ok200());
+		AsyncServlet ok = request -> response;
+
+		servlet = RoutingServlet.create();
+		int resources = routes / (2 + NESTED.length);
+		for (int i = 0; i < resources; i++) {
+			String resource = "/api/v1/resource" + i;
+			servlet.map(HttpMethod.GET, resource, ok);
+			servlet.map(HttpMethod.GET, resource + "/:id", ok);
+			for (String nested : NESTED) {
+				servlet.map(HttpMethod.GET, resource + "/:id/" + nested, ok);
+			}
+		}
+
+		requests = new HttpRequest[REQUESTS_PER_INVOCATION];
+		positions = new int[REQUESTS_PER_INVOCATION];
+		for (int i = 0; i < REQUESTS_PER_INVOCATION; i++) {
+			String resource = "/api/v1/resource" + random.nextInt(resources);
+			String path = parameters ?
+					resource + "/" + random.nextInt(1_000_000) + "/" + NESTED[random.nextInt(NESTED.length)] :
+					resource;
+			requests[i] = HttpRequest.get("http://127.0.0.1" + path + "?query=string");
+			positions[i] = requests[i].getPos();
+		}
+		servlet.serve(requests[0]);
+	}
+
+	@Benchmark
+	public int route() {
+		int result = 0;
+		for (int i = 0; i < REQUESTS_PER_INVOCATION; i++) {
+			HttpRequest request = requests[i];
+			request.setPos(positions[i]);
+			result += servlet.serve(request).getResult().getCode();
+		}
+		return result;
+	}
+
+	public static void main(String[] args) throws RunnerException {
+		Options opt = new OptionsBuilder()
+				.include(RoutingServletBenchmark.class.getSimpleName())
+				.forks(2)
+				.warmupIterations(3)
+				.warmupTime(TimeValue.seconds(1L))
+				.measurementIterations(5)
+				.measurementTime(TimeValue.seconds(2L))
+				.build();
+
+		new Runner(opt).run();
+	}
+}
@@ -40,13 +40,16 @@ public class Initializers {
 	}
 
 	public static Initializer<PrimaryServer> ofPrimaryServer(Config config) {
-		return ofAbstractServer(config);
+		return server -> server
+				.initialize(ofAbstractServer(config))
+				.withReusePort(config.get(ofBoolean(), "reusePort", false));
 	}
 
 	public static Initializer<Eventloop> ofEventloop(Config config) {
 		return eventloop -> eventloop
 				.withFatalErrorHandler(config.get(ofFatalErrorHandler(), "fatalErrorHandler", eventloop.getFatalErrorHandler()))
 				.withIdleInterval(config.get(ofDuration(), "idleInterval", eventloop.getIdleInterval()))
+				.withTimerWheel(config.get(ofBoolean(), "timerWheel", eventloop.isTimerWheel()))
 				.withThreadPriority(config.get(ofInteger(), "threadPriority", eventloop.getThreadPriority()));
 	}
 
@@ -70,6 +73,12 @@ public class Initializers {
 		return server -> server
 				.withKeepAliveTimeout(config.get(ofDuration(), "keepAliveTimeout", server.getKeepAliveTimeout()))
 				.withReadWriteTimeout(config.get(ofDuration(), "readWriteTimeout", server.getReadWriteTimeout()))
+				.withMaxPipelinedRequests(config.get(ofInteger(), "maxPipelinedRequests", server.getMaxPipelinedRequests()))
+				.withHttp2(config.get(ofBoolean(), "http2", server.isHttp2()))
+				.withHttp2MaxConcurrentStreams(config.get(ofInteger(), "http2MaxConcurrentStreams", server.getHttp2MaxConcurrentStreams()))
+				.withHttp2MaxResets(config.get(ofInteger(), "http2MaxResets", server.getHttp2MaxResets()),
+						config.get(ofDuration(), "http2ResetsInterval", server.getHttp2ResetsInterval()))
+				.withHttp2InitialWindowSize(config.get(ofMemSize(), "http2InitialWindowSize", server.getHttp2InitialWindowSize()))
 				.withMaxBodySize(config.get(ofMemSize(), "maxBodySize", MemSize.ZERO));
 	}
 